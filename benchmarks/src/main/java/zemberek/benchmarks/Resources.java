@@ -0,0 +1,48 @@
+package zemberek.benchmarks;
+
+import com.google.common.collect.Lists;
+import zemberek.core.io.ResourceUtil;
+import zemberek.core.io.SimpleTextWriter;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Resource helpers for benchmarks.
+ */
+public class Resources {
+
+    /**
+     * Bundled sample corpus. It contains about a thousand news sentences, one sentence per line.
+     * Benchmark inputs are generated from it, so results of different versions are comparable.
+     * It is a copy of tokenizer/Sentence-Boundary-Test.txt test resource of the tokenization module, because test
+     * resources of other modules are not packaged to the benchmark jar. Keep both files same if one of them changes.
+     */
+    public static final String SAMPLE_CORPUS = "corpus/sample-tr.txt";
+
+    public static List<String> readAllLines(Iterable<String> resources) throws IOException {
+        List<String> lines = Lists.newArrayList();
+        for (String resource : resources) {
+            lines.addAll(ResourceUtil.readAllLines(resource, Resources.class.getClassLoader()));
+        }
+        return lines;
+    }
+
+    /**
+     * @return sentences of the sample corpus.
+     */
+    public static List<String> sampleSentences() throws IOException {
+        return ResourceUtil.readAllLines(SAMPLE_CORPUS, Resources.class.getClassLoader());
+    }
+
+    /**
+     * Writes sentences to a temporary file for the APIs that require a file.
+     */
+    public static File temporaryFile(List<String> sentences) throws IOException {
+        File file = File.createTempFile("sample-corpus", ".txt");
+        file.deleteOnExit();
+        SimpleTextWriter.oneShotUTF8Writer(file).writeLines(sentences);
+        return file;
+    }
+}
@@ -0,0 +1,124 @@
+package zemberek.benchmarks.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import zemberek.core.hash.CompactMphf;
+import zemberek.core.hash.IntHashKeyProvider;
+import zemberek.core.hash.MultiLevelMphf;
+
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * MultiLevelMphf and CompactMphf look-ups of 3 int keys, such as the tri-gram keys of a language model.
+ * Keys are random but generated with a fixed seed.
+ * java -jar target/zemberek-benchmarks.jar MphfBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MphfBenchmark {
+
+    static final int KEY_COUNT = 1000000;
+    static final int LOOKUP_COUNT = 10000;
+
+    MultiLevelMphf mphf;
+    CompactMphf compactMphf;
+    int[][] lookups = new int[LOOKUP_COUNT][];
+
+    @Setup
+    public void setup() {
+        Random random = new Random(0xBEEF);
+        Set<Key> keySet = new LinkedHashSet<>();
+        while (keySet.size() < KEY_COUNT) {
+            keySet.add(new Key(random.nextInt(50000), random.nextInt(50000), random.nextInt(50000)));
+        }
+        final int[][] keys = new int[KEY_COUNT][];
+        int i = 0;
+        for (Key key : keySet) {
+            keys[i++] = key.data;
+        }
+        IntHashKeyProvider keyProvider = new IntHashKeyProvider() {
+            @Override
+            public int[] getKey(int index) {
+                return keys[index];
+            }
+
+            @Override
+            public int keyAmount() {
+                return keys.length;
+            }
+        };
+        mphf = MultiLevelMphf.generate(keyProvider);
+        compactMphf = CompactMphf.generate(keyProvider);
+        for (int j = 0; j < LOOKUP_COUNT; j++) {
+            lookups[j] = keys[random.nextInt(KEY_COUNT)];
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LOOKUP_COUNT)
+    public void get(Blackhole bh) {
+        for (int[] key : lookups) {
+            bh.consume(mphf.get(key));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LOOKUP_COUNT)
+    public void getWithFingerPrint(Blackhole bh) {
+        for (int[] key : lookups) {
+            bh.consume(mphf.get(key, 0, key.length, MultiLevelMphf.hash(key, -1)));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LOOKUP_COUNT)
+    public void compactGet(Blackhole bh) {
+        for (int[] key : lookups) {
+            bh.consume(compactMphf.get(key));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LOOKUP_COUNT)
+    public void compactGetWithFingerPrint(Blackhole bh) {
+        for (int[] key : lookups) {
+            bh.consume(compactMphf.get(key, 0, key.length, MultiLevelMphf.hash(key, -1)));
+        }
+    }
+
+    private static class Key {
+        final int[] data;
+
+        Key(int... data) {
+            this.data = data;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Key && Arrays.equals(data, ((Key) o).data);
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(data);
+        }
+    }
+}
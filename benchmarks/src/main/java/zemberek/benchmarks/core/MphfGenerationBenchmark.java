@@ -0,0 +1,81 @@
+package zemberek.benchmarks.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import zemberek.core.hash.IntHashKeyProvider;
+import zemberek.core.hash.MultiLevelMphf;
+
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * MultiLevelMphf generation for 3 int keys with serial and concurrent hash seed search.
+ * Generated MPHFs are identical for all thread counts, so scores only differ in speed.
+ * Keys are random but generated with a fixed seed.
+ * java -jar target/zemberek-benchmarks.jar MphfGenerationBenchmark -p threads=1,4,16
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class MphfGenerationBenchmark {
+
+    static final int KEY_COUNT = 4000000;
+
+    // 1 means serial generation.
+    @Param({"1", "2", "4", "8", "16"})
+    int threads;
+
+    IntHashKeyProvider keyProvider;
+    ExecutorService executor;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(0xBEEF);
+        // keys are distinct because first values are distinct.
+        final int[][] keys = new int[KEY_COUNT][];
+        for (int i = 0; i < KEY_COUNT; i++) {
+            keys[i] = new int[]{i, random.nextInt(50000), random.nextInt(50000)};
+        }
+        keyProvider = new IntHashKeyProvider() {
+            @Override
+            public int[] getKey(int index) {
+                return keys[index];
+            }
+
+            @Override
+            public int keyAmount() {
+                return keys.length;
+            }
+        };
+        if (threads > 1)
+            executor = Executors.newFixedThreadPool(threads);
+    }
+
+    @TearDown
+    public void tearDown() {
+        if (executor != null)
+            executor.shutdown();
+    }
+
+    @Benchmark
+    public MultiLevelMphf generate() {
+        if (executor == null)
+            return MultiLevelMphf.generate(keyProvider);
+        return MultiLevelMphf.generate(keyProvider, executor);
+    }
+}
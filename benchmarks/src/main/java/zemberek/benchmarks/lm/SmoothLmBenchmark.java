@@ -0,0 +1,158 @@
+package zemberek.benchmarks.lm;
+
+import com.google.common.collect.Lists;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import zemberek.benchmarks.Resources;
+import zemberek.core.io.ResourceUtil;
+import zemberek.core.io.Strings;
+import zemberek.lm.LmVocabulary;
+import zemberek.lm.compression.SmoothLm;
+import zemberek.morphology.ambiguity.Z3MarkovModelDisambiguator;
+import zemberek.morphology.apps.TurkishMorphParser;
+import zemberek.morphology.apps.TurkishSentenceParser;
+import zemberek.morphology.parser.MorphParse;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * SmoothLm n-gram probability look-ups with and without a LookupCache or ConcurrentLookupCache. Model is the root language model of the
+ * morphological disambiguator. N-grams are the root sequences of the best parses of the sample corpus sentences,
+ * so hit and back-off ratios are close to the ones of the disambiguator.
+ * Model is either read to the heap or memory mapped, see the `loading` parameter.
+ * java -jar target/zemberek-benchmarks.jar SmoothLmBenchmark
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SmoothLmBenchmark {
+
+    static final int GRAM_COUNT = 10000;
+
+    // heap: model is read to the heap. mmap: model file is memory mapped.
+    @Param({"heap", "mmap"})
+    String loading;
+
+    SmoothLm lm;
+    SmoothLm.LookupCache cache;
+    SmoothLm.ConcurrentLookupCache sharedCache;
+    int[][] bigrams = new int[GRAM_COUNT][];
+    int[][] trigrams = new int[GRAM_COUNT][];
+    // same trigrams in a flat array, for batch scoring.
+    int[] flatTrigrams = new int[GRAM_COUNT * 3];
+    double[] scores = new double[GRAM_COUNT];
+
+    @Setup
+    public void setup() throws IOException {
+        try (InputStream is = ResourceUtil.getResource("tr/ambiguity/root-lm.z3.slm",
+                SmoothLmBenchmark.class.getClassLoader()).openStream()) {
+            if (loading.equals("mmap")) {
+                File lmFile = File.createTempFile("root-lm", ".slm");
+                lmFile.deleteOnExit();
+                java.nio.file.Files.copy(is, lmFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                lm = SmoothLm.Builder.mmap(lmFile.toPath()).build();
+            } else {
+                lm = SmoothLm.builder(is).build();
+            }
+        }
+        cache = new SmoothLm.LookupCache();
+        sharedCache = new SmoothLm.ConcurrentLookupCache();
+
+        TurkishSentenceParser parser = new TurkishSentenceParser(
+                TurkishMorphParser.createWithDefaults(),
+                new Z3MarkovModelDisambiguator());
+        LmVocabulary vocabulary = lm.getVocabulary();
+        List<Integer> ids = Lists.newArrayList();
+        for (String sentence : Resources.sampleSentences()) {
+            ids.add(vocabulary.getSentenceStartIndex());
+            for (MorphParse parse : parser.bestParse(sentence)) {
+                ids.add(vocabulary.indexOf(rootKey(parse)));
+            }
+            ids.add(vocabulary.getSentenceEndIndex());
+        }
+        for (int i = 0; i < GRAM_COUNT; i++) {
+            int k = i % (ids.size() - 2);
+            bigrams[i] = new int[]{ids.get(k), ids.get(k + 1)};
+            trigrams[i] = new int[]{ids.get(k), ids.get(k + 1), ids.get(k + 2)};
+            System.arraycopy(trigrams[i], 0, flatTrigrams, i * 3, 3);
+        }
+    }
+
+    // same root key format with Z3MarkovModelDisambiguator.
+    private static String rootKey(MorphParse parse) {
+        String rootPart = parse.dictionaryItem.lemma;
+        MorphParse.InflectionalGroup firstIg = parse.inflectionalGroups.get(0);
+        String s = firstIg.formatNoSurface();
+        if (firstIg.suffixList.size() == 0)
+            rootPart += s;
+        else if (Strings.subStringAfterFirst(s, ";").equals("A3sg+Pnon+Nom)"))
+            rootPart += (Strings.subStringUntilFirst(s, ";") + ")");
+        return rootPart;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(GRAM_COUNT)
+    public void bigram(Blackhole bh) {
+        for (int[] bigram : bigrams) {
+            bh.consume(lm.getProbability(bigram));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(GRAM_COUNT)
+    public void trigram(Blackhole bh) {
+        for (int[] trigram : trigrams) {
+            bh.consume(lm.getProbability(trigram));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(GRAM_COUNT)
+    public void trigramBatch(Blackhole bh) {
+        lm.getProbabilities(3, flatTrigrams, GRAM_COUNT, scores);
+        bh.consume(scores);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(GRAM_COUNT)
+    public void bigramWithCache(Blackhole bh) {
+        for (int[] bigram : bigrams) {
+            bh.consume(lm.getProbability(cache, bigram));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(GRAM_COUNT)
+    public void trigramWithCache(Blackhole bh) {
+        for (int[] trigram : trigrams) {
+            bh.consume(lm.getProbability(cache, trigram));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(GRAM_COUNT)
+    public void trigramWithSharedCache(Blackhole bh) {
+        for (int[] trigram : trigrams) {
+            bh.consume(lm.getProbability(sharedCache, trigram));
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package zemberek.benchmarks.morphology;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import zemberek.benchmarks.Resources;
+import zemberek.morphology.ambiguity.Z3MarkovModelDisambiguator;
+import zemberek.morphology.apps.TurkishMorphParser;
+import zemberek.morphology.apps.TurkishSentenceParser;
+import zemberek.morphology.parser.SentenceMorphParse;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Disambiguation throughput of Z3MarkovModelDisambiguator. Sentences of the sample corpus are parsed once in setup,
+ * so only decoding is measured. Beam size 0 is Viterbi decoding, others are beam search.
+ * java -jar target/zemberek-benchmarks.jar DisambiguationBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DisambiguationBenchmark {
+
+    static final int SENTENCE_COUNT = 500;
+
+    @Param({"0", "1", "4", "16"})
+    int beamSize;
+
+    Z3MarkovModelDisambiguator disambiguator;
+    List<SentenceMorphParse> parses;
+
+    @Setup
+    public void setup() throws IOException {
+        disambiguator = new Z3MarkovModelDisambiguator();
+        TurkishSentenceParser sentenceParser =
+                new TurkishSentenceParser(TurkishMorphParser.createWithDefaults(), disambiguator);
+        parses = sentenceParser.parseAll(Resources.sampleSentences().subList(0, SENTENCE_COUNT));
+        disambiguator.setBeamSize(beamSize);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SENTENCE_COUNT)
+    public void disambiguate(Blackhole bh) {
+        for (SentenceMorphParse parse : parses) {
+            disambiguator.disambiguate(parse);
+            bh.consume(parse);
+        }
+    }
+}
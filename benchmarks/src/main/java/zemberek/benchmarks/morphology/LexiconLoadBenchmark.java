@@ -0,0 +1,69 @@
+package zemberek.benchmarks.morphology;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import zemberek.benchmarks.Resources;
+import zemberek.morphology.lexicon.RootLexicon;
+import zemberek.morphology.lexicon.graph.DynamicLexiconGraph;
+import zemberek.morphology.lexicon.graph.LexiconSnapshot;
+import zemberek.morphology.lexicon.tr.TurkishDictionaryLoader;
+import zemberek.morphology.lexicon.tr.TurkishSuffixes;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares lexicon graph generation from default text dictionaries with loading it from a binary snapshot.
+ * Each measurement is a cold load in a single shot. Such as:
+ * java -jar target/zemberek-benchmarks.jar LexiconLoadBenchmark -prof gc
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class LexiconLoadBenchmark {
+
+    File snapshot;
+
+    @Setup
+    public void setup() throws IOException {
+        snapshot = File.createTempFile("lexicon", ".snapshot");
+        LexiconSnapshot.save(fromTextDictionaries(), snapshot);
+    }
+
+    @TearDown
+    public void tearDown() {
+        snapshot.delete();
+    }
+
+    private static DynamicLexiconGraph fromTextDictionaries() throws IOException {
+        TurkishSuffixes suffixProvider = new TurkishSuffixes();
+        RootLexicon lexicon = new TurkishDictionaryLoader(suffixProvider).load(
+                Resources.readAllLines(TurkishDictionaryLoader.DEFAULT_DICTIONARY_RESOURCES));
+        DynamicLexiconGraph graph = new DynamicLexiconGraph(suffixProvider);
+        graph.addDictionaryItems(lexicon);
+        return graph;
+    }
+
+    @Benchmark
+    public DynamicLexiconGraph textDictionaries() throws IOException {
+        return fromTextDictionaries();
+    }
+
+    @Benchmark
+    public DynamicLexiconGraph snapshot() throws IOException {
+        return LexiconSnapshot.load(snapshot, new TurkishSuffixes());
+    }
+}
@@ -0,0 +1,112 @@
+package zemberek.benchmarks.morphology;
+
+import com.google.common.collect.Lists;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import zemberek.benchmarks.Resources;
+import zemberek.morphology.apps.MorphCache;
+import zemberek.morphology.apps.TurkishMorphParser;
+import zemberek.morphology.lexicon.RootLexicon;
+import zemberek.morphology.lexicon.SuffixProvider;
+import zemberek.morphology.lexicon.graph.DynamicLexiconGraph;
+import zemberek.morphology.lexicon.tr.TurkishDictionaryLoader;
+import zemberek.morphology.lexicon.tr.TurkishSuffixes;
+import zemberek.morphology.parser.SimpleParser;
+import zemberek.morphology.parser.TrieBasedParser;
+import zemberek.tokenizer.ZemberekLexer;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Word parse throughput of morphological parsers on the words of the sample corpus.
+ * Cached TurkishMorphParser benchmark only measures cache hits, because all words are loaded to the cache in setup.
+ * java -jar target/zemberek-benchmarks.jar MorphParserBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MorphParserBenchmark {
+
+    static final int WORD_COUNT = 5000;
+
+    SimpleParser simpleParser;
+    TrieBasedParser trieBasedParser;
+    TurkishMorphParser cachedParser;
+    TurkishMorphParser uncachedParser;
+    String[] words;
+
+    @Setup
+    public void setup() throws IOException {
+        SuffixProvider suffixProvider = new TurkishSuffixes();
+        RootLexicon lexicon = new TurkishDictionaryLoader(suffixProvider).load(
+                Resources.readAllLines(TurkishDictionaryLoader.DEFAULT_DICTIONARY_RESOURCES));
+        DynamicLexiconGraph graph = new DynamicLexiconGraph(suffixProvider);
+        graph.addDictionaryItems(lexicon);
+        simpleParser = new SimpleParser(graph);
+        trieBasedParser = new TrieBasedParser(graph);
+
+        uncachedParser = TurkishMorphParser.builder().addDefaultDictionaries().build();
+        cachedParser = TurkishMorphParser.builder()
+                .addDefaultDictionaries()
+                .addCache(WORD_COUNT * 2, MorphCache.EvictionPolicy.LRU)
+                .build();
+
+        ZemberekLexer lexer = new ZemberekLexer();
+        List<String> wordList = Lists.newArrayList();
+        for (String sentence : Resources.sampleSentences()) {
+            for (String token : lexer.tokenStrings(sentence)) {
+                if (wordList.size() < WORD_COUNT)
+                    wordList.add(uncachedParser.normalize(token));
+            }
+        }
+        words = wordList.toArray(new String[wordList.size()]);
+        cachedParser.getCache().warmUp(wordList);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(WORD_COUNT)
+    public void simpleParser(Blackhole bh) {
+        for (String word : words) {
+            bh.consume(simpleParser.parse(word));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(WORD_COUNT)
+    public void trieBasedParser(Blackhole bh) {
+        for (String word : words) {
+            bh.consume(trieBasedParser.parse(word));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(WORD_COUNT)
+    public void turkishMorphParserCached(Blackhole bh) {
+        for (String word : words) {
+            bh.consume(cachedParser.parse(word));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(WORD_COUNT)
+    public void turkishMorphParserUncached(Blackhole bh) {
+        for (String word : words) {
+            bh.consume(uncachedParser.parse(word));
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package zemberek.benchmarks.morphology;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import zemberek.benchmarks.Resources;
+import zemberek.morphology.ambiguity.Z3MarkovModelDisambiguator;
+import zemberek.morphology.apps.TurkishMorphParser;
+import zemberek.morphology.apps.TurkishSentenceParser;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sentence parse and disambiguation throughput on the sample corpus sentences.
+ * java -jar target/zemberek-benchmarks.jar SentenceParserBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SentenceParserBenchmark {
+
+    static final int SENTENCE_COUNT = 200;
+
+    TurkishSentenceParser sentenceParser;
+    List<String> sentences;
+
+    @Setup
+    public void setup() throws IOException {
+        TurkishMorphParser morphParser = TurkishMorphParser.createWithDefaults();
+        sentenceParser = new TurkishSentenceParser(morphParser, new Z3MarkovModelDisambiguator());
+        sentences = Resources.sampleSentences().subList(0, SENTENCE_COUNT);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SENTENCE_COUNT)
+    public void bestParse(Blackhole bh) {
+        for (String sentence : sentences) {
+            bh.consume(sentenceParser.bestParse(sentence));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SENTENCE_COUNT)
+    public void parse(Blackhole bh) {
+        for (String sentence : sentences) {
+            bh.consume(sentenceParser.parse(sentence));
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package zemberek.benchmarks.morphology;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import zemberek.benchmarks.Resources;
+import zemberek.core.io.ResourceUtil;
+import zemberek.morphology.lexicon.RootLexicon;
+import zemberek.morphology.lexicon.SuffixProvider;
+import zemberek.morphology.lexicon.graph.DynamicLexiconGraph;
+import zemberek.morphology.lexicon.tr.TurkishDictionaryLoader;
+import zemberek.morphology.lexicon.tr.TurkishSuffixes;
+import zemberek.morphology.parser.SimpleParser;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares ParseToken based suffix traversal of SimpleParser with the index based traversal.
+ * Use "-prof gc" option to see allocation rates. Such as:
+ * java -jar target/zemberek-benchmarks.jar SuffixTraversalBenchmark -prof gc
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SuffixTraversalBenchmark {
+
+    static final int WORD_COUNT = 2000;
+
+    SimpleParser tokenParser;
+    SimpleParser indexedParser;
+    String[] words;
+
+    @Setup
+    public void setup() throws IOException {
+        SuffixProvider suffixProvider = new TurkishSuffixes();
+        RootLexicon lexicon = new TurkishDictionaryLoader(suffixProvider).load(
+                Resources.readAllLines(TurkishDictionaryLoader.DEFAULT_DICTIONARY_RESOURCES));
+        DynamicLexiconGraph graph = new DynamicLexiconGraph(suffixProvider);
+        graph.addDictionaryItems(lexicon);
+        tokenParser = new SimpleParser(graph, false);
+        indexedParser = new SimpleParser(graph, true);
+        List<String> lines = ResourceUtil.readAllLines("tr/top-20K-words.txt", SuffixTraversalBenchmark.class.getClassLoader());
+        words = lines.subList(0, WORD_COUNT).toArray(new String[WORD_COUNT]);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(WORD_COUNT)
+    public void tokenTraversal(Blackhole bh) {
+        for (String word : words) {
+            bh.consume(tokenParser.parse(word));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(WORD_COUNT)
+    public void indexedTraversal(Blackhole bh) {
+        for (String word : words) {
+            bh.consume(indexedParser.parse(word));
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package zemberek.benchmarks.tokenization;
+
+import com.google.common.base.Joiner;
+import com.google.common.collect.Lists;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import zemberek.benchmarks.Resources;
+import zemberek.tokenizer.PerceptronSentenceBoundaryDetector;
+import zemberek.tokenizer.ZemberekLexer;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tokenization and sentence boundary detection throughput on the sample corpus, in milliseconds per corpus pass.
+ * Sentence boundary detector is trained with the first half of the sample corpus in setup and sentence boundaries
+ * are found on the second half, so the detector does not see the benchmarked sentences during training.
+ * java -jar target/zemberek-benchmarks.jar TokenizationBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TokenizationBenchmark {
+
+    ZemberekLexer lexer;
+    PerceptronSentenceBoundaryDetector sentenceBoundaryDetector;
+    List<String> sentences;
+    // second half of the sample corpus as paragraphs of 10 sentences.
+    List<String> paragraphs = Lists.newArrayList();
+
+    @Setup
+    public void setup() throws IOException {
+        lexer = new ZemberekLexer();
+        sentences = Resources.sampleSentences();
+        int split = sentences.size() / 2;
+        sentenceBoundaryDetector = new PerceptronSentenceBoundaryDetector.Trainer(
+                Resources.temporaryFile(sentences.subList(0, split)), 5).train();
+        for (List<String> paragraph : Lists.partition(sentences.subList(split, sentences.size()), 10)) {
+            paragraphs.add(Joiner.on(" ").join(paragraph));
+        }
+    }
+
+    @Benchmark
+    public void tokenStrings(Blackhole bh) {
+        for (String sentence : sentences) {
+            bh.consume(lexer.tokenStrings(sentence));
+        }
+    }
+
+    @Benchmark
+    public void getSentences(Blackhole bh) {
+        for (String paragraph : paragraphs) {
+            bh.consume(sentenceBoundaryDetector.getSentences(paragraph));
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package zemberek.core;
+
+import java.util.Arrays;
+
+/**
+ * An open addressing hash map with long keys and float values. It is designed for hashed feature weights, so keys are
+ * spread before probing and no objects are created for entries.
+ * <p/>Keys 0 and Long.MIN_VALUE are reserved for empty and deleted slots, they cannot be used.
+ */
+public class LongFloatMap {
+    private static final int INITIAL_SIZE = 8;
+    private static final double LOAD_FACTOR = 0.6;
+    private static final long EMPTY = 0;
+    private static final long DELETED = Long.MIN_VALUE;
+
+    // Array length is a value power of two, so we can use x & modulo instead of
+    // x % size to calculate the slot
+    private int modulo = INITIAL_SIZE - 1;
+
+    private long[] keys;
+    private float[] values;
+
+    int keyCount;
+
+    // amount of slots that are not empty. It includes deleted slots.
+    int usedSlotCount;
+
+    // When structure has this amount of used slots, it expands the key and value arrays.
+    int threshold = (int) (INITIAL_SIZE * LOAD_FACTOR);
+
+    public LongFloatMap() {
+        this(INITIAL_SIZE);
+    }
+
+    public LongFloatMap(int size) {
+        int k = INITIAL_SIZE;
+        while (k < size)
+            k <<= 1;
+        keys = new long[k];
+        values = new float[k];
+        threshold = (int) (k * LOAD_FACTOR);
+        modulo = k - 1;
+    }
+
+    private int firstProbe(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & modulo;
+    }
+
+    private int nextProbe(int previousIndex, int probeCount) {
+        return (previousIndex + probeCount) & modulo;
+    }
+
+    private void checkKey(long key) {
+        if (key == EMPTY || key == DELETED)
+            throw new IllegalArgumentException("Key cannot be 0 or Long.MIN_VALUE: " + key);
+    }
+
+    private int locate(long key) {
+        int probeCount = 0;
+        int slot = firstProbe(key);
+        int pointer = -1;
+        while (true) {
+            final long k = keys[slot];
+            if (k == EMPTY) {
+                return pointer < 0 ? (-slot - 1) : (-pointer - 1);
+            }
+            if (k == DELETED) {
+                if (pointer < 0) {
+                    pointer = slot;
+                }
+                slot = nextProbe(slot, ++probeCount);
+                continue;
+            }
+            if (k == key)
+                return slot;
+            slot = nextProbe(slot, ++probeCount);
+        }
+    }
+
+    /**
+     * Returns the value for the key. If key does not exist, returns 0.
+     *
+     * @param key key
+     * @return value of the key
+     */
+    public float get(long key) {
+        checkKey(key);
+        int probeCount = 0;
+        int slot = firstProbe(key);
+        while (true) {
+            final long t = keys[slot];
+            if (t == EMPTY) {
+                return 0;
+            }
+            if (t == key) {
+                return values[slot];
+            }
+            slot = nextProbe(slot, ++probeCount);
+        }
+    }
+
+    public boolean containsKey(long key) {
+        checkKey(key);
+        return locate(key) >= 0;
+    }
+
+    public void remove(long key) {
+        checkKey(key);
+        int k = locate(key);
+        if (k < 0)
+            return;
+        keys[k] = DELETED;
+        keyCount--;
+    }
+
+    private void expand() {
+        // if most of the used slots are deleted, table is only cleaned.
+        int size = keyCount * 2 < usedSlotCount ? keys.length : keys.length * 2;
+        LongFloatMap h = new LongFloatMap(size);
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != EMPTY && keys[i] != DELETED) {
+                h.put(keys[i], values[i]);
+            }
+        }
+        assert (h.keyCount == keyCount);
+        this.values = h.values;
+        this.keys = h.keys;
+        this.keyCount = h.keyCount;
+        this.usedSlotCount = h.usedSlotCount;
+        this.modulo = h.modulo;
+        this.threshold = h.threshold;
+    }
+
+    public void put(long key, float value) {
+        checkKey(key);
+        if (usedSlotCount == threshold) {
+            expand();
+        }
+        int loc = locate(key);
+        if (loc >= 0) {
+            values[loc] = value;
+        } else {
+            loc = -loc - 1;
+            if (keys[loc] == EMPTY)
+                usedSlotCount++;
+            keys[loc] = key;
+            values[loc] = value;
+            keyCount++;
+        }
+    }
+
+    /**
+     * Adds `amount` to the value of the key. If key does not exist, it is added with the value `amount`.
+     *
+     * @return new value of the key.
+     */
+    public float increment(long key, float amount) {
+        checkKey(key);
+        int loc = locate(key);
+        if (loc >= 0) {
+            values[loc] += amount;
+            return values[loc];
+        }
+        put(key, amount);
+        return amount;
+    }
+
+    public int size() {
+        return keyCount;
+    }
+
+    /**
+     * @return a copy of the keys in the map. Order of the keys is not defined.
+     */
+    public long[] getKeys() {
+        long[] result = new long[keyCount];
+        int j = 0;
+        for (long key : keys) {
+            if (key != EMPTY && key != DELETED) {
+                result[j++] = key;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return a copy of the keys in the map, sorted.
+     */
+    public long[] getSortedKeys() {
+        long[] result = getKeys();
+        Arrays.sort(result);
+        return result;
+    }
+}
@@ -192,6 +192,14 @@ public class NgramCountMap {
             this.count = count;
         }
 
+        public int[] getIds() {
+            return ids;
+        }
+
+        public int getCount() {
+            return count;
+        }
+
         @Override
         public int compareTo(NgramCount o) {
             for (int i = 0; i < ids.length; i++) {
@@ -0,0 +1,527 @@
+package zemberek.core.hash;
+
+import zemberek.core.io.MappedDataInputStream;
+import zemberek.core.logging.Log;
+
+import java.io.*;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.util.Arrays;
+
+/**
+ * A compact Minimum Perfect Hash Function implementation based on PTHash algorithm of
+ * Pibiri and Trani's PTHash: Revisiting FCH Minimal Perfect Hashing (SIGIR 2021).
+ * <p/>
+ * Keys are distributed to buckets. 60% of the keys go to the first 30% of the buckets, so large buckets are placed
+ * while the table is mostly empty. For each bucket, larger buckets first, a pilot value is searched such that
+ * positions of the bucket keys calculated with the pilot are distinct and empty. Table has a little more slots than
+ * keys. Positions that are larger than the key count are mapped to the empty slots with a small remap array.
+ * <p/>
+ * Pilots are bit packed with the bit width that requires minimum space. Pilots that do not fit that width are stored
+ * as exceptions in a small sorted array.
+ * <p/>
+ * A look-up reads a single pilot value from the packed array. So most look-ups touch one cache line, different than
+ * MultiLevelMphf, where a look-up may visit more than one level. CompactMphf typically uses around 2.4-2.6 bits per key,
+ * but its generation is slower than MultiLevelMphf.
+ */
+public class CompactMphf implements Mphf {
+
+    // bucket amount is BUCKET_FACTOR * keyAmount / log2(keyAmount)
+    static final double BUCKET_FACTOR = 4;
+    // key count / table size.
+    static final double LOAD_FACTOR = 0.995;
+    // ratio of keys and buckets for the dense part of buckets.
+    static final long DENSE_KEY_RATIO = (long) (0.6 * (1L << 32));
+    static final double DENSE_BUCKET_RATIO = 0.3;
+    // if a pilot cannot be found under this limit, generation is restarted with a different hash seed.
+    static final int PILOT_LIMIT = 1 << 24;
+    static final int MAX_SEED = 100;
+
+    final int keyAmount;
+    final int tableSize;
+    final int bucketAmount;
+    final int denseBucketAmount;
+    final int seed;
+    // bit packed pilot values.
+    final int pilotBits;
+    final int pilotMask;
+    final LongBuffer pilots;
+    // pilots that do not fit to pilotBits. Bucket indexes are sorted.
+    final int[] exceptionBuckets;
+    final int[] exceptionPilots;
+    // empty slots for positions larger than key count.
+    final IntBuffer remap;
+
+    private CompactMphf(
+            int keyAmount,
+            int tableSize,
+            int bucketAmount,
+            int denseBucketAmount,
+            int seed,
+            int pilotBits,
+            LongBuffer pilots,
+            int[] exceptionBuckets,
+            int[] exceptionPilots,
+            IntBuffer remap) {
+        this.keyAmount = keyAmount;
+        this.tableSize = tableSize;
+        this.bucketAmount = bucketAmount;
+        this.denseBucketAmount = denseBucketAmount;
+        this.seed = seed;
+        this.pilotBits = pilotBits;
+        this.pilotMask = (int) ((1L << pilotBits) - 1);
+        this.pilots = pilots;
+        this.exceptionBuckets = exceptionBuckets;
+        this.exceptionPilots = exceptionPilots;
+        this.remap = remap;
+    }
+
+    public static CompactMphf generate(IntHashKeyProvider keyProvider) {
+        return new Generator(keyProvider).generate();
+    }
+
+    public static CompactMphf generate(File binaryKeyFile) throws IOException {
+        return generate(new ByteGramProvider(binaryKeyFile));
+    }
+
+    @Override
+    public int size() {
+        return keyAmount;
+    }
+
+    @Override
+    public int get(int[] key) {
+        return get(key, MultiLevelMphf.hash(key, -1));
+    }
+
+    @Override
+    public int get(int[] key, int hash) {
+        return position(hash, MultiLevelMphf.hash(key, seed));
+    }
+
+    @Override
+    public int get(long encodedKey, int order, int hash) {
+        return position(hash, MultiLevelMphf.hash(encodedKey, order, seed));
+    }
+
+    @Override
+    public int get(long encodedKey, int order) {
+        return get(encodedKey, order, MultiLevelMphf.hash(encodedKey, order, -1));
+    }
+
+    @Override
+    public int get(String key) {
+        return get(key, MultiLevelMphf.hash(key, -1));
+    }
+
+    @Override
+    public int get(String key, int hash) {
+        return position(hash, MultiLevelMphf.hash(key, seed));
+    }
+
+    @Override
+    public int get(int[] ngram, int begin, int end, int hash) {
+        return position(hash, MultiLevelMphf.hash(ngram, begin, end, seed));
+    }
+
+    private int position(int hash, int keyHash) {
+        int position = position(hash, keyHash, getPilot(bucket(hash, bucketAmount, denseBucketAmount)), tableSize);
+        return position < keyAmount ? position : remap.get(position - keyAmount);
+    }
+
+    private int getPilot(int bucket) {
+        long bitIndex = (long) bucket * pilotBits;
+        int wordIndex = (int) (bitIndex >>> 6);
+        int shift = (int) (bitIndex & 63);
+        long value = pilots.get(wordIndex) >>> shift;
+        if (shift + pilotBits > 64)
+            value |= pilots.get(wordIndex + 1) << (64 - shift);
+        int pilot = (int) value & pilotMask;
+        if (pilot == pilotMask)
+            return exceptionPilots[Arrays.binarySearch(exceptionBuckets, bucket)];
+        return pilot;
+    }
+
+    static int bucket(int hash, int bucketAmount, int denseBucketAmount) {
+        long h = (hash ^ ((long) hash << 31)) * 0x9E3779B97F4A7C15L;
+        int range = (int) (h >>> 32);
+        if ((h & 0xffffffffL) < DENSE_KEY_RATIO)
+            return reduce(range, denseBucketAmount);
+        else
+            return denseBucketAmount + reduce(range, bucketAmount - denseBucketAmount);
+    }
+
+    static int position(int hash, int keyHash, int pilot, int tableSize) {
+        long h = ((long) hash << 32) | (keyHash & 0xffffffffL);
+        return reduce((int) mix(h ^ (pilot * 0xC2B2AE3D27D4EB4FL)), tableSize);
+    }
+
+    // maps a 32 bit value to [0..n) without division.
+    private static int reduce(int value, int n) {
+        return (int) (((value & 0xffffffffL) * n) >>> 32);
+    }
+
+    // finalizer of MurmurHash3 64 bit.
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /**
+     * @return total bytes used for this structure. This is an average number and it adds 12 bytes per array as
+     * overhead
+     */
+    public long totalBytesUsed() {
+        return 7 * 4 + 12 + pilots.capacity() * 8L + 24 + exceptionBuckets.length * 8L + 12 + remap.capacity() * 4L;
+    }
+
+    @Override
+    public double averageBitsPerKey() {
+        return keyAmount == 0 ? 0 : ((double) totalBytesUsed() * 8) / keyAmount;
+    }
+
+    /**
+     * @return bit width of the packed pilot values.
+     */
+    public int getPilotBits() {
+        return pilotBits;
+    }
+
+    /**
+     * @return amount of pilots that do not fit the packed pilot bit width.
+     */
+    public int getExceptionCount() {
+        return exceptionBuckets.length;
+    }
+
+    @Override
+    public void serialize(File file) throws IOException {
+        try (BufferedOutputStream os = new BufferedOutputStream(new FileOutputStream(file), 1000000)) {
+            serialize(os);
+        }
+    }
+
+    /**
+     * A custom serializer.
+     * <p/>int key count
+     * <p/>int table size
+     * <p/>int bucket amount
+     * <p/>int dense bucket amount
+     * <p/>int hash seed
+     * <p/>int pilot bit width
+     * <p/>int pilot word count
+     * <p/>long[] bit packed pilots
+     * <p/>int exception count
+     * <p/>int[] exception bucket indexes
+     * <p/>int[] exception pilots
+     * <p/>int remap count
+     * <p/>int[] remap values
+     *
+     * @param os stream to serialize data.
+     * @throws java.io.IOException if an error occurs during file access.
+     */
+    @Override
+    public void serialize(OutputStream os) throws IOException {
+        DataOutputStream dos = new DataOutputStream(os);
+        dos.writeInt(keyAmount);
+        dos.writeInt(tableSize);
+        dos.writeInt(bucketAmount);
+        dos.writeInt(denseBucketAmount);
+        dos.writeInt(seed);
+        dos.writeInt(pilotBits);
+        dos.writeInt(pilots.capacity());
+        for (int i = 0; i < pilots.capacity(); i++) {
+            dos.writeLong(pilots.get(i));
+        }
+        dos.writeInt(exceptionBuckets.length);
+        for (int exceptionBucket : exceptionBuckets) {
+            dos.writeInt(exceptionBucket);
+        }
+        for (int exceptionPilot : exceptionPilots) {
+            dos.writeInt(exceptionPilot);
+        }
+        dos.writeInt(remap.capacity());
+        for (int i = 0; i < remap.capacity(); i++) {
+            dos.writeInt(remap.get(i));
+        }
+        dos.flush();
+    }
+
+    /**
+     * A custom deserializer.
+     *
+     * @param file file that contains serialized data.
+     * @return a new CompactMphf object.
+     * @throws java.io.IOException if an error occurs during file access.
+     */
+    public static CompactMphf deserialize(File file) throws IOException {
+        try (DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 100000))) {
+            return deserialize(dis);
+        }
+    }
+
+    /**
+     * A custom deserializer. If the stream is a MappedDataInputStream, pilot and remap arrays are memory mapped.
+     *
+     * @param dis input stream.
+     * @return a new CompactMphf object.
+     * @throws java.io.IOException if an error occurs during file access.
+     */
+    public static CompactMphf deserialize(DataInputStream dis) throws IOException {
+        int keyAmount = dis.readInt();
+        int tableSize = dis.readInt();
+        int bucketAmount = dis.readInt();
+        int denseBucketAmount = dis.readInt();
+        int seed = dis.readInt();
+        int pilotBits = dis.readInt();
+        int wordCount = dis.readInt();
+        LongBuffer pilots;
+        if (dis instanceof MappedDataInputStream) {
+            pilots = ((MappedDataInputStream) dis).map(wordCount * 8L).asLongBuffer();
+        } else {
+            long[] words = new long[wordCount];
+            for (int i = 0; i < wordCount; i++) {
+                words[i] = dis.readLong();
+            }
+            pilots = LongBuffer.wrap(words);
+        }
+        int exceptionCount = dis.readInt();
+        int[] exceptionBuckets = new int[exceptionCount];
+        for (int i = 0; i < exceptionCount; i++) {
+            exceptionBuckets[i] = dis.readInt();
+        }
+        int[] exceptionPilots = new int[exceptionCount];
+        for (int i = 0; i < exceptionCount; i++) {
+            exceptionPilots[i] = dis.readInt();
+        }
+        int remapCount = dis.readInt();
+        IntBuffer remap;
+        if (dis instanceof MappedDataInputStream) {
+            remap = ((MappedDataInputStream) dis).map(remapCount * 4L).asIntBuffer();
+        } else {
+            int[] values = new int[remapCount];
+            for (int i = 0; i < remapCount; i++) {
+                values[i] = dis.readInt();
+            }
+            remap = IntBuffer.wrap(values);
+        }
+        return new CompactMphf(
+                keyAmount,
+                tableSize,
+                bucketAmount,
+                denseBucketAmount,
+                seed,
+                pilotBits,
+                pilots,
+                exceptionBuckets,
+                exceptionPilots,
+                remap);
+    }
+
+    private static class Generator {
+
+        IntHashKeyProvider keyProvider;
+        int keyAmount;
+        int tableSize;
+        int bucketAmount;
+        int denseBucketAmount;
+
+        // fingerprint hash values of the keys, they do not depend on the seed.
+        int[] hashes;
+        // occupied slots of the last successful pilot search.
+        long[] taken;
+
+        Generator(IntHashKeyProvider keyProvider) {
+            this.keyProvider = keyProvider;
+        }
+
+        CompactMphf generate() {
+            keyAmount = keyProvider.keyAmount();
+            tableSize = Math.max(keyAmount, (int) Math.min(Integer.MAX_VALUE, (long) Math.ceil(keyAmount / LOAD_FACTOR)));
+            double log2 = Math.max(1, Math.log(keyAmount) / Math.log(2));
+            bucketAmount = (int) Math.max(1, Math.ceil(BUCKET_FACTOR * keyAmount / log2));
+            denseBucketAmount = Math.max(1, (int) (bucketAmount * DENSE_BUCKET_RATIO));
+            if (denseBucketAmount == bucketAmount)
+                bucketAmount++;
+
+            hashes = new int[keyAmount];
+            for (int i = 0; i < keyAmount; i++) {
+                hashes[i] = MultiLevelMphf.hash(keyProvider.getKey(i), -1);
+            }
+
+            for (int seed = 1; seed <= MAX_SEED; seed++) {
+                int[] pilots = searchPilots(seed);
+                if (pilots != null) {
+                    return encode(seed, pilots);
+                }
+                Log.debug("Pilot search failed with seed %d. Trying with next seed.", seed);
+            }
+            throw new IllegalStateException("Cannot generate MPHF. Keys may not be unique.");
+        }
+
+        // returns pilot values for buckets. Null if a pilot cannot be found for a bucket with this seed.
+        private int[] searchPilots(int seed) {
+            // key hashes grouped by buckets.
+            int[] bucketStarts = new int[bucketAmount + 1];
+            int[] keyBuckets = new int[keyAmount];
+            for (int i = 0; i < keyAmount; i++) {
+                keyBuckets[i] = bucket(hashes[i], bucketAmount, denseBucketAmount);
+                bucketStarts[keyBuckets[i] + 1]++;
+            }
+            int maxBucketSize = 0;
+            for (int i = 0; i < bucketAmount; i++) {
+                maxBucketSize = Math.max(maxBucketSize, bucketStarts[i + 1]);
+                bucketStarts[i + 1] += bucketStarts[i];
+            }
+            int[] fill = Arrays.copyOf(bucketStarts, bucketAmount);
+            long[] keyHashes = new long[keyAmount];
+            for (int i = 0; i < keyAmount; i++) {
+                int keyHash = MultiLevelMphf.hash(keyProvider.getKey(i), seed);
+                keyHashes[fill[keyBuckets[i]]++] = ((long) hashes[i] << 32) | (keyHash & 0xffffffffL);
+            }
+
+            // keys with same hash values cannot be placed with any pilot.
+            for (int i = 0; i < bucketAmount; i++) {
+                Arrays.sort(keyHashes, bucketStarts[i], bucketStarts[i + 1]);
+                for (int j = bucketStarts[i] + 1; j < bucketStarts[i + 1]; j++) {
+                    if (keyHashes[j] == keyHashes[j - 1])
+                        return null;
+                }
+            }
+
+            // order buckets larger to smaller. Buckets with same size stay in index order.
+            int[] sizeStarts = new int[maxBucketSize + 2];
+            for (int i = 0; i < bucketAmount; i++) {
+                sizeStarts[maxBucketSize - (bucketStarts[i + 1] - bucketStarts[i]) + 1]++;
+            }
+            for (int i = 0; i <= maxBucketSize; i++) {
+                sizeStarts[i + 1] += sizeStarts[i];
+            }
+            int[] order = new int[bucketAmount];
+            for (int i = 0; i < bucketAmount; i++) {
+                order[sizeStarts[maxBucketSize - (bucketStarts[i + 1] - bucketStarts[i])]++] = i;
+            }
+
+            long[] taken = new long[(tableSize + 63) / 64];
+            int[] pilots = new int[bucketAmount];
+            int[] positions = new int[maxBucketSize];
+            for (int bucket : order) {
+                int begin = bucketStarts[bucket];
+                int size = bucketStarts[bucket + 1] - begin;
+                if (size == 0) // because buckets are sorted, we can finish here.
+                    break;
+                int pilot = 0;
+                while (!fits(keyHashes, begin, size, pilot, taken, positions)) {
+                    pilot++;
+                    if (pilot == PILOT_LIMIT)
+                        return null;
+                }
+                for (int i = 0; i < size; i++) {
+                    taken[positions[i] >>> 6] |= 1L << (positions[i] & 63);
+                }
+                pilots[bucket] = pilot;
+            }
+            this.taken = taken;
+            return pilots;
+        }
+
+        // index of the first value that is not less than `value`.
+        private static int lowerBound(int[] sorted, long value) {
+            int low = 0;
+            int high = sorted.length;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (sorted[mid] < value)
+                    low = mid + 1;
+                else
+                    high = mid;
+            }
+            return low;
+        }
+
+        private boolean fits(long[] keyHashes, int begin, int size, int pilot, long[] taken, int[] positions) {
+            for (int i = 0; i < size; i++) {
+                long h = keyHashes[begin + i];
+                int position = position((int) (h >>> 32), (int) h, pilot, tableSize);
+                if ((taken[position >>> 6] & (1L << (position & 63))) != 0)
+                    return false;
+                for (int j = 0; j < i; j++) {
+                    if (positions[j] == position)
+                        return false;
+                }
+                positions[i] = position;
+            }
+            return true;
+        }
+
+        private CompactMphf encode(int seed, int[] pilots) {
+            // positions larger than key count are mapped to empty slots in order.
+            int[] remap = new int[tableSize - keyAmount];
+            int emptySlot = 0;
+            for (int i = keyAmount; i < tableSize; i++) {
+                if ((taken[i >>> 6] & (1L << (i & 63))) != 0) {
+                    while ((taken[emptySlot >>> 6] & (1L << (emptySlot & 63))) != 0)
+                        emptySlot++;
+                    remap[i - keyAmount] = emptySlot++;
+                }
+            }
+
+            // find the bit width with minimum total size. All ones value of the width marks an exception.
+            int[] sorted = pilots.clone();
+            Arrays.sort(sorted);
+            int bestBits = 32;
+            long bestSize = Long.MAX_VALUE;
+            for (int bits = 1; bits <= 32; bits++) {
+                long mask = (1L << bits) - 1;
+                long exceptions = bucketAmount - lowerBound(sorted, mask);
+                long size = (long) bucketAmount * bits + exceptions * 64;
+                if (size < bestSize) {
+                    bestSize = size;
+                    bestBits = bits;
+                }
+                if (exceptions == 0)
+                    break;
+            }
+
+            int exceptionCount = 0;
+            long mask = (1L << bestBits) - 1;
+            for (int pilot : pilots) {
+                if (pilot >= mask)
+                    exceptionCount++;
+            }
+            int[] exceptionBuckets = new int[exceptionCount];
+            int[] exceptionPilots = new int[exceptionCount];
+            long[] words = new long[(int) (((long) bucketAmount * bestBits + 63) / 64)];
+            int k = 0;
+            for (int i = 0; i < bucketAmount; i++) {
+                long value = pilots[i];
+                if (value >= mask) {
+                    exceptionBuckets[k] = i;
+                    exceptionPilots[k++] = pilots[i];
+                    value = mask;
+                }
+                long bitIndex = (long) i * bestBits;
+                int wordIndex = (int) (bitIndex >>> 6);
+                int shift = (int) (bitIndex & 63);
+                words[wordIndex] |= value << shift;
+                if (shift + bestBits > 64)
+                    words[wordIndex + 1] |= value >>> (64 - shift);
+            }
+            return new CompactMphf(
+                    keyAmount,
+                    tableSize,
+                    bucketAmount,
+                    denseBucketAmount,
+                    seed,
+                    bestBits,
+                    LongBuffer.wrap(words),
+                    exceptionBuckets,
+                    exceptionPilots,
+                    IntBuffer.wrap(remap));
+        }
+    }
+}
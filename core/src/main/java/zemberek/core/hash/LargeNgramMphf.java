@@ -1,9 +1,18 @@
 package zemberek.core.hash;
 
+import com.google.common.base.Throwables;
 import com.google.common.io.Files;
+import com.google.common.util.concurrent.MoreExecutors;
 import zemberek.core.logging.Log;
 
 import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * This is a MPHF implementation suitable for very large key sets.
@@ -60,34 +69,73 @@ public class LargeNgramMphf implements Mphf {
      * @throws java.io.IOException If an error occurs during file access.
      */
     public static LargeNgramMphf generate(File file, int chunkBits) throws IOException {
+        return generate(file, chunkBits, MoreExecutors.sameThreadExecutor());
+    }
+
+    /**
+     * Same as generate(File file, int chunkBits) but MPHFs of segments are generated as separate tasks in the executor.
+     * Result is same with the single threaded generation.
+     *
+     * @param file      binary key file
+     * @param chunkBits segment size in bits
+     * @param executor  executor for segment MPHF generation tasks.
+     * @return LargeNgramMphf fro the keys in the file
+     * @throws java.io.IOException If an error occurs during file access.
+     */
+    public static LargeNgramMphf generate(File file, int chunkBits, ExecutorService executor) throws IOException {
         File tmp = Files.createTempDir();
-        Splitter splitter = new Splitter(file, tmp, chunkBits);
+        final Splitter splitter = new Splitter(file, tmp, chunkBits);
         Log.info("Gram count: " + splitter.gramCount);
         Log.info("Segment count: " + splitter.pageCount);
         Log.info("Avrg segment size: " + (1 << splitter.pageBit));
         Log.info("Segmenting File...");
+        final long start = System.currentTimeMillis();
         splitter.split();
         int bucketBits = splitter.pageBit - 2;
         if (bucketBits <= 0)
             bucketBits = 1;
-        MultiLevelMphf[] mphfs = new MultiLevelMphf[splitter.pageCount];
-        int[] offsets = new int[splitter.pageCount];
-        int total = 0;
-        for (int i = 0; i < splitter.pageCount; i++) {
-            final ByteGramProvider keySegment = splitter.getKeySegment(i);
-            Log.debug("Segment key count: " + keySegment.keyAmount());
-            Log.debug("Segment bucket ratio: " + ((double) keySegment.keyAmount() / (1 << bucketBits)));
-            total += keySegment.keyAmount();
-            MultiLevelMphf mphf = MultiLevelMphf.generate(keySegment);
-            Log.info("MPHF is generated for segment %d with %d keys. Average bits per key: %.3f",
-                    i,
-                    mphf.size(),
-                    mphf.averageBitsPerKey());
-            mphfs[i] = mphf;
+        final int pageCount = splitter.pageCount;
+        final AtomicInteger completed = new AtomicInteger();
+        List<Future<MultiLevelMphf>> futures = new ArrayList<>(pageCount);
+        for (int i = 0; i < pageCount; i++) {
+            final int segment = i;
+            futures.add(executor.submit(new Callable<MultiLevelMphf>() {
+                @Override
+                public MultiLevelMphf call() throws IOException {
+                    final ByteGramProvider keySegment = splitter.getKeySegment(segment);
+                    Log.debug("Segment key count: " + keySegment.keyAmount());
+                    MultiLevelMphf mphf = MultiLevelMphf.generate(keySegment);
+                    Log.info("MPHF is generated for segment %d (%d of %d) with %d keys. Average bits per key: %.3f",
+                            segment,
+                            completed.incrementAndGet(),
+                            pageCount,
+                            mphf.size(),
+                            mphf.averageBitsPerKey());
+                    return mphf;
+                }
+            }));
+        }
+        MultiLevelMphf[] mphfs = new MultiLevelMphf[pageCount];
+        int[] offsets = new int[pageCount];
+        long total = 0;
+        for (int i = 0; i < pageCount; i++) {
+            try {
+                mphfs[i] = futures.get(i).get();
+            } catch (InterruptedException e) {
+                for (Future<MultiLevelMphf> future : futures) {
+                    future.cancel(true);
+                }
+                throw new IllegalStateException("Interrupted while generating segment MPHFs.", e);
+            } catch (ExecutionException e) {
+                Throwables.propagateIfPossible(e.getCause(), IOException.class);
+                throw new IllegalStateException("Error while generating segment MPHFs.", e.getCause());
+            }
+            total += mphfs[i].size();
             if (i > 0)
                 offsets[i] = offsets[i - 1] + mphfs[i - 1].size();
         }
-        Log.debug("Total processed keys:" + total);
+        long elapsed = Math.max(1, System.currentTimeMillis() - start);
+        Log.info("Total processed keys: %d in %d ms. %d keys per second.", total, elapsed, total * 1000 / elapsed);
         int maxMask = (1 << splitter.maxBit) - 1;
         int bucketMask = (1 << bucketBits) - 1;
         return new LargeNgramMphf(maxMask, bucketMask, splitter.pageShift, mphfs, offsets);
@@ -326,6 +374,7 @@ public class LargeNgramMphf implements Mphf {
 
     /**
      * A custom deserializer. Look serialization method document for the format.
+     * If the stream is a MappedDataInputStream, hash data of the segments is memory mapped.
      *
      * @param dis DataInputStream that contains serialized data.
      * @return a new ChdPerfectHash object.
@@ -1,12 +1,22 @@
 package zemberek.core.hash;
 
 import zemberek.core.bits.LongBitVector;
+import zemberek.core.io.MappedDataInputStream;
 import zemberek.core.logging.Log;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 /**
  * This is a Minimum Perfect Hash Function implementation (MPHF). A MPHF generates distinct integers for
@@ -41,7 +51,7 @@ public class MultiLevelMphf implements Mphf {
     final HashIndexes[] hashLevelData;
 
     public static MultiLevelMphf generate(IntHashKeyProvider keyProvider) {
-        BucketCalculator bc = new BucketCalculator(keyProvider);
+        BucketCalculator bc = new BucketCalculator(keyProvider, null);
         return new MultiLevelMphf(bc.calculate());
     }
 
@@ -49,6 +59,42 @@ public class MultiLevelMphf implements Mphf {
         return generate(new ByteGramProvider(binaryKeyFile));
     }
 
+    /**
+     * Generates the MPHF with concurrent hash seed search. Buckets are split into blocks and seeds of blocks are
+     * searched by executor tasks against the current slot occupancy. Calling thread accepts the seeds in bucket order
+     * and searches again if a seed collides with slots of a preceding bucket. So generated MPHF is identical to the
+     * one generated by generate(IntHashKeyProvider).
+     * keyProvider.getKey(int) must be safe for concurrent calls. This method should not be called from a task
+     * of the same executor.
+     *
+     * @param keyProvider key provider.
+     * @param executor    executor that runs seed search tasks. It is not shut down by this method.
+     */
+    public static MultiLevelMphf generate(IntHashKeyProvider keyProvider, ExecutorService executor) {
+        BucketCalculator bc = new BucketCalculator(keyProvider, executor);
+        return new MultiLevelMphf(bc.calculate());
+    }
+
+    /**
+     * Same as generate(IntHashKeyProvider, ExecutorService) with a new executor of `threadCount` threads.
+     */
+    public static MultiLevelMphf generate(IntHashKeyProvider keyProvider, int threadCount) {
+        if (threadCount < 1)
+            throw new IllegalArgumentException("Thread count must be positive. But it is " + threadCount);
+        if (threadCount == 1)
+            return generate(keyProvider);
+        ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+        try {
+            return generate(keyProvider, executor);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    public static MultiLevelMphf generate(File binaryKeyFile, ExecutorService executor) throws IOException {
+        return generate(new ByteGramProvider(binaryKeyFile), executor);
+    }
+
     private MultiLevelMphf(HashIndexes[] hashLevelData) {
         this.hashLevelData = hashLevelData;
     }
@@ -57,13 +103,18 @@ public class MultiLevelMphf implements Mphf {
         return hashLevelData[0].keyAmount;
     }
 
+    // seed values and failed indexes are buffers, so they can be on heap arrays or memory mapped file regions.
     private static class HashIndexes {
         final int keyAmount;
         final int bucketAmount;
-        final byte[] bucketHashSeedValues;
-        final int[] failedIndexes;
+        final ByteBuffer bucketHashSeedValues;
+        final IntBuffer failedIndexes;
 
         HashIndexes(int keyAmount, int bucketAmount, byte[] bucketHashSeedValues, int[] failedIndexes) {
+            this(keyAmount, bucketAmount, ByteBuffer.wrap(bucketHashSeedValues), IntBuffer.wrap(failedIndexes));
+        }
+
+        HashIndexes(int keyAmount, int bucketAmount, ByteBuffer bucketHashSeedValues, IntBuffer failedIndexes) {
             this.keyAmount = keyAmount;
             this.bucketAmount = bucketAmount;
             this.bucketHashSeedValues = bucketHashSeedValues;
@@ -71,7 +122,11 @@ public class MultiLevelMphf implements Mphf {
         }
 
         int getSeed(int fingerPrint) {
-            return (bucketHashSeedValues[fingerPrint % bucketAmount]) & 0xff;
+            return (bucketHashSeedValues.get(fingerPrint % bucketAmount)) & 0xff;
+        }
+
+        int getFailedIndex(int i) {
+            return failedIndexes.get(i);
         }
     }
 
@@ -138,13 +193,19 @@ public class MultiLevelMphf implements Mphf {
     private static class BucketCalculator {
 
         IntHashKeyProvider keyProvider;
+        // if null, seeds are searched by the calling thread.
+        ExecutorService executor;
         int keyAmount;
         double averageKeysPerBucket = 3.0;
         private static final int HASH_SEED_LIMIT = 255;
+        // levels with less buckets are searched by the calling thread.
+        private static final int MIN_CONCURRENT_BUCKET_AMOUNT = 4096;
+        private static final int MIN_BLOCK_SIZE = 64;
+        private static final int MAX_BLOCK_SIZE = 4096;
 
-
-        private BucketCalculator(IntHashKeyProvider keyProvider) {
+        private BucketCalculator(IntHashKeyProvider keyProvider, ExecutorService executor) {
             this.keyProvider = keyProvider;
+            this.executor = executor;
         }
 
         public HashIndexes[] calculate() {
@@ -181,20 +242,12 @@ public class MultiLevelMphf implements Mphf {
             return buckets;
         }
 
-        private void calculateIndexes(Bucket[] buckets, int keyAmount, List<HashIndexes> indexes) {
+        private LongBitVector searchSeeds(Bucket[] buckets, int keyAmount, byte[] hashSeedArray, List<Bucket> failedBuckets) {
 
             // generate a long bit vector with size of hash target size.
             LongBitVector bitVector = new LongBitVector(keyAmount, 100);
             bitVector.add(keyAmount, false);
 
-            byte[] hashSeedArray = new byte[buckets.length];
-            Arrays.fill(hashSeedArray, (byte) 0x01);
-
-
-            // we need to collect failed buckets (A failed bucket such that we cannot find empty slots for all bucket keys
-            // after 255 trials. )
-            List<Bucket> failedBuckets = new ArrayList<>(buckets.length / 20);
-
             // for each bucket, find a hash function that will map each key in it to an empty slot in bitVector.
             int bucketIndex = 0;
 
@@ -238,6 +291,206 @@ public class MultiLevelMphf implements Mphf {
                 }
                 bucketIndex++;
             }
+            return bitVector;
+        }
+
+        private LongBitVector searchSeedsConcurrently(
+                final Bucket[] buckets,
+                final int keyAmount,
+                byte[] hashSeedArray,
+                List<Bucket> failedBuckets) {
+
+            // Slot occupancy. Only the calling thread sets bits, search tasks read it. Bits are never cleared, so a
+            // task sees a subset of the occupancy of a bucket's turn. A seed rejected by a task is rejected in the
+            // bucket's turn as well.
+            final AtomicLongArray occupied = new AtomicLongArray((keyAmount + 63) / 64);
+
+            // because buckets are sorted, non empty buckets are at the beginning.
+            int bucketCount = 0;
+            while (bucketCount < buckets.length && buckets[bucketCount].keyIndexes.length > 0)
+                bucketCount++;
+
+            // Small blocks and a limited amount of pending blocks keep candidate seeds close to the current occupancy.
+            int processors = Runtime.getRuntime().availableProcessors();
+            int blockSize = Math.min(MAX_BLOCK_SIZE, Math.max(MIN_BLOCK_SIZE, bucketCount / (processors * 256)));
+            int maxPendingBlocks = processors * 2;
+
+            ArrayDeque<Future<SeedBlock>> pending = new ArrayDeque<>();
+            int submitted = 0;
+            int[] slots = new int[0];
+            int researched = 0;
+            try {
+                while (submitted < bucketCount || !pending.isEmpty()) {
+                    while (submitted < bucketCount && pending.size() < maxPendingBlocks) {
+                        final int begin = submitted;
+                        final int end = Math.min(bucketCount, begin + blockSize);
+                        pending.add(executor.submit(new Callable<SeedBlock>() {
+                            @Override
+                            public SeedBlock call() {
+                                return new SeedBlock(buckets, begin, end, keyAmount, occupied);
+                            }
+                        }));
+                        submitted = end;
+                    }
+                    SeedBlock block = pending.poll().get();
+                    int slotIndex = 0;
+                    for (int i = block.begin; i < block.end; i++) {
+                        Bucket bucket = buckets[i];
+                        int length = bucket.keyIndexes.length;
+                        int seed = block.seeds[i - block.begin];
+                        if (seed != 0) {
+                            if (isFree(occupied, block.slots, slotIndex, length)) {
+                                for (int j = slotIndex; j < slotIndex + length; j++) {
+                                    setBit(occupied, block.slots[j]);
+                                }
+                            } else {
+                                // a preceding bucket occupied one of the slots. Continue from the next seed.
+                                researched++;
+                                if (slots.length < length)
+                                    slots = new int[length];
+                                int[][] keys = getKeys(bucket);
+                                seed = searchSeed(keys, seed + 1, keyAmount, occupied, slots, 0);
+                                if (seed != 0) {
+                                    for (int j = 0; j < length; j++) {
+                                        setBit(occupied, slots[j]);
+                                    }
+                                }
+                            }
+                        }
+                        if (seed == 0) {
+                            failedBuckets.add(bucket);
+                            hashSeedArray[bucket.id] = 0;
+                        } else {
+                            hashSeedArray[bucket.id] = (byte) (seed & 0xff);
+                        }
+                        slotIndex += length;
+                    }
+                }
+            } catch (InterruptedException e) {
+                for (Future<SeedBlock> future : pending) {
+                    future.cancel(true);
+                }
+                throw new IllegalStateException("Interrupted while searching hash seeds.", e);
+            } catch (ExecutionException e) {
+                for (Future<SeedBlock> future : pending) {
+                    future.cancel(true);
+                }
+                throw new IllegalStateException("Error while searching hash seeds.", e.getCause());
+            }
+            if (Log.isDebug()) {
+                Log.debug("Buckets: %d, Searched again: %d", bucketCount, researched);
+            }
+
+            long[] words = new long[occupied.length()];
+            for (int i = 0; i < words.length; i++) {
+                words[i] = occupied.get(i);
+            }
+            return new LongBitVector(words, keyAmount);
+        }
+
+        private int[][] getKeys(Bucket bucket) {
+            int[][] keys = new int[bucket.keyIndexes.length][];
+            for (int i = 0; i < keys.length; i++) {
+                keys[i] = keyProvider.getKey(bucket.keyIndexes[i]);
+            }
+            return keys;
+        }
+
+        /**
+         * Searches the first seed starting from `firstSeed` that maps the keys to distinct and non occupied slots.
+         * Slots of the found seed are written to `slots` starting from `offset`.
+         *
+         * @return the seed or 0 if no seed is found up to HASH_SEED_LIMIT.
+         */
+        private static int searchSeed(
+                int[][] keys,
+                int firstSeed,
+                int keyAmount,
+                AtomicLongArray occupied,
+                int[] slots,
+                int offset) {
+            for (int l = firstSeed; l <= HASH_SEED_LIMIT; l++) {
+                int j = 0;
+                for (; j < keys.length; j++) {
+                    int slot = hash(keys[j], l) % keyAmount;
+                    if (getBit(occupied, slot) || contains(slots, offset, offset + j, slot))
+                        break;
+                    slots[offset + j] = slot;
+                }
+                if (j == keys.length)
+                    return l;
+            }
+            return 0;
+        }
+
+        private static boolean contains(int[] slots, int begin, int end, int slot) {
+            for (int i = begin; i < end; i++) {
+                if (slots[i] == slot)
+                    return true;
+            }
+            return false;
+        }
+
+        private static boolean isFree(AtomicLongArray occupied, int[] slots, int begin, int length) {
+            for (int i = begin; i < begin + length; i++) {
+                if (getBit(occupied, slots[i]))
+                    return false;
+            }
+            return true;
+        }
+
+        private static boolean getBit(AtomicLongArray bits, int n) {
+            return (bits.get(n >>> 6) & (1L << (n & 63))) != 0;
+        }
+
+        // only the calling thread sets bits, so no compare and set is necessary.
+        private static void setBit(AtomicLongArray bits, int n) {
+            int i = n >>> 6;
+            bits.set(i, bits.get(i) | (1L << (n & 63)));
+        }
+
+        /**
+         * Candidate seeds and their slots for a range of buckets. A seed value of 0 means no seed is found.
+         */
+        private class SeedBlock {
+            final int begin;
+            final int end;
+            final int[] seeds;
+            final int[] slots;
+
+            SeedBlock(Bucket[] buckets, int begin, int end, int keyAmount, AtomicLongArray occupied) {
+                this.begin = begin;
+                this.end = end;
+                seeds = new int[end - begin];
+                int slotCount = 0;
+                for (int i = begin; i < end; i++) {
+                    slotCount += buckets[i].keyIndexes.length;
+                }
+                slots = new int[slotCount];
+                int offset = 0;
+                for (int i = begin; i < end; i++) {
+                    int[][] keys = getKeys(buckets[i]);
+                    seeds[i - begin] = searchSeed(keys, 1, keyAmount, occupied, slots, offset);
+                    offset += keys.length;
+                }
+            }
+        }
+
+        private void calculateIndexes(Bucket[] buckets, int keyAmount, List<HashIndexes> indexes) {
+
+            byte[] hashSeedArray = new byte[buckets.length];
+            Arrays.fill(hashSeedArray, (byte) 0x01);
+
+
+            // we need to collect failed buckets (A failed bucket such that we cannot find empty slots for all bucket keys
+            // after 255 trials. )
+            List<Bucket> failedBuckets = new ArrayList<>(buckets.length / 20);
+
+            LongBitVector bitVector;
+            if (executor == null || buckets.length < MIN_CONCURRENT_BUCKET_AMOUNT)
+                bitVector = searchSeeds(buckets, keyAmount, hashSeedArray, failedBuckets);
+            else
+                bitVector = searchSeedsConcurrently(buckets, keyAmount, hashSeedArray, failedBuckets);
 
             if (failedBuckets.size() == 0) {
                 // we are done.
@@ -297,7 +550,7 @@ public class MultiLevelMphf implements Mphf {
                 int k = 0;
                 for (int i = 0; i < bitVector.size(); i++) {
                     if (!bitVector.get(i))
-                        failedHashValues[k++] = indexes.get(currentLevel - 1).failedIndexes[i];
+                        failedHashValues[k++] = indexes.get(currentLevel - 1).getFailedIndex(i);
                 }
             }
             indexes.add(new HashIndexes(keyAmount, buckets.length, hashSeedArray, failedHashValues));
@@ -328,7 +581,7 @@ public class MultiLevelMphf implements Mphf {
                 if (i == 0) {
                     return hash(key, seed) % hashLevelData[0].keyAmount;
                 } else {
-                    return hashLevelData[i - 1].failedIndexes[hash(key, seed) % hashLevelData[i].keyAmount];
+                    return hashLevelData[i - 1].getFailedIndex(hash(key, seed) % hashLevelData[i].keyAmount);
                 }
             }
         }
@@ -356,7 +609,7 @@ public class MultiLevelMphf implements Mphf {
                 if (i == 0) {
                     return hash(key, seed) % hashLevelData[0].keyAmount;
                 } else {
-                    return hashLevelData[i - 1].failedIndexes[hash(key, seed) % hashLevelData[i].keyAmount];
+                    return hashLevelData[i - 1].getFailedIndex(hash(key, seed) % hashLevelData[i].keyAmount);
                 }
             }
         }
@@ -384,7 +637,7 @@ public class MultiLevelMphf implements Mphf {
                 if (i == 0) {
                     return hash(key, seed) % hashLevelData[0].keyAmount;
                 } else {
-                    return hashLevelData[i - 1].failedIndexes[hash(key, seed) % hashLevelData[i].keyAmount];
+                    return hashLevelData[i - 1].getFailedIndex(hash(key, seed) % hashLevelData[i].keyAmount);
                 }
             }
         }
@@ -407,7 +660,7 @@ public class MultiLevelMphf implements Mphf {
                 if (i == 0) {
                     return hash(encodedKey, order, seed) % hashLevelData[0].keyAmount;
                 } else {
-                    return hashLevelData[i - 1].failedIndexes[hash(encodedKey, order, seed) % hashLevelData[i].keyAmount];
+                    return hashLevelData[i - 1].getFailedIndex(hash(encodedKey, order, seed) % hashLevelData[i].keyAmount);
                 }
             }
         }
@@ -438,7 +691,7 @@ public class MultiLevelMphf implements Mphf {
                 if (i == 0) {
                     return hash(key, begin, end, seed) % hashLevelData[0].keyAmount;
                 } else {
-                    return hashLevelData[i - 1].failedIndexes[hash(key, begin, end, seed) % hashLevelData[i].keyAmount];
+                    return hashLevelData[i - 1].getFailedIndex(hash(key, begin, end, seed) % hashLevelData[i].keyAmount);
                 }
             }
         }
@@ -453,8 +706,8 @@ public class MultiLevelMphf implements Mphf {
         long result = 12; // array overhead
         for (HashIndexes data : hashLevelData) {
             result += 12; // array overhead for failed buckets
-            result += data.bucketHashSeedValues.length;
-            result += data.failedIndexes.length * 4;
+            result += data.bucketHashSeedValues.capacity();
+            result += data.failedIndexes.capacity() * 4;
         }
         return result;
     }
@@ -507,10 +760,12 @@ public class MultiLevelMphf implements Mphf {
         for (HashIndexes index : hashLevelData) {
             dos.writeInt(index.keyAmount);
             dos.writeInt(index.bucketAmount);
-            dos.write(index.bucketHashSeedValues);
-            dos.writeInt(index.failedIndexes.length);
-            for (int i : index.failedIndexes) {
-                dos.writeInt(i);
+            byte[] seeds = new byte[index.bucketAmount];
+            index.bucketHashSeedValues.duplicate().get(seeds);
+            dos.write(seeds);
+            dos.writeInt(index.failedIndexes.capacity());
+            for (int i = 0; i < index.failedIndexes.capacity(); i++) {
+                dos.writeInt(index.failedIndexes.get(i));
             }
         }
     }
@@ -545,12 +800,15 @@ public class MultiLevelMphf implements Mphf {
 
     /**
      * A custom deserializer. Look serialization method document for the format.
+     * If the stream is a MappedDataInputStream, seed values and failed indexes are not read but memory mapped.
      *
      * @param dis DataInputStream that contains serialized data.
      * @return a new ChdPerfectHash object.
      * @throws java.io.IOException if an error occurs during stream access.
      */
     public static MultiLevelMphf deserialize(DataInputStream dis) throws IOException {
+        if (dis instanceof MappedDataInputStream)
+            return deserializeMapped((MappedDataInputStream) dis);
         int levelCount = dis.readInt();
         HashIndexes[] indexes = new HashIndexes[levelCount];
         for (int i = 0; i < levelCount; i++) {
@@ -567,4 +825,18 @@ public class MultiLevelMphf implements Mphf {
         }
         return new MultiLevelMphf(indexes);
     }
+
+    private static MultiLevelMphf deserializeMapped(MappedDataInputStream mdis) throws IOException {
+        int levelCount = mdis.readInt();
+        HashIndexes[] indexes = new HashIndexes[levelCount];
+        for (int i = 0; i < levelCount; i++) {
+            int keycount = mdis.readInt();
+            int bucketAmount = mdis.readInt();
+            ByteBuffer hashSeedValues = mdis.map(bucketAmount);
+            int failedIndexesCount = mdis.readInt();
+            IntBuffer failedIndexes = mdis.map(failedIndexesCount * 4L).asIntBuffer();
+            indexes[i] = new HashIndexes(keycount, bucketAmount, hashSeedValues, failedIndexes);
+        }
+        return new MultiLevelMphf(indexes);
+    }
 }
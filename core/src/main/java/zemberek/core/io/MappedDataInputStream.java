@@ -0,0 +1,58 @@
+package zemberek.core.io;
+
+import com.google.common.io.ByteStreams;
+import com.google.common.io.CountingInputStream;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+
+/**
+ * A DataInputStream over a file that can memory map regions of the file instead of reading them.
+ * Small values are read from the stream as usual. Large arrays are mapped with map(size), which maps the next `size`
+ * bytes as a read only buffer and skips them in the stream. So a deserializer can use the same code path for both
+ * on-heap and memory mapped loading.
+ * Mapped buffers stay valid after this stream is closed.
+ */
+public class MappedDataInputStream extends DataInputStream {
+
+    private final FileChannel channel;
+    private final CountingInputStream counter;
+
+    private MappedDataInputStream(FileChannel channel, CountingInputStream counter) {
+        super(counter);
+        this.channel = channel;
+        this.counter = counter;
+    }
+
+    public static MappedDataInputStream open(Path path) throws IOException {
+        FileInputStream fis = new FileInputStream(path.toFile());
+        return new MappedDataInputStream(fis.getChannel(), new CountingInputStream(new BufferedInputStream(fis)));
+    }
+
+    /**
+     * @return position of the stream in the file.
+     */
+    public long position() {
+        return counter.getCount();
+    }
+
+    /**
+     * Maps the next `size` bytes of the file and moves the stream after them.
+     *
+     * @param size amount of bytes to map. Cannot be larger than Integer.MAX_VALUE
+     * @return a read only buffer. Byte order is big endian, same as DataInputStream.
+     * @throws IOException if file cannot be mapped or it has less than `size` bytes left.
+     */
+    public ByteBuffer map(long size) throws IOException {
+        if (size < 0 || size > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("Mapped region size must be in [0.." + Integer.MAX_VALUE + "]. But it is " + size);
+        ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position(), size);
+        ByteStreams.skipFully(this, size);
+        return buffer;
+    }
+}
@@ -0,0 +1,94 @@
+package zemberek.core;
+
+import junit.framework.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+public class LongFloatMapTest {
+
+    @Test
+    public void getTest() {
+        LongFloatMap map = new LongFloatMap();
+        map.put(1, 2);
+        Assert.assertEquals(2f, map.get(1));
+        Assert.assertEquals(0f, map.get(2));
+        map.put(1, 3);
+        Assert.assertEquals(3f, map.get(1));
+        Assert.assertEquals(1, map.size());
+
+        map = new LongFloatMap();
+        for (long i = 1; i < 100000; i++) {
+            map.put(i << 40, i + 1);
+        }
+        for (long i = 1; i < 100000; i++) {
+            Assert.assertEquals((float) (i + 1), map.get(i << 40));
+        }
+        Assert.assertEquals(99999, map.size());
+    }
+
+    @Test
+    public void incrementTest() {
+        LongFloatMap map = new LongFloatMap();
+        Assert.assertEquals(1.5f, map.increment(-5, 1.5f));
+        Assert.assertEquals(-1f, map.increment(-5, -2.5f));
+        Assert.assertEquals(-1f, map.get(-5));
+        Assert.assertTrue(map.containsKey(-5));
+    }
+
+    @Test
+    public void removeTest() {
+        LongFloatMap map = new LongFloatMap();
+        for (int i = 1; i < 100000; i++) {
+            map.put(i, i + 1);
+        }
+        for (int i = 1; i < 100000; i += 3) {
+            map.remove(i);
+        }
+        for (int i = 1; i < 100000; i++) {
+            Assert.assertEquals(i % 3 != 1, map.containsKey(i));
+        }
+        for (int i = 1; i < 100000; i++) {
+            map.put(i, i + 1);
+        }
+        for (int i = 1; i < 100000; i++) {
+            Assert.assertEquals((float) (i + 1), map.get(i));
+        }
+    }
+
+    @Test
+    public void randomOperationsTest() {
+        Random random = new Random(1);
+        LongFloatMap map = new LongFloatMap();
+        Map<Long, Float> expected = new HashMap<>();
+        // few distinct keys with many removals, so deleted slots are reused and cleaned.
+        for (int i = 0; i < 1000000; i++) {
+            long key = random.nextInt(1000) + 1;
+            if (random.nextBoolean()) {
+                map.remove(key);
+                expected.remove(key);
+            } else {
+                map.put(key, i);
+                expected.put(key, (float) i);
+            }
+        }
+        Assert.assertEquals(expected.size(), map.size());
+        for (Map.Entry<Long, Float> entry : expected.entrySet()) {
+            Assert.assertEquals(entry.getValue(), map.get(entry.getKey()));
+        }
+        long[] keys = map.getSortedKeys();
+        Long[] expectedKeys = expected.keySet().toArray(new Long[expected.size()]);
+        Arrays.sort(expectedKeys);
+        for (int i = 0; i < keys.length; i++) {
+            Assert.assertEquals(expectedKeys[i].longValue(), keys[i]);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void reservedKeyTest() {
+        new LongFloatMap().put(0, 1);
+    }
+}
@@ -0,0 +1,94 @@
+package zemberek.core;
+
+import junit.framework.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+public class LongIntMapTest {
+
+    @Test
+    public void getTest() {
+        LongIntMap map = new LongIntMap();
+        map.put(1, 2);
+        Assert.assertEquals(2, map.get(1));
+        Assert.assertEquals(0, map.get(2));
+        map.put(1, 3);
+        Assert.assertEquals(3, map.get(1));
+        Assert.assertEquals(1, map.size());
+
+        map = new LongIntMap();
+        for (long i = 1; i < 100000; i++) {
+            map.put(i << 40, (int) i + 1);
+        }
+        for (long i = 1; i < 100000; i++) {
+            Assert.assertEquals(i + 1, map.get(i << 40));
+        }
+        Assert.assertEquals(99999, map.size());
+    }
+
+    @Test
+    public void incrementTest() {
+        LongIntMap map = new LongIntMap();
+        Assert.assertEquals(1, map.increment(-5, 1));
+        Assert.assertEquals(-1, map.increment(-5, -2));
+        Assert.assertEquals(-1, map.get(-5));
+        Assert.assertTrue(map.containsKey(-5));
+    }
+
+    @Test
+    public void removeTest() {
+        LongIntMap map = new LongIntMap();
+        for (int i = 1; i < 100000; i++) {
+            map.put(i, i + 1);
+        }
+        for (int i = 1; i < 100000; i += 3) {
+            map.remove(i);
+        }
+        for (int i = 1; i < 100000; i++) {
+            Assert.assertEquals(i % 3 != 1, map.containsKey(i));
+        }
+        for (int i = 1; i < 100000; i++) {
+            map.put(i, i + 1);
+        }
+        for (int i = 1; i < 100000; i++) {
+            Assert.assertEquals(i + 1, map.get(i));
+        }
+    }
+
+    @Test
+    public void randomOperationsTest() {
+        Random random = new Random(1);
+        LongIntMap map = new LongIntMap();
+        Map<Long, Integer> expected = new HashMap<>();
+        // few distinct keys with many removals, so deleted slots are reused and cleaned.
+        for (int i = 0; i < 1000000; i++) {
+            long key = random.nextInt(1000) + 1;
+            if (random.nextBoolean()) {
+                map.remove(key);
+                expected.remove(key);
+            } else {
+                map.put(key, i);
+                expected.put(key, i);
+            }
+        }
+        Assert.assertEquals(expected.size(), map.size());
+        for (Map.Entry<Long, Integer> entry : expected.entrySet()) {
+            Assert.assertEquals(entry.getValue().intValue(), map.get(entry.getKey()));
+        }
+        long[] keys = map.getSortedKeys();
+        Long[] expectedKeys = expected.keySet().toArray(new Long[expected.size()]);
+        Arrays.sort(expectedKeys);
+        for (int i = 0; i < keys.length; i++) {
+            Assert.assertEquals(expectedKeys[i].longValue(), keys[i]);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void reservedKeyTest() {
+        new LongIntMap().put(0, 1);
+    }
+}
@@ -0,0 +1,122 @@
+package zemberek.core.hash;
+
+import org.junit.Assert;
+import org.junit.Test;
+import zemberek.core.io.MappedDataInputStream;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+public class CompactMphfTest {
+
+    @Test
+    public void intKeys() {
+        int[] limits = {0, 1, 2, 10, 100, 1000, 50000, 500000};
+        int arraySize = 5;
+        for (int limit : limits) {
+            final int[][] arr = new int[limit][arraySize];
+            for (int i = 0; i < limit; i++) {
+                for (int j = 0; j < arraySize; j++)
+                    arr[i][j] = i;
+            }
+            IntArrayKeyProvider provider = new IntArrayKeyProvider(arr);
+            CompactMphf mphf = CompactMphf.generate(provider);
+            checkValues(provider, mphf);
+            if (limit >= 50000)
+                Assert.assertTrue("Bits per key: " + mphf.averageBitsPerKey(), mphf.averageBitsPerKey() < 3);
+        }
+    }
+
+    @Test
+    public void stringKeys() {
+        int[] limits = {1, 10, 1000, 100000};
+        for (int limit : limits) {
+            Set<String> strings = uniqueStrings(limit, 5);
+            CompactMphf mphf = CompactMphf.generate(new StringHashKeyProvider(strings));
+            Set<Integer> results = new HashSet<>();
+            for (String string : strings) {
+                int value = mphf.get(string);
+                Assert.assertTrue(value >= 0 && value < limit);
+                Assert.assertTrue(results.add(value));
+            }
+        }
+    }
+
+    @Test
+    public void positionUsesBothHashes() {
+        // negative key hashes must not hide the other hash.
+        for (int keyHash : new int[]{-1, -12345, 12345}) {
+            Set<Integer> positions = new HashSet<>();
+            for (int hash = 0; hash < 100; hash++) {
+                positions.add(CompactMphf.position(hash, keyHash, 0, 1 << 20));
+            }
+            Assert.assertTrue(positions.size() > 90);
+        }
+    }
+
+    @Test
+    public void partialKeys() {
+        int[][] arr = new int[1000][];
+        for (int i = 0; i < arr.length; i++) {
+            arr[i] = new int[]{i, i + 1, i + 2};
+        }
+        CompactMphf mphf = CompactMphf.generate(new IntArrayKeyProvider(arr));
+        for (int[] key : arr) {
+            int[] padded = {-1, key[0], key[1], key[2], -1};
+            Assert.assertEquals(mphf.get(key), mphf.get(padded, 1, 4, MultiLevelMphf.hash(key, -1)));
+        }
+    }
+
+    @Test
+    public void serialization() throws IOException {
+        StringHashKeyProvider provider = new StringHashKeyProvider(uniqueStrings(50000, 5));
+        CompactMphf mphf = CompactMphf.generate(provider);
+        File file = File.createTempFile("mphf", ".bin");
+        file.deleteOnExit();
+        mphf.serialize(file);
+        CompactMphf loaded = CompactMphf.deserialize(file);
+        CompactMphf mapped;
+        try (MappedDataInputStream mdis = MappedDataInputStream.open(file.toPath())) {
+            mapped = CompactMphf.deserialize(mdis);
+        }
+        Assert.assertEquals(mphf.averageBitsPerKey(), loaded.averageBitsPerKey(), 0);
+        for (int i = 0; i < provider.keyAmount(); i++) {
+            int[] key = provider.getKey(i);
+            Assert.assertEquals(mphf.get(key), loaded.get(key));
+            Assert.assertEquals(mphf.get(key), mapped.get(key));
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void duplicateKeys() {
+        int[][] arr = {{1, 2}, {3, 4}, {1, 2}};
+        CompactMphf.generate(new IntArrayKeyProvider(arr));
+    }
+
+    private void checkValues(IntHashKeyProvider provider, CompactMphf mphf) {
+        int keyAmount = provider.keyAmount();
+        Assert.assertEquals(keyAmount, mphf.size());
+        Set<Integer> results = new HashSet<>(keyAmount);
+        for (int i = 0; i < keyAmount; i++) {
+            int value = mphf.get(provider.getKey(i));
+            Assert.assertTrue(value >= 0 && value < keyAmount);
+            Assert.assertTrue(i + ":" + value, results.add(value));
+        }
+    }
+
+    private Set<String> uniqueStrings(int amount, int stringLength) {
+        Set<String> set = new HashSet<>(amount);
+        Random r = new Random(1);
+        while (set.size() < amount) {
+            StringBuilder sb = new StringBuilder(stringLength);
+            for (int i = 0; i < stringLength; i++) {
+                sb.append((char) (r.nextInt(32) + 'a'));
+            }
+            set.add(sb.toString());
+        }
+        return set;
+    }
+}
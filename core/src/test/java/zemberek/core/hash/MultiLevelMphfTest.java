@@ -3,11 +3,16 @@ package zemberek.core.hash;
 import com.google.common.base.Stopwatch;
 import org.junit.Assert;
 import org.junit.Test;
+import zemberek.core.io.MappedDataInputStream;
 
+import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.util.HashSet;
 import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 
 public class MultiLevelMphfTest {
@@ -39,6 +44,42 @@ public class MultiLevelMphfTest {
         }
     }
 
+    @Test
+    public void memoryMappedDeserialization() throws IOException {
+        StringHashKeyProvider provider = new StringHashKeyProvider(uniqueStrings(50000, 5));
+        MultiLevelMphf mphf = MultiLevelMphf.generate(provider);
+        File file = File.createTempFile("mphf", ".bin");
+        file.deleteOnExit();
+        mphf.serialize(file);
+        MultiLevelMphf mapped;
+        try (MappedDataInputStream mdis = MappedDataInputStream.open(file.toPath())) {
+            mapped = MultiLevelMphf.deserialize(mdis);
+        }
+        Assert.assertEquals(mphf.getLevelCount(), mapped.getLevelCount());
+        for (int i = 0; i < provider.keyAmount(); i++) {
+            int[] key = provider.getKey(i);
+            Assert.assertEquals(mphf.get(key), mapped.get(key));
+        }
+    }
+
+    @Test
+    public void concurrentGeneration() throws IOException {
+        int[] limits = {1, 1000, 50000, 300000};
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            for (int limit : limits) {
+                StringHashKeyProvider provider = new StringHashKeyProvider(uniqueStrings(limit, 5));
+                ByteArrayOutputStream serial = new ByteArrayOutputStream();
+                MultiLevelMphf.generate(provider).serialize(serial);
+                ByteArrayOutputStream concurrent = new ByteArrayOutputStream();
+                MultiLevelMphf.generate(provider, executor).serialize(concurrent);
+                Assert.assertArrayEquals(serial.toByteArray(), concurrent.toByteArray());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
     private void generateAndTest(IntHashKeyProvider provider) {
 
         long start = System.currentTimeMillis();
@@ -0,0 +1,97 @@
+package zemberek.lm;
+
+import java.util.Arrays;
+
+/**
+ * Language model state of a word history. It is used for scoring word sequences incrementally with
+ * NgramLanguageModel.score(state, wordId, outState). A state keeps at most `order-1` words of the history and the
+ * back-off values of the history n-grams that exist in the model. So extending a state with a word does not require
+ * looking up the history n-grams again.
+ * <p/>Fields are written by language models. States are mutable and meant to be reused, they should only be
+ * used with the model that created them.
+ */
+public final class LmState {
+
+    /**
+     * History words, the most recent word is the last one. Only first `historyLength` items are valid. Array has
+     * `order` slots, so a model can append the next word and look up the n-gram without copying.
+     */
+    public final int[] words;
+
+    /**
+     * backoffs[i] is the log back-off value of the history n-gram with the last i+1 words. Only first `length` items
+     * are valid.
+     */
+    public final double[] backoffs;
+
+    /**
+     * Amount of history words. At most model order - 1.
+     */
+    public int historyLength;
+
+    /**
+     * Length of the longest history n-gram that exists in the model. Longer n-grams ending with the next word cannot
+     * exist in the model.
+     */
+    public int length;
+
+    /**
+     * Creates an empty state for a model with given order.
+     */
+    public LmState(int order) {
+        if (order < 1)
+            throw new IllegalArgumentException("Order must be positive. But it is " + order);
+        this.words = new int[order];
+        this.backoffs = new double[order - 1];
+    }
+
+    /**
+     * Copies history of another state.
+     */
+    public void copyFrom(LmState state) {
+        if (state.words.length != words.length)
+            throw new IllegalArgumentException("States of different orders cannot be copied.");
+        System.arraycopy(state.words, 0, words, 0, state.historyLength);
+        System.arraycopy(state.backoffs, 0, backoffs, 0, state.length);
+        historyLength = state.historyLength;
+        length = state.length;
+    }
+
+    /**
+     * @return a copy of this state.
+     */
+    public LmState copy() {
+        LmState state = new LmState(words.length);
+        state.copyFrom(this);
+        return state;
+    }
+
+    // Back-off values are determined by the words, so only history words are compared.
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        LmState state = (LmState) o;
+        if (historyLength != state.historyLength)
+            return false;
+        for (int i = 0; i < historyLength; i++) {
+            if (words[i] != state.words[i])
+                return false;
+        }
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = historyLength;
+        for (int i = 0; i < historyLength; i++) {
+            result = 31 * result + words[i];
+        }
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return Arrays.toString(Arrays.copyOf(words, historyLength)) + " length:" + length;
+    }
+}
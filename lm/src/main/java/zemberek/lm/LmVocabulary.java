@@ -1,19 +1,31 @@
 package zemberek.lm;
 
 import com.google.common.collect.Lists;
+import zemberek.core.io.MappedDataInputStream;
 import zemberek.core.io.SimpleTextReader;
 import zemberek.core.logging.Log;
 
 import java.io.*;
+import java.nio.CharBuffer;
+import java.nio.IntBuffer;
 import java.text.Collator;
 import java.util.*;
 
+/**
+ * Language model vocabulary. Words are kept in a single char array and looked up with an open addressing table of word
+ * indexes, so look-ups do not box integers and words can be looked up from a CharSequence slice without generating a
+ * String. Index data can be memory mapped, see saveIndexed and loadIndexed.
+ */
 public class LmVocabulary {
     private String unknownWord;
     private String sentenceStart;
     private String sentenceEnd;
     private List<String> vocabulary;
-    private Map<String, Integer> vocabularyIndexMap = new HashMap<>();
+
+    private CharBuffer chars; // all words, one after another.
+    private IntBuffer offsets; // start of each word in chars. It has one extra value for the end of the last word.
+    private IntBuffer slots; // [hash, word index] pairs of table slots with linear probing. index is -1 for empty slots.
+    private int slotMask;
 
     private int unknownWordIndex = -1;
     private int sentenceStartIndex = -1;
@@ -149,6 +161,7 @@ public class LmVocabulary {
     private void generateMap(List<String> inputVocabulary) {
         // construct vocabulary index lookup.
         int indexCounter = 0;
+        Map<String, Integer> vocabularyIndexMap = new HashMap<>();
         List<String> cleanVocab = new ArrayList<>();
         for (String word : inputVocabulary) {
             if (vocabularyIndexMap.containsKey(word)) {
@@ -203,6 +216,186 @@ public class LmVocabulary {
         }
         sentenceEndIndex = vocabularyIndexMap.get(sentenceEnd);
         vocabulary = Collections.unmodifiableList(cleanVocab);
+        generateIndex(cleanVocab);
+    }
+
+    // generates the char array and the look-up table. Table has at least twice the slots of the word count.
+    private void generateIndex(List<String> words) {
+        int charCount = 0;
+        for (String word : words) {
+            charCount += word.length();
+        }
+        char[] charArray = new char[charCount];
+        int[] offsetArray = new int[words.size() + 1];
+        int slotCount = Integer.highestOneBit(Math.max(words.size(), 1)) * 4;
+        int[] slotArray = new int[slotCount * 2];
+        Arrays.fill(slotArray, -1);
+        slotMask = slotCount - 1;
+        int offset = 0;
+        for (int i = 0; i < words.size(); i++) {
+            String word = words.get(i);
+            word.getChars(0, word.length(), charArray, offset);
+            offsetArray[i] = offset;
+            offset += word.length();
+            int slot = slot(word.hashCode());
+            while (slotArray[slot * 2 + 1] != -1) {
+                slot = (slot + 1) & slotMask;
+            }
+            slotArray[slot * 2] = word.hashCode();
+            slotArray[slot * 2 + 1] = i;
+        }
+        offsetArray[words.size()] = offset;
+        chars = CharBuffer.wrap(charArray);
+        offsets = IntBuffer.wrap(offsetArray);
+        slots = IntBuffer.wrap(slotArray);
+    }
+
+    // spreads String.hashCode() values. Strings cache their hash values, so only slices are hashed during look-ups.
+    private int slot(int hash) {
+        hash *= 0x9E3779B9;
+        return (hash ^ (hash >>> 16)) & slotMask;
+    }
+
+    private static int hash(CharSequence sequence, int start, int end) {
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + sequence.charAt(i);
+        }
+        return hash;
+    }
+
+    // returns the index of the word, -1 if it does not exist. Chars are compared only if hash values match.
+    private int find(CharSequence sequence, int start, int end, int hash) {
+        final int length = end - start;
+        int slot = slot(hash);
+        while (true) {
+            final int index = slots.get(slot * 2 + 1);
+            if (index == -1)
+                return -1;
+            if (slots.get(slot * 2) == hash) {
+                final int wordStart = offsets.get(index);
+                if (offsets.get(index + 1) - wordStart == length) {
+                    int i = 0;
+                    while (i < length && chars.get(wordStart + i) == sequence.charAt(start + i)) {
+                        i++;
+                    }
+                    if (i == length)
+                        return index;
+                }
+            }
+            slot = (slot + 1) & slotMask;
+        }
+    }
+
+    private int find(String word) {
+        return find(word, 0, word.length(), word.hashCode());
+    }
+
+    /**
+     * Binary serialization of the vocabulary with its look-up table. Unlike saveBinary, loaded data can be used
+     * directly and it can be memory mapped.
+     *
+     * @param dos output stream to serialize.
+     * @throws IOException
+     */
+    public void saveIndexed(DataOutputStream dos) throws IOException {
+        dos.writeInt(size());
+        dos.writeInt(chars.limit());
+        dos.writeInt(slots.limit());
+        dos.writeInt(unknownWordIndex);
+        dos.writeInt(sentenceStartIndex);
+        dos.writeInt(sentenceEndIndex);
+        for (int i = 0; i < chars.limit(); i++) {
+            dos.writeChar(chars.get(i));
+        }
+        for (int i = 0; i < offsets.limit(); i++) {
+            dos.writeInt(offsets.get(i));
+        }
+        for (int i = 0; i < slots.limit(); i++) {
+            dos.writeInt(slots.get(i));
+        }
+    }
+
+    /**
+     * Loads a vocabulary saved with saveIndexed. If the stream is a MappedDataInputStream, words and the look-up table
+     * are memory mapped. This method does not close the DataInputStream
+     *
+     * @param dis input stream to read the vocabulary data.
+     * @throws IOException
+     */
+    public static LmVocabulary loadIndexed(DataInputStream dis) throws IOException {
+        int size = dis.readInt();
+        int charCount = dis.readInt();
+        int slotCount = dis.readInt();
+        int unknownWordIndex = dis.readInt();
+        int sentenceStartIndex = dis.readInt();
+        int sentenceEndIndex = dis.readInt();
+        if (dis instanceof MappedDataInputStream) {
+            MappedDataInputStream mdis = (MappedDataInputStream) dis;
+            return new LmVocabulary(
+                    mdis.map(charCount * 2L).asCharBuffer(),
+                    mdis.map((size + 1) * 4L).asIntBuffer(),
+                    mdis.map(slotCount * 4L).asIntBuffer(),
+                    unknownWordIndex, sentenceStartIndex, sentenceEndIndex);
+        } else {
+            char[] charArray = new char[charCount];
+            for (int i = 0; i < charCount; i++) {
+                charArray[i] = dis.readChar();
+            }
+            return new LmVocabulary(
+                    CharBuffer.wrap(charArray),
+                    IntBuffer.wrap(readInts(dis, size + 1)),
+                    IntBuffer.wrap(readInts(dis, slotCount)),
+                    unknownWordIndex, sentenceStartIndex, sentenceEndIndex);
+        }
+    }
+
+    private LmVocabulary(
+            CharBuffer chars,
+            IntBuffer offsets,
+            IntBuffer slots,
+            int unknownWordIndex,
+            int sentenceStartIndex,
+            int sentenceEndIndex) {
+        this.chars = chars;
+        this.offsets = offsets;
+        this.slots = slots;
+        this.slotMask = slots.limit() / 2 - 1;
+        // words are generated from the char data when they are needed.
+        this.vocabulary = new AbstractList<String>() {
+            @Override
+            public String get(int index) {
+                return word(index);
+            }
+
+            @Override
+            public int size() {
+                return LmVocabulary.this.offsets.limit() - 1;
+            }
+        };
+        this.unknownWordIndex = unknownWordIndex;
+        this.sentenceStartIndex = sentenceStartIndex;
+        this.sentenceEndIndex = sentenceEndIndex;
+        this.unknownWord = word(unknownWordIndex);
+        this.sentenceStart = word(sentenceStartIndex);
+        this.sentenceEnd = word(sentenceEndIndex);
+    }
+
+    private static int[] readInts(DataInputStream dis, int count) throws IOException {
+        int[] values = new int[count];
+        for (int i = 0; i < count; i++) {
+            values[i] = dis.readInt();
+        }
+        return values;
+    }
+
+    private String word(int index) {
+        if (index < 0 || index >= offsets.limit() - 1)
+            throw new IndexOutOfBoundsException("Index " + index + " is out of vocabulary bounds.");
+        CharBuffer word = chars.duplicate();
+        word.limit(offsets.get(index + 1));
+        word.position(offsets.get(index));
+        return word.toString();
     }
 
     public int size() {
@@ -305,8 +498,20 @@ public class LmVocabulary {
     }
 
     public int indexOf(String word) {
-        Integer k = vocabularyIndexMap.get(word);
-        return k == null ? unknownWordIndex : k;
+        int k = find(word);
+        return k == -1 ? unknownWordIndex : k;
+    }
+
+    /**
+     * @param sequence char sequence that contains the word.
+     * @param start    start index of the word in the sequence, inclusive.
+     * @param end      end index of the word in the sequence, exclusive.
+     * @return index of the word. If the word does not exist, index of <UNK> is returned.
+     * No String is generated for the word, so it can be used with a reused StringBuilder.
+     */
+    public int indexOf(CharSequence sequence, int start, int end) {
+        int k = find(sequence, start, end, hash(sequence, start, end));
+        return k == -1 ? unknownWordIndex : k;
     }
 
     public int getSentenceStartIndex() {
@@ -344,7 +549,11 @@ public class LmVocabulary {
      * @return indexes of words when the words are alphabetically sorted according to the default locale.
      */
     public Iterable<Integer> alphabeticallySortedWordsIds() {
-        return new TreeMap<>(vocabularyIndexMap).values();
+        TreeMap<String, Integer> treeMap = new TreeMap<>();
+        for (int i = 0; i < vocabulary.size(); i++) {
+            treeMap.put(vocabulary.get(i), i);
+        }
+        return treeMap.values();
     }
 
     public Iterable<String> words() {
@@ -423,7 +632,17 @@ public class LmVocabulary {
      * @return if vocabulary contains the word. For special tokens, it always return true.
      */
     public boolean contains(String word) {
-        return vocabularyIndexMap.containsKey(word);
+        return find(word) != -1;
+    }
+
+    /**
+     * @param sequence char sequence that contains the word.
+     * @param start    start index of the word in the sequence, inclusive.
+     * @param end      end index of the word in the sequence, exclusive.
+     * @return if vocabulary contains the word.
+     */
+    public boolean contains(CharSequence sequence, int start, int end) {
+        return find(sequence, start, end, hash(sequence, start, end)) != -1;
     }
 
     /**
@@ -462,10 +681,7 @@ public class LmVocabulary {
         int[] indexes = new int[words.length];
         int i = 0;
         for (String word : words) {
-            if (!vocabularyIndexMap.containsKey(word)) {
-                indexes[i] = unknownWordIndex;
-            } else
-                indexes[i] = vocabularyIndexMap.get(word);
+            indexes[i] = indexOf(word);
             i++;
         }
         return indexes;
@@ -22,6 +22,50 @@ public interface NgramLanguageModel {
      */
     double getProbability(int... ids);
 
+    /**
+     * Returns Log N-Gram probabilities of a batch of n-grams with same order. N-grams are stored one after another in
+     * a flat array, i.th n-gram is ngrams[i*order .. (i+1)*order). Result is same with calling getProbability for each
+     * n-gram, but implementations may calculate it faster.
+     *
+     * @param order     order of the n-grams.
+     * @param ngrams    n-gram ids.
+     * @param gramCount amount of n-grams to score. Length of ngrams must be at least gramCount*order
+     * @param result    log probabilities are written here. Length must be at least gramCount
+     */
+    void getProbabilities(int order, int[] ngrams, int gramCount, double[] result);
+
+    /**
+     * Returns Log probabilities of each word of a word id sequence, using at most `order` words of history.
+     * result[i] is the probability of ids[i] given ids[max(0, i-order+1) .. i). So result[0] is a uni-gram probability.
+     * This can be used for scoring a sentence that starts with a sentence start symbol.
+     *
+     * @param ids    word ids.
+     * @param result log probabilities are written here. Length must be at least ids.length
+     */
+    void getSequenceProbabilities(int[] ids, double[] result);
+
+    /**
+     * @return a state with sentence start symbol as history.
+     */
+    LmState beginSentence();
+
+    /**
+     * @return a state with empty history. Scoring a word with it gives the uni-gram probability.
+     */
+    LmState nullContext();
+
+    /**
+     * Returns Log probability of a word given the history of a state and writes the extended history to outState.
+     * Result is same with calling getProbability with the history words and word id. outState can be reused but it
+     * must not be the same object with state.
+     *
+     * @param state    history state.
+     * @param wordId   word id.
+     * @param outState history of state extended with the word is written here.
+     * @return log probability
+     */
+    double score(LmState state, int wordId, LmState outState);
+
     /**
      * Order of language model
      *
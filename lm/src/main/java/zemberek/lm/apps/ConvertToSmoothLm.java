@@ -7,6 +7,7 @@ import org.kohsuke.args4j.Option;
 import zemberek.core.CommandLineApplication;
 import zemberek.core.logging.Log;
 import zemberek.lm.compression.MultiFileUncompressedLm;
+import zemberek.lm.compression.SmoothLm;
 import zemberek.lm.compression.UncompressedToSmoothLmConverter;
 
 import java.io.File;
@@ -39,7 +40,8 @@ public class ConvertToSmoothLm extends CommandLineApplication {
             usage = "How many bits of space to be used for fingerprint, probability " +
                     "and back-off values in the compressed language model. Value must be in x-y-z format. " +
                     "By default it is 16-16-16 which means all values " +
-                    "will be 2 bytes (16 bits). Values must be an order of 8, maximum 32 is allowed.")
+                    "will be 2 bytes (16 bits). Values are bit packed, so they do not need to be an order of 8. " +
+                    "Fingerprint can be between 1 and 32, probability and back-off between 1 and 24 bits.")
     public String spaceUsageStr = "16-16-16";
 
     @Option(name = "-chunkBits",
@@ -47,6 +49,17 @@ public class ConvertToSmoothLm extends CommandLineApplication {
                     " By default it is 21 bits meaning that chunks of 2^21 n-grams are used. Value must be between 16 to 31 (inclusive).")
     public int chunkBits = 21;
 
+    @Option(name = "-mphfType",
+            usage = "Minimal perfect hash function type of the model. LARGE (default) is suitable for very large models. " +
+                    "COMPACT uses less memory for hash functions but its generation needs all n-grams of an order in memory. " +
+                    "SMALL is for small models.")
+    public SmoothLm.MphfType mphfType = SmoothLm.MphfType.LARGE;
+
+    @Option(name = "-threads",
+            usage = "Amount of threads to use during conversion. Arpa parsing, rank file, MPHF generation " +
+                    "and reordering steps are done concurrently. By default it is 1.")
+    public int threadCount = 1;
+
     private int[] spaceUsage = new int[3];
 
     @Override
@@ -78,8 +91,10 @@ public class ConvertToSmoothLm extends CommandLineApplication {
         for (int i = 0; i < spaceUsage.length; i++) {
             try {
                 final int val = Integer.parseInt(tokens.get(i));
-                if (val <= 0 || val > 32 || val % 8 != 0) {
-                    throw new IllegalArgumentException("Improper -spaceUsageStr value: " + spaceUsageStr + ". Values can be 8,16,24 or 32");
+                int max = i == 0 ? 32 : 24;
+                if (val <= 0 || val > max) {
+                    throw new IllegalArgumentException("Improper -spaceUsageStr value: " + spaceUsageStr +
+                            ". Fingerprint size must be between 1 and 32, others between 1 and 24.");
                 }
                 spaceUsage[i] = val;
             } catch (NumberFormatException e) {
@@ -89,12 +104,20 @@ public class ConvertToSmoothLm extends CommandLineApplication {
         }
         Preconditions.checkArgument(chunkBits >= 16 && chunkBits <= 31,
                 "Unexpected chunkBits value. Value must be between 16 to 31. But it is : " + chunkBits);
-
-        UncompressedToSmoothLmConverter converter = new UncompressedToSmoothLmConverter(smoothLmFile, tmpDir);
-        converter.convertLarge(
-                MultiFileUncompressedLm.generate(arpaFile, tmpDir, "utf-8").getLmDir(),
-                new UncompressedToSmoothLmConverter.NgramDataBlock(spaceUsage[0], spaceUsage[1], spaceUsage[2]),
-                chunkBits);
+        Preconditions.checkArgument(threadCount > 0,
+                "Unexpected threads value. Value must be positive. But it is : " + threadCount);
+
+        UncompressedToSmoothLmConverter converter =
+                new UncompressedToSmoothLmConverter(smoothLmFile, tmpDir, threadCount);
+        File lmDir = MultiFileUncompressedLm.generate(arpaFile, tmpDir, "utf-8", threadCount).getLmDir();
+        UncompressedToSmoothLmConverter.NgramDataBlock block =
+                new UncompressedToSmoothLmConverter.NgramDataBlock(spaceUsage[0], spaceUsage[1], spaceUsage[2]);
+        if (mphfType == SmoothLm.MphfType.SMALL)
+            converter.convertSmall(lmDir, block);
+        else if (mphfType == SmoothLm.MphfType.COMPACT)
+            converter.convertCompact(lmDir, block);
+        else
+            converter.convertLarge(lmDir, block, chunkBits);
     }
 
     public static void main(String[] args) {
@@ -0,0 +1,97 @@
+package zemberek.lm.apps;
+
+import com.google.common.base.Preconditions;
+import org.kohsuke.args4j.Option;
+import zemberek.core.CommandLineApplication;
+import zemberek.core.logging.Log;
+import zemberek.lm.LmVocabulary;
+import zemberek.lm.compression.UncompressedToSmoothLmConverter;
+import zemberek.lm.count.BinaryCorpusGenerator;
+import zemberek.lm.count.KneserNeyEstimator;
+import zemberek.lm.count.NgramCounter;
+import zemberek.lm.count.NgramRecordSorter;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+/**
+ * A command line utility for estimating a modified Kneser-Ney language model from a text corpus.
+ * Run the main method to see the options.
+ */
+public class EstimateLm extends CommandLineApplication {
+
+    @Option(name = "-corpus",
+            required = true,
+            usage = "Text corpus file. A sentence per line, tokens are separated with spaces.")
+    public File corpus;
+
+    @Option(name = "-order",
+            usage = "Order of the model. By default it is 3.")
+    public int order = 3;
+
+    @Option(name = "-lmDir",
+            required = true,
+            usage = "Output directory of the uncompressed multi file model.")
+    public File lmDir;
+
+    @Option(name = "-smoothFile",
+            usage = "If defined, model is also converted to a SmoothLm file with 16-16-16 space usage.")
+    public File smoothLmFile;
+
+    @Option(name = "-tmpDir",
+            usage = "Temporary folder for intermediate files. " +
+                    "Operating System's temporary dir with a random folder is used by default.")
+    public File tmpDir;
+
+    @Option(name = "-memoryRecords",
+            usage = "Maximum amount of n-grams counted by a thread or sorted in memory before they are written " +
+                    "to disk. By default it is 2000000.")
+    public int memoryRecords = 2000000;
+
+    @Option(name = "-threads",
+            usage = "Amount of threads to use for counting and conversion. By default it is 1.")
+    public int threadCount = 1;
+
+    @Option(name = "-noSentenceMarkers",
+            usage = "If used, sentence start and end tokens are not added to sentences automatically.")
+    public boolean noSentenceMarkers = false;
+
+    @Override
+    protected String getDescription() {
+        return "Estimates a modified Kneser-Ney language model from a text corpus.";
+    }
+
+    @Override
+    protected void run() throws IOException {
+        Preconditions.checkArgument(corpus.exists(), corpus + " does not exist. ");
+        Preconditions.checkArgument(order > 0, "Order must be positive. But it is : " + order);
+        Preconditions.checkArgument(memoryRecords > 0,
+                "Unexpected memoryRecords value. Value must be positive. But it is : " + memoryRecords);
+        Preconditions.checkArgument(threadCount > 0,
+                "Unexpected threads value. Value must be positive. But it is : " + threadCount);
+        if (tmpDir == null) {
+            tmpDir = com.google.common.io.Files.createTempDir();
+            tmpDir.deleteOnExit();
+            Log.info(("Using temporary dir: " + tmpDir));
+        } else {
+            Files.createDirectories(tmpDir.toPath());
+        }
+
+        File binaryCorpus = new File(tmpDir, "corpus.bin");
+        LmVocabulary vocabulary = new BinaryCorpusGenerator(
+                corpus, binaryCorpus, new File(tmpDir, "corpus.vocab")).generate(!noSentenceMarkers);
+        NgramRecordSorter[] counts = new NgramCounter(order, tmpDir, memoryRecords, threadCount).count(binaryCorpus);
+        new KneserNeyEstimator(vocabulary, order, tmpDir, memoryRecords).estimate(counts, lmDir);
+        binaryCorpus.delete();
+
+        if (smoothLmFile != null) {
+            new UncompressedToSmoothLmConverter(smoothLmFile, tmpDir, threadCount).convertLarge(
+                    lmDir, new UncompressedToSmoothLmConverter.NgramDataBlock(16, 16, 16), 21);
+        }
+    }
+
+    public static void main(String[] args) {
+        new EstimateLm().execute(args);
+    }
+}
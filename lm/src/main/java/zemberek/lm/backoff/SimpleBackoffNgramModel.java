@@ -6,6 +6,7 @@ import com.google.common.io.Files;
 import com.google.common.io.LineProcessor;
 import zemberek.core.logging.Log;
 import zemberek.core.math.LogMath;
+import zemberek.lm.LmState;
 import zemberek.lm.LmVocabulary;
 import zemberek.lm.NgramLanguageModel;
 
@@ -124,6 +125,63 @@ public class SimpleBackoffNgramModel implements NgramLanguageModel {
         return result;
     }
 
+    @Override
+    public void getProbabilities(int order, int[] ngrams, int gramCount, double[] result) {
+        for (int i = 0; i < gramCount; i++) {
+            result[i] = getProbability(Arrays.copyOfRange(ngrams, i * order, (i + 1) * order));
+        }
+    }
+
+    @Override
+    public void getSequenceProbabilities(int[] ids, double[] result) {
+        for (int i = 0; i < ids.length; i++) {
+            result[i] = getProbability(Arrays.copyOfRange(ids, Math.max(0, i - order + 1), i + 1));
+        }
+    }
+
+    @Override
+    public LmState beginSentence() {
+        LmState state = new LmState(order);
+        if (order > 1) {
+            state.words[0] = vocabulary.getSentenceStartIndex();
+            state.backoffs[0] = getBackoffValue(state.words[0]);
+            state.historyLength = 1;
+            state.length = 1;
+        }
+        return state;
+    }
+
+    @Override
+    public LmState nullContext() {
+        return new LmState(order);
+    }
+
+    @Override
+    public double score(LmState state, int wordId, LmState outState) {
+        if (state == outState)
+            throw new IllegalArgumentException("Output state must be different than the input state.");
+        int[] ids = outState.words;
+        System.arraycopy(state.words, 0, ids, 0, state.historyLength);
+        ids[state.historyLength] = wordId;
+        int end = state.historyLength + 1;
+        double probability = getProbability(Arrays.copyOf(ids, end));
+        outState.length = 0;
+        for (int n = 1; n <= end && n < order; n++) {
+            NgramProb prob = probabilities.get(new NgramData(Arrays.copyOfRange(ids, end - n, end)));
+            if (prob == null)
+                break;
+            outState.backoffs[n - 1] = prob.backoff;
+            outState.length = n;
+        }
+        if (end == order) {
+            System.arraycopy(ids, 1, ids, 0, order - 1);
+            outState.historyLength = order - 1;
+        } else {
+            outState.historyLength = end;
+        }
+        return probability;
+    }
+
     private int[] head(int[] arr) {
         if (arr.length == 1)
             return new int[0];
@@ -9,6 +9,10 @@ import java.io.RandomAccessFile;
 import java.util.Arrays;
 import java.util.Iterator;
 
+/**
+ * Reads n-gram keys of a binary gram file in chunks. Each chunk has its own data array, so chunks can be processed
+ * concurrently after they are read.
+ */
 public class ChunkingNGramReader implements Iterable<IntHashKeyProvider> {
 
     File file;
@@ -34,7 +38,6 @@ public class ChunkingNGramReader implements Iterable<IntHashKeyProvider> {
         byte[] data;
 
         private ChunkIterator() {
-            data = new byte[chunkByteSize];
             try {
                 raf = new RandomAccessFile(file, "r");
                 raf.skipBytes(8);
@@ -45,6 +48,7 @@ public class ChunkingNGramReader implements Iterable<IntHashKeyProvider> {
 
         public boolean hasNext() {
             try {
+                data = new byte[chunkByteSize];
                 readByteAmount = raf.read(data);
                 if (readByteAmount > 0) {
                     if (readByteAmount < chunkByteSize) {
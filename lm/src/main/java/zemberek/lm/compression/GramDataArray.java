@@ -1,161 +1,133 @@
 package zemberek.lm.compression;
 
+import zemberek.core.io.MappedDataInputStream;
+
 import java.io.DataInputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
+/**
+ * Fingerprint, probability rank and back-off rank values of n-grams. Values of an n-gram are stored in a block of
+ * fpBits + probBits + backoffBits bits. Blocks are bit packed in big endian bit order without any padding. So data of
+ * model version 1, where fields are whole bytes, has the same layout. A field is read with a single unaligned long
+ * load followed by a shift.
+ */
 public class GramDataArray {
     int count; // gram count
 
-    int blockSize; // defindes the size of the key data. Such as if 3 bytes FP, 2 bytes Prob , 2 Bytes Backoff blockSize = 7
+    final int blockBits; // size of the key data in bits. Such as if 12 bits FP, 7 bits Prob , 6 bits Backoff blockBits = 25
     final int pageShift; // for getting the page index value this amount of left shift is used. page index value resides on higher bits.
     final int indexMask; // used for obtaining the actual index of the key block.
-    byte[][] data; // holds the actual data. [page count][page length * block size ] bytes
+    ByteBuffer[] data; // holds the actual data. [page count][page length * block bits / 8] bytes. Pages are on heap or memory mapped.
     private static final int MAX_BUF = 0x3fffffff;
-    final int fpSize; // length of fingerprint in bytes
-    final int fpMask; // to access fingerprint data length in bytes.
-    final int probSize; // size of probability data length in bytes
-    final int backoffSize; // size of backoff length in bytes
+    final int fpBits; // length of fingerprint in bits
+    final int fpMask; // to access fingerprint data.
+    final int probBits; // size of probability rank in bits
+    final int backoffBits; // size of backoff rank in bits
 
-    int getPowerOf2(int k, int limit) {
-        if (k <= 2)
-            return 1;
-        int i = 1;
-        while (i < k) {
-            i *= 2;
-        }
-        if (i >= limit)
-            return i / 2;
-        else return i;
+    /**
+     * Loads version 1 gram data, where field sizes are written in bytes.
+     */
+    public GramDataArray(DataInputStream dis) throws IOException {
+        this(dis, 1);
     }
 
-    public GramDataArray(DataInputStream dis) throws IOException {
+    /**
+     * Loads the gram data from the stream. If the stream is a MappedDataInputStream, pages are memory mapped instead
+     * of being read to the heap.
+     *
+     * @param version model version. Field sizes are in bytes for version 1, in bits for later versions.
+     */
+    public GramDataArray(DataInputStream dis, int version) throws IOException {
         count = dis.readInt();
-        this.fpSize = dis.readInt();
-        this.probSize = dis.readInt();
-        this.backoffSize = dis.readInt();
+        int unit = version == 1 ? 8 : 1;
+        this.fpBits = dis.readInt() * unit;
+        this.probBits = dis.readInt() * unit;
+        this.backoffBits = dis.readInt() * unit;
+        if (fpBits > 32 || probBits > 32 || backoffBits > 32)
+            throw new IllegalStateException(
+                    "Field sizes cannot be larger than 32 bits. But they are " + fpBits + "-" + probBits + "-" + backoffBits);
 
-        if (fpSize == 4)
+        if (fpBits == 32)
             fpMask = 0xffffffff;
         else
-            fpMask = (1 << (fpSize * 8)) - 1;
+            fpMask = (1 << fpBits) - 1;
 
-        blockSize = fpSize + probSize + backoffSize;
-        int pageLength = getPowerOf2(MAX_BUF / blockSize, MAX_BUF / blockSize);
-        pageShift = 32 - Integer.numberOfLeadingZeros(pageLength - 1);
-        indexMask = (1 << pageShift - 1) - 1;
-        long l = 0;
-        int pageCounter = 0;
-        while (l < count * blockSize) {
-            pageCounter++;
-            l += (pageLength * blockSize);
-        }
-        data = new byte[pageCounter][];
-        int total = 0;
+        blockBits = fpBits + probBits + backoffBits;
+        // pages have a power of two amount of blocks, so a page has whole bytes and a block is never split to two pages.
+        int pageLength = Integer.highestOneBit((int) Math.min(1 << 30, Math.max(8, MAX_BUF * 8L / Math.max(1, blockBits))));
+        pageShift = 31 - Integer.numberOfLeadingZeros(pageLength);
+        indexMask = pageLength - 1;
+        long dataSize = ((long) count * blockBits + 7) / 8;
+        long pageSize = (long) pageLength * blockBits / 8;
+        int pageCounter = pageSize == 0 ? 0 : (int) ((dataSize + pageSize - 1) / pageSize);
+        data = new ByteBuffer[pageCounter];
+        long total = 0;
         for (int i = 0; i < pageCounter; i++) {
-            if (i < pageCounter - 1) {
-                data[i] = new byte[pageLength * blockSize];
-                total += pageLength * blockSize;
-            } else
-                data[i] = new byte[count * blockSize - total];
-            dis.readFully(data[i]);
+            int size = (int) Math.min(pageSize, dataSize - total);
+            if (dis instanceof MappedDataInputStream) {
+                data[i] = ((MappedDataInputStream) dis).map(size);
+            } else {
+                byte[] page = new byte[size];
+                dis.readFully(page);
+                data[i] = ByteBuffer.wrap(page);
+            }
+            total += size;
         }
     }
 
-    public int getFingerPrint(int index) {
-        final int pageIndex = (index & indexMask) * blockSize;
-        byte[] d = data[index >>> pageShift];
-        switch (fpSize) {
-            case 1:
-                return d[pageIndex] & 0xff;
-            case 2:
-                return ((d[pageIndex] & 0xff) << 8) |
-                        (d[pageIndex + 1] & 0xff);
-            case 3:
-                return ((d[pageIndex] & 0xff) << 16) |
-                        ((d[pageIndex + 1] & 0xff) << 8) |
-                        (d[pageIndex + 2] & 0xff);
-            case 4:
-                return ((d[pageIndex] & 0xff) << 24) |
-                        ((d[pageIndex + 1] & 0xff) << 16) |
-                        ((d[pageIndex + 2] & 0xff) << 8) |
-                        (d[pageIndex + 3] & 0xff);
+    // reads `bits` bits of the block of index, starting from bit `offset` of the block.
+    private int get(int index, int offset, int bits) {
+        final ByteBuffer d = data[index >>> pageShift];
+        final long bitIndex = (long) (index & indexMask) * blockBits + offset;
+        final int byteIndex = (int) (bitIndex >>> 3);
+        long value;
+        if (byteIndex + 8 <= d.limit()) {
+            value = d.getLong(byteIndex);
+        } else {
+            // end of the page. Remaining bytes are read one by one.
+            value = 0;
+            for (int i = 0; i < 8; i++) {
+                value <<= 8;
+                if (byteIndex + i < d.limit())
+                    value |= d.get(byteIndex + i) & 0xff;
+            }
         }
-        return -1;
+        return (int) ((value << (bitIndex & 7)) >>> (64 - bits));
+    }
+
+    public int getFingerPrint(int index) {
+        if (fpBits == 0)
+            return 0;
+        return get(index, 0, fpBits);
     }
 
     public boolean checkFingerPrint(int fpToCheck_, int globalIndex) {
-        final int fpToCheck = fpToCheck_ & fpMask;
-        final int pageIndex = (globalIndex & indexMask) * blockSize;
-        byte[] d = data[globalIndex >>> pageShift];
-        switch (fpSize) {
-            case 1:
-                return fpToCheck == (d[pageIndex] & 0xff);
-            case 2:
-                return (fpToCheck >>> 8 == (d[pageIndex] & 0xff)) && ((fpToCheck & 0xff) == (d[pageIndex + 1] & 0xff));
-            case 3:
-                return (fpToCheck >>> 16 == (d[pageIndex] & 0xff)) &&
-                        ((fpToCheck >>> 8 & 0xff) == (d[pageIndex + 1] & 0xff)) &&
-                        ((fpToCheck & 0xff) == (d[pageIndex + 2] & 0xff));
-            case 4:
-                return (fpToCheck >>> 24 == (d[pageIndex] & 0xff)) &&
-                        ((fpToCheck >>> 16 & 0xff) == (d[pageIndex + 1] & 0xff)) &&
-                        ((fpToCheck >>> 8 & 0xff) == (d[pageIndex + 2] & 0xff)) &&
-                        ((fpToCheck & 0xff) == (d[pageIndex + 3] & 0xff));
-            default:
-                throw new IllegalStateException("fpSize must be between 1 and 4");
-        }
+        if (fpBits == 0)
+            return true;
+        return (fpToCheck_ & fpMask) == get(globalIndex, 0, fpBits);
     }
 
     public int getProbabilityRank(int index) {
-        final int pageId = index >>> pageShift;
-        final int pageIndex = (index & indexMask) * blockSize + fpSize;
-        byte[] d = data[pageId];
-        switch (probSize) {
-            case 1:
-                return d[pageIndex] & 0xff;
-            case 2:
-                return ((d[pageIndex] & 0xff) << 8) |
-                        (d[pageIndex + 1] & 0xff);
-            case 3:
-                return ((d[pageIndex] & 0xff) << 16) |
-                        ((d[pageIndex + 1] & 0xff) << 8) | (d[pageIndex + 2] & 0xff);
-        }
-        return -1;
+        return get(index, fpBits, probBits);
+    }
+
+    public int getBackoffRank(int index) {
+        if (backoffBits == 0)
+            return 0;
+        return get(index, fpBits + probBits, backoffBits);
     }
 
     /**
      * loads fingerprint, probability and backoff values to a single integer.
-     * this is only applicaple when 16 bit fingerprint and 8 bits quantized prob-backoff values are used.
+     * this is only applicaple when total size of the values is 32 bits. Such as 16 bit fingerprint and 8 bits quantized
+     * prob-backoff values.
      *
      * @param index index value
      * @return integer carrying all fingerprint, probability and backoff value. structure is:
      * [fingerprint|probability rank|backoff rank]
      */
     public int getCompact(int index) {
-        final int pageIndex = (index & indexMask) * blockSize;
-        final byte[] d = data[index >>> pageShift];
-        return ((d[pageIndex] & 0xff) << 24) |
-                ((d[pageIndex + 1] & 0xff) << 16) |
-                ((d[pageIndex + 2] & 0xff) << 8) |
-                (d[pageIndex + 3] & 0xff);
-    }
-
-    public int getBackoffRank(int index) {
-        final int pageId = index >>> pageShift;
-        final int pageIndex = (index & indexMask) * blockSize + fpSize + probSize;
-        byte[] d = data[pageId];
-        switch (backoffSize) {
-            case 1:
-                return d[pageIndex] & 0xff;
-            case 2:
-                return ((d[pageIndex] & 0xff) << 8) | (d[pageIndex + 1] & 0xff);
-            case 3:
-                return ((d[pageIndex] & 0xff) << 16) | ((d[pageIndex + 1] & 0xff) << 8) | (d[pageIndex + 2] & 0xff);
-        }
-        return -1;
-    }
-
-    void load(int index, byte[] buff) {
-        System.arraycopy(data[index >>> pageShift], (index & indexMask) * blockSize, buff, 0, blockSize);
+        return get(index, 0, 32);
     }
 }
@@ -38,21 +38,21 @@ public class InMemoryBigByteArray {
         blockSize = raf.readInt();
         int pageLength = getPowerOf2(MAX_BUF / blockSize, MAX_BUF / blockSize);
         pageShift = 32 - Integer.numberOfLeadingZeros(pageLength - 1);
-        indexMask = (1 << pageShift - 1) - 1;
+        indexMask = pageLength - 1;
         long l = 0;
         int pageCounter = 0;
-        while (l < count * blockSize) {
+        while (l < (long) count * blockSize) {
             pageCounter++;
-            l += (pageLength * blockSize);
+            l += ((long) pageLength * blockSize);
         }
         data = new byte[pageCounter][];
-        int total = 0;
+        long total = 0;
         for (int i = 0; i < pageCounter; i++) {
             if (i < pageCounter - 1) {
                 data[i] = new byte[pageLength * blockSize];
                 total += pageLength * blockSize;
             } else
-                data[i] = new byte[count * blockSize - total];
+                data[i] = new byte[(int) ((long) count * blockSize - total)];
             raf.readFully(data[i]);
         }
         raf.close();
@@ -2,9 +2,11 @@ package zemberek.lm.compression;
 
 import com.google.common.base.Joiner;
 import com.google.common.base.Splitter;
+import com.google.common.base.Throwables;
 import com.google.common.io.Closeables;
 import com.google.common.io.Files;
 import com.google.common.io.LineProcessor;
+import com.google.common.util.concurrent.MoreExecutors;
 import zemberek.core.SpaceTabTokenizer;
 import zemberek.core.logging.Log;
 import zemberek.core.quantization.DoubleLookup;
@@ -14,8 +16,14 @@ import zemberek.lm.LmVocabulary;
 
 import java.io.*;
 import java.nio.charset.Charset;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * This is a multiple file representation of an uncompressed backoff language model.
@@ -140,18 +148,71 @@ public class MultiFileUncompressedLm {
     }
 
     public void generateRankFiles(int bit, QuantizerType quantizerType) throws IOException {
-        if (bit > 24)
-            throw new IllegalArgumentException("Cannot generate rank file larger than 24 bits but it is:" + bit);
+        generateRankFiles(bit, quantizerType, MoreExecutors.sameThreadExecutor());
+    }
+
+    /**
+     * Generates probability and back-off rank files of all orders. Each file is generated as a separate task in the
+     * executor, so files of different orders are generated concurrently with a multi thread executor.
+     */
+    public void generateRankFiles(int bit, QuantizerType quantizerType, ExecutorService executor)
+            throws IOException {
+        generateRankFiles(bit, bit, quantizerType, executor);
+    }
+
+    /**
+     * Generates rank files with separate bit sizes for probability and back-off ranks.
+     */
+    public void generateRankFiles(
+            final int probabilityBits,
+            final int backoffBits,
+            final QuantizerType quantizerType,
+            ExecutorService executor) throws IOException {
+        if (probabilityBits > 24)
+            throw new IllegalArgumentException("Cannot generate rank file larger than 24 bits but it is:" + probabilityBits);
+        if (backoffBits > 24)
+            throw new IllegalArgumentException("Cannot generate rank file larger than 24 bits but it is:" + backoffBits);
+        List<Future<Void>> futures = new ArrayList<>();
         for (int i = 1; i < counts.length; i++) {
-            Log.info("Calculating probabilty lookup values for :" + i + " Grams");
-            File probFile = getProbFile(i);
-            generateRankFile(bit, i, probFile, new File(dir, i + PROB_FILE_SUFFIX + ".rank"), quantizerType);
+            final int order = i;
+            futures.add(executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws IOException {
+                    Log.info("Calculating probabilty lookup values for :" + order + " Grams");
+                    File probFile = getProbFile(order);
+                    generateRankFile(probabilityBits, order, probFile, new File(dir, order + PROB_FILE_SUFFIX + ".rank"), quantizerType);
+                    return null;
+                }
+            }));
             if (i < counts.length - 1) {
-                File backoffFile = getBackoffFile(i);
-                Log.info("Calculating lookup values for " + i + " Grams");
-                generateRankFile(bit, i, backoffFile, new File(dir, i + BACKOFF_FILE_SUFFIX + ".rank"), quantizerType);
+                futures.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws IOException {
+                        File backoffFile = getBackoffFile(order);
+                        Log.info("Calculating lookup values for " + order + " Grams");
+                        generateRankFile(backoffBits, order, backoffFile, new File(dir, order + BACKOFF_FILE_SUFFIX + ".rank"), quantizerType);
+                        return null;
+                    }
+                }));
             }
         }
+        for (Future<Void> future : futures) {
+            getResult(future);
+        }
+    }
+
+    /**
+     * Waits for the result of a conversion task. Exceptions of the task are thrown as they are.
+     */
+    static <T> T getResult(Future<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            throw new IllegalStateException("Interrupted while waiting for a conversion task.", e);
+        } catch (ExecutionException e) {
+            Throwables.propagateIfPossible(e.getCause(), IOException.class);
+            throw new IllegalStateException("Error in a conversion task.", e.getCause());
+        }
     }
 
     private void generateRankFile(int bit, int i, File probFile, File rankFile, QuantizerType quantizerType) throws IOException {
@@ -192,12 +253,31 @@ public class MultiFileUncompressedLm {
     }
 
     public static MultiFileUncompressedLm generate(File arpaFile, File dir, String encoding) throws IOException {
+        return generate(arpaFile, dir, encoding, 1);
+    }
+
+    /**
+     * Generates the model from an Arpa file. Lines are read by the calling thread. Higher order n-gram lines are
+     * parsed in batches by `threadCount` threads and written in their original order. So output is same for any
+     * thread count.
+     */
+    public static MultiFileUncompressedLm generate(File arpaFile, File dir, String encoding, int threadCount)
+            throws IOException {
+        if (threadCount < 1)
+            throw new IllegalArgumentException("Thread count must be positive. But it is " + threadCount);
         if (dir.exists() && !dir.isDirectory()) {
             throw new IllegalArgumentException(dir + " is not a directory!");
         } else java.nio.file.Files.createDirectories(dir.toPath());
 
-        long elapsedTime = Files.readLines(arpaFile, Charset.forName(encoding), new ArpaToBinaryConverter(dir));
-        Log.info("Multi file uncompressed binary model is generated in " + (double) elapsedTime / 1000d + " seconds");
+        ExecutorService executor = threadCount == 1 ?
+                MoreExecutors.sameThreadExecutor() : Executors.newFixedThreadPool(threadCount);
+        try {
+            long elapsedTime = Files.readLines(arpaFile, Charset.forName(encoding),
+                    new ArpaToBinaryConverter(dir, executor, threadCount * 2));
+            Log.info("Multi file uncompressed binary model is generated in " + (double) elapsedTime / 1000d + " seconds");
+        } finally {
+            executor.shutdownNow();
+        }
         return new MultiFileUncompressedLm(dir);
     }
 
@@ -231,9 +311,19 @@ public class MultiFileUncompressedLm {
         // This will be generated after reading unigrams.
         LmVocabulary lmVocabulary;
 
-        ArpaToBinaryConverter(File dir) throws FileNotFoundException {
+        // n-gram lines are parsed in batches by the executor. Results are written in submission order.
+        static final int BATCH_SIZE = 10000;
+        ExecutorService executor;
+        int maxPendingBatches;
+        List<String> batch = new ArrayList<>(BATCH_SIZE);
+        ArrayDeque<Future<GramBatch>> pendingBatches = new ArrayDeque<>();
+        long sectionStart;
+
+        ArpaToBinaryConverter(File dir, ExecutorService executor, int maxPendingBatches) throws FileNotFoundException {
             Log.info("Generating multi file uncompressed language model from Arpa file in directory: %s", dir.getAbsolutePath());
             this.dir = dir;
+            this.executor = executor;
+            this.maxPendingBatches = maxPendingBatches;
             start = System.currentTimeMillis();
         }
 
@@ -338,6 +428,7 @@ public class MultiFileUncompressedLm {
                             if (order > 2)
                                 newBackoffStream(2);
                             Log.info("Writing 2-grams.");
+                            sectionStart = System.currentTimeMillis();
                         }
                     }
                     break;
@@ -346,29 +437,23 @@ public class MultiFileUncompressedLm {
                     if (clean.length() == 0 || clean.startsWith("\\")) {
                         break;
                     }
-                    tokens = tokenizer.split(clean);
-                    logProbability = Float.parseFloat(tokens[0]);
-
-                    for (int i = 0; i < _n; i++) {
-                        int id = lmVocabulary.indexOf(tokens[i + 1]);
-                        gramOs.writeInt(id);
-                    }
+                    batch.add(clean);
+                    if (batch.size() == BATCH_SIZE)
+                        submitBatch();
 
-                    // probabilities
-
-                    probOs.writeFloat(logProbability);
-                    if (_n < ngramCounts.size()) {
-                        logBackoff = 0;
-                        if (tokens.length == _n + 2)
-                            logBackoff = Float.parseFloat(tokens[_n + 1]);
-                        backoOffs.writeFloat(logBackoff);
+                    ngramCounter++;
+                    if (ngramCounter % 1000000 == 0) {
+                        long elapsed = Math.max(1, System.currentTimeMillis() - sectionStart);
+                        Log.info("%d %d-grams are read so far. %d grams per second.",
+                                ngramCounter, _n, ngramCounter * 1000L / elapsed);
                     }
 
-                    if (ngramCounter > 0 && ngramCounter % 1000000 == 0)
-                        Log.info(ngramCounter + " grams are written so far.");
-
-                    ngramCounter++;
                     if (ngramCounter == ngramCounts.get(_n - 1)) {
+                        submitBatch();
+                        writeBatches(0);
+                        Log.info("%d %d-grams are written in %d ms.",
+                                ngramCounter, _n, System.currentTimeMillis() - sectionStart);
+                        sectionStart = System.currentTimeMillis();
                         ngramCounter = 0;
                         // if there is no more ngrams, exit
                         if (ngramCounts.size() == _n) {
@@ -396,6 +481,40 @@ public class MultiFileUncompressedLm {
             return true;
         }
 
+        private void submitBatch() throws IOException {
+            if (batch.isEmpty())
+                return;
+            final List<String> lines = batch;
+            final int n = _n;
+            final boolean hasBackoff = _n < ngramCounts.size();
+            batch = new ArrayList<>(BATCH_SIZE);
+            pendingBatches.add(executor.submit(new Callable<GramBatch>() {
+                @Override
+                public GramBatch call() {
+                    return new GramBatch(lines, n, hasBackoff, lmVocabulary);
+                }
+            }));
+            writeBatches(maxPendingBatches);
+        }
+
+        // writes parsed batches in order until at most `maxPending` batches are left.
+        private void writeBatches(int maxPending) throws IOException {
+            while (pendingBatches.size() > maxPending) {
+                GramBatch gramBatch = MultiFileUncompressedLm.getResult(pendingBatches.poll());
+                for (int id : gramBatch.ids) {
+                    gramOs.writeInt(id);
+                }
+                for (float probability : gramBatch.probabilities) {
+                    probOs.writeFloat(probability);
+                }
+                if (gramBatch.backoffs != null) {
+                    for (float backoff : gramBatch.backoffs) {
+                        backoOffs.writeFloat(backoff);
+                    }
+                }
+            }
+        }
+
         // adds undefined specials token with default probability.
         private void handleSpecialToken(String word) throws IOException {
             if (vocabularyBuilder.indexOf(word) == -1 && vocabularyBuilder.indexOf(word.toUpperCase()) == -1) {
@@ -419,4 +538,30 @@ public class MultiFileUncompressedLm {
             return System.currentTimeMillis() - start;
         }
     }
+
+    /**
+     * Parsed ids, probabilities and back-off values of a batch of n-gram lines.
+     */
+    private static class GramBatch {
+        final int[] ids;
+        final float[] probabilities;
+        final float[] backoffs;
+
+        GramBatch(List<String> lines, int n, boolean hasBackoff, LmVocabulary vocabulary) {
+            ids = new int[lines.size() * n];
+            probabilities = new float[lines.size()];
+            backoffs = hasBackoff ? new float[lines.size()] : null;
+            SpaceTabTokenizer tokenizer = new SpaceTabTokenizer();
+            int k = 0;
+            for (int j = 0; j < lines.size(); j++) {
+                String[] tokens = tokenizer.split(lines.get(j));
+                probabilities[j] = Float.parseFloat(tokens[0]);
+                for (int i = 0; i < n; i++) {
+                    ids[k++] = vocabulary.indexOf(tokens[i + 1]);
+                }
+                if (hasBackoff && tokens.length == n + 2)
+                    backoffs[j] = Float.parseFloat(tokens[n + 1]);
+            }
+        }
+    }
 }
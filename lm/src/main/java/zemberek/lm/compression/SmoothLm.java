@@ -1,16 +1,21 @@
 package zemberek.lm.compression;
 
+import zemberek.core.hash.CompactMphf;
 import zemberek.core.hash.LargeNgramMphf;
 import zemberek.core.hash.Mphf;
 import zemberek.core.hash.MultiLevelMphf;
+import zemberek.core.io.MappedDataInputStream;
 import zemberek.core.logging.Log;
 import zemberek.core.math.LogMath;
 import zemberek.core.quantization.DoubleLookup;
+import zemberek.lm.LmState;
 import zemberek.lm.LmVocabulary;
 import zemberek.lm.NgramLanguageModel;
 
 import java.io.*;
+import java.nio.file.Path;
 import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 /**
  * SmoothLm is a compressed, optionally quantized, randomized back-off n-gram language model.
@@ -59,7 +64,8 @@ public class SmoothLm implements NgramLanguageModel {
     private double stupidBackoffAlpha;
     private boolean countFalsePositives;
 
-    LookupCache cache;
+    // shared cache used by getProbability(int...). Null if not used.
+    private ConcurrentLookupCache cache;
 
     int falsePositiveCount;
 
@@ -83,6 +89,7 @@ public class SmoothLm implements NgramLanguageModel {
         private double _stupidBackoffAlpha = DEFAULT_STUPID_BACKOFF_ALPHA;
         private DataInputStream _dis;
         private File _ngramIds;
+        private ConcurrentLookupCache _cache;
 
         public Builder(InputStream is) {
             this._dis = new DataInputStream(new BufferedInputStream(is));
@@ -92,6 +99,22 @@ public class SmoothLm implements NgramLanguageModel {
             this._dis = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
         }
 
+        private Builder(MappedDataInputStream mdis) {
+            this._dis = mdis;
+        }
+
+        /**
+         * Memory maps the model file instead of reading it to the heap. Gram data and MPHF data are used directly
+         * from the mapped file, so loading is fast and heap usage does not depend on the model size. Pages of the file
+         * are shared by the processes that map the same model. Only unigram values, quantization lookups and the
+         * vocabulary are loaded to the heap.
+         *
+         * @param modelFile model file.
+         */
+        public static Builder mmap(Path modelFile) throws IOException {
+            return new Builder(MappedDataInputStream.open(modelFile));
+        }
+
         public Builder logBase(double logBase) {
             this._logBase = logBase;
             return this;
@@ -122,6 +145,23 @@ public class SmoothLm implements NgramLanguageModel {
             return this;
         }
 
+        /**
+         * Attaches a ConcurrentLookupCache with 2^14 slots to the model. getProbability(int...) calls of all threads
+         * use this cache.
+         */
+        public Builder useSharedCache() {
+            return useSharedCache(LookupCache.DEFAULT_LOOKUP_CACHE_SIZE);
+        }
+
+        /**
+         * Attaches a ConcurrentLookupCache with at least `size` slots to the model.
+         * getProbability(int...) calls of all threads use this cache.
+         */
+        public Builder useSharedCache(int size) {
+            this._cache = new ConcurrentLookupCache(size);
+            return this;
+        }
+
         public SmoothLm build() throws IOException {
             return new SmoothLm(
                     _dis,
@@ -130,7 +170,8 @@ public class SmoothLm implements NgramLanguageModel {
                     _unknownBackoffPenalty,
                     _useStupidBackoff,
                     _stupidBackoffAlpha,
-                    _ngramIds);
+                    _ngramIds,
+                    _cache);
         }
     }
 
@@ -149,8 +190,10 @@ public class SmoothLm implements NgramLanguageModel {
             double unknownBackoffPenalty,
             boolean useStupidBackoff,
             double stupidBackoffAlpha,
-            File ngramKeyFileDir) throws IOException {
+            File ngramKeyFileDir,
+            ConcurrentLookupCache cache) throws IOException {
         this(dis); // load the lm data.
+        this.cache = cache;
         // Now apply necessary transformations and configurations
         this.unigramWeight = unigramWeight;
         this.unknownBackoffPenalty = unknownBackoffPenalty;
@@ -197,9 +240,9 @@ public class SmoothLm implements NgramLanguageModel {
             sb.append(String.format("%d Grams: Count= %d  Fingerprint Bits= %d  Probabilty Bits= %d  Back-off bits= %d%n",
                     i,
                     gramDataArray.count,
-                    gramDataArray.fpSize * 8,
-                    gramDataArray.probSize * 8,
-                    gramDataArray.backoffSize * 8));
+                    gramDataArray.fpBits,
+                    gramDataArray.probBits,
+                    gramDataArray.backoffBits));
         }
         sb.append(String.format("Log Base              : %.2f%n", logBase));
         sb.append(String.format("Unigram Weight        : %.2f%n", unigramWeight));
@@ -210,8 +253,12 @@ public class SmoothLm implements NgramLanguageModel {
         return sb.toString();
     }
 
+    /**
+     * SMALL: a single MultiLevelMphf per order. LARGE: LargeNgramMphf, MultiLevelMphf segments for very large key sets.
+     * COMPACT: CompactMphf, less memory per key and mostly a single cache miss per look-up.
+     */
     public static enum MphfType {
-        SMALL, LARGE
+        SMALL, LARGE, COMPACT
     }
 
     private SmoothLm(DataInputStream dis) throws IOException {
@@ -219,8 +266,12 @@ public class SmoothLm implements NgramLanguageModel {
         int typeInt = dis.readInt();
         if (typeInt == 0)
             type = MphfType.SMALL;
-        else
+        else if (typeInt == 1)
             type = MphfType.LARGE;
+        else if (typeInt == 2)
+            type = MphfType.COMPACT;
+        else
+            throw new IllegalStateException("Unknown MPHF type " + typeInt + " in model.");
 
         this.logBase = dis.readDouble();
         this.order = dis.readInt();
@@ -244,7 +295,7 @@ public class SmoothLm implements NgramLanguageModel {
         //load fingerprint, probability and backoff data.
         ngramData = new GramDataArray[order + 1];
         for (int i = 1; i <= order; i++) {
-            ngramData[i] = new GramDataArray(dis);
+            ngramData[i] = new GramDataArray(dis, version);
         }
 
         // we take the unigram probability data out to get rid of rank look-ups for speed.
@@ -264,6 +315,11 @@ public class SmoothLm implements NgramLanguageModel {
             for (int i = 2; i <= order; i++) {
                 mphfs[i] = LargeNgramMphf.deserialize(dis);
             }
+        } else if (type == MphfType.COMPACT) {
+            mphfs = new CompactMphf[order + 1];
+            for (int i = 2; i <= order; i++) {
+                mphfs[i] = CompactMphf.deserialize(dis);
+            }
         } else {
             mphfs = new MultiLevelMphf[order + 1];
             for (int i = 2; i <= order; i++) {
@@ -271,8 +327,11 @@ public class SmoothLm implements NgramLanguageModel {
             }
         }
 
-        // load vocabulary
-        vocabulary = LmVocabulary.loadFromDataInputStream(dis);
+        // load vocabulary. Since version 3 vocabulary is saved with its look-up table and it can be memory mapped.
+        if (version >= 3)
+            vocabulary = LmVocabulary.loadIndexed(dis);
+        else
+            vocabulary = LmVocabulary.loadFromDataInputStream(dis);
 
         // in case special tokens that does not exist in the actual unigrams are added (such as <unk>)
         // we adjust unigram data accordingly.
@@ -533,41 +592,230 @@ public class SmoothLm implements NgramLanguageModel {
      * @return log probability.
      */
     public double getProbability(int... wordIndexes) {
-        int n = wordIndexes.length;
+        checkGramLength(wordIndexes);
+        if (cache != null)
+            return getProbability(cache, wordIndexes);
+        return getProbability(wordIndexes, 0, wordIndexes.length);
+    }
 
-        if (n == 0 || n > order)
+    private void checkGramLength(int[] wordIndexes) {
+        if (wordIndexes.length == 0 || wordIndexes.length > order)
             throw new IllegalArgumentException(
                     "At least one or max Gram Count" + order + " tokens are required. But it is:" + wordIndexes.length);
-        if (n == 1)
-            return unigramProbs[wordIndexes[0]];
-        if (n == 2) {
-            double prob = getProbabilityValue(wordIndexes);
-            if (prob == LOG_ZERO) {
-                return unigramBackoffs[wordIndexes[0]] + unigramProbs[wordIndexes[1]];
+    }
+
+    /**
+     * Same as getProbability(LookupCache, int...) but uses a cache that can be shared by threads.
+     */
+    public double getProbability(ConcurrentLookupCache cache, int... wordIndexes) {
+        checkGramLength(wordIndexes);
+        double cacheValue = cache.check(wordIndexes);
+        if (cacheValue != LOG_ZERO)
+            return cacheValue;
+        else {
+            final double prob = getProbability(wordIndexes, 0, wordIndexes.length);
+            cache.set(wordIndexes, prob);
+            return prob;
+        }
+    }
+
+    /**
+     * @return the shared cache attached with Builder.useSharedCache. Null if there is none.
+     * Cache statistics can be retrieved from it.
+     */
+    public ConcurrentLookupCache getSharedCache() {
+        return cache;
+    }
+
+    // size of the n-gram blocks for batch calculations. MPHF and gram data look-ups of a block are done in separate
+    // passes, so memory accesses of different n-grams can overlap.
+    private static final int BATCH_BLOCK_SIZE = 64;
+
+    /**
+     * Batch version of getProbability(int...). It does not allocate memory.
+     * Look-ups are done in blocks. For each n-gram in a block, fingerprint and MPHF index are calculated first. Then fingerprints are
+     * checked and probabilities are read. Only n-grams that are not found in the model go through back-off
+     * calculation one by one.
+     */
+    @Override
+    public void getProbabilities(int order, int[] ngrams, int gramCount, double[] result) {
+        if (order < 1 || order > this.order)
+            throw new IllegalArgumentException("Order must be in [1.." + this.order + "]. But it is:" + order);
+        if ((long) gramCount * order > ngrams.length || gramCount > result.length)
+            throw new IllegalArgumentException("Not enough n-gram ids or result slots for " + gramCount + " n-grams.");
+        getProbabilities(ngrams, order, order, gramCount, result);
+    }
+
+    /**
+     * Batch version of getProbability(int...) for the words of a sequence. It does not allocate memory.
+     * See getProbabilities(int, int[], int, double[]) for the calculation.
+     */
+    @Override
+    public void getSequenceProbabilities(int[] ids, double[] result) {
+        if (ids.length > result.length)
+            throw new IllegalArgumentException("Result length must be at least " + ids.length);
+        getProbabilities(ids, 1, order, ids.length, result);
+    }
+
+    @Override
+    public LmState beginSentence() {
+        LmState state = new LmState(order);
+        if (order > 1) {
+            state.words[0] = vocabulary.getSentenceStartIndex();
+            state.backoffs[0] = unigramBackoffs[state.words[0]];
+            state.historyLength = 1;
+            state.length = 1;
+        }
+        return state;
+    }
+
+    @Override
+    public LmState nullContext() {
+        return new LmState(order);
+    }
+
+    /**
+     * Incremental version of getProbability(int...). It does not allocate memory.
+     * N-grams ending with the word are looked up from bi-grams to longer n-grams until an n-gram is not found. Longer
+     * n-grams are not looked up if their history n-gram does not exist in the state. Back-off values of the history
+     * are taken from the state, so only one look-up is made for each matched order. Results may only differ from
+     * getProbability(int...) for fingerprint false positives.
+     */
+    @Override
+    public double score(LmState state, int wordId, LmState outState) {
+        if (state == outState)
+            throw new IllegalArgumentException("Output state must be different than the input state.");
+        final int history = state.historyLength;
+        final int[] ids = outState.words;
+        System.arraycopy(state.words, 0, ids, 0, history);
+        ids[history] = wordId;
+        final int end = history + 1;
+
+        double probability = unigramProbs[wordId];
+        int matched = 1;
+        outState.length = 0;
+        if (order > 1) {
+            outState.backoffs[0] = unigramBackoffs[wordId];
+            outState.length = 1;
+        }
+        for (int n = 2; n <= state.length + 1; n++) {
+            int begin = end - n;
+            int fingerPrint = MultiLevelMphf.hash(ids, begin, end, -1);
+            int nGramIndex = mphfs[n].get(ids, begin, end, fingerPrint);
+            if (!ngramData[n].checkFingerPrint(fingerPrint, nGramIndex))
+                break;
+            probability = probabilityLookups[n].get(ngramData[n].getProbabilityRank(nGramIndex));
+            matched = n;
+            if (n < order) {
+                outState.backoffs[n - 1] = backoffLookups[n].get(ngramData[n].getBackoffRank(nGramIndex));
+                outState.length = n;
+            }
+        }
+
+        // apply back-off values of the history n-grams that are longer than the matched history.
+        if (useStupidBackoff) {
+            probability += (end - matched) * stupidBackoffLogAlpha;
+        } else {
+            for (int k = matched; k <= state.length; k++) {
+                probability += state.backoffs[k - 1];
+            }
+            probability += (history - state.length) * unknownBackoffPenalty;
+        }
+
+        if (end == order) {
+            System.arraycopy(ids, 1, ids, 0, order - 1);
+            outState.historyLength = order - 1;
+        } else {
+            outState.historyLength = end;
+        }
+        return probability;
+    }
+
+    // i.th n-gram ends at (i+1)*stride and has at most `window` ids.
+    // stride = window = n-gram order for flat n-gram arrays. stride = 1, window = model order for sequences.
+    private void getProbabilities(int[] ids, int stride, int window, int gramCount, double[] result) {
+        BatchBlock block = batchBlocks.get();
+        int[] fingerPrints = block.fingerPrints;
+        int[] nGramIndexes = block.nGramIndexes;
+        for (int blockStart = 0; blockStart < gramCount; blockStart += BATCH_BLOCK_SIZE) {
+            int blockEnd = Math.min(gramCount, blockStart + BATCH_BLOCK_SIZE);
+            // first pass: fingerprints and MPHF indexes of the n-grams.
+            for (int i = blockStart; i < blockEnd; i++) {
+                int end = (i + 1) * stride;
+                int begin = Math.max(0, end - window);
+                int n = end - begin;
+                if (n > 1) {
+                    int fingerPrint = MultiLevelMphf.hash(ids, begin, end, -1);
+                    fingerPrints[i - blockStart] = fingerPrint;
+                    nGramIndexes[i - blockStart] = mphfs[n].get(ids, begin, end, fingerPrint);
+                }
+            }
+            // second pass: check fingerprints and read probabilities.
+            for (int i = blockStart; i < blockEnd; i++) {
+                int end = (i + 1) * stride;
+                int begin = Math.max(0, end - window);
+                int n = end - begin;
+                if (n == 1) {
+                    result[i] = unigramProbs[ids[begin]];
+                    continue;
+                }
+                int nGramIndex = nGramIndexes[i - blockStart];
+                if (ngramData[n].checkFingerPrint(fingerPrints[i - blockStart], nGramIndex))
+                    result[i] = probabilityLookups[n].get(ngramData[n].getProbabilityRank(nGramIndex));
+                else
+                    result[i] = getProbability(ids, begin, end);
+            }
+        }
+    }
+
+    private final ThreadLocal<BatchBlock> batchBlocks = new ThreadLocal<BatchBlock>() {
+        @Override
+        protected BatchBlock initialValue() {
+            return new BatchBlock();
+        }
+    };
+
+    // fingerprints and MPHF indexes of the n-grams of a batch block. Reused for the batches of a thread.
+    private static class BatchBlock {
+        final int[] fingerPrints = new int[BATCH_BLOCK_SIZE];
+        final int[] nGramIndexes = new int[BATCH_BLOCK_SIZE];
+    }
+
+    /**
+     * Calculates the probability of n-gram wordIndexes[begin..end) without copying it.
+     */
+    private double getProbability(int[] wordIndexes, int begin, int end) {
+        if (end - begin == 1)
+            return unigramProbs[wordIndexes[begin]];
+        if (end - begin == 2) {
+            int fingerPrint = MultiLevelMphf.hash(wordIndexes, begin, end, -1);
+            int nGramIndex = mphfs[2].get(wordIndexes, begin, end, fingerPrint);
+            if (ngramData[2].checkFingerPrint(fingerPrint, nGramIndex)) {
+                return probabilityLookups[2].get(ngramData[2].getProbabilityRank(nGramIndex));
             } else {
-                return prob;
+                double backoff = useStupidBackoff ? stupidBackoffLogAlpha : unigramBackoffs[wordIndexes[begin]];
+                return backoff + unigramProbs[wordIndexes[begin + 1]];
             }
         }
-        int begin = 0;
         double result = 0;
-        int gram = n;
+        int gram = end - begin;
         while (gram > 1) {
             // try to find P(N|begin..N-1)
-            int fingerPrint = MultiLevelMphf.hash(wordIndexes, begin, n, -1);
-            int nGramIndex = mphfs[gram].get(wordIndexes, begin, n, fingerPrint);
+            int fingerPrint = MultiLevelMphf.hash(wordIndexes, begin, end, -1);
+            int nGramIndex = mphfs[gram].get(wordIndexes, begin, end, fingerPrint);
             if (!ngramData[gram].checkFingerPrint(fingerPrint, nGramIndex)) { // if there is no probability value, back off to B(begin..N-1)
                 if (useStupidBackoff) {
                     if (gram == 2)
-                        return result + unigramProbs[wordIndexes[n - 1]] + stupidBackoffLogAlpha;
+                        return result + unigramProbs[wordIndexes[end - 1]] + stupidBackoffLogAlpha;
                     else
                         result += stupidBackoffLogAlpha;
                 } else {
                     // we are already backed off to unigrams because no bigram found. So we return only P(N)+B(N-1)
                     if (gram == 2) {
-                        return result + unigramProbs[wordIndexes[n - 1]] + unigramBackoffs[wordIndexes[begin]];
+                        return result + unigramProbs[wordIndexes[end - 1]] + unigramBackoffs[wordIndexes[begin]];
                     }
-                    fingerPrint = MultiLevelMphf.hash(wordIndexes, begin, n - 1, -1);
-                    nGramIndex = mphfs[gram - 1].get(wordIndexes, begin, n - 1, fingerPrint);
+                    fingerPrint = MultiLevelMphf.hash(wordIndexes, begin, end - 1, -1);
+                    nGramIndex = mphfs[gram - 1].get(wordIndexes, begin, end - 1, fingerPrint);
                     if (ngramData[gram - 1].checkFingerPrint(fingerPrint, nGramIndex)) { //if backoff available, we add it to resutlt.
                         result += backoffLookups[gram - 1].get(ngramData[gram - 1].getBackoffRank(nGramIndex));
                     } else
@@ -578,7 +826,7 @@ public class SmoothLm implements NgramLanguageModel {
                 return result + probabilityLookups[gram].get(ngramData[gram].getProbabilityRank(nGramIndex));
             }
             begin++;
-            gram = n - begin;
+            gram = end - begin;
         }
         return result;
     }
@@ -802,6 +1050,7 @@ public class SmoothLm implements NgramLanguageModel {
      * slot hash is used for locating the current check-hash location.
      * it checks if calculated check-hash is equal to the one in the slot.
      * if it is a hit it returns the probability. If it is a miss, it returns LOG_ZERO as probability.
+     * This class is not thread safe, a cache should be used by a single thread. See ConcurrentLookupCache.
      */
     public static class LookupCache {
         final int[] hashes;
@@ -866,4 +1115,117 @@ public class SmoothLm implements NgramLanguageModel {
         }
     }
 
+    /**
+     * A lock-free LookupCache that can be shared by threads. It can be attached to a model with
+     * Builder.useSharedCache, then getProbability(int...) calls of all threads use the same cache.
+     * Each slot is two longs: probability bits and (64 bit check hash XOR probability bits). A reader accepts a slot
+     * only if XOR of the two words is the check hash of the n-gram. So a slot that is being written by another thread,
+     * or written by two threads at the same time, reads as a miss instead of a wrong probability.
+     * Probability of a false positive is about 1/(2^(64-slot bits)).
+     * Keys are only n-gram indexes, so a cache must not be shared by different models.
+     */
+    public static class ConcurrentLookupCache {
+        final AtomicLongArray slots;
+        final int modulo;
+
+        // hit and miss counters are striped by thread, each counter is on a separate cache line.
+        static final int COUNTER_STRIPES = 16;
+        static final int COUNTER_STRIDE = 8;
+        final AtomicLongArray counters = new AtomicLongArray(COUNTER_STRIPES * COUNTER_STRIDE * 2);
+
+        /**
+         * Generates a cache with 2^14 slots.
+         */
+        public ConcurrentLookupCache() {
+            this(LookupCache.DEFAULT_LOOKUP_CACHE_SIZE);
+        }
+
+        /**
+         * Generates a cache where slot count is the minimum power of two that is not less than the size.
+         */
+        public ConcurrentLookupCache(int size) {
+            int k = 2;
+            while (k < size) {
+                k <<= 1;
+            }
+            modulo = k - 1;
+            slots = new AtomicLongArray(k * 2);
+        }
+
+        private static long checkHash(int[] data) {
+            int slotHash = LookupCache.SLOT_SEED;
+            int checkHash = LookupCache.CHECK_SEED;
+            for (int a : data) {
+                slotHash = (slotHash ^ a) * 16777619;
+                checkHash = (checkHash ^ a) * 0x3a8f057b;
+            }
+            // lower bits of the slot hash is the slot index, rest of it adds to the check bits.
+            return ((long) checkHash << 32) | (slotHash & 0xffffffffL);
+        }
+
+        /**
+         * @return Probability value if data was already in the cache. LogMath.LOG_ZERO otherwise.
+         */
+        public double check(int[] data) {
+            long hash = checkHash(data);
+            int slot = ((int) hash & modulo) * 2;
+            long check = slots.get(slot);
+            long value = slots.get(slot + 1);
+            int counter = counterIndex();
+            if ((check ^ value) == hash) {
+                counters.incrementAndGet(counter);
+                return Double.longBitsToDouble(value);
+            }
+            counters.incrementAndGet(counter + COUNTER_STRIDE);
+            return LOG_ZERO;
+        }
+
+        /**
+         * Sets the input data's hash and probability value.
+         */
+        public void set(int[] data, double prob) {
+            long hash = checkHash(data);
+            int slot = ((int) hash & modulo) * 2;
+            long value = Double.doubleToRawLongBits(prob);
+            slots.lazySet(slot + 1, value);
+            slots.lazySet(slot, hash ^ value);
+        }
+
+        private static int counterIndex() {
+            return ((int) Thread.currentThread().getId() & (COUNTER_STRIPES - 1)) * COUNTER_STRIDE * 2;
+        }
+
+        private long sum(int offset) {
+            long total = 0;
+            for (int i = 0; i < COUNTER_STRIPES; i++) {
+                total += counters.get(i * COUNTER_STRIDE * 2 + offset);
+            }
+            return total;
+        }
+
+        /**
+         * @return amount of check calls that found the n-gram.
+         */
+        public long hitCount() {
+            return sum(0);
+        }
+
+        /**
+         * @return amount of check calls that did not find the n-gram.
+         */
+        public long missCount() {
+            return sum(COUNTER_STRIDE);
+        }
+
+        public double hitRate() {
+            long hits = hitCount();
+            long total = hits + missCount();
+            return total == 0 ? 0 : (double) hits / total;
+        }
+
+        public int slotCount() {
+            return modulo + 1;
+        }
+    }
+
 }
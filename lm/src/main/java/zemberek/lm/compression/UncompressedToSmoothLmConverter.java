@@ -1,20 +1,33 @@
 package zemberek.lm.compression;
 
+import com.google.common.base.Stopwatch;
 import com.google.common.io.Files;
+import com.google.common.util.concurrent.MoreExecutors;
+import zemberek.core.hash.CompactMphf;
 import zemberek.core.hash.IntHashKeyProvider;
 import zemberek.core.hash.LargeNgramMphf;
 import zemberek.core.hash.Mphf;
 import zemberek.core.hash.MultiLevelMphf;
 import zemberek.core.logging.Log;
 import zemberek.core.quantization.QuantizerType;
+import zemberek.lm.LmVocabulary;
 
 import java.io.*;
+import java.util.ArrayDeque;
 import java.util.BitSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 public class UncompressedToSmoothLmConverter {
-    private static final int VERSION = 1;
+    // version 2 stores n-gram data field sizes in bits. version 3 stores the vocabulary with its look-up table.
+    private static final int VERSION = 3;
+    private static final int REORDER_CHUNK_SIZE = 1000000;
     File lmFile;
     File tempDir;
+    int threadCount = 1;
 
     int order;
 
@@ -23,6 +36,19 @@ public class UncompressedToSmoothLmConverter {
         this.tempDir = tempDir;
     }
 
+    /**
+     * Creates a converter that uses `threadCount` threads. Rank files of different orders, MPHF segments of large
+     * models, MPHF hash seeds of small models and index reordering chunks are processed concurrently. Output is same
+     * with the single threaded conversion.
+     */
+    public UncompressedToSmoothLmConverter(File lmFile, File tempDir, int threadCount) {
+        if (threadCount < 1)
+            throw new IllegalArgumentException("Thread count must be positive. But it is " + threadCount);
+        this.lmFile = lmFile;
+        this.tempDir = tempDir;
+        this.threadCount = threadCount;
+    }
+
     public void convertSmall(File binaryUncompressedLmDir, NgramDataBlock block) throws IOException {
         convert(binaryUncompressedLmDir, block, SmoothLm.MphfType.SMALL, null, -1);
     }
@@ -36,42 +62,58 @@ public class UncompressedToSmoothLmConverter {
         convert(binaryUncompressedLmDir, block, SmoothLm.MphfType.LARGE, oneBasedMphfFiles, chunkBits);
     }
 
+    /**
+     * Converts the model with CompactMphf n-gram hashes. Model uses less memory for hashes than other types, but MPHF
+     * generation needs all keys of an order in memory as MultiLevelMphf.
+     */
+    public void convertCompact(File binaryUncompressedLmDir, NgramDataBlock block) throws IOException {
+        convert(binaryUncompressedLmDir, block, SmoothLm.MphfType.COMPACT, null, -1);
+    }
+
     private void convert(File binaryUncompressedLmDir,
                          NgramDataBlock block,
                          SmoothLm.MphfType type,
                          File[] oneBasedMphfFiles,
                          int chunkBits) throws IOException {
+        ExecutorService executor = threadCount == 1 ?
+                MoreExecutors.sameThreadExecutor() : Executors.newFixedThreadPool(threadCount);
+        try {
+            convert(binaryUncompressedLmDir, block, type, oneBasedMphfFiles, chunkBits, executor);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private void convert(File binaryUncompressedLmDir,
+                         NgramDataBlock block,
+                         SmoothLm.MphfType type,
+                         File[] oneBasedMphfFiles,
+                         int chunkBits,
+                         ExecutorService executor) throws IOException {
 
-        Log.info("Generating compressed language model.");
+        Log.info("Generating compressed language model with %d threads.", threadCount);
+        Stopwatch sw = Stopwatch.createStarted();
 
         MultiFileUncompressedLm lm = new MultiFileUncompressedLm(binaryUncompressedLmDir);
 
-        lm.generateRankFiles(block.probabilitySize * 8, QuantizerType.BINNING);
+        lm.generateRankFiles(block.probabilityBits, block.backoffBits, QuantizerType.BINNING, executor);
+        Log.info("Rank files are generated in %d ms.", sw.elapsed(TimeUnit.MILLISECONDS));
 
         order = lm.order;
 
         DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(lmFile)));
 
         // generate Minimal Perfect Hash functions for 2,3...n grams and save them as separate files.
-
+        // MPHFs are generated one order at a time. Large MPHF segments or small MPHF hash seeds are
+        // searched concurrently.
         File[] phfFiles = new File[order + 1];
         if (oneBasedMphfFiles != null) {
             phfFiles = oneBasedMphfFiles;
         } else {
             for (int i = 2; i <= order; i++) {
-                Mphf mphf;
-                if (type == SmoothLm.MphfType.LARGE)
-                    mphf = LargeNgramMphf.generate(lm.getGramFile(i), chunkBits);
-                else
-                    mphf = MultiLevelMphf.generate(lm.getGramFile(i));
-                Log.info("MPHF is generated for order %d with %d keys. Average bits per key: %.3f",
-                        i,
-                        mphf.size(),
-                        mphf.averageBitsPerKey());
-                File mphfFile = new File(tempDir, lmFile.getName() + String.valueOf(i) + "gram.mphf");
-                phfFiles[i] = mphfFile;
-                mphf.serialize(mphfFile);
+                phfFiles[i] = generateMphf(lm, i, type, chunkBits, executor);
             }
+            Log.info("MPHFs are generated in %d ms.", sw.elapsed(TimeUnit.MILLISECONDS));
         }
         // generate header.
         Log.info("Writing header");
@@ -81,8 +123,10 @@ public class UncompressedToSmoothLmConverter {
         // write Mphf type
         if (type == SmoothLm.MphfType.SMALL)
             dos.writeInt(0);
-        else
+        else if (type == SmoothLm.MphfType.LARGE)
             dos.writeInt(1);
+        else
+            dos.writeInt(2);
 
         // write log-base
         dos.writeDouble(10d);
@@ -123,47 +167,44 @@ public class UncompressedToSmoothLmConverter {
                 reorderData = new ReorderData(reorderedIndexes, new int[0]);
             } else {
                 if (type == SmoothLm.MphfType.LARGE) {
-                    reorderData = reorderIndexes(block, lm, i, LargeNgramMphf.deserialize(phfFiles[i]));
+                    reorderData = reorderIndexes(block, lm, i, LargeNgramMphf.deserialize(phfFiles[i]), executor);
+                } else if (type == SmoothLm.MphfType.COMPACT) {
+                    reorderData = reorderIndexes(block, lm, i, CompactMphf.deserialize(phfFiles[i]), executor);
                 } else {
-                    reorderData = reorderIndexes(block, lm, i, MultiLevelMphf.deserialize(phfFiles[i]));
+                    reorderData = reorderIndexes(block, lm, i, MultiLevelMphf.deserialize(phfFiles[i]), executor);
                 }
             }
             Log.info("Validating reordered index array for order: %d", i);
 
             validateIndexArray(reorderData.reorderedKeyIndexes);
 
-            int fingerPrintSize = block.fingerPrintSize;
+            int fingerPrintBits = block.fingerPrintBits;
             if (i == 1) {
-                fingerPrintSize = 0;
+                fingerPrintBits = 0;
             }
-            int backOffSize = block.backoffSize;
+            int backoffBits = block.backoffBits;
             if (i == order) {
-                backOffSize = 0;
+                backoffBits = 0;
             }
 
             dos.writeInt(gramCount);
-            dos.writeInt(fingerPrintSize);
-            dos.writeInt(block.probabilitySize);
-            dos.writeInt(backOffSize);
-
-            byte[] probBuff = new byte[block.probabilitySize];
-            byte[] fpBuff = new byte[fingerPrintSize];
-            byte[] backoffBuff = new byte[backOffSize];
+            dos.writeInt(fingerPrintBits);
+            dos.writeInt(block.probabilityBits);
+            dos.writeInt(backoffBits);
 
+            BitWriter writer = new BitWriter(dos);
             for (int k = 0; k < gramCount; k++) {
                 // save fingerprint values for 2,3,.. grams.
                 if (i > 1) {
-                    block.fingerprintAsBytes(reorderData.fingerprints[k], fpBuff);
-                    dos.write(fpBuff);
+                    writer.write(reorderData.fingerprints[k], fingerPrintBits);
                 }
-                probData.get(reorderData.reorderedKeyIndexes[k], probBuff);
-                dos.write(probBuff);
+                writer.write(probData.getInt(reorderData.reorderedKeyIndexes[k]), block.probabilityBits);
                 // write backoff value if exists.
                 if (backoffData != null) {
-                    backoffData.get(reorderData.reorderedKeyIndexes[k], backoffBuff);
-                    dos.write(backoffBuff);
+                    writer.write(backoffData.getInt(reorderData.reorderedKeyIndexes[k]), backoffBits);
                 }
             }
+            writer.flush();
         }
 
         // append size of the Perfect hash and its content.
@@ -176,10 +217,35 @@ public class UncompressedToSmoothLmConverter {
 
         // save vocabulary
         Log.info("Saving vocabulary.");
-        Files.copy(lm.getVocabularyFile(), dos);
+        LmVocabulary.loadFromBinary(lm.getVocabularyFile()).saveIndexed(dos);
 
         dos.close();
+        Log.info("Compressed language model is generated in %d ms.", sw.elapsed(TimeUnit.MILLISECONDS));
+    }
 
+    // generates and serializes the MPHF of given order. Executor is used for large MPHF segments or small MPHF seeds.
+    private File generateMphf(
+            MultiFileUncompressedLm lm,
+            int n,
+            SmoothLm.MphfType type,
+            int chunkBits,
+            ExecutorService executor) throws IOException {
+        Mphf mphf;
+        if (type == SmoothLm.MphfType.LARGE)
+            mphf = LargeNgramMphf.generate(lm.getGramFile(n), chunkBits, executor);
+        else if (type == SmoothLm.MphfType.COMPACT)
+            mphf = CompactMphf.generate(lm.getGramFile(n));
+        else if (threadCount > 1)
+            mphf = MultiLevelMphf.generate(lm.getGramFile(n), executor);
+        else
+            mphf = MultiLevelMphf.generate(lm.getGramFile(n));
+        Log.info("MPHF is generated for order %d with %d keys. Average bits per key: %.3f",
+                n,
+                mphf.size(),
+                mphf.averageBitsPerKey());
+        File mphfFile = new File(tempDir, lmFile.getName() + String.valueOf(n) + "gram.mphf");
+        mphf.serialize(mphfFile);
+        return mphfFile;
     }
 
     private class ReorderData {
@@ -219,43 +285,71 @@ public class UncompressedToSmoothLmConverter {
      * @return reordered key indexes and those keys fingerprint values.
      * @throws java.io.IOException
      */
-    private ReorderData reorderIndexes(NgramDataBlock block, MultiFileUncompressedLm lm, int _order, Mphf mphf) throws IOException {
-        ChunkingNGramReader reader = new ChunkingNGramReader(lm.getGramFile(_order), _order, 1000000);
-        int[] reorderedIndexes = new int[lm.getCount(_order)];
-        int[] fingerPrints = new int[lm.getCount(_order)];
+    private ReorderData reorderIndexes(
+            final NgramDataBlock block,
+            MultiFileUncompressedLm lm,
+            int _order,
+            final Mphf mphf,
+            ExecutorService executor) throws IOException {
+        ChunkingNGramReader reader = new ChunkingNGramReader(lm.getGramFile(_order), _order, REORDER_CHUNK_SIZE);
+        final int[] reorderedIndexes = new int[lm.getCount(_order)];
+        final int[] fingerPrints = new int[lm.getCount(_order)];
+        // Chunks are processed concurrently. Amount of chunks in memory is limited.
+        ArrayDeque<Future<Void>> pending = new ArrayDeque<>();
         int counter = 0;
-        for (IntHashKeyProvider provider : reader) {
-            for (int k = 0; k < provider.keyAmount(); k++) {
-                final int[] key = provider.getKey(k);
-                final int hashVal = mphf.get(key);
-                reorderedIndexes[hashVal] = counter;
-                fingerPrints[hashVal] = block.fingerprint(key);
-                counter++;
+        long start = System.currentTimeMillis();
+        for (final IntHashKeyProvider provider : reader) {
+            final int chunkStart = counter;
+            pending.add(executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    for (int k = 0; k < provider.keyAmount(); k++) {
+                        final int[] key = provider.getKey(k);
+                        final int hashVal = mphf.get(key);
+                        reorderedIndexes[hashVal] = chunkStart + k;
+                        fingerPrints[hashVal] = block.fingerprint(key);
+                    }
+                    return null;
+                }
+            }));
+            counter += provider.keyAmount();
+            while (pending.size() > threadCount * 2) {
+                MultiFileUncompressedLm.getResult(pending.poll());
             }
         }
+        while (!pending.isEmpty()) {
+            MultiFileUncompressedLm.getResult(pending.poll());
+        }
+        long elapsed = Math.max(1, System.currentTimeMillis() - start);
+        Log.info("%d %d-grams are reordered in %d ms. %d grams per second.",
+                counter, _order, elapsed, counter * 1000L / elapsed);
         return new ReorderData(reorderedIndexes, fingerPrints);
     }
 
+    /**
+     * Fingerprint, probability rank and back-off rank sizes in bits. Values of an n-gram are bit packed in the model,
+     * so sizes do not need to be multiples of 8.
+     */
     public static class NgramDataBlock {
-        int fingerPrintSize;
-        int probabilitySize;
-        int backoffSize;
+        int fingerPrintBits;
+        int probabilityBits;
+        int backoffBits;
         int fingerprintMask;
 
         public NgramDataBlock(int fingerPrintBits, int probabilityBits, int backoffBits) {
-            if (fingerPrintBits % 8 != 0) {
-                throw new IllegalArgumentException("FingerPrint bit size must be an order of 8");
+            if (fingerPrintBits < 1 || fingerPrintBits > 32) {
+                throw new IllegalArgumentException("FingerPrint bit size must be between 1 and 32. But it is " + fingerPrintBits);
             }
-            if (probabilityBits % 8 != 0) {
-                throw new IllegalArgumentException("Probability bit size must be an order of 8");
+            if (probabilityBits < 1 || probabilityBits > 24) {
+                throw new IllegalArgumentException("Probability bit size must be between 1 and 24. But it is " + probabilityBits);
             }
-            if (backoffBits % 8 != 0) {
-                throw new IllegalArgumentException("Backoff bit size must be an order of 8");
+            if (backoffBits < 1 || backoffBits > 24) {
+                throw new IllegalArgumentException("Backoff bit size must be between 1 and 24. But it is " + backoffBits);
             }
-            this.fingerPrintSize = fingerPrintBits / 8;
-            this.probabilitySize = probabilityBits / 8;
-            this.backoffSize = backoffBits / 8;
-            if (fingerPrintBits == 4) {
+            this.fingerPrintBits = fingerPrintBits;
+            this.probabilityBits = probabilityBits;
+            this.backoffBits = backoffBits;
+            if (fingerPrintBits == 32) {
                 this.fingerprintMask = 0xffffffff;
             } else
                 this.fingerprintMask = (1 << fingerPrintBits) - 1;
@@ -264,33 +358,36 @@ public class UncompressedToSmoothLmConverter {
         int fingerprint(int[] key) {
             return MultiLevelMphf.hash(key, -1) & fingerprintMask;
         }
+    }
+
+    /**
+     * Writes values with arbitrary bit sizes as a big endian bit stream.
+     */
+    private static class BitWriter {
+        final DataOutputStream dos;
+        long buffer; // pending bits are on the lower bits.
+        int bitCount; // amount of pending bits. Always less than 8 after a write.
+
+        BitWriter(DataOutputStream dos) {
+            this.dos = dos;
+        }
 
-        void fingerprintAsBytes(int fingerprint, byte[] res) {
-            int k = 0;
-            switch (fingerPrintSize) {
-                case 1:
-                    res[k] = (byte) (fingerprint & 0xff);
-                    break;
-                case 2:
-                    res[k] = (byte) ((fingerprint >>> 8) & 0xff);
-                    res[k + 1] = (byte) (fingerprint & 0xff);
-                    break;
-                case 3:
-                    res[k] = (byte) ((fingerprint >>> 16) & 0xff);
-                    res[k + 1] = (byte) ((fingerprint >>> 8) & 0xff);
-                    res[k + 2] = (byte) (fingerprint & 0xff);
-                    break;
-                case 4:
-                    res[k] = (byte) ((fingerprint >>> 24) & 0xff);
-                    res[k + 1] = (byte) ((fingerprint >>> 16) & 0xff);
-                    res[k + 2] = (byte) ((fingerprint >>> 8) & 0xff);
-                    res[k + 3] = (byte) (fingerprint & 0xff);
-                    break;
+        void write(int value, int bits) throws IOException {
+            buffer = (buffer << bits) | (value & ((1L << bits) - 1));
+            bitCount += bits;
+            while (bitCount >= 8) {
+                bitCount -= 8;
+                dos.write((int) (buffer >>> bitCount) & 0xff);
             }
         }
 
-        void fingerprintAsBytes(int[] key, byte[] res) {
-            fingerprintAsBytes(MultiLevelMphf.hash(key, -1) & fingerprintMask, res);
+        // writes the remaining bits, padded with zeroes to a whole byte.
+        void flush() throws IOException {
+            if (bitCount > 0) {
+                dos.write((int) (buffer << (8 - bitCount)) & 0xff);
+                bitCount = 0;
+            }
+            buffer = 0;
         }
     }
 }
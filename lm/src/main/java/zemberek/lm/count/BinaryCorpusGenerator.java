@@ -1,11 +1,91 @@
 package zemberek.lm.count;
 
+import com.google.common.base.Charsets;
+import zemberek.core.SpaceTabTokenizer;
+import zemberek.core.logging.Log;
+import zemberek.lm.LmVocabulary;
+
+import java.io.*;
+import java.nio.charset.Charset;
+
 /**
- * Generates a binary corpus
+ * Generates a binary corpus from a text corpus. Text corpus has a sentence per line and tokens are separated with
+ * spaces or tabs. Binary corpus is:
+ * <p/>int32 token count of a sentence
+ * <p/>int32... token ids of the sentence
+ * <p/>...
+ * <p/>Sentences are written one after another until the end of the file. Vocabulary of the corpus is saved with
+ * LmVocabulary binary format. Sentence start, sentence end and unknown word tokens always have ids 0, 1 and 2.
+ * Corpus is processed line by line, so only the vocabulary is kept in memory.
  */
 public class BinaryCorpusGenerator {
 
-    public void generate(boolean autoAddSentenceMarkers) {
+    private final File corpusFile;
+    private final File binaryCorpusFile;
+    private final File vocabularyFile;
+    private final Charset charset;
+
+    public BinaryCorpusGenerator(File corpusFile, File binaryCorpusFile, File vocabularyFile) {
+        this(corpusFile, binaryCorpusFile, vocabularyFile, Charsets.UTF_8);
+    }
+
+    public BinaryCorpusGenerator(File corpusFile, File binaryCorpusFile, File vocabularyFile, Charset charset) {
+        this.corpusFile = corpusFile;
+        this.binaryCorpusFile = binaryCorpusFile;
+        this.vocabularyFile = vocabularyFile;
+        this.charset = charset;
+    }
+
+    /**
+     * Generates the binary corpus and vocabulary files.
+     *
+     * @param autoAddSentenceMarkers if true, sentence start and end tokens are added to sentences that do not have them.
+     * @return vocabulary of the corpus.
+     * @throws IOException
+     */
+    public LmVocabulary generate(boolean autoAddSentenceMarkers) throws IOException {
+        LmVocabulary.Builder builder = LmVocabulary.builder();
+        String sentenceStart = "<s>";
+        String sentenceEnd = "</s>";
+        int startId = builder.add(sentenceStart);
+        int endId = builder.add(sentenceEnd);
+        builder.add("<unk>");
 
+        SpaceTabTokenizer tokenizer = new SpaceTabTokenizer();
+        long sentenceCount = 0;
+        long tokenCount = 0;
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(new FileInputStream(corpusFile), charset));
+             DataOutputStream dos = new DataOutputStream(
+                     new BufferedOutputStream(new FileOutputStream(binaryCorpusFile), 1 << 16))) {
+            String line;
+            int[] ids = new int[16];
+            while ((line = reader.readLine()) != null) {
+                String[] tokens = tokenizer.split(line.trim());
+                if (tokens.length == 0)
+                    continue;
+                if (ids.length < tokens.length + 2)
+                    ids = new int[tokens.length + 2];
+                int k = 0;
+                if (autoAddSentenceMarkers && !tokens[0].equals(sentenceStart))
+                    ids[k++] = startId;
+                for (String token : tokens) {
+                    ids[k++] = builder.add(token);
+                }
+                if (autoAddSentenceMarkers && !tokens[tokens.length - 1].equals(sentenceEnd))
+                    ids[k++] = endId;
+                dos.writeInt(k);
+                for (int i = 0; i < k; i++) {
+                    dos.writeInt(ids[i]);
+                }
+                sentenceCount++;
+                tokenCount += k;
+            }
+        }
+        LmVocabulary vocabulary = builder.generate();
+        vocabulary.saveBinary(vocabularyFile);
+        Log.info("Binary corpus is generated with %d sentences, %d tokens and %d words.",
+                sentenceCount, tokenCount, vocabulary.size());
+        return vocabulary;
     }
 }
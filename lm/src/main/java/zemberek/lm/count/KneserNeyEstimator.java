@@ -0,0 +1,421 @@
+package zemberek.lm.count;
+
+import zemberek.core.logging.Log;
+import zemberek.lm.LmVocabulary;
+import zemberek.lm.compression.MultiFileUncompressedLm;
+
+import java.io.*;
+import java.util.Arrays;
+
+/**
+ * Estimates an interpolated modified Kneser-Ney language model from n-gram counts and writes it with
+ * MultiFileUncompressedLm layout. So it can be converted to a SmoothLm directly.
+ * <p/>Estimation is done with sorted record streams, so memory usage does not depend on the amount of n-grams except
+ * order 1 values, which are kept in memory.
+ * <ul>
+ * <li>Adjusted counts: highest order n-grams and n-grams that start with the sentence start token use their counts.
+ * Others use the amount of distinct words that precede them.</li>
+ * <li>Discounts D1, D2 and D3+ of each order are calculated from counts of adjusted counts.</li>
+ * <li>Adjusted n-grams are read in id order, so n-grams with same context come together. Discounted probability
+ * and interpolation weight of the context are calculated and records are sorted by reversed ids.</li>
+ * <li>In reversed id order, n-grams come in the order of their lower order suffixes. So interpolation with lower order
+ * probabilities is done by merging the record stream with lower order probabilities.</li>
+ * </ul>
+ * Interpolation weight of a context is its back-off value, so written model is a regular back-off model.
+ * Sentence start token has probability 10^-99 and unigram probabilities are interpolated with uniform distribution.
+ */
+public class KneserNeyEstimator {
+
+    // log10 probability of sentence start token. It is never predicted.
+    static final float SENTENCE_START_LOG_PROBABILITY = -99;
+
+    final LmVocabulary vocabulary;
+    final int order;
+    final File tempDir;
+    final int maxRecordsInMemory;
+    final int sentenceStartId;
+
+    double[][] discounts;
+
+    /**
+     * @param vocabulary         vocabulary of the counted corpus.
+     * @param order              order of the model.
+     * @param tempDir            directory for intermediate files.
+     * @param maxRecordsInMemory maximum amount of n-gram records kept in memory for sorting.
+     */
+    public KneserNeyEstimator(LmVocabulary vocabulary, int order, File tempDir, int maxRecordsInMemory) {
+        this.vocabulary = vocabulary;
+        this.order = order;
+        this.tempDir = tempDir;
+        this.maxRecordsInMemory = maxRecordsInMemory;
+        this.sentenceStartId = vocabulary.getSentenceStartIndex();
+    }
+
+    /**
+     * Estimates the model from n-gram counts of NgramCounter and writes it to `lmDir`.
+     *
+     * @param counts one based array of n-gram count sorters.
+     * @param lmDir  output directory.
+     * @return generated model.
+     */
+    public MultiFileUncompressedLm estimate(NgramRecordSorter[] counts, File lmDir) throws IOException {
+        if (counts.length != order + 1)
+            throw new IllegalArgumentException("Expected counts for " + order + " orders but there are " +
+                    (counts.length - 1));
+        java.nio.file.Files.createDirectories(lmDir.toPath());
+        long start = System.currentTimeMillis();
+
+        File[] countFiles = new File[order + 1];
+        for (int n = 1; n <= order; n++) {
+            countFiles[n] = tempFile(n + ".counts");
+            counts[n].mergeTo(countFiles[n]);
+        }
+
+        // adjusted counts and counts of them.
+        File[] adjustedFiles = new File[order + 1];
+        long[] gramCounts = new long[order + 1];
+        long[][] countOfCounts = new long[order + 1][5];
+        adjustedFiles[order] = countFiles[order];
+        for (int n = order; n >= 1; n--) {
+            if (n < order)
+                adjustedFiles[n] = adjustCounts(n, countFiles[n], countFiles[n + 1]);
+            try (NgramRecordSorter.RecordReader reader = new NgramRecordSorter.RecordReader(adjustedFiles[n], n, 1)) {
+                while (reader.next()) {
+                    if (n == 1 && reader.key[0] == sentenceStartId)
+                        continue;
+                    gramCounts[n]++;
+                    int count = reader.values[0];
+                    if (count <= 4)
+                        countOfCounts[n][count]++;
+                }
+            }
+        }
+        for (int n = 1; n < order; n++) {
+            countFiles[n].delete();
+        }
+
+        discounts = new double[order + 1][];
+        for (int n = 1; n <= order; n++) {
+            discounts[n] = discounts(n, countOfCounts[n]);
+            Log.info("Order %d: %d n-grams. Discounts D1= %.4f D2= %.4f D3+= %.4f",
+                    n, gramCounts[n], discounts[n][1], discounts[n][2], discounts[n][3]);
+        }
+        Log.info("Counts are adjusted in %d ms.", System.currentTimeMillis() - start);
+
+        // discounted probabilities and interpolation weights from highest order to lowest.
+        File[] gammaFiles = new File[order + 1];
+        NgramRecordSorter[] suffixSorters = new NgramRecordSorter[order + 1];
+        for (int n = order; n >= 2; n--) {
+            gammaFiles[n - 1] = tempFile((n - 1) + ".gamma");
+            suffixSorters[n] = new NgramRecordSorter(tempDir, n + ".suffix", n, 3, false, maxRecordsInMemory);
+            discount(n, adjustedFiles[n], gammaFiles[n], gammaFiles[n - 1], suffixSorters[n]);
+            adjustedFiles[n].delete();
+            if (gammaFiles[n] != null)
+                gammaFiles[n].delete();
+        }
+
+        // gram counts of the model. Unigrams are all vocabulary words including the sentence start token.
+        int[] modelCounts = new int[order + 1];
+        modelCounts[1] = vocabulary.size();
+        for (int n = 2; n <= order; n++) {
+            modelCounts[n] = (int) gramCounts[n];
+        }
+        try (DataOutputStream dos = NgramRecordSorter.output(new File(lmDir, MultiFileUncompressedLm.INFO_FILE_NAME))) {
+            dos.writeInt(order);
+            for (int n = 1; n <= order; n++) {
+                dos.writeInt(modelCounts[n]);
+            }
+        }
+
+        // interpolation from lowest order to highest.
+        double[] unigramProbabilities = writeUnigrams(adjustedFiles[1], gammaFiles[1], lmDir);
+        adjustedFiles[1].delete();
+        if (gammaFiles[1] != null)
+            gammaFiles[1].delete();
+        File lowerProbabilities = null;
+        for (int n = 2; n <= order; n++) {
+            lowerProbabilities = interpolate(n, modelCounts[n], suffixSorters[n], unigramProbabilities,
+                    lowerProbabilities, lmDir);
+        }
+        vocabulary.saveBinary(new File(lmDir, MultiFileUncompressedLm.VOCAB_FILE_NAME));
+        Log.info("Kneser-Ney model is estimated in %d ms.", System.currentTimeMillis() - start);
+        return new MultiFileUncompressedLm(lmDir);
+    }
+
+    private File tempFile(String name) {
+        return new File(tempDir, name);
+    }
+
+    // adjusted counts of order n. N-grams that start with sentence start use counts. Others use the amount of
+    // distinct n+1 grams they are the suffix of.
+    private File adjustCounts(int n, File countFile, File higherCountFile) throws IOException {
+        NgramRecordSorter continuations = new NgramRecordSorter(
+                tempDir, n + ".continuation", n, 1, true, maxRecordsInMemory);
+        final int[] one = {1};
+        try (NgramRecordSorter.RecordReader reader = new NgramRecordSorter.RecordReader(higherCountFile, n + 1, 1)) {
+            while (reader.next()) {
+                continuations.add(reader.key, 1, one);
+            }
+        }
+        File adjustedFile = tempFile(n + ".adjusted");
+        try (NgramRecordSorter.RecordReader counts = new NgramRecordSorter.RecordReader(countFile, n, 1);
+             NgramRecordSorter.RecordReader continuation = continuations.merge();
+             DataOutputStream dos = NgramRecordSorter.output(adjustedFile)) {
+            boolean hasContinuation = continuation.next();
+            while (counts.next()) {
+                int c = -1;
+                while (hasContinuation && compare(continuation.key, counts.key, n) < 0) {
+                    hasContinuation = continuation.next();
+                }
+                if (hasContinuation && compare(continuation.key, counts.key, n) == 0)
+                    c = continuation.values[0];
+                // if sentences do not have start tokens, an n-gram may never have a preceding word.
+                if (c == -1 || counts.key[0] == sentenceStartId)
+                    c = counts.values[0];
+                for (int id : counts.key) {
+                    dos.writeInt(id);
+                }
+                dos.writeInt(c);
+            }
+        }
+        return adjustedFile;
+    }
+
+    private static int compare(int[] a, int[] b, int length) {
+        for (int i = 0; i < length; i++) {
+            if (a[i] != b[i])
+                return a[i] < b[i] ? -1 : 1;
+        }
+        return 0;
+    }
+
+    // D1, D2, D3+ from counts of counts. Values are one based.
+    private static double[] discounts(int n, long[] countOfCounts) {
+        double y = (double) countOfCounts[1] / (countOfCounts[1] + 2 * countOfCounts[2]);
+        double[] d = new double[4];
+        boolean valid = true;
+        for (int i = 1; i <= 3; i++) {
+            d[i] = i - (i + 1) * y * countOfCounts[i + 1] / countOfCounts[i];
+            if (!(d[i] > 0 && d[i] < i))
+                valid = false;
+        }
+        if (!valid) {
+            Log.warn("Discounts of order %d cannot be calculated from counts of counts %s. " +
+                    "Default discounts 0.5, 1 and 1.5 are used.", n, Arrays.toString(countOfCounts));
+            d = new double[]{0, 0.5, 1, 1.5};
+        }
+        return d;
+    }
+
+    private double discount(int n, int count) {
+        return discounts[n][Math.min(count, 3)];
+    }
+
+    // reads adjusted n-grams in id order. For every context, calculates its interpolation weight and discounted
+    // probabilities of its n-grams. Records are added to the sorter with reversed ids.
+    private void discount(
+            int n,
+            File adjustedFile,
+            File backoffFile,
+            File gammaFile,
+            NgramRecordSorter sorter) throws IOException {
+        int[] keys = new int[n * 1024];
+        int[] counts = new int[1024];
+        int[] reversed = new int[n];
+        int[] values = new int[3];
+        try (NgramRecordSorter.RecordReader reader = new NgramRecordSorter.RecordReader(adjustedFile, n, 1);
+             NgramRecordSorter.RecordReader backoffs = backoffFile == null ? null :
+                     new NgramRecordSorter.RecordReader(backoffFile, n, 1);
+             DataOutputStream gammaOut = NgramRecordSorter.output(gammaFile)) {
+            boolean hasBackoff = backoffs != null && backoffs.next();
+            int groupSize = 0;
+            boolean hasNext = reader.next();
+            while (hasNext || groupSize > 0) {
+                if (hasNext && (groupSize == 0 || compare(reader.key, keys, n - 1) == 0)) {
+                    if (groupSize == counts.length) {
+                        counts = Arrays.copyOf(counts, groupSize * 2);
+                        keys = Arrays.copyOf(keys, groupSize * 2 * n);
+                    }
+                    if (groupSize == 0)
+                        System.arraycopy(reader.key, 0, keys, 0, n);
+                    else
+                        System.arraycopy(reader.key, 0, keys, groupSize * n, n);
+                    counts[groupSize++] = reader.values[0];
+                    hasNext = reader.next();
+                    continue;
+                }
+                // a context is complete.
+                long total = 0;
+                double discountSum = 0;
+                for (int i = 0; i < groupSize; i++) {
+                    total += counts[i];
+                    discountSum += discount(n, counts[i]);
+                }
+                double gamma = discountSum / total;
+                for (int i = 0; i < n - 1; i++) {
+                    gammaOut.writeInt(keys[i]);
+                }
+                gammaOut.writeInt(Float.floatToIntBits((float) gamma));
+
+                for (int i = 0; i < groupSize; i++) {
+                    int p = i * n;
+                    float backoff = 1;
+                    if (hasBackoff) {
+                        while (hasBackoff && compareAt(backoffs.key, keys, p, n) < 0) {
+                            hasBackoff = backoffs.next();
+                        }
+                        if (hasBackoff && compareAt(backoffs.key, keys, p, n) == 0)
+                            backoff = Float.intBitsToFloat(backoffs.values[0]);
+                    }
+                    for (int j = 0; j < n; j++) {
+                        reversed[j] = keys[p + n - 1 - j];
+                    }
+                    values[0] = Float.floatToIntBits((float) ((counts[i] - discount(n, counts[i])) / total));
+                    values[1] = Float.floatToIntBits((float) gamma);
+                    values[2] = Float.floatToIntBits(backoff);
+                    sorter.add(reversed, values);
+                }
+                groupSize = 0;
+            }
+        }
+    }
+
+    // compares a with `length` ids of b starting from offset.
+    private static int compareAt(int[] a, int[] b, int offset, int length) {
+        for (int i = 0; i < length; i++) {
+            if (a[i] != b[offset + i])
+                return a[i] < b[offset + i] ? -1 : 1;
+        }
+        return 0;
+    }
+
+    // unigram probabilities are interpolated with the uniform distribution of words except sentence start.
+    private double[] writeUnigrams(File adjustedFile, File backoffFile, File lmDir) throws IOException {
+        int vocabularySize = vocabulary.size();
+        int[] counts = new int[vocabularySize];
+        try (NgramRecordSorter.RecordReader reader = new NgramRecordSorter.RecordReader(adjustedFile, 1, 1)) {
+            while (reader.next()) {
+                counts[reader.key[0]] = reader.values[0];
+            }
+        }
+        counts[sentenceStartId] = 0;
+        long total = 0;
+        double discountSum = 0;
+        for (int count : counts) {
+            if (count > 0) {
+                total += count;
+                discountSum += discount(1, count);
+            }
+        }
+        if (total == 0)
+            throw new IllegalStateException("There are no words to estimate a model.");
+        double gamma = discountSum / total;
+        double uniform = gamma / (vocabularySize - 1);
+        double[] probabilities = new double[vocabularySize];
+        for (int i = 0; i < vocabularySize; i++) {
+            if (i == sentenceStartId)
+                continue;
+            double u = counts[i] > 0 ? (counts[i] - discount(1, counts[i])) / total : 0;
+            probabilities[i] = u + uniform;
+        }
+
+        float[] backoffs = new float[vocabularySize];
+        Arrays.fill(backoffs, 1);
+        if (backoffFile != null) {
+            try (NgramRecordSorter.RecordReader reader = new NgramRecordSorter.RecordReader(backoffFile, 1, 1)) {
+                while (reader.next()) {
+                    backoffs[reader.key[0]] = Float.intBitsToFloat(reader.values[0]);
+                }
+            }
+        }
+        try (DataOutputStream grams = NgramRecordSorter.output(gramFile(lmDir, 1));
+             DataOutputStream probs = NgramRecordSorter.output(probFile(lmDir, 1));
+             DataOutputStream backs = order > 1 ? NgramRecordSorter.output(backoffFile(lmDir, 1)) : null) {
+            grams.writeInt(1);
+            grams.writeInt(vocabularySize);
+            probs.writeInt(vocabularySize);
+            if (backs != null)
+                backs.writeInt(vocabularySize);
+            for (int i = 0; i < vocabularySize; i++) {
+                grams.writeInt(i);
+                probs.writeFloat(i == sentenceStartId ? SENTENCE_START_LOG_PROBABILITY : log10(probabilities[i]));
+                if (backs != null)
+                    backs.writeFloat(log10(backoffs[i]));
+            }
+        }
+        return probabilities;
+    }
+
+    // interpolates n-grams with their lower order probabilities. Records come in reversed id order, so lower order
+    // suffixes of the n-grams come in the same order of lower order probability records.
+    private File interpolate(
+            int n,
+            int count,
+            NgramRecordSorter sorter,
+            double[] unigramProbabilities,
+            File lowerProbabilities,
+            File lmDir) throws IOException {
+        File probabilities = n < order ? tempFile(n + ".probabilities") : null;
+        try (NgramRecordSorter.RecordReader reader = sorter.merge();
+             NgramRecordSorter.RecordReader lower = lowerProbabilities == null ? null :
+                     new NgramRecordSorter.RecordReader(lowerProbabilities, n - 1, 1);
+             DataOutputStream probabilityOut = probabilities == null ? null : NgramRecordSorter.output(probabilities);
+             DataOutputStream grams = NgramRecordSorter.output(gramFile(lmDir, n));
+             DataOutputStream probs = NgramRecordSorter.output(probFile(lmDir, n));
+             DataOutputStream backs = n < order ? NgramRecordSorter.output(backoffFile(lmDir, n)) : null) {
+            grams.writeInt(n);
+            grams.writeInt(count);
+            probs.writeInt(count);
+            if (backs != null)
+                backs.writeInt(count);
+            boolean hasLower = lower != null && lower.next();
+            while (reader.next()) {
+                double lowerProbability;
+                if (n == 2) {
+                    lowerProbability = unigramProbabilities[reader.key[0]];
+                } else {
+                    while (hasLower && compare(lower.key, reader.key, n - 1) < 0) {
+                        hasLower = lower.next();
+                    }
+                    if (!hasLower || compare(lower.key, reader.key, n - 1) != 0)
+                        throw new IllegalStateException("Lower order n-gram of " + Arrays.toString(reader.key) +
+                                " does not exist.");
+                    lowerProbability = Float.intBitsToFloat(lower.values[0]);
+                }
+                double probability = Float.intBitsToFloat(reader.values[0]) +
+                        Float.intBitsToFloat(reader.values[1]) * lowerProbability;
+                for (int i = n - 1; i >= 0; i--) {
+                    grams.writeInt(reader.key[i]);
+                }
+                probs.writeFloat(log10(probability));
+                if (backs != null)
+                    backs.writeFloat(log10(Float.intBitsToFloat(reader.values[2])));
+                if (probabilityOut != null) {
+                    for (int id : reader.key) {
+                        probabilityOut.writeInt(id);
+                    }
+                    probabilityOut.writeInt(Float.floatToIntBits((float) probability));
+                }
+            }
+        }
+        if (lowerProbabilities != null)
+            lowerProbabilities.delete();
+        return probabilities;
+    }
+
+    private static float log10(double value) {
+        return value > 0 ? (float) Math.log10(value) : SENTENCE_START_LOG_PROBABILITY;
+    }
+
+    private static File gramFile(File lmDir, int n) {
+        return new File(lmDir, n + MultiFileUncompressedLm.GRAM_IDS_FILE_SUFFIX);
+    }
+
+    private static File probFile(File lmDir, int n) {
+        return new File(lmDir, n + MultiFileUncompressedLm.PROB_FILE_SUFFIX);
+    }
+
+    private static File backoffFile(File lmDir, int n) {
+        return new File(lmDir, n + MultiFileUncompressedLm.BACKOFF_FILE_SUFFIX);
+    }
+}
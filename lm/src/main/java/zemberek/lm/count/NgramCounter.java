@@ -0,0 +1,187 @@
+package zemberek.lm.count;
+
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.MoreExecutors;
+import zemberek.core.NgramCountMap;
+import zemberek.core.logging.Log;
+
+import java.io.*;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Counts 1..order grams of a binary corpus generated by BinaryCorpusGenerator. Sentences are read in batches by the
+ * calling thread and counted by `threadCount` threads. Each thread counts to its own NgramCountMap shards. When a
+ * shard has `maxKeysPerShard` n-grams, it is written to disk as a sorted run and a new shard is started. Runs are
+ * merged when counts are read. So memory usage is bounded by the shard size and thread count, not by the corpus.
+ */
+public class NgramCounter {
+
+    static final int BATCH_SIZE = 10000;
+
+    final int order;
+    final File tempDir;
+    final int maxKeysPerShard;
+    final int threadCount;
+
+    public NgramCounter(int order, File tempDir, int maxKeysPerShard, int threadCount) {
+        if (order < 1)
+            throw new IllegalArgumentException("Order must be positive. But it is " + order);
+        if (maxKeysPerShard < 1)
+            throw new IllegalArgumentException("Shard size must be positive. But it is " + maxKeysPerShard);
+        if (threadCount < 1)
+            throw new IllegalArgumentException("Thread count must be positive. But it is " + threadCount);
+        this.order = order;
+        this.tempDir = tempDir;
+        this.maxKeysPerShard = maxKeysPerShard;
+        this.threadCount = threadCount;
+    }
+
+    /**
+     * Counts the n-grams of the binary corpus.
+     *
+     * @return one based array of sorters that contain count runs of each order. Sorted counts are obtained with
+     * merge() or mergeTo(file) methods of the sorters.
+     */
+    public NgramRecordSorter[] count(File binaryCorpus) throws IOException {
+        final NgramRecordSorter[] sorters = new NgramRecordSorter[order + 1];
+        for (int n = 1; n <= order; n++) {
+            sorters[n] = new NgramRecordSorter(tempDir, n + ".count", n, 1, true, maxKeysPerShard);
+        }
+        final BlockingQueue<Shard> shards = new ArrayBlockingQueue<>(threadCount);
+        for (int i = 0; i < threadCount; i++) {
+            shards.add(new Shard());
+        }
+        ExecutorService executor = threadCount == 1 ?
+                MoreExecutors.sameThreadExecutor() : Executors.newFixedThreadPool(threadCount);
+        long start = System.currentTimeMillis();
+        long sentenceCount = 0;
+        ArrayDeque<Future<Void>> pending = new ArrayDeque<>();
+        try (DataInputStream dis = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(binaryCorpus), 1 << 16))) {
+            List<int[]> batch = new ArrayList<>(BATCH_SIZE);
+            int[] sentence;
+            while ((sentence = readSentence(dis)) != null) {
+                batch.add(sentence);
+                sentenceCount++;
+                if (batch.size() == BATCH_SIZE) {
+                    pending.add(executor.submit(new CountTask(batch, shards, sorters)));
+                    batch = new ArrayList<>(BATCH_SIZE);
+                    while (pending.size() > threadCount * 2) {
+                        getResult(pending.poll());
+                    }
+                }
+                if (sentenceCount % 1000000 == 0) {
+                    long elapsed = Math.max(1, System.currentTimeMillis() - start);
+                    Log.info("%d sentences are counted. %d sentences per second.",
+                            sentenceCount, sentenceCount * 1000L / elapsed);
+                }
+            }
+            if (!batch.isEmpty())
+                pending.add(executor.submit(new CountTask(batch, shards, sorters)));
+            while (!pending.isEmpty()) {
+                getResult(pending.poll());
+            }
+        } finally {
+            for (Future<Void> future : pending) {
+                future.cancel(true);
+            }
+            executor.shutdownNow();
+        }
+        // write remaining counts.
+        for (Shard shard : shards) {
+            for (int n = 1; n <= order; n++) {
+                if (shard.maps[n].size() > 0)
+                    sorters[n].addRun(shard.maps[n]);
+            }
+        }
+        Log.info("N-grams of %d sentences are counted in %d ms.", sentenceCount, System.currentTimeMillis() - start);
+        return sorters;
+    }
+
+    // reads a sentence of the binary corpus. returns null at the end of the corpus.
+    static int[] readSentence(DataInputStream dis) throws IOException {
+        int length;
+        try {
+            length = dis.readInt();
+        } catch (EOFException e) {
+            return null;
+        }
+        int[] ids = new int[length];
+        for (int i = 0; i < length; i++) {
+            ids[i] = dis.readInt();
+        }
+        return ids;
+    }
+
+    static <T> T getResult(Future<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            throw new IllegalStateException("Interrupted while waiting for a counting task.", e);
+        } catch (ExecutionException e) {
+            Throwables.propagateIfPossible(e.getCause(), IOException.class);
+            throw new IllegalStateException("Error in a counting task.", e.getCause());
+        }
+    }
+
+    // count maps of a thread.
+    private class Shard {
+        NgramCountMap[] maps = new NgramCountMap[order + 1];
+
+        Shard() {
+            for (int n = 1; n <= order; n++) {
+                maps[n] = new NgramCountMap(n);
+            }
+        }
+    }
+
+    private class CountTask implements Callable<Void> {
+        final List<int[]> sentences;
+        final BlockingQueue<Shard> shards;
+        final NgramRecordSorter[] sorters;
+
+        CountTask(List<int[]> sentences, BlockingQueue<Shard> shards, NgramRecordSorter[] sorters) {
+            this.sentences = sentences;
+            this.shards = shards;
+            this.sorters = sorters;
+        }
+
+        @Override
+        public Void call() throws IOException, InterruptedException {
+            // there are as many shards as threads, so a shard is always available.
+            Shard shard = shards.take();
+            try {
+                int[][] keys = new int[order + 1][];
+                for (int n = 1; n <= order; n++) {
+                    keys[n] = new int[n];
+                }
+                for (int[] sentence : sentences) {
+                    for (int i = 0; i < sentence.length; i++) {
+                        for (int n = 1; n <= order && i + n <= sentence.length; n++) {
+                            System.arraycopy(sentence, i, keys[n], 0, n);
+                            shard.maps[n].increment(keys[n]);
+                        }
+                    }
+                }
+                for (int n = 1; n <= order; n++) {
+                    if (shard.maps[n].size() >= maxKeysPerShard) {
+                        sorters[n].addRun(shard.maps[n]);
+                        shard.maps[n] = new NgramCountMap(n);
+                    }
+                }
+            } finally {
+                shards.add(shard);
+            }
+            return null;
+        }
+    }
+}
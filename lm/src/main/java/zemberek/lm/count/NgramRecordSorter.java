@@ -0,0 +1,374 @@
+package zemberek.lm.count;
+
+import zemberek.core.NgramCountMap;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * External merge sorter for n-gram records. A record has `keyLength` int ids followed by `valueLength` int values.
+ * Records are sorted by their ids. Added records are buffered, buffer is sorted and written to a run file when it is
+ * full. Runs are merged when merge() is called. So only `maxRecordsInMemory` records are kept in memory.
+ * <p/>If values are counts, records with same ids are combined by summing their first values.
+ * <p/>Run files are:
+ * <p/>int32... ids[0..keyLength) values[0..valueLength)
+ * <p/>...
+ */
+public class NgramRecordSorter {
+
+    // maximum amount of runs merged at once. If there are more runs, they are merged in several passes.
+    static final int MAX_FAN_IN = 64;
+
+    final File tempDir;
+    final String name;
+    final int keyLength;
+    final int valueLength;
+    final int recordLength;
+    final boolean sumCounts;
+    final int maxRecordsInMemory;
+
+    private int[] buffer;
+    private int bufferedCount;
+    private final List<File> runs = new ArrayList<>();
+    private int runCounter;
+
+    /**
+     * @param tempDir            directory for run files.
+     * @param name               name prefix of the run files.
+     * @param keyLength          amount of ids in a record.
+     * @param valueLength        amount of values in a record.
+     * @param sumCounts          if true, first values of records with same ids are summed.
+     * @param maxRecordsInMemory maximum amount of buffered records.
+     */
+    public NgramRecordSorter(
+            File tempDir,
+            String name,
+            int keyLength,
+            int valueLength,
+            boolean sumCounts,
+            int maxRecordsInMemory) {
+        if (keyLength < 1)
+            throw new IllegalArgumentException("Key length must be positive. But it is " + keyLength);
+        if (sumCounts && valueLength < 1)
+            throw new IllegalArgumentException("Counts cannot be summed without values.");
+        if (maxRecordsInMemory < 1)
+            throw new IllegalArgumentException("Maximum record amount must be positive. But it is " + maxRecordsInMemory);
+        this.tempDir = tempDir;
+        this.name = name;
+        this.keyLength = keyLength;
+        this.valueLength = valueLength;
+        this.recordLength = keyLength + valueLength;
+        this.sumCounts = sumCounts;
+        this.maxRecordsInMemory = maxRecordsInMemory;
+    }
+
+    /**
+     * Adds a record. If buffer is full, buffered records are sorted and written as a run.
+     */
+    public void add(int[] key, int... values) throws IOException {
+        add(key, 0, values);
+    }
+
+    /**
+     * Adds a record with `keyLength` ids of `ids` starting from `offset`.
+     */
+    public void add(int[] ids, int offset, int... values) throws IOException {
+        if (buffer == null)
+            buffer = new int[Math.min(maxRecordsInMemory, 1 << 16) * recordLength];
+        if (bufferedCount * recordLength == buffer.length) {
+            if (bufferedCount == maxRecordsInMemory)
+                flush();
+            else
+                buffer = Arrays.copyOf(buffer, Math.min(maxRecordsInMemory, bufferedCount * 2) * recordLength);
+        }
+        int p = bufferedCount * recordLength;
+        System.arraycopy(ids, offset, buffer, p, keyLength);
+        System.arraycopy(values, 0, buffer, p + keyLength, valueLength);
+        bufferedCount++;
+    }
+
+    /**
+     * Writes n-grams and counts of the map as a run. Sorter must have a value for counts. This method can be called
+     * by several threads.
+     */
+    public void addRun(NgramCountMap map) throws IOException {
+        if (valueLength != 1)
+            throw new IllegalStateException("Count maps can only be added to sorters with a single value.");
+        NgramCountMap.NgramCount[] counts = map.getAllSorted();
+        File run = newRunFile();
+        try (DataOutputStream dos = output(run)) {
+            for (NgramCountMap.NgramCount count : counts) {
+                for (int id : count.getIds()) {
+                    dos.writeInt(id);
+                }
+                dos.writeInt(count.getCount());
+            }
+        }
+        addRunFile(run);
+    }
+
+    private synchronized File newRunFile() {
+        return new File(tempDir, name + "." + (runCounter++) + ".run");
+    }
+
+    private synchronized void addRunFile(File run) {
+        runs.add(run);
+    }
+
+    // sorts buffered records and writes them as a run.
+    private void flush() throws IOException {
+        if (bufferedCount == 0)
+            return;
+        int[] order = new int[bufferedCount];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        sort(order, new int[order.length], 0, order.length);
+        File run = newRunFile();
+        try (DataOutputStream dos = output(run)) {
+            int i = 0;
+            while (i < order.length) {
+                int p = order[i] * recordLength;
+                int count = sumCounts ? buffer[p + keyLength] : 0;
+                int j = i + 1;
+                if (sumCounts) {
+                    while (j < order.length && compare(buffer, p, buffer, order[j] * recordLength) == 0) {
+                        count += buffer[order[j] * recordLength + keyLength];
+                        j++;
+                    }
+                }
+                for (int k = 0; k < keyLength; k++) {
+                    dos.writeInt(buffer[p + k]);
+                }
+                for (int k = 0; k < valueLength; k++) {
+                    dos.writeInt(sumCounts && k == 0 ? count : buffer[p + keyLength + k]);
+                }
+                i = j;
+            }
+        }
+        addRunFile(run);
+        bufferedCount = 0;
+    }
+
+    // merge sort of record indexes. it is stable, so records with same ids keep their adding order.
+    private void sort(int[] order, int[] temp, int from, int to) {
+        if (to - from < 2)
+            return;
+        int mid = (from + to) >>> 1;
+        sort(order, temp, from, mid);
+        sort(order, temp, mid, to);
+        if (compare(buffer, order[mid - 1] * recordLength, buffer, order[mid] * recordLength) <= 0)
+            return;
+        System.arraycopy(order, from, temp, from, to - from);
+        int i = from, j = mid, k = from;
+        while (i < mid && j < to) {
+            if (compare(buffer, temp[i] * recordLength, buffer, temp[j] * recordLength) <= 0)
+                order[k++] = temp[i++];
+            else
+                order[k++] = temp[j++];
+        }
+        while (i < mid) {
+            order[k++] = temp[i++];
+        }
+        while (j < to) {
+            order[k++] = temp[j++];
+        }
+    }
+
+    private int compare(int[] a, int aOffset, int[] b, int bOffset) {
+        for (int i = 0; i < keyLength; i++) {
+            int x = a[aOffset + i];
+            int y = b[bOffset + i];
+            if (x != y)
+                return x < y ? -1 : 1;
+        }
+        return 0;
+    }
+
+    /**
+     * Merges all records. Sorter should not be used after this call. Run files are deleted when the reader is
+     * closed.
+     *
+     * @return a reader for sorted records.
+     */
+    public RecordReader merge() throws IOException {
+        flush();
+        buffer = null;
+        List<File> toMerge = new ArrayList<>(runs);
+        runs.clear();
+        while (toMerge.size() > MAX_FAN_IN) {
+            List<File> merged = new ArrayList<>();
+            for (int i = 0; i < toMerge.size(); i += MAX_FAN_IN) {
+                List<File> group = toMerge.subList(i, Math.min(toMerge.size(), i + MAX_FAN_IN));
+                File run = newRunFile();
+                try (RecordReader reader = new MergingReader(group)) {
+                    write(reader, run);
+                }
+                merged.add(run);
+            }
+            toMerge = merged;
+        }
+        return new MergingReader(toMerge);
+    }
+
+    /**
+     * Merges all records and writes them to a file with run file format.
+     *
+     * @return amount of records written.
+     */
+    public long mergeTo(File file) throws IOException {
+        try (RecordReader reader = merge()) {
+            return write(reader, file);
+        }
+    }
+
+    private long write(RecordReader reader, File file) throws IOException {
+        long count = 0;
+        try (DataOutputStream dos = output(file)) {
+            while (reader.next()) {
+                for (int id : reader.key) {
+                    dos.writeInt(id);
+                }
+                for (int value : reader.values) {
+                    dos.writeInt(value);
+                }
+                count++;
+            }
+        }
+        return count;
+    }
+
+    static DataOutputStream output(File file) throws IOException {
+        return new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+    }
+
+    /**
+     * Reads records one by one. Current record's ids and values are in `key` and `values` arrays. Arrays are reused.
+     */
+    public static class RecordReader implements Closeable {
+        public final int[] key;
+        public final int[] values;
+        private final DataInputStream dis;
+        private final byte[] bytes;
+        private final File deleteOnClose;
+
+        /**
+         * Reads a file with run file format.
+         */
+        public RecordReader(File file, int keyLength, int valueLength) throws IOException {
+            this(file, keyLength, valueLength, false);
+        }
+
+        RecordReader(File file, int keyLength, int valueLength, boolean deleteOnClose) throws IOException {
+            this.key = new int[keyLength];
+            this.values = new int[valueLength];
+            this.bytes = new byte[(keyLength + valueLength) * 4];
+            this.dis = file == null ? null :
+                    new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+            this.deleteOnClose = deleteOnClose ? file : null;
+        }
+
+        /**
+         * Reads the next record.
+         *
+         * @return false if there is no more records.
+         */
+        public boolean next() throws IOException {
+            int read = 0;
+            while (read < bytes.length) {
+                int r = dis.read(bytes, read, bytes.length - read);
+                if (r < 0) {
+                    if (read == 0)
+                        return false;
+                    throw new EOFException("Incomplete record.");
+                }
+                read += r;
+            }
+            int p = 0;
+            for (int i = 0; i < key.length; i++, p += 4) {
+                key[i] = toInt(p);
+            }
+            for (int i = 0; i < values.length; i++, p += 4) {
+                values[i] = toInt(p);
+            }
+            return true;
+        }
+
+        private int toInt(int p) {
+            return ((bytes[p] & 0xff) << 24) | ((bytes[p + 1] & 0xff) << 16) |
+                    ((bytes[p + 2] & 0xff) << 8) | (bytes[p + 3] & 0xff);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (dis != null)
+                dis.close();
+            if (deleteOnClose != null)
+                deleteOnClose.delete();
+        }
+    }
+
+    private static int compareKeys(int[] a, int[] b) {
+        for (int i = 0; i < a.length; i++) {
+            if (a[i] != b[i])
+                return a[i] < b[i] ? -1 : 1;
+        }
+        return 0;
+    }
+
+    // k-way merge of sorted runs. Records with same ids are combined if counts are summed.
+    private class MergingReader extends RecordReader {
+        final PriorityQueue<RecordReader> queue;
+        final List<RecordReader> readers = new ArrayList<>();
+
+        MergingReader(List<File> runFiles) throws IOException {
+            super(null, keyLength, valueLength, false);
+            queue = new PriorityQueue<>(Math.max(1, runFiles.size()), new Comparator<RecordReader>() {
+                @Override
+                public int compare(RecordReader a, RecordReader b) {
+                    return compareKeys(a.key, b.key);
+                }
+            });
+            for (File runFile : runFiles) {
+                RecordReader reader = new RecordReader(runFile, keyLength, valueLength, true);
+                readers.add(reader);
+                if (reader.next())
+                    queue.add(reader);
+            }
+        }
+
+        @Override
+        public boolean next() throws IOException {
+            RecordReader top = queue.poll();
+            if (top == null)
+                return false;
+            System.arraycopy(top.key, 0, key, 0, keyLength);
+            System.arraycopy(top.values, 0, values, 0, valueLength);
+            advance(top);
+            if (sumCounts) {
+                while (!queue.isEmpty() && compareKeys(queue.peek().key, key) == 0) {
+                    RecordReader same = queue.poll();
+                    values[0] += same.values[0];
+                    advance(same);
+                }
+            }
+            return true;
+        }
+
+        private void advance(RecordReader reader) throws IOException {
+            if (reader.next())
+                queue.add(reader);
+        }
+
+        @Override
+        public void close() throws IOException {
+            for (RecordReader reader : readers) {
+                reader.close();
+            }
+        }
+    }
+}
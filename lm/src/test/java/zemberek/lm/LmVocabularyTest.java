@@ -6,6 +6,7 @@ import com.google.common.collect.Lists;
 import com.google.common.io.Files;
 import org.junit.Assert;
 import org.junit.Test;
+import zemberek.core.io.MappedDataInputStream;
 
 import java.io.*;
 import java.util.List;
@@ -172,4 +173,51 @@ public class LmVocabularyTest {
         LmVocabulary vocab = builder.generate();
         Assert.assertEquals(7, vocab.size());
     }
+
+    @Test
+    public void indexedSerializationTest() throws IOException {
+        List<String> words = Lists.newArrayList();
+        for (int i = 0; i < 1000; i++) {
+            words.add("kelime" + i);
+        }
+        words.add("Hello");
+        words.add("World");
+        LmVocabulary vocabulary = new LmVocabulary(words);
+        File tmp = File.createTempFile("indexed_voc_test", "foo");
+        tmp.deleteOnExit();
+        try (DataOutputStream dos = new DataOutputStream(new FileOutputStream(tmp))) {
+            vocabulary.saveIndexed(dos);
+        }
+        LmVocabulary heap;
+        try (DataInputStream dis = new DataInputStream(new FileInputStream(tmp))) {
+            heap = LmVocabulary.loadIndexed(dis);
+        }
+        LmVocabulary mapped;
+        try (DataInputStream dis = MappedDataInputStream.open(tmp.toPath())) {
+            mapped = LmVocabulary.loadIndexed(dis);
+        }
+        for (LmVocabulary loaded : new LmVocabulary[]{heap, mapped}) {
+            Assert.assertEquals(vocabulary.size(), loaded.size());
+            Assert.assertEquals(Lists.newArrayList(vocabulary.words()), Lists.newArrayList(loaded.words()));
+            for (String word : vocabulary.words()) {
+                Assert.assertEquals(vocabulary.indexOf(word), loaded.indexOf(word));
+            }
+            Assert.assertEquals(vocabulary.getUnknownWordIndex(), loaded.getUnknownWordIndex());
+            Assert.assertEquals(vocabulary.getSentenceStartIndex(), loaded.getSentenceStartIndex());
+            Assert.assertEquals(vocabulary.getSentenceEndIndex(), loaded.getSentenceEndIndex());
+            Assert.assertEquals(vocabulary.getUnknownWordIndex(), loaded.indexOf("Foo"));
+        }
+    }
+
+    @Test
+    public void sliceLookupTest() throws IOException {
+        LmVocabulary vocabulary = new LmVocabulary("Hello", "World", "");
+        StringBuilder sb = new StringBuilder("xHello World");
+        Assert.assertEquals(vocabulary.indexOf("Hello"), vocabulary.indexOf(sb, 1, 6));
+        Assert.assertEquals(vocabulary.indexOf("World"), vocabulary.indexOf(sb, 7, 12));
+        Assert.assertEquals(vocabulary.indexOf(""), vocabulary.indexOf(sb, 3, 3));
+        Assert.assertEquals(vocabulary.getUnknownWordIndex(), vocabulary.indexOf(sb, 0, 6));
+        Assert.assertTrue(vocabulary.contains(sb, 1, 6));
+        Assert.assertFalse(vocabulary.contains(sb, 1, 5));
+    }
 }
@@ -10,14 +10,27 @@ import zemberek.core.SpaceTabTokenizer;
 import zemberek.core.io.LineIterator;
 import zemberek.core.io.SimpleTextReader;
 import zemberek.lm.FakeLm;
+import zemberek.lm.LmState;
 import zemberek.lm.LmVocabulary;
 import zemberek.lm.backoff.SimpleBackoffNgramModel;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.math.BigInteger;
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 
 public class SmoothLmTest {
@@ -71,6 +84,221 @@ public class SmoothLmTest {
         }
     }
 
+    @Test
+    public void testMemoryMappedModel() throws IOException {
+        File lmDir = Files.createTempDir();
+        lmDir.deleteOnExit();
+        MultiFileUncompressedLm.generate(getTinyArpaFile(), lmDir, "utf-8");
+        File smallLmFile = new File(lmDir, "tiny-small.slm");
+        new UncompressedToSmoothLmConverter(smallLmFile, lmDir).convertSmall(
+                lmDir, new UncompressedToSmoothLmConverter.NgramDataBlock(16, 16, 16));
+        File largeLmFile = new File(lmDir, "tiny-large.slm");
+        new UncompressedToSmoothLmConverter(largeLmFile, lmDir).convertLarge(
+                lmDir, new UncompressedToSmoothLmConverter.NgramDataBlock(16, 16, 16), 2);
+
+        SimpleBackoffNgramModel model = SimpleBackoffNgramModel.fromArpa(getTinyArpaFile());
+        for (File lmFile : new File[]{smallLmFile, largeLmFile}) {
+            SmoothLm heap = SmoothLm.builder(lmFile).build();
+            SmoothLm mapped = SmoothLm.Builder.mmap(lmFile.toPath()).build();
+            Assert.assertEquals(heap.info(), mapped.info());
+            Iterator<SimpleBackoffNgramModel.NgramData> it = model.getAllIndexes();
+            while (it.hasNext()) {
+                int[] indexes = it.next().getIndexes();
+                Assert.assertTrue(mapped.ngramExists(indexes));
+                Assert.assertEquals(heap.getProbability(indexes), mapped.getProbability(indexes), 0);
+                Assert.assertEquals(heap.getProbabilityValue(indexes), mapped.getProbabilityValue(indexes), 0);
+                if (indexes.length < heap.getOrder())
+                    Assert.assertEquals(heap.getBackoffValue(indexes), mapped.getBackoffValue(indexes), 0);
+            }
+        }
+    }
+
+    @Test
+    public void testCompactMphfModel() throws IOException {
+        File lmDir = Files.createTempDir();
+        lmDir.deleteOnExit();
+        MultiFileUncompressedLm.generate(getTinyArpaFile(), lmDir, "utf-8");
+        UncompressedToSmoothLmConverter.NgramDataBlock block = new UncompressedToSmoothLmConverter.NgramDataBlock(16, 16, 16);
+        File smallLmFile = new File(lmDir, "tiny-small.slm");
+        new UncompressedToSmoothLmConverter(smallLmFile, lmDir).convertSmall(lmDir, block);
+        File compactLmFile = new File(lmDir, "tiny-compact.slm");
+        new UncompressedToSmoothLmConverter(compactLmFile, lmDir).convertCompact(lmDir, block);
+
+        SmoothLm small = SmoothLm.builder(smallLmFile).build();
+        SmoothLm compact = SmoothLm.builder(compactLmFile).build();
+        SmoothLm mapped = SmoothLm.Builder.mmap(compactLmFile.toPath()).build();
+        SimpleBackoffNgramModel model = SimpleBackoffNgramModel.fromArpa(getTinyArpaFile());
+        Iterator<SimpleBackoffNgramModel.NgramData> it = model.getAllIndexes();
+        while (it.hasNext()) {
+            int[] indexes = it.next().getIndexes();
+            Assert.assertTrue(compact.ngramExists(indexes));
+            Assert.assertEquals(small.getProbability(indexes), compact.getProbability(indexes), 0);
+            Assert.assertEquals(small.getProbability(indexes), mapped.getProbability(indexes), 0);
+        }
+        // unknown n-grams back-off the same way.
+        int[] unknown = compact.getVocabulary().toIndexes("elma", "kedi", "sarı");
+        Assert.assertEquals(small.getProbability(unknown), compact.getProbability(unknown), 0);
+    }
+
+    @Test
+    public void testParallelConversion() throws IOException {
+        File sequentialDir = Files.createTempDir();
+        sequentialDir.deleteOnExit();
+        File parallelDir = Files.createTempDir();
+        parallelDir.deleteOnExit();
+        MultiFileUncompressedLm sequential = MultiFileUncompressedLm.generate(getTinyArpaFile(), sequentialDir, "utf-8");
+        MultiFileUncompressedLm parallel = MultiFileUncompressedLm.generate(getTinyArpaFile(), parallelDir, "utf-8", 4);
+        for (int i = 1; i <= sequential.getOrder(); i++) {
+            Assert.assertTrue(Files.equal(sequential.getGramFile(i), parallel.getGramFile(i)));
+            Assert.assertTrue(Files.equal(sequential.getProbFile(i), parallel.getProbFile(i)));
+        }
+
+        UncompressedToSmoothLmConverter.NgramDataBlock block = new UncompressedToSmoothLmConverter.NgramDataBlock(16, 16, 16);
+        File smallLmFile = new File(sequentialDir, "tiny-small.slm");
+        new UncompressedToSmoothLmConverter(smallLmFile, sequentialDir).convertSmall(sequentialDir, block);
+        File parallelSmallLmFile = new File(parallelDir, "tiny-small.slm");
+        new UncompressedToSmoothLmConverter(parallelSmallLmFile, parallelDir, 4).convertSmall(parallelDir, block);
+        Assert.assertTrue(Files.equal(smallLmFile, parallelSmallLmFile));
+
+        File largeLmFile = new File(sequentialDir, "tiny-large.slm");
+        new UncompressedToSmoothLmConverter(largeLmFile, sequentialDir).convertLarge(sequentialDir, block, 2);
+        File parallelLargeLmFile = new File(parallelDir, "tiny-large.slm");
+        new UncompressedToSmoothLmConverter(parallelLargeLmFile, parallelDir, 4).convertLarge(parallelDir, block, 2);
+        Assert.assertTrue(Files.equal(largeLmFile, parallelLargeLmFile));
+    }
+
+    @Test
+    public void testBatchProbabilities() throws IOException {
+        SmoothLm lm = getTinyLm();
+        LmVocabulary vocabulary = lm.getVocabulary();
+        // includes n-grams that require back-off.
+        int[] sentence = vocabulary.toIndexes("<s>", "Ahmet", "armut", "kırmızı", "Ahmet", "dondurma", "yedi", "</s>");
+        for (int order = 1; order <= lm.getOrder(); order++) {
+            int gramCount = sentence.length - order + 1;
+            int[] ngrams = new int[gramCount * order];
+            for (int i = 0; i < gramCount; i++) {
+                System.arraycopy(sentence, i, ngrams, i * order, order);
+            }
+            double[] result = new double[gramCount];
+            lm.getProbabilities(order, ngrams, gramCount, result);
+            for (int i = 0; i < gramCount; i++) {
+                Assert.assertEquals(lm.getProbability(Arrays.copyOfRange(sentence, i, i + order)), result[i], 0);
+            }
+        }
+
+        double[] result = new double[sentence.length];
+        lm.getSequenceProbabilities(sentence, result);
+        SimpleBackoffNgramModel model = SimpleBackoffNgramModel.fromArpa(getTinyArpaFile());
+        double[] expected = new double[sentence.length];
+        model.getSequenceProbabilities(model.getVocabulary().toIndexes(vocabulary.toWords(sentence)), expected);
+        for (int i = 0; i < sentence.length; i++) {
+            int[] ngram = Arrays.copyOfRange(sentence, Math.max(0, i - lm.getOrder() + 1), i + 1);
+            Assert.assertEquals(lm.getProbability(ngram), result[i], 0);
+            // SimpleBackoffNgramModel uses natural logarithm.
+            Assert.assertEquals(expected[i], l(result[i]), 0.0001);
+        }
+    }
+
+    @Test
+    public void testIncrementalScore() throws IOException {
+        SmoothLm lm = getTinyLm();
+        SmoothLm penalty = SmoothLm.builder(getTinyLmFile()).unknownBackoffPenalty(-0.5).build();
+        SmoothLm stupid = SmoothLm.builder(getTinyLmFile()).useStupidBackoff().build();
+        SimpleBackoffNgramModel model = SimpleBackoffNgramModel.fromArpa(getTinyArpaFile());
+        LmVocabulary vocabulary = lm.getVocabulary();
+        int order = lm.getOrder();
+        Random random = new Random(1);
+        for (int i = 0; i < 200; i++) {
+            int[] sentence = new int[1 + random.nextInt(8)];
+            for (int j = 0; j < sentence.length; j++) {
+                sentence[j] = random.nextInt(vocabulary.size());
+            }
+            for (SmoothLm smoothLm : new SmoothLm[]{lm, penalty, stupid}) {
+                LmState state = i % 2 == 0 ? smoothLm.beginSentence() : smoothLm.nullContext();
+                int[] history = i % 2 == 0 ? new int[]{vocabulary.getSentenceStartIndex()} : new int[0];
+                LmState out = smoothLm.nullContext();
+                for (int id : sentence) {
+                    int[] ngram = Arrays.copyOf(history, history.length + 1);
+                    ngram[history.length] = id;
+                    Assert.assertEquals(smoothLm.getProbability(ngram), smoothLm.score(state, id, out), 0.00001);
+                    history = Arrays.copyOfRange(ngram, Math.max(0, ngram.length - order + 1), ngram.length);
+                    LmState temp = state;
+                    state = out;
+                    out = temp;
+                }
+            }
+        }
+        // compare with the uncompressed model.
+        int[] sentence = vocabulary.toIndexes("Ahmet", "armut", "kırmızı", "Ahmet", "dondurma", "yedi", "</s>");
+        int[] ids = model.getVocabulary().toIndexes(vocabulary.toWords(sentence));
+        LmState state = lm.beginSentence();
+        LmState expectedState = model.beginSentence();
+        for (int i = 0; i < sentence.length; i++) {
+            LmState next = lm.nullContext();
+            LmState expectedNext = model.nullContext();
+            double expected = model.score(expectedState, ids[i], expectedNext);
+            // SimpleBackoffNgramModel uses natural logarithm.
+            Assert.assertEquals(expected, l(lm.score(state, sentence[i], next)), 0.0001);
+            Assert.assertEquals(expectedNext.length, next.length);
+            state = next;
+            expectedState = expectedNext;
+        }
+        // states with same history are equal.
+        LmState a = lm.nullContext();
+        LmState b = lm.nullContext();
+        lm.score(lm.beginSentence(), vocabulary.indexOf("Ahmet"), a);
+        lm.score(lm.nullContext(), vocabulary.indexOf("<s>"), b);
+        Assert.assertFalse(a.equals(b));
+        LmState c = lm.nullContext();
+        lm.score(b, vocabulary.indexOf("Ahmet"), c);
+        Assert.assertEquals(a, c);
+        Assert.assertEquals(a.hashCode(), c.hashCode());
+        Assert.assertEquals(a, a.copy());
+    }
+
+    @Test
+    public void testSharedCache() throws Exception {
+        final SmoothLm lm = getTinyLm();
+        // a tiny cache, so threads overwrite each other's slots all the time.
+        final SmoothLm cached = SmoothLm.builder(getTinyLmFile()).useSharedCache(4).build();
+        SimpleBackoffNgramModel model = SimpleBackoffNgramModel.fromArpa(getTinyArpaFile());
+        final List<int[]> ngrams = new ArrayList<>();
+        Iterator<SimpleBackoffNgramModel.NgramData> it = model.getAllIndexes();
+        while (it.hasNext()) {
+            ngrams.add(it.next().getIndexes());
+        }
+        final int threadCount = 4;
+        final int rounds = 200;
+        ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+        List<Future<Boolean>> results = new ArrayList<>();
+        for (int t = 0; t < threadCount; t++) {
+            results.add(executor.submit(new Callable<Boolean>() {
+                @Override
+                public Boolean call() {
+                    for (int i = 0; i < rounds; i++) {
+                        for (int[] ngram : ngrams) {
+                            if (lm.getProbability(ngram) != cached.getProbability(ngram))
+                                return false;
+                        }
+                    }
+                    return true;
+                }
+            }));
+        }
+        for (Future<Boolean> result : results) {
+            Assert.assertTrue(result.get());
+        }
+        executor.shutdown();
+        SmoothLm.ConcurrentLookupCache cache = cached.getSharedCache();
+        Assert.assertEquals(4, cache.slotCount());
+        Assert.assertEquals((long) threadCount * rounds * ngrams.size(), cache.hitCount() + cache.missCount());
+        // hits of the concurrent phase depend on thread scheduling. A repeated look-up is always a hit.
+        cached.getProbability(ngrams.get(0));
+        long hitCount = cache.hitCount();
+        cached.getProbability(ngrams.get(0));
+        Assert.assertEquals(hitCount + 1, cache.hitCount());
+    }
+
     @Test
     @Ignore("Requires external data")
     public void testBigFakeLm() throws IOException {
@@ -188,6 +416,72 @@ public class SmoothLmTest {
         Assert.assertEquals(l(-0.602060), lm.getProbability(is3), 0.0001);
     }
 
+    @Test
+    public void testBitPackedModel() throws IOException {
+        File lmDir = Files.createTempDir();
+        lmDir.deleteOnExit();
+        MultiFileUncompressedLm.generate(getTinyArpaFile(), lmDir, "utf-8");
+        File byteLmFile = new File(lmDir, "tiny-bytes.slm");
+        new UncompressedToSmoothLmConverter(byteLmFile, lmDir).convertSmall(
+                lmDir, new UncompressedToSmoothLmConverter.NgramDataBlock(16, 16, 16));
+        // tiny model has less distinct values than 7 and 6 bit ranks can carry. So probabilities are the same.
+        File bitLmFile = new File(lmDir, "tiny-bits.slm");
+        new UncompressedToSmoothLmConverter(bitLmFile, lmDir).convertSmall(
+                lmDir, new UncompressedToSmoothLmConverter.NgramDataBlock(13, 7, 6));
+        Assert.assertTrue(bitLmFile.length() < byteLmFile.length());
+
+        SmoothLm bytes = SmoothLm.builder(byteLmFile).build();
+        SmoothLm bits = SmoothLm.builder(bitLmFile).build();
+        SmoothLm mapped = SmoothLm.Builder.mmap(bitLmFile.toPath()).build();
+        SimpleBackoffNgramModel model = SimpleBackoffNgramModel.fromArpa(getTinyArpaFile());
+        Iterator<SimpleBackoffNgramModel.NgramData> it = model.getAllIndexes();
+        while (it.hasNext()) {
+            int[] indexes = it.next().getIndexes();
+            Assert.assertTrue(bits.ngramExists(indexes));
+            Assert.assertEquals(bytes.getProbabilityValue(indexes), bits.getProbabilityValue(indexes), 0);
+            Assert.assertEquals(bytes.getProbability(indexes), bits.getProbability(indexes), 0);
+            Assert.assertEquals(bytes.getProbability(indexes), mapped.getProbability(indexes), 0);
+            if (indexes.length < bits.getOrder())
+                Assert.assertEquals(bytes.getBackoffValue(indexes), bits.getBackoffValue(indexes), 0);
+        }
+    }
+
+    @Test
+    public void testGramDataArrayVersions() throws IOException {
+        // version 1 has field sizes in bytes, version 2 in bits. Both have the same big endian data layout.
+        byte[] data = new byte[9 * 7];
+        new Random(1).nextBytes(data);
+        GramDataArray bytes = new GramDataArray(gramData(9, 2, 1, 0, data));
+        GramDataArray bits = new GramDataArray(gramData(9, 16, 8, 0, data), 2);
+        for (int i = 0; i < 9; i++) {
+            Assert.assertEquals(bytes.getFingerPrint(i), bits.getFingerPrint(i));
+            Assert.assertEquals(bytes.getProbabilityRank(i), bits.getProbabilityRank(i));
+            Assert.assertTrue(bits.checkFingerPrint(bytes.getFingerPrint(i) | 0xff0000, i));
+        }
+        // 9 blocks of 13-5-3 bits, the last ones are read near the end of the data.
+        GramDataArray packed = new GramDataArray(gramData(9, 13, 5, 3, data), 2);
+        BigInteger stream = new BigInteger(1, Arrays.copyOf(data, (9 * 21 + 7) / 8));
+        int streamBits = (9 * 21 + 7) / 8 * 8;
+        for (int i = 0; i < 9; i++) {
+            int start = streamBits - i * 21;
+            Assert.assertEquals(stream.shiftRight(start - 13).intValue() & 0x1fff, packed.getFingerPrint(i));
+            Assert.assertEquals(stream.shiftRight(start - 18).intValue() & 0x1f, packed.getProbabilityRank(i));
+            Assert.assertEquals(stream.shiftRight(start - 21).intValue() & 0x7, packed.getBackoffRank(i));
+        }
+    }
+
+    private DataInputStream gramData(int count, int fp, int prob, int backoff, byte[] data) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(bos);
+        dos.writeInt(count);
+        dos.writeInt(fp);
+        dos.writeInt(prob);
+        dos.writeInt(backoff);
+        dos.write(data);
+        dos.close();
+        return new DataInputStream(new ByteArrayInputStream(bos.toByteArray()));
+    }
+
     private double l(double i) {
         return Math.log(Math.pow(10, i));
     }
@@ -203,7 +497,7 @@ public class SmoothLmTest {
             UncompressedToSmoothLmConverter converter = new UncompressedToSmoothLmConverter(lmFile, tmp);
             converter.convertLarge(
                     MultiFileUncompressedLm.generate(arpaFile, tmp, "utf-8").dir,
-                    new UncompressedToSmoothLmConverter.NgramDataBlock(2, 1, 1), 20);
+                    new UncompressedToSmoothLmConverter.NgramDataBlock(16, 8, 8), 20);
         }
         SmoothLm lm = SmoothLm.builder(lmFile).build();
         System.out.println(sw.elapsed(TimeUnit.MILLISECONDS));
@@ -0,0 +1,105 @@
+package zemberek.lm.count;
+
+import com.google.common.io.Files;
+import junit.framework.Assert;
+import org.junit.Test;
+import zemberek.lm.LmVocabulary;
+import zemberek.lm.compression.MultiFileUncompressedLm;
+import zemberek.lm.compression.SmoothLm;
+import zemberek.lm.compression.UncompressedToSmoothLmConverter;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.Random;
+
+public class KneserNeyEstimatorTest {
+
+    static final String[] WORDS = {"elma", "armut", "kedi", "köpek", "yedi", "gördü", "kırmızı", "sarı", "ve", "bir",
+            "Ahmet", "Ayşe", "çok", "güzel", "ev", "okul"};
+
+    // sentences with a skewed word distribution, so there are n-grams with different counts.
+    private File getCorpus() throws IOException {
+        File corpus = File.createTempFile("kn-corpus", ".txt");
+        corpus.deleteOnExit();
+        Random random = new Random(1);
+        try (PrintWriter pw = new PrintWriter(corpus, "utf-8")) {
+            for (int i = 0; i < 2000; i++) {
+                int length = 1 + random.nextInt(8);
+                StringBuilder sb = new StringBuilder();
+                for (int j = 0; j < length; j++) {
+                    int k = (int) (WORDS.length * Math.pow(random.nextDouble(), 2));
+                    sb.append(WORDS[k]).append(" ");
+                }
+                pw.println(sb.toString().trim());
+            }
+        }
+        return corpus;
+    }
+
+    private File estimate(File corpus, int order, int maxRecords, int threadCount) throws IOException {
+        File tmp = Files.createTempDir();
+        tmp.deleteOnExit();
+        File binaryCorpus = new File(tmp, "corpus.bin");
+        LmVocabulary vocabulary = new BinaryCorpusGenerator(corpus, binaryCorpus, new File(tmp, "vocab"))
+                .generate(true);
+        NgramRecordSorter[] counts = new NgramCounter(order, tmp, maxRecords, threadCount).count(binaryCorpus);
+        File lmDir = new File(tmp, "lm");
+        new KneserNeyEstimator(vocabulary, order, tmp, maxRecords).estimate(counts, lmDir);
+        return lmDir;
+    }
+
+    @Test
+    public void externalSortAndThreadsGiveSameModel() throws IOException {
+        File corpus = getCorpus();
+        File inMemory = estimate(corpus, 3, 1000000, 1);
+        File external = estimate(corpus, 3, 50, 3);
+        String[] files = inMemory.list();
+        Arrays.sort(files);
+        Assert.assertTrue(files.length > 0);
+        for (String name : files) {
+            Assert.assertTrue("Files are different: " + name,
+                    Arrays.equals(Files.toByteArray(new File(inMemory, name)), Files.toByteArray(new File(external, name))));
+        }
+    }
+
+    @Test
+    public void probabilitiesSumToOne() throws IOException {
+        File corpus = getCorpus();
+        File lmDir = estimate(corpus, 3, 100, 2);
+        MultiFileUncompressedLm lm = new MultiFileUncompressedLm(lmDir);
+        Assert.assertEquals(3, lm.getOrder());
+        Assert.assertEquals(WORDS.length + 3, lm.getCount(1));
+
+        File lmFile = new File(lmDir, "lm.slm");
+        new UncompressedToSmoothLmConverter(lmFile, lmDir).convertSmall(
+                lmDir, new UncompressedToSmoothLmConverter.NgramDataBlock(16, 24, 24));
+        SmoothLm model = SmoothLm.builder(lmFile).build();
+        LmVocabulary vocabulary = model.getVocabulary();
+
+        String[][] contexts = {{}, {"<s>"}, {"elma"}, {"okul"}, {"<s>", "elma"}, {"elma", "armut"},
+                {"kedi", "ve"}, {"okul", "ev"}};
+        for (String[] context : contexts) {
+            double sum = 0;
+            for (int i = 0; i < vocabulary.size(); i++) {
+                if (i == vocabulary.getSentenceStartIndex())
+                    continue;
+                int[] ids = Arrays.copyOf(vocabulary.toIndexes(context), context.length + 1);
+                ids[context.length] = i;
+                sum += Math.pow(10, model.getProbability(ids));
+            }
+            Assert.assertEquals("Context: " + Arrays.toString(context), 1, sum, 0.001);
+        }
+        // seen n-grams have more probability than their back-off estimates.
+        String[][] seen = {{"<s>", "elma"}, {"elma", "elma"}, {"<s>", "elma", "elma"}, {"elma", "elma", "armut"}};
+        for (String[] ngram : seen) {
+            int[] ids = vocabulary.toIndexes(ngram);
+            Assert.assertTrue(model.ngramExists(ids));
+            int[] context = Arrays.copyOf(ids, ids.length - 1);
+            int[] lowerOrder = Arrays.copyOfRange(ids, 1, ids.length);
+            double backoffEstimate = model.getBackoffValue(context) + model.getProbability(lowerOrder);
+            Assert.assertTrue("N-gram: " + Arrays.toString(ngram), model.getProbabilityValue(ids) > backoffEstimate);
+        }
+    }
+}
@@ -4,18 +4,24 @@ import com.google.common.base.Charsets;
 import com.google.common.base.Stopwatch;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
-import com.google.common.collect.Sets;
-import zemberek.core.CountSet;
+import zemberek.core.LongFloatMap;
+import zemberek.core.LongIntMap;
 import zemberek.core.io.SimpleTextReader;
-import zemberek.core.io.SimpleTextWriter;
 import zemberek.core.io.Strings;
+import zemberek.morphology.ambiguity.HashedFeatures.ParseParts;
+import zemberek.morphology.ambiguity.HashedFeatures.Part;
 
-import java.io.File;
-import java.io.IOException;
+import java.io.*;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 
-import static java.lang.String.format;
+import static zemberek.morphology.ambiguity.HashedFeatures.DASH;
+import static zemberek.morphology.ambiguity.HashedFeatures.PREFIX;
+import static zemberek.morphology.ambiguity.HashedFeatures.number;
 
 /**
  * Based on "Haşim Sak, Tunga Güngör, and Murat Saraçlar. Morphological disambiguation of Turkish text with perceptron algorithm.
@@ -26,38 +32,164 @@ public class AveragedPerceptronMorphDisambiguator extends AbstractDisambiguator
 
     Model weights = new Model();
     Model averagedWeights = new Model();
-    CountSet<String> counts = new CountSet<>();
+    // last update of the averaged weight of a feature.
+    LongIntMap counts = new LongIntMap();
 
     Random random = new Random(1);
 
+    static final ParseParts SENTENCE_START = new ParseParts("<s>");
+    static final ParseParts SENTENCE_END = new ParseParts("</s>");
+
+    /**
+     * Loads a model. Model can be a binary model generated by training or a text model with feature strings.
+     */
     public AveragedPerceptronMorphDisambiguator(File modelFile) throws IOException {
-        this.averagedWeights = Model.loadFromTextFile(modelFile);
+        this.averagedWeights = Model.load(modelFile);
     }
 
     private AveragedPerceptronMorphDisambiguator() {
-        this.averagedWeights = new Model(new HashMap<String, Double>());
+        this.averagedWeights = new Model();
     }
 
     static void train(File trainFile, File modelFile) throws IOException {
-        AveragedPerceptronMorphDisambiguator disambiguator = new AveragedPerceptronMorphDisambiguator();
+        train(trainFile, modelFile, 4, 1);
+    }
+
+    /**
+     * Trains a model with iterative parameter mixing. Training set is split into a shard for each thread. In an
+     * epoch, a perceptron is trained on every shard in parallel, starting from the mixed weights of the previous
+     * epoch. Then weights of the shards are averaged to get the new mixed weights.
+     * Model is the average of the weights after every training example, as in averaged perceptron. It is saved in
+     * binary format after every epoch, so the model file is also a checkpoint of the training.
+     * <p/>"Ryan McDonald, Keith Hall and Gideon Mann. Distributed Training Strategies for the Structured Perceptron.
+     * In NAACL 2010"
+     *
+     * @param trainFile   training set file.
+     * @param modelFile   model file.
+     * @param epochs      amount of passes over the training set.
+     * @param threadCount amount of training threads and shards.
+     */
+    public static void train(File trainFile, File modelFile, int epochs, int threadCount) throws IOException {
+        if (epochs < 1 || threadCount < 1)
+            throw new IllegalArgumentException("Epoch and thread counts must be positive. Epochs=" + epochs +
+                    " threads=" + threadCount);
         DataSet trainingSet = com.google.common.io.Files.readLines(trainFile, Charsets.UTF_8, new DataSetLoader());
+        List<List<SentenceData>> shards = Lists.newArrayList();
+        List<AveragedPerceptronMorphDisambiguator> trainers = Lists.newArrayList();
+        for (int i = 0; i < threadCount; i++) {
+            shards.add(new ArrayList<SentenceData>());
+            AveragedPerceptronMorphDisambiguator trainer = new AveragedPerceptronMorphDisambiguator();
+            trainer.random = new Random(i + 1);
+            trainers.add(trainer);
+        }
+        for (int i = 0; i < trainingSet.sentences.size(); i++) {
+            shards.get(i % threadCount).add(trainingSet.sentences.get(i));
+        }
+        // sum of averaged weights of shards, weighted by shard size. It is divided by the amount of all examples
+        // when the model is saved.
+        Model averageSum = new Model();
+        Model mixed = new Model();
         int numExamples = 0;
-        for (int i = 0; i < 4; i++) {
-            System.out.println("Iteration:" + i);
-            for (SentenceData sentence : trainingSet) {
-                numExamples++;
-                ParseResult result = disambiguator.bestParse(sentence, false);
-                if (sentence.correctParse.equals(result.bestParse))
-                    continue;
-                CountSet<String> correctFeatures = disambiguator.extractFeatures(sentence.correctParse);
-                CountSet<String> bestFeatures = disambiguator.extractFeatures(result.bestParse);
-                disambiguator.updateWeights(correctFeatures, bestFeatures, numExamples);
+        ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+        try {
+            for (int epoch = 0; epoch < epochs; epoch++) {
+                System.out.println("Iteration:" + epoch);
+                List<Future<?>> futures = Lists.newArrayList();
+                for (int i = 0; i < threadCount; i++) {
+                    futures.add(executor.submit(new EpochTask(trainers.get(i), mixed, shards.get(i))));
+                }
+                waitFor(futures);
+                Model nextMixed = new Model();
+                for (int i = 0; i < threadCount; i++) {
+                    AveragedPerceptronMorphDisambiguator trainer = trainers.get(i);
+                    for (long key : trainer.weights.keys()) {
+                        nextMixed.increment(key, trainer.weights.weight(key) / threadCount);
+                    }
+                    for (long key : trainer.averagedWeights.keys()) {
+                        averageSum.increment(key, trainer.averagedWeights.weight(key) * shards.get(i).size());
+                    }
+                }
+                mixed = nextMixed;
+                numExamples += trainingSet.sentences.size();
+                averageSum.scaled(1d / numExamples).saveBinary(modelFile);
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static void waitFor(List<Future<?>> futures) {
+        try {
+            for (Future<?> future : futures) {
+                future.get();
             }
-            for (String key : disambiguator.averagedWeights) {
-                disambiguator.updateAverageWeights(numExamples, key);
+        } catch (InterruptedException e) {
+            for (Future<?> future : futures) {
+                future.cancel(true);
             }
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while training.", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Error while training.", e.getCause());
+        }
+    }
+
+    private static class EpochTask implements Runnable {
+        final AveragedPerceptronMorphDisambiguator trainer;
+        final Model initialWeights;
+        final List<SentenceData> sentences;
+
+        EpochTask(AveragedPerceptronMorphDisambiguator trainer, Model initialWeights, List<SentenceData> sentences) {
+            this.trainer = trainer;
+            this.initialWeights = initialWeights;
+            this.sentences = sentences;
+        }
+
+        @Override
+        public void run() {
+            trainer.trainEpoch(initialWeights, sentences);
+        }
+    }
+
+    /**
+     * Trains the weights with a pass over the sentences, starting from initial weights. After training, averaged
+     * weights contain the average of the weights after every sentence.
+     */
+    private void trainEpoch(Model initialWeights, List<SentenceData> sentences) {
+        weights = initialWeights.copy();
+        averagedWeights = new Model();
+        counts = new LongIntMap();
+        if (sentences.isEmpty())
+            return;
+        // initial weights are used until the first update of a feature.
+        for (long key : weights.keys()) {
+            averagedWeights.put(key, weights.weight(key));
+        }
+        int numExamples = 0;
+        for (SentenceData sentence : sentences) {
+            numExamples++;
+            ParseResult result = bestParse(sentence, false);
+            if (sentence.correctParse.equals(result.bestParse))
+                continue;
+            HashedFeatures correctFeatures = extractFeatures(sentence.correctParse);
+            HashedFeatures bestFeatures = extractFeatures(result.bestParse);
+            updateWeights(correctFeatures, bestFeatures, numExamples);
+        }
+        updateAllAverageWeights(numExamples);
+    }
+
+    /**
+     * Updates averaged weights of all features for the examples seen so far. Averaged weight of a feature is removed
+     * while it is 0 even if the feature has a weight, so features of both weights and averaged weights are updated.
+     * Updating a feature twice does not change its average, as its count is already numExamples.
+     */
+    void updateAllAverageWeights(int numExamples) {
+        for (long key : weights.keys()) {
+            updateAverageWeights(numExamples, key);
+        }
+        for (long key : averagedWeights.keys()) {
+            updateAverageWeights(numExamples, key);
         }
-        disambiguator.averagedWeights.saveAsText(modelFile);
     }
 
     public void test(File testFile) throws IOException {
@@ -79,150 +211,179 @@ public class AveragedPerceptronMorphDisambiguator extends AbstractDisambiguator
         System.out.println("total:" + total + " hit=" + hit + String.format(" Accuracy:%f", (double) hit / total));
     }
 
-    private void updateWeights(CountSet<String> correctFeatures, CountSet<String> bestFeatures, int numExamples) {
-        Set<String> keySet = Sets.newHashSet();
-        keySet.addAll(Lists.newArrayList(correctFeatures));
-        keySet.addAll(Lists.newArrayList(bestFeatures));
+    void updateWeights(HashedFeatures correctFeatures, HashedFeatures bestFeatures, int numExamples) {
+        // difference of feature counts. Features that appear in both sequences are also updated.
+        LongFloatMap difference = new LongFloatMap();
+        for (int i = 0; i < correctFeatures.size(); i++) {
+            difference.increment(correctFeatures.get(i), 1);
+        }
+        for (int i = 0; i < bestFeatures.size(); i++) {
+            difference.increment(bestFeatures.get(i), -1);
+        }
 
-        for (String feat : keySet) {
+        for (long feat : difference.getKeys()) {
             updateAverageWeights(numExamples, feat);
-            weights.increment(feat, correctFeatures.get(feat) - bestFeatures.get(feat));
+            weights.increment(feat, difference.get(feat));
             if (averagedWeights.weight(feat) == 0)
-                averagedWeights.data.remove(feat);
+                averagedWeights.remove(feat);
             if (weights.weight(feat) == 0)
-                weights.data.remove(feat);
+                weights.remove(feat);
         }
     }
 
-    private void updateAverageWeights(int numExamples, String feat) {
+    private void updateAverageWeights(int numExamples, long feat) {
         int featureCount = counts.get(feat);
         averagedWeights.put(
                 feat,
-                (averagedWeights.weight(feat) * featureCount + (numExamples - featureCount) * weights.weight(feat)) / numExamples);
-        counts.set(feat, numExamples);
+                (float) ((averagedWeights.weight(feat) * (double) featureCount +
+                        (numExamples - featureCount) * (double) weights.weight(feat)) / numExamples));
+        counts.put(feat, numExamples);
     }
 
-    CountSet<String> extractFeatures(List<String> parseSequence) {
-        List<String> seq = Lists.newArrayList("<s>", "<s>");
-        seq.addAll(parseSequence);
-        seq.add("</s>");
-        CountSet<String> featureModel = new CountSet<>();
+    HashedFeatures extractFeatures(List<String> parseSequence) {
+        List<ParseParts> seq = Lists.newArrayList(SENTENCE_START, SENTENCE_START);
+        for (String parse : parseSequence) {
+            seq.add(new ParseParts(parse));
+        }
+        seq.add(SENTENCE_END);
+        HashedFeatures featureModel = new HashedFeatures();
         for (int i = 2; i < seq.size(); i++) {
-            List<String> trigram = Lists.newArrayList(
-                    seq.get(i - 2),
-                    seq.get(i - 1),
-                    seq.get(i)
-            );
-            extractTrigramFeatures(trigram, featureModel);
+            extractTrigramFeatures(seq.get(i - 2), seq.get(i - 1), seq.get(i), featureModel);
         }
         return featureModel;
     }
 
-    void extractTrigramFeatures(List<String> trigram, CountSet<String> feats) {
-        WordParse w1 = new WordParse(trigram.get(0));
-        WordParse w2 = new WordParse(trigram.get(1));
-        WordParse w3 = new WordParse(trigram.get(2));
-        String r1 = w1.root;
-        String r2 = w2.root;
-        String r3 = w3.root;
-        String ig1 = w1.allIgs;
-        String ig2 = w2.allIgs;
-        String ig3 = w3.allIgs;
-
-        //feats.increment1(format("1:%s%s-%s%s-%s%s", r1, ig1, r2, ig2, r3, ig3));
-        feats.add(format("2:%s%s-%s%s", r1, ig2, r3, ig3));
-        feats.add(format("3:%s%s-%s%s", r2, ig2, r3, ig3));
-        feats.add(format("4:%s%s", r3, ig3));
-        //feats.increment1(format("5:%s%s-%s", r2, ig2, ig3));
-        //feats.increment1(format("6:%s%s-%s", r1, ig1, ig3));
-        //feats.increment1(format("7:%s-%s-%s", r1, r2, r3));
-        //feats.increment1(format("8:%s-%s", r1, r3));
-        feats.add(format("9:%s-%s", r2, r3));
-        feats.add(format("10:%s", r3));
-        //feats.increment1(format("11:%s-%s-%s", ig1, ig2, ig3));
-        //feats.increment1(format("12:%s-%s", ig1, ig3));
-        //feats.increment1(format("13:%s-%s", ig2, ig3));
-        //feats.increment1(format("14:%s", ig3));
-
-        String ig1s[] = ig1.split("[ ]");
-        String ig2s[] = ig2.split("[ ]");
-        String ig3s[] = ig3.split("[ ]");
-
-        for (String ig : ig3s) {
-            feats.add(format("15:%s-%s-%s", ig1s[ig1s.length - 1], ig2s[ig2s.length - 1], ig));
-            //  feats.increment1(format("16:%s-%s", ig1s[ig1s.length - 1], ig));
-            feats.add(format("17:%s-%s", ig2s[ig2s.length - 1], ig));
-            // feats.increment1(format("18:%s", ig));
-        }
-
-//        for (int k = 0; k < ig3s.length - 1; k++)
-//            feats.increment1(format("19:%s-%s", ig3s[k], ig3s[k + 1]));
-
-        for (int k = 0; k < ig3s.length; k++)
-            feats.add(format("20:%d-%s", k, ig3s[k]));
-
-//        if (Character.isUpperCase(r3.charAt(0)) && w3.igs.contains("Prop"))
-//            feats.increment1("21:PROPER");
-
-        feats.add(format("22:%d", ig3s.length));
-/*        if (w3.all.contains(".+Punc") && w3.igs.contains("Verb"))
-            feats.increment1("23:ENDSVERB");*/
+    // Feature keys are same with the hashes of the feature strings of the old implementation, which are formatted
+    // like format("2:%s%s-%s%s", r1, ig2, r3, ig3).
+    // Templates 1, 5-8, 11-14, 16, 18, 19, 21 and 23 are not used by this disambiguator.
+    void extractTrigramFeatures(ParseParts w1, ParseParts w2, ParseParts w3, HashedFeatures feats) {
+        Part r1 = w1.root;
+        Part r2 = w2.root;
+        Part r3 = w3.root;
+        Part ig2 = w2.allIgs;
+        Part ig3 = w3.allIgs;
+
+        feats.start(PREFIX[2]).append(r1).append(ig2).append(DASH).append(r3).append(ig3).add();
+        feats.start(PREFIX[3]).append(r2).append(ig2).append(DASH).append(r3).append(ig3).add();
+        feats.start(PREFIX[4]).append(r3).append(ig3).add();
+        feats.start(PREFIX[9]).append(r2).append(DASH).append(r3).add();
+        feats.start(PREFIX[10]).append(r3).add();
+
+        for (Part ig : w3.igs) {
+            feats.start(PREFIX[15]).append(w1.lastIg).append(DASH).append(w2.lastIg).append(DASH).append(ig).add();
+            feats.start(PREFIX[17]).append(w2.lastIg).append(DASH).append(ig).add();
+        }
 
+        for (int k = 0; k < w3.igs.length; k++)
+            feats.start(PREFIX[20]).append(number(k)).append(DASH).append(w3.igs[k]).add();
+
+        feats.start(PREFIX[22]).append(w3.igCount).add();
     }
 
-    static class Model implements Iterable<String> {
+    static class Model {
+
+        // first int of binary model files. Text model files start with a weight value.
+        static final int BINARY_MODEL_MAGIC = 0x5a504d31;
 
-        Map<String, Double> data;
+        LongFloatMap data;
 
-        Model(Map<String, Double> data) {
+        Model(LongFloatMap data) {
             this.data = data;
         }
 
         Model() {
-            data = Maps.newHashMap();
+            data = new LongFloatMap();
+        }
+
+        /**
+         * Loads a model saved with saveBinary or a text model with "weight feature" lines.
+         */
+        public static Model load(File file) throws IOException {
+            try (DataInputStream dis = new DataInputStream(
+                    new BufferedInputStream(new FileInputStream(file)))) {
+                if (file.length() >= 4 && dis.readInt() == BINARY_MODEL_MAGIC) {
+                    int size = dis.readInt();
+                    LongFloatMap data = new LongFloatMap(size * 2);
+                    for (int i = 0; i < size; i++) {
+                        long key = dis.readLong();
+                        data.put(key, dis.readFloat());
+                    }
+                    return new Model(data);
+                }
+            }
+            return loadFromTextFile(file);
         }
 
+        /**
+         * Loads a text model with "weight feature" lines. Features are hashed with HashedFeatures.hash
+         */
         public static Model loadFromTextFile(File file) throws IOException {
-            Map<String, Double> data = Maps.newHashMap();
+            LongFloatMap data = new LongFloatMap();
             List<String> all = SimpleTextReader.trimmingUTF8Reader(file).asStringList();
             for (String s : all) {
                 double weight = Double.parseDouble(Strings.subStringUntilFirst(s, " "));
                 String key = Strings.subStringAfterFirst(s, " ");
-                data.put(key, weight);
+                data.put(HashedFeatures.hash(key), (float) weight);
             }
             return new Model(data);
         }
 
-        public void saveAsText(File file) throws IOException {
-            SimpleTextWriter stw = SimpleTextWriter.keepOpenUTF8Writer(file);
-            for (String s : data.keySet()) {
-                stw.writeLine(data.get(s) + " " + s);
+        /**
+         * Saves the model in binary format. Format is:
+         * <p/>int32 magic
+         * <p/>int32 feature count
+         * <p/>(int64 feature key, float32 weight)... sorted by keys.
+         */
+        public void saveBinary(File file) throws IOException {
+            try (DataOutputStream dos = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(file)))) {
+                dos.writeInt(BINARY_MODEL_MAGIC);
+                dos.writeInt(data.size());
+                for (long key : data.getSortedKeys()) {
+                    dos.writeLong(key);
+                    dos.writeFloat(data.get(key));
+                }
             }
-            stw.close();
         }
 
-        double weight(String key) {
-            return data.containsKey(key) ? data.get(key) : 0;
+        Model copy() {
+            return scaled(1);
         }
 
-        void put(String key, Double value) {
-            this.data.put(key, value);
+        /**
+         * @return a new model with weights multiplied by the factor.
+         */
+        Model scaled(double factor) {
+            LongFloatMap scaled = new LongFloatMap(data.size() * 2);
+            for (long key : data.getKeys()) {
+                scaled.put(key, (float) (data.get(key) * factor));
+            }
+            return new Model(scaled);
         }
 
-        double increment(String key, double value) {
-            Double val = data.get(key);
-            if (val == null) {
-                data.put(key, value);
-                return value;
-            } else data.put(key, val + value);
-            return val + value;
+        float weight(long key) {
+            return data.get(key);
         }
 
-        @Override
-        public Iterator<String> iterator() {
-            return data.keySet().iterator();
+        void put(long key, float value) {
+            data.put(key, value);
         }
 
+        float increment(long key, float value) {
+            return data.increment(key, value);
+        }
+
+        void remove(long key) {
+            data.remove(key);
+        }
+
+        long[] keys() {
+            return data.getKeys();
+        }
+
+        int size() {
+            return data.size();
+        }
     }
 
     //represents a state in Viterbi search.
@@ -240,10 +401,10 @@ public class AveragedPerceptronMorphDisambiguator extends AbstractDisambiguator
 
     // represents the ID of the state
     class StateId {
-        String first;
-        String second;
+        ParseParts first;
+        ParseParts second;
 
-        StateId(String first, String second) {
+        StateId(ParseParts first, ParseParts second) {
             this.first = first;
             this.second = second;
         }
@@ -255,15 +416,15 @@ public class AveragedPerceptronMorphDisambiguator extends AbstractDisambiguator
 
             StateId stateId = (StateId) o;
 
-            if (!first.equals(stateId.first)) return false;
-            if (!second.equals(stateId.second)) return false;
+            if (!first.parse.equals(stateId.first.parse)) return false;
+            if (!second.parse.equals(stateId.second.parse)) return false;
 
             return true;
         }
 
         @Override
         public int hashCode() {
-            return 31 * first.hashCode() + second.hashCode();
+            return 31 * first.parse.hashCode() + second.parse.hashCode();
         }
     }
 
@@ -275,48 +436,45 @@ public class AveragedPerceptronMorphDisambiguator extends AbstractDisambiguator
      * @return best parse sequence and its score.
      */
     ParseResult bestParse(SentenceData sentence, boolean useAveragedWeights) {
-        sentence.words.add(WordData.SENTENCE_END);
+        // sentence is not modified, it is decoded once for every training epoch.
+        List<WordData> words = Lists.newArrayList(sentence.words);
+        words.add(WordData.SENTENCE_END);
         Map<StateId, Integer> stateIds = Maps.newHashMap();
         Map<Integer, State> bestPath = Maps.newHashMap();
+        Model model = useAveragedWeights ? averagedWeights : weights;
+        HashedFeatures features = new HashedFeatures();
 
         // initial path and state
         bestPath.put(0, new State(-1, 0, null));
-        stateIds.put(new StateId("<s>", "<s>"), 0);
+        stateIds.put(new StateId(SENTENCE_START, SENTENCE_START), 0);
 
         int bestStateNum = 0;
         double bestScore = -100000;
         int n = 0;
-        for (WordData word : sentence.words) {
+        for (WordData word : words) {
             Map<StateId, Integer> nextStates = Maps.newHashMap();
             // shuffle the parses for randomness.
             List<String> allParses = Lists.newArrayList(word.allParses);
             Collections.shuffle(allParses, random);
             bestScore = -100000;
             for (String parse : allParses) {
-
+                // parse parts are calculated once and used for all states.
+                ParseParts parts = new ParseParts(parse);
                 for (StateId id : stateIds.keySet()) {
                     int stateNum = stateIds.get(id);
                     State st = bestPath.get(stateNum);
-                    List<String> trigram = Lists.newArrayList(
-                            id.first,
-                            id.second,
-                            parse
-                    );
 
-                    CountSet<String> features = new CountSet<>();
-                    extractTrigramFeatures(trigram, features);
+                    features.clear();
+                    extractTrigramFeatures(id.first, id.second, parts, features);
 
                     double trigramScore = 0;
-                    for (String key : features) {
-                        if (useAveragedWeights)
-                            trigramScore += averagedWeights.weight(key) * features.get(key);
-                        else
-                            trigramScore += weights.weight(key) * features.get(key);
+                    for (int i = 0; i < features.size(); i++) {
+                        trigramScore += model.weight(features.get(i));
                     }
 
                     double newScore = trigramScore + st.score;
 
-                    StateId newStateId = new StateId(id.second, parse);
+                    StateId newStateId = new StateId(id.second, parts);
                     if (!nextStates.containsKey(newStateId))
                         nextStates.put(newStateId, ++n);
 
@@ -350,7 +508,7 @@ public class AveragedPerceptronMorphDisambiguator extends AbstractDisambiguator
         return new ParseResult(best, bestScore);
     }
 
-    private static class ParseResult {
+    static class ParseResult {
         List<String> bestParse;
         double score;
 
@@ -0,0 +1,152 @@
+package zemberek.morphology.ambiguity;
+
+import java.util.Arrays;
+
+/**
+ * Collects 64 bit hash keys of perceptron features. Features are hashed from their parts, so feature strings are not
+ * built while decoding.
+ * <p/>Hash of a string is a polynomial hash of its chars. So hash of a concatenation is calculated from the hashes and
+ * lengths of its parts, and it is same with the hash of the concatenated string. This way keys of old text models
+ * that have feature strings can be hashed with hash(String) and used with hashed features.
+ * <p/>A key is built with start, append and add calls:
+ * <pre>features.start(PREFIX).append(root).append(DASH).append(igs).add();</pre>
+ */
+class HashedFeatures {
+
+    private static final long MULTIPLIER = 0x100000001B3L;
+
+    static final Part DASH = new Part("-");
+
+    // PREFIX[i] is "i:", the prefix of the i.th feature template.
+    static final Part[] PREFIX = new Part[24];
+
+    static final Part PROPER = new Part("21:PROPER");
+    static final Part ENDS_VERB = new Part("23:ENDSVERB");
+
+    private static final Part[] NUMBERS = new Part[32];
+
+    static {
+        for (int i = 0; i < NUMBERS.length; i++) {
+            NUMBERS[i] = new Part(String.valueOf(i));
+        }
+        for (int i = 0; i < PREFIX.length; i++) {
+            PREFIX[i] = new Part(i + ":");
+        }
+    }
+
+    private long[] keys = new long[32];
+    private int size;
+    private long current;
+
+    /**
+     * Hash of a string with its length, so it can be appended to other hashes.
+     */
+    static final class Part {
+        final String str;
+        final long hash;
+        // MULTIPLIER^length
+        final long shift;
+
+        Part(String str) {
+            this.str = str;
+            long h = 0;
+            long s = 1;
+            for (int i = 0; i < str.length(); i++) {
+                h = h * MULTIPLIER + str.charAt(i);
+                s *= MULTIPLIER;
+            }
+            this.hash = h;
+            this.shift = s;
+        }
+
+        @Override
+        public String toString() {
+            return str;
+        }
+    }
+
+    /**
+     * Parts of a parse string used by feature templates. It is calculated once for a parse, then used for all
+     * trigrams that contain the parse.
+     */
+    static final class ParseParts {
+        final String parse;
+        final Part root;
+        final Part allIgs;
+        // allIgs split from spaces.
+        final Part[] igs;
+        final Part lastIg;
+        final Part igCount;
+        final boolean proper;
+        final boolean endsVerb;
+
+        ParseParts(String parse) {
+            AbstractDisambiguator.WordParse wordParse = new AbstractDisambiguator.WordParse(parse);
+            this.parse = parse;
+            this.root = new Part(wordParse.root);
+            this.allIgs = new Part(wordParse.allIgs);
+            String[] igStrings = wordParse.allIgs.split("[ ]");
+            this.igs = new Part[igStrings.length];
+            for (int i = 0; i < igStrings.length; i++) {
+                igs[i] = new Part(igStrings[i]);
+            }
+            this.lastIg = igs[igs.length - 1];
+            this.igCount = number(igs.length);
+            this.proper = wordParse.root.length() > 0 && Character.isUpperCase(wordParse.root.charAt(0))
+                    && wordParse.igs.contains("Prop");
+            this.endsVerb = wordParse.all.contains(".+Punc") && wordParse.igs.contains("Verb");
+        }
+
+        @Override
+        public String toString() {
+            return parse;
+        }
+    }
+
+    static Part number(int i) {
+        return i >= 0 && i < NUMBERS.length ? NUMBERS[i] : new Part(String.valueOf(i));
+    }
+
+    /**
+     * @return key of a feature string. It is same with the key built from the parts of the string.
+     */
+    static long hash(String feature) {
+        return toKey(new Part(feature).hash);
+    }
+
+    // 0 and Long.MIN_VALUE cannot be used as LongFloatMap keys.
+    private static long toKey(long hash) {
+        return hash == 0 || hash == Long.MIN_VALUE ? 1 : hash;
+    }
+
+    HashedFeatures start(Part part) {
+        current = part.hash;
+        return this;
+    }
+
+    HashedFeatures append(Part part) {
+        current = current * part.shift + part.hash;
+        return this;
+    }
+
+    /**
+     * Adds the key of the current feature.
+     */
+    void add() {
+        if (size == keys.length)
+            keys = Arrays.copyOf(keys, size * 2);
+        keys[size++] = toKey(current);
+    }
+
+    int size() {
+        return size;
+    }
+
+    long get(int i) {
+        return keys[i];
+    }
+
+    void clear() {
+        size = 0;
+    }
+}
@@ -0,0 +1,32 @@
+package zemberek.morphology.ambiguity;
+
+import zemberek.morphology.parser.MorphParse;
+
+import java.util.List;
+
+/**
+ * A parse sequence of a sentence found by a disambiguator.
+ */
+public class ParseSequence {
+    // a parse for each word of the sentence.
+    public final List<MorphParse> parses;
+    // log10 score of the sequence.
+    public final double score;
+    // confidence of each parse, between 0 and 1.
+    public final double[] confidences;
+
+    public ParseSequence(List<MorphParse> parses, double score, double[] confidences) {
+        this.parses = parses;
+        this.score = score;
+        this.confidences = confidences;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < parses.size(); i++) {
+            sb.append(parses.get(i).formatLong()).append(String.format(":%.3f ", confidences[i]));
+        }
+        return sb.append(String.format("score=%.3f", score)).toString();
+    }
+}
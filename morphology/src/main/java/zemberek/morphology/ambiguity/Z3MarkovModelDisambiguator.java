@@ -3,8 +3,11 @@ package zemberek.morphology.ambiguity;
 import com.google.common.base.Charsets;
 import com.google.common.base.Joiner;
 import com.google.common.base.Stopwatch;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.Lists;
 import com.google.common.io.Files;
+import com.google.common.primitives.Ints;
 import edu.berkeley.nlp.lm.ConfigOptions;
 import edu.berkeley.nlp.lm.StringWordIndexer;
 import edu.berkeley.nlp.lm.io.ArpaLmReader;
@@ -34,18 +37,29 @@ import java.util.concurrent.TimeUnit;
  * This is the modified implementation of the Model-A system described in the paper.
  * Model-A basically uses 3-gram root and multiplication of current IG's (Inflectional Group) with previous two last IG probabilities.
  * Our implementation attaches POS data to root and in some cobditions to IG data
- * Simple Viterbi decoding is utilized for finding the best parse. A predefined penalty is applied to unknown word probabilities.
+ * Second order Viterbi decoding is utilized for finding the best parse sequence. A predefined penalty is applied to unknown word probabilities.
  * Kneser-Ney Lm generation is done with BerkeleyLm library
  * Language model compression and fast random access is provided via SmoothLm library.
  */
 public class Z3MarkovModelDisambiguator extends Z3AbstractDisambiguator implements TurkishMorphDisambiguator {
     public static final double UNKNOWN_PROB = -10;
+    public static final int ID_CACHE_SIZE = 100000;
     SmoothLm rootLm;
     SmoothLm igLm;
 
     Ambiguous startWord;
     Ambiguous endWord;
 
+    // 0 means Viterbi decoding is used.
+    int beamSize;
+
+    // root and IG LM ids of parses. Parse caches share MorphParse instances, so ids of frequent parses are
+    // calculated once. Ids belong to the LMs of this instance.
+    private final Cache<MorphParse, int[]> idCache = CacheBuilder.newBuilder()
+            .maximumSize(ID_CACHE_SIZE)
+            .concurrencyLevel(Runtime.getRuntime().availableProcessors())
+            .build();
+
     public Z3MarkovModelDisambiguator(File rootLm, File igLm) throws IOException {
         this.rootLm = SmoothLm.builder(rootLm).build();
         this.igLm = SmoothLm.builder(igLm).build();
@@ -160,61 +174,357 @@ public class Z3MarkovModelDisambiguator extends Z3AbstractDisambiguator implemen
         igWriter.close();
     }
 
+    /**
+     * Finds the best parse sequence with second order Viterbi decoding. States of a word are (previous parse,
+     * current parse) pairs, so the trigram scores of all paths are considered and the result is exact.
+     * LM scores are calculated once for the distinct root and IG trigrams of three consecutive words.
+     *
+     * @param ambiguousSeq ambiguous words with two sentence start words and a sentence end word.
+     * @return best parse indexes of the words between sentence start and end words.
+     */
     public int[] bestSequence(Ambiguous[] ambiguousSeq) {
-        Hypothesis[] hypotheses = {Hypothesis.EMPTY_HYPOTHESIS};
-        for (int i = 2; i < ambiguousSeq.length; i++) { // we skip the two <s> words.
+        Lattice lattice = lattices.get();
+        int length = ambiguousSeq.length;
+        lattice.reset(ambiguousSeq);
+        int[] offsets = lattice.offsets;
+        double[] scores = lattice.scores;
+        int[] backPointers = lattice.backPointers;
+        // only state of the sentence start words.
+        scores[offsets[1]] = 0;
+
+        for (int i = 2; i < length; i++) {
+            Ambiguous twoBefore = ambiguousSeq[i - 2];
+            Ambiguous oneBefore = ambiguousSeq[i - 1];
             Ambiguous word = ambiguousSeq[i];
-            // there is exactly parse amount of live Hypothesis at a time
-            Hypothesis[] newHypotheses = new Hypothesis[word.size()];
-            for (int parseIndex = 0; parseIndex < word.size(); parseIndex++) {
-                double bestScore = Double.NEGATIVE_INFINITY;
-                Hypothesis bestHyp = hypotheses[0];
-                for (Hypothesis hyp : hypotheses) {
-                    int[] rootTrigram = {
-                            ambiguousSeq[i - 2].roots[hyp.twoBeforeIndex],
-                            ambiguousSeq[i - 1].roots[hyp.oneBeforeIndex],
-                            word.roots[parseIndex]
-                    };
-                    int[] igTrigram = {
-                            ambiguousSeq[i - 2].lastIgs[hyp.twoBeforeIndex],
-                            ambiguousSeq[i - 1].lastIgs[hyp.oneBeforeIndex],
-                            word.lastIgs[parseIndex]
-                    };
-                    double rootLmScore = containsUnknown(rootTrigram) ? UNKNOWN_PROB : rootLm.getProbability(rootTrigram);
-                    double igLmScore = containsUnknown(igTrigram) ? UNKNOWN_PROB : igLm.getProbability(igTrigram) * 2;
-                    double total = hyp.score + rootLmScore + igLmScore;
-                    if (total > bestScore) {
-                        bestScore = total;
-                        bestHyp = hyp;
+            TrigramBatch rootBatch = lattice.rootBatch;
+            TrigramBatch igBatch = lattice.igBatch;
+            rootBatch.reset(twoBefore.distinctRoots.length * oneBefore.distinctRoots.length * word.distinctRoots.length);
+            igBatch.reset(twoBefore.distinctIgs.length * oneBefore.distinctIgs.length * word.distinctIgs.length);
+            for (int g1 : twoBefore.distinctRoots) {
+                for (int g2 : oneBefore.distinctRoots) {
+                    for (int g3 : word.distinctRoots) {
+                        rootBatch.add(g1, g2, g3);
+                    }
+                }
+            }
+            for (int g1 : twoBefore.distinctIgs) {
+                for (int g2 : oneBefore.distinctIgs) {
+                    for (int g3 : word.distinctIgs) {
+                        igBatch.add(g1, g2, g3);
+                    }
+                }
+            }
+            rootBatch.score(rootLm);
+            igBatch.score(igLm);
+
+            int previousOffset = offsets[i - 1];
+            int offset = offsets[i];
+            int rootCount2 = oneBefore.distinctRoots.length;
+            int rootCount3 = word.distinctRoots.length;
+            int igCount2 = oneBefore.distinctIgs.length;
+            int igCount3 = word.distinctIgs.length;
+            for (int p = 0; p < oneBefore.size(); p++) {
+                for (int c = 0; c < word.size(); c++) {
+                    double bestScore = Double.NEGATIVE_INFINITY;
+                    int bestPrevious = 0;
+                    int rootIndex = oneBefore.rootIndexes[p] * rootCount3 + word.rootIndexes[c];
+                    int igIndex = oneBefore.igIndexes[p] * igCount3 + word.igIndexes[c];
+                    for (int q = 0; q < twoBefore.size(); q++) {
+                        int r = twoBefore.rootIndexes[q] * rootCount2 * rootCount3 + rootIndex;
+                        int g = twoBefore.igIndexes[q] * igCount2 * igCount3 + igIndex;
+                        double rootLmScore = rootBatch.unknown[r] ? UNKNOWN_PROB : rootBatch.scores[r];
+                        double igLmScore = igBatch.unknown[g] ? UNKNOWN_PROB : igBatch.scores[g] * 2;
+                        double total = scores[previousOffset + q * oneBefore.size() + p] + rootLmScore + igLmScore;
+                        if (total > bestScore) {
+                            bestScore = total;
+                            bestPrevious = q;
+                        }
                     }
+                    scores[offset + p * word.size() + c] = bestScore;
+                    backPointers[offset + p * word.size() + c] = bestPrevious;
                 }
-                newHypotheses[parseIndex] = new Hypothesis(bestHyp, bestScore, bestHyp.oneBeforeIndex, parseIndex);
             }
-            hypotheses = newHypotheses;
         }
-        // find the best parse index sequence using backtracking
-        int[] result = new int[ambiguousSeq.length - 3];
-        int j = result.length - 1;
-        Hypothesis h = hypotheses[0].previous; // the hypothesis before the </s>
-        while (h.previous != null) { // keep until previous hypothesis is EMPTY_HYPOTHESIS
-            result[j] = h.oneBeforeIndex;
-            h = h.previous;
-            j--;
+
+        // best state of the sentence end word. It has only one parse.
+        int last = length - 1;
+        int p = 0;
+        for (int k = 1; k < ambiguousSeq[last - 1].size(); k++) {
+            if (scores[offsets[last] + k] > scores[offsets[last] + p])
+                p = k;
+        }
+        // find the best parse index sequence using back pointers.
+        int[] result = new int[length - 3];
+        int c = 0;
+        for (int i = last; i > 2; i--) {
+            result[i - 3] = p;
+            int q = backPointers[offsets[i] + p * ambiguousSeq[i].size() + c];
+            c = p;
+            p = q;
         }
         return result;
     }
 
-    private boolean containsUnknown(int[] indexes) {
-        for (int i : indexes) {
-            if (i == -1) return true;
+    /**
+     * Score of a parse sequence with the same calculation used in bestSequence.
+     */
+    double sequenceScore(Ambiguous[] ambiguousSeq, int[] parseIndexes) {
+        int[] indexes = new int[ambiguousSeq.length];
+        System.arraycopy(parseIndexes, 0, indexes, 2, parseIndexes.length);
+        double score = 0;
+        for (int i = 2; i < ambiguousSeq.length; i++) {
+            int[] roots = {ambiguousSeq[i - 2].roots[indexes[i - 2]],
+                    ambiguousSeq[i - 1].roots[indexes[i - 1]],
+                    ambiguousSeq[i].roots[indexes[i]]};
+            int[] igs = {ambiguousSeq[i - 2].lastIgs[indexes[i - 2]],
+                    ambiguousSeq[i - 1].lastIgs[indexes[i - 1]],
+                    ambiguousSeq[i].lastIgs[indexes[i]]};
+            score += Ints.contains(roots, -1) ? UNKNOWN_PROB : rootLm.getProbability(roots);
+            score += Ints.contains(igs, -1) ? UNKNOWN_PROB : igLm.getProbability(igs) * 2;
+        }
+        return score;
+    }
+
+    private final ThreadLocal<Lattice> lattices = new ThreadLocal<Lattice>() {
+        @Override
+        protected Lattice initialValue() {
+            return new Lattice();
+        }
+    };
+
+    /**
+     * Viterbi lattice of a sentence. States of i.th word are stored in scores and back pointers arrays starting from
+     * offsets[i], state of (previous parse p, parse c) is at offsets[i] + p * (parse count of the word) + c.
+     * Arrays are reused for the sentences decoded by a thread and only grow.
+     */
+    static class Lattice {
+        int[] offsets = new int[64];
+        double[] scores = new double[256];
+        int[] backPointers = new int[256];
+        TrigramBatch rootBatch = new TrigramBatch();
+        TrigramBatch igBatch = new TrigramBatch();
+
+        void reset(Ambiguous[] ambiguousSeq) {
+            if (offsets.length < ambiguousSeq.length + 1)
+                offsets = new int[ambiguousSeq.length + 1];
+            int size = 0;
+            for (int i = 1; i < ambiguousSeq.length; i++) {
+                offsets[i] = size;
+                size += ambiguousSeq[i - 1].size() * ambiguousSeq[i].size();
+            }
+            if (scores.length < size) {
+                scores = new double[size];
+                backPointers = new int[size];
+            }
+        }
+    }
+
+    /**
+     * Finds best parse sequences with beam search. Only beamSize best partial sequences are kept for each word, so
+     * it is faster than Viterbi decoding for highly ambiguous sentences with small beams, but the result is
+     * approximate. Partial sequences are not merged, so final beam contains distinct parse sequences.
+     *
+     * @param ambiguousSeq ambiguous words with two sentence start words and a sentence end word.
+     * @param beamSize     maximum amount of partial sequences kept for a word.
+     * @return parse index sequences of the final beam and their scores, sorted by score.
+     */
+    BeamResult beamSearch(Ambiguous[] ambiguousSeq, int beamSize) {
+        if (beamSize < 1)
+            throw new IllegalArgumentException("Beam size must be positive but it is " + beamSize);
+        Beam beam = beams.get();
+        int length = ambiguousSeq.length;
+        beam.reset(length, beamSize);
+        int[] parses = beam.parses;
+        int[] backPointers = beam.backPointers;
+        double[] scores = beam.scores;
+        int[] counts = beam.counts;
+        // only hypothesis of the sentence start words.
+        counts[1] = 1;
+        backPointers[beamSize] = 0;
+
+        for (int i = 2; i < length; i++) {
+            Ambiguous twoBefore = ambiguousSeq[i - 2];
+            Ambiguous oneBefore = ambiguousSeq[i - 1];
+            Ambiguous word = ambiguousSeq[i];
+            int previousOffset = (i - 1) * beamSize;
+            int candidateCount = counts[i - 1] * word.size();
+            TrigramBatch rootBatch = beam.rootBatch;
+            TrigramBatch igBatch = beam.igBatch;
+            rootBatch.reset(candidateCount);
+            igBatch.reset(candidateCount);
+            for (int b = previousOffset; b < previousOffset + counts[i - 1]; b++) {
+                int q = parses[(i - 2) * beamSize + backPointers[b]];
+                int p = parses[b];
+                for (int c = 0; c < word.size(); c++) {
+                    rootBatch.add(twoBefore.roots[q], oneBefore.roots[p], word.roots[c]);
+                    igBatch.add(twoBefore.lastIgs[q], oneBefore.lastIgs[p], word.lastIgs[c]);
+                }
+            }
+            rootBatch.score(rootLm);
+            igBatch.score(igLm);
+
+            // keep best candidates sorted by score. Earlier candidate comes first for equal scores.
+            int offset = i * beamSize;
+            int count = 0;
+            int k = 0;
+            for (int b = 0; b < counts[i - 1]; b++) {
+                for (int c = 0; c < word.size(); c++, k++) {
+                    double rootLmScore = rootBatch.unknown[k] ? UNKNOWN_PROB : rootBatch.scores[k];
+                    double igLmScore = igBatch.unknown[k] ? UNKNOWN_PROB : igBatch.scores[k] * 2;
+                    double score = scores[previousOffset + b] + rootLmScore + igLmScore;
+                    if (count == beamSize && score <= scores[offset + count - 1])
+                        continue;
+                    int j = count < beamSize ? count++ : count - 1;
+                    while (j > 0 && scores[offset + j - 1] < score) {
+                        scores[offset + j] = scores[offset + j - 1];
+                        parses[offset + j] = parses[offset + j - 1];
+                        backPointers[offset + j] = backPointers[offset + j - 1];
+                        j--;
+                    }
+                    scores[offset + j] = score;
+                    parses[offset + j] = c;
+                    backPointers[offset + j] = b;
+                }
+            }
+            counts[i] = count;
+        }
+
+        int last = length - 1;
+        int[][] sequences = new int[counts[last]][length - 3];
+        double[] sequenceScores = new double[counts[last]];
+        for (int h = 0; h < counts[last]; h++) {
+            sequenceScores[h] = scores[last * beamSize + h];
+            int b = backPointers[last * beamSize + h];
+            for (int i = last - 1; i > 1; i--) {
+                sequences[h][i - 2] = parses[i * beamSize + b];
+                b = backPointers[i * beamSize + b];
+            }
+        }
+        return new BeamResult(sequences, sequenceScores);
+    }
+
+    static class BeamResult {
+        final int[][] sequences;
+        final double[] scores;
+
+        BeamResult(int[][] sequences, double[] scores) {
+            this.sequences = sequences;
+            this.scores = scores;
+        }
+
+        /**
+         * Confidence of a parse of a word is calculated from the sequences of the beam as the sum of probabilities
+         * of sequences with that parse, divided by the sum of probabilities of all sequences. It is only an
+         * approximation of posterior probability, as the beam does not contain all sequences.
+         *
+         * @return confidences of the parses of h.th sequence.
+         */
+        double[] confidences(int h) {
+            // scores are log10 values, they are normalized with the best score to prevent underflow.
+            double[] weights = new double[scores.length];
+            double total = 0;
+            for (int i = 0; i < scores.length; i++) {
+                weights[i] = Math.pow(10, scores[i] - scores[0]);
+                total += weights[i];
+            }
+            double[] confidences = new double[sequences[h].length];
+            for (int w = 0; w < confidences.length; w++) {
+                double sum = 0;
+                for (int i = 0; i < sequences.length; i++) {
+                    if (sequences[i][w] == sequences[h][w])
+                        sum += weights[i];
+                }
+                confidences[w] = sum / total;
+            }
+            return confidences;
+        }
+    }
+
+    private final ThreadLocal<Beam> beams = new ThreadLocal<Beam>() {
+        @Override
+        protected Beam initialValue() {
+            return new Beam();
+        }
+    };
+
+    /**
+     * Hypotheses of beam search. Hypotheses of i.th word start from i * beamSize in parses, back pointers and
+     * scores arrays, sorted by score. A hypothesis keeps its parse index and index of its previous hypothesis.
+     * Arrays are reused for the sentences decoded by a thread and only grow.
+     */
+    static class Beam {
+        int[] parses = new int[256];
+        int[] backPointers = new int[256];
+        double[] scores = new double[256];
+        int[] counts = new int[64];
+        TrigramBatch rootBatch = new TrigramBatch();
+        TrigramBatch igBatch = new TrigramBatch();
+
+        void reset(int length, int beamSize) {
+            if (counts.length < length)
+                counts = new int[length];
+            if (parses.length < length * beamSize) {
+                parses = new int[length * beamSize];
+                backPointers = new int[length * beamSize];
+                scores = new double[length * beamSize];
+            }
+            // sentence start words.
+            parses[0] = parses[beamSize] = 0;
+            scores[beamSize] = 0;
+        }
+    }
+
+    /**
+     * Flat trigram buffer for batch scoring. Trigrams with unknown words are not scored, they are marked instead.
+     * Buffers are re-used and only grow.
+     */
+    static class TrigramBatch {
+        int[] trigrams = new int[48];
+        double[] scores = new double[16];
+        boolean[] unknown = new boolean[16];
+        int size;
+
+        void reset(int capacity) {
+            size = 0;
+            if (scores.length < capacity) {
+                trigrams = new int[capacity * 3];
+                scores = new double[capacity];
+                unknown = new boolean[capacity];
+            }
+        }
+
+        void add(int g1, int g2, int g3) {
+            unknown[size] = g1 == -1 || g2 == -1 || g3 == -1;
+            int offset = size * 3;
+            if (unknown[size]) {
+                // a placeholder that is valid for the model. Its score is not used.
+                g1 = g2 = g3 = 0;
+            }
+            trigrams[offset] = g1;
+            trigrams[offset + 1] = g2;
+            trigrams[offset + 2] = g3;
+            size++;
+        }
+
+        void score(SmoothLm lm) {
+            lm.getProbabilities(3, trigrams, size, scores);
         }
-        return false;
+    }
+
+    /**
+     * Sets the beam size used in disambiguate method. If it is 0, Viterbi decoding is used and the best parse
+     * sequence is found. Otherwise beam search is used, smaller beams are faster but less accurate.
+     */
+    public void setBeamSize(int beamSize) {
+        if (beamSize < 0)
+            throw new IllegalArgumentException("Beam size cannot be negative but it is " + beamSize);
+        this.beamSize = beamSize;
     }
 
     @Override
     public void disambiguate(SentenceMorphParse sentenceParse) {
         Ambiguous[] ambiguousSeq = getAmbiguousSequence(sentenceParse);
-        int[] bestSequence = bestSequence(ambiguousSeq);
+        int[] bestSequence = beamSize == 0 ? bestSequence(ambiguousSeq) : beamSearch(ambiguousSeq, beamSize).sequences[0];
         for (int i = 0; i < bestSequence.length; i++) {
             List<MorphParse> results = sentenceParse.getParses(i);
             if (results.size() == 1)
@@ -225,18 +535,28 @@ public class Z3MarkovModelDisambiguator extends Z3AbstractDisambiguator implemen
         }
     }
 
-    static class Hypothesis {
-        static final Hypothesis EMPTY_HYPOTHESIS = new Hypothesis(null, 0.0d, 0, 0);
-        Hypothesis previous;
-        double score;
-        int twoBeforeIndex, oneBeforeIndex;
-
-        Hypothesis(Hypothesis previous, double score, int twoBeforeIndex, int oneBeforeIndex) {
-            this.previous = previous;
-            this.score = score;
-            this.twoBeforeIndex = twoBeforeIndex;
-            this.oneBeforeIndex = oneBeforeIndex;
+    /**
+     * Finds k best parse sequences of a sentence with beam search. Sentence parse is not modified.
+     *
+     * @param sentenceParse sentence parse.
+     * @param k             maximum amount of sequences to return.
+     * @param beamSize      beam size of the search, it cannot be smaller than k.
+     * @return at most k parse sequences with their scores and confidences, sorted by score.
+     */
+    public List<ParseSequence> kBest(SentenceMorphParse sentenceParse, int k, int beamSize) {
+        if (k < 1 || beamSize < k)
+            throw new IllegalArgumentException("Beam size must be at least k and k must be positive. k=" + k +
+                    " beam size=" + beamSize);
+        BeamResult result = beamSearch(getAmbiguousSequence(sentenceParse), beamSize);
+        List<ParseSequence> sequences = Lists.newArrayList();
+        for (int h = 0; h < Math.min(k, result.sequences.length); h++) {
+            List<MorphParse> parses = Lists.newArrayListWithCapacity(sentenceParse.size());
+            for (int i = 0; i < result.sequences[h].length; i++) {
+                parses.add(sentenceParse.getParses(i).get(result.sequences[h][i]));
+            }
+            sequences.add(new ParseSequence(parses, result.scores[h], result.confidences(h)));
         }
+        return sequences;
     }
 
     public Ambiguous[] getAmbiguousSequence(SentenceMorphParse sentence) {
@@ -249,23 +569,13 @@ public class Z3MarkovModelDisambiguator extends Z3AbstractDisambiguator implemen
             int[] lastIgs = new int[entry.parses.size()];
             int j = 0;
             for (MorphParse parse : entry.parses) {
-                String rootPart = parse.dictionaryItem.lemma;
-                MorphParse.InflectionalGroup firstIg = parse.inflectionalGroups.get(0);
-                if (firstIg.suffixList.size() == 0)
-                    rootPart += firstIg.formatNoSurface();
-                else {
-                    String s = firstIg.formatNoSurface();
-                    String suffixPart = Strings.subStringAfterFirst(s, ";");
-                    if (suffixPart.equals("A3sg+Pnon+Nom)"))
-                        rootPart += (Strings.subStringUntilFirst(s, ";") + ")");
+                int[] ids = idCache.getIfPresent(parse);
+                if (ids == null) {
+                    ids = getIds(parse);
+                    idCache.put(parse, ids);
                 }
-                roots[j] = rootLm.getVocabulary().indexOf(rootPart);
-                String igPart;
-                int igSize = parse.inflectionalGroups.size();
-                if (igSize > 1 && parse.inflectionalGroups.get(igSize - 2).suffixList.size() == 0) {
-                    igPart = parse.inflectionalGroups.get(igSize - 2).formatNoSurface() + parse.getLastIg();
-                } else igPart = parse.getLastIg().formatNoSurface();
-                lastIgs[j] = igLm.getVocabulary().indexOf(igPart);
+                roots[j] = ids[0];
+                lastIgs[j] = ids[1];
                 j++;
             }
             awords[i] = new Ambiguous(roots, lastIgs);
@@ -275,6 +585,33 @@ public class Z3MarkovModelDisambiguator extends Z3AbstractDisambiguator implemen
         return awords;
     }
 
+    /**
+     * @return root and last IG ids of the parse in root and IG language models. Unknown keys have the id of <UNK>.
+     */
+    int[] getIds(MorphParse parse) {
+        // root and ig keys are built in a buffer and looked up without generating Strings.
+        StringBuilder sb = new StringBuilder();
+        sb.append(parse.dictionaryItem.lemma);
+        MorphParse.InflectionalGroup firstIg = parse.inflectionalGroups.get(0);
+        if (firstIg.suffixList.size() == 0)
+            sb.append(firstIg.formatNoSurface());
+        else {
+            String s = firstIg.formatNoSurface();
+            String suffixPart = Strings.subStringAfterFirst(s, ";");
+            if (suffixPart.equals("A3sg+Pnon+Nom)"))
+                sb.append(Strings.subStringUntilFirst(s, ";")).append(')');
+        }
+        int rootId = rootLm.getVocabulary().indexOf(sb, 0, sb.length());
+        sb.setLength(0);
+        int igSize = parse.inflectionalGroups.size();
+        if (igSize > 1 && parse.inflectionalGroups.get(igSize - 2).suffixList.size() == 0) {
+            sb.append(parse.inflectionalGroups.get(igSize - 2).formatNoSurface());
+        }
+        sb.append(parse.getLastIg().formatNoSurface());
+        int igId = igLm.getVocabulary().indexOf(sb, 0, sb.length());
+        return new int[]{rootId, igId};
+    }
+
     public Ambiguous[] getAmbiguousSequence(SentenceData sentence) {
         Ambiguous[] awords = new Ambiguous[sentence.size() + 3];
         awords[0] = startWord;
@@ -314,10 +651,35 @@ public class Z3MarkovModelDisambiguator extends Z3AbstractDisambiguator implemen
     static class Ambiguous {
         int[] roots;
         int[] lastIgs;
+        // distinct root and ig ids, and index of the id of each parse in them.
+        // Words generally have several parses with same root or ig.
+        int[] distinctRoots;
+        int[] rootIndexes;
+        int[] distinctIgs;
+        int[] igIndexes;
 
         Ambiguous(int[] roots, int[] lastIgs) {
             this.roots = roots;
             this.lastIgs = lastIgs;
+            this.rootIndexes = new int[roots.length];
+            this.distinctRoots = distinct(roots, rootIndexes);
+            this.igIndexes = new int[lastIgs.length];
+            this.distinctIgs = distinct(lastIgs, igIndexes);
+        }
+
+        private static int[] distinct(int[] ids, int[] indexes) {
+            int[] distinct = new int[ids.length];
+            int size = 0;
+            for (int i = 0; i < ids.length; i++) {
+                int k = 0;
+                while (k < size && distinct[k] != ids[i]) {
+                    k++;
+                }
+                if (k == size)
+                    distinct[size++] = ids[i];
+                indexes[i] = k;
+            }
+            return Arrays.copyOf(distinct, size);
         }
 
         int size() {
@@ -0,0 +1,68 @@
+package zemberek.morphology.apps;
+
+import com.google.common.base.Splitter;
+import com.google.common.base.Stopwatch;
+import com.google.common.collect.Lists;
+import org.kohsuke.args4j.Option;
+import zemberek.core.CommandLineApplication;
+import zemberek.core.io.ResourceUtil;
+import zemberek.core.io.SimpleTextReader;
+import zemberek.core.logging.Log;
+import zemberek.morphology.lexicon.RootLexicon;
+import zemberek.morphology.lexicon.SuffixProvider;
+import zemberek.morphology.lexicon.graph.DynamicLexiconGraph;
+import zemberek.morphology.lexicon.graph.LexiconSnapshot;
+import zemberek.morphology.lexicon.tr.TurkishDictionaryLoader;
+import zemberek.morphology.lexicon.tr.TurkishSuffixes;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A command line utility for compiling text dictionaries to a binary lexicon snapshot.
+ * Snapshot can be loaded with TurkishMorphParserBuilder.loadLexiconSnapshot
+ */
+public class CompileLexicon extends CommandLineApplication {
+
+    @Option(name = "-dictionaries",
+            usage = "Comma separated text dictionary files. If not provided, default dictionaries are used.")
+    public String dictionaries;
+
+    @Option(name = "-snapshotFile",
+            required = true,
+            usage = "Binary lexicon snapshot output file.")
+    public File snapshotFile;
+
+    @Override
+    protected String getDescription() {
+        return "This application compiles text dictionaries to a binary lexicon snapshot for fast parser initialization.";
+    }
+
+    @Override
+    protected void run() throws IOException {
+        List<String> lines = Lists.newArrayList();
+        if (dictionaries == null) {
+            for (String resource : TurkishDictionaryLoader.DEFAULT_DICTIONARY_RESOURCES) {
+                lines.addAll(ResourceUtil.readAllLines(resource, CompileLexicon.class.getClassLoader()));
+            }
+        } else {
+            for (String fileName : Splitter.on(",").omitEmptyStrings().trimResults().split(dictionaries)) {
+                lines.addAll(SimpleTextReader.trimmingUTF8Reader(new File(fileName)).asStringList());
+            }
+        }
+        Stopwatch sw = Stopwatch.createStarted();
+        SuffixProvider suffixProvider = new TurkishSuffixes();
+        RootLexicon lexicon = new TurkishDictionaryLoader(suffixProvider).load(lines);
+        DynamicLexiconGraph graph = new DynamicLexiconGraph(suffixProvider);
+        graph.addDictionaryItems(lexicon);
+        Log.info("Lexicon graph generated in " + sw.elapsed(TimeUnit.MILLISECONDS) + "ms. Stem count: " + graph.totalStemNodeCount());
+        LexiconSnapshot.save(graph, snapshotFile);
+        Log.info("Snapshot is saved to " + snapshotFile + " Size: " + snapshotFile.length() / 1024 + " KB");
+    }
+
+    public static void main(String[] args) {
+        new CompileLexicon().execute(args);
+    }
+}
@@ -0,0 +1,275 @@
+package zemberek.morphology.apps;
+
+import com.google.common.cache.CacheStats;
+import com.google.common.collect.ImmutableList;
+import zemberek.morphology.parser.MorphParse;
+import zemberek.morphology.parser.MorphParser;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A thread safe, size bounded parse cache. Unlike a static frequent word cache, words seen at runtime are admitted
+ * to the cache, so it adapts to the vocabulary of the processed text.
+ * Words are distributed to segments by their hash values. Each segment is an access ordered LRU map with its own
+ * lock and its own share of the maximum size.
+ * Two policies are available:
+ * LRU: Every parsed word is admitted. If the segment is full, least recently used word is evicted.
+ * TINY_LFU: Frequencies of all looked up words are estimated with a small count-min sketch whose counters are halved
+ * periodically. If the segment is full, a new word is admitted only if its estimated frequency is higher than the
+ * frequency of the least recently used word, which is evicted then. Otherwise new word is not cached. This keeps
+ * one-time words (typos, numbers, names) from evicting frequent words.
+ * Cached lists are immutable, so they can be shared safely between threads. Cached parses are interned, so equal
+ * parses of different words share the same instance.
+ */
+public class MorphCache {
+
+    public enum EvictionPolicy {
+        LRU, TINY_LFU
+    }
+
+    public static final int DEFAULT_MAX_SIZE = 50000;
+
+    private final MorphParser parser;
+    private final Segment[] segments;
+    private final int segmentMask;
+    private final FrequencySketch sketch;
+    private final EvictionPolicy policy;
+    private final int maxSize;
+
+    public MorphCache(MorphParser parser, int maxSize, EvictionPolicy policy) {
+        this(parser, maxSize, policy, Runtime.getRuntime().availableProcessors());
+    }
+
+    MorphCache(MorphParser parser, int maxSize, EvictionPolicy policy, int concurrencyLevel) {
+        if (maxSize <= 0)
+            throw new IllegalArgumentException("Cache size must be positive. But it is " + maxSize);
+        this.parser = parser;
+        this.maxSize = maxSize;
+        this.policy = policy;
+        // segment count is a power of two and a segment holds at least 16 words.
+        int segmentCount = 1;
+        while (segmentCount < concurrencyLevel && segmentCount * 2 * 16 <= maxSize)
+            segmentCount <<= 1;
+        this.segments = new Segment[segmentCount];
+        for (int i = 0; i < segmentCount; i++) {
+            int segmentSize = maxSize / segmentCount + (i < maxSize % segmentCount ? 1 : 0);
+            segments[i] = new Segment(segmentSize);
+        }
+        this.segmentMask = segmentCount - 1;
+        this.sketch = policy == EvictionPolicy.TINY_LFU ? new FrequencySketch(maxSize) : null;
+    }
+
+    public MorphCache(MorphParser parser) {
+        this(parser, DEFAULT_MAX_SIZE, EvictionPolicy.LRU);
+    }
+
+    /**
+     * Parses and adds the words to the cache directly. Admission policy is not applied.
+     *
+     * @param words words to pre-load.
+     */
+    public void warmUp(Iterable<String> words) {
+        for (String word : words) {
+            segmentFor(word).put(word, internedParses(word), null);
+        }
+    }
+
+    /**
+     * Returns the parses of the word. If result is not in the cache, word is parsed and admitted to the cache
+     * according to the policy.
+     *
+     * @param word input word.
+     * @return an immutable list of parses.
+     */
+    public List<MorphParse> parse(String word) {
+        if (sketch != null)
+            sketch.increment(word);
+        Segment segment = segmentFor(word);
+        List<MorphParse> result = segment.get(word);
+        if (result != null)
+            return result;
+        result = internedParses(word);
+        segment.put(word, result, sketch);
+        return result;
+    }
+
+    private Segment segmentFor(String word) {
+        int h = word.hashCode() * 0x9E3779B9;
+        return segments[(h >>> 16) & segmentMask];
+    }
+
+    private List<MorphParse> internedParses(String word) {
+        ImmutableList.Builder<MorphParse> builder = ImmutableList.builder();
+        for (MorphParse parse : parser.parse(word)) {
+            builder.add(parse.intern());
+        }
+        return builder.build();
+    }
+
+    public EvictionPolicy getPolicy() {
+        return policy;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public long size() {
+        long size = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.map.size();
+            }
+        }
+        return size;
+    }
+
+    public long hitCount() {
+        return stats().hitCount();
+    }
+
+    public long missCount() {
+        return stats().missCount();
+    }
+
+    public double hitRatio() {
+        return stats().hitRate();
+    }
+
+    public long evictionCount() {
+        return stats().evictionCount();
+    }
+
+    public CacheStats stats() {
+        long hits = 0, misses = 0, evictions = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                hits += segment.hitCount;
+                misses += segment.missCount;
+                evictions += segment.evictionCount;
+            }
+        }
+        return new CacheStats(hits, misses, 0, 0, 0, evictions);
+    }
+
+    @Override
+    public String toString() {
+        CacheStats stats = stats();
+        return String.format("Size: %d Hits: %d Miss: %d Hit ratio: %%%.2f Evictions: %d",
+                size(), stats.hitCount(), stats.missCount(), stats.hitRate() * 100, stats.evictionCount());
+    }
+
+    /**
+     * An access ordered LRU map with a fixed capacity. All access is synchronized on the segment.
+     */
+    static class Segment {
+        final int capacity;
+        final LinkedHashMap<String, List<MorphParse>> map;
+        long hitCount;
+        long missCount;
+        long evictionCount;
+
+        Segment(int capacity) {
+            this.capacity = capacity;
+            this.map = new LinkedHashMap<>(capacity * 4 / 3 + 1, 0.75f, true);
+        }
+
+        synchronized List<MorphParse> get(String word) {
+            List<MorphParse> result = map.get(word);
+            if (result != null)
+                hitCount++;
+            else
+                missCount++;
+            return result;
+        }
+
+        /**
+         * Puts the word to the segment. If segment is full and a sketch is given, word replaces the least recently
+         * used word only if it is estimated to be more frequent. Without a sketch, least recently used word is
+         * always evicted.
+         */
+        synchronized void put(String word, List<MorphParse> parses, FrequencySketch sketch) {
+            if (map.containsKey(word) || map.size() < capacity) {
+                map.put(word, parses);
+                return;
+            }
+            Iterator<Map.Entry<String, List<MorphParse>>> it = map.entrySet().iterator();
+            String victim = it.next().getKey();
+            if (sketch != null && sketch.estimate(word) <= sketch.estimate(victim))
+                return;
+            it.remove();
+            evictionCount++;
+            map.put(word, parses);
+        }
+    }
+
+    /**
+     * Count-min sketch with 4 rows and 8 bit counters. When sample count reaches 10 times the cache size all
+     * counters are halved, so that old frequencies fade away.
+     * Sketch is not locked. Concurrent updates of a counter may be lost and halving may race with updates, which
+     * only makes estimations a little less accurate.
+     */
+    static class FrequencySketch {
+        static final int DEPTH = 4;
+        static final int[] SEEDS = {0x9E3779B9, 0x7F4A7C15, 0x85EBCA6B, 0xC2B2AE35};
+
+        final byte[][] counters;
+        final int modulo;
+        final int sampleLimit;
+        final AtomicInteger sampleCount = new AtomicInteger();
+
+        FrequencySketch(int cacheSize) {
+            int k = 64;
+            while (k < cacheSize * 4)
+                k <<= 1;
+            counters = new byte[DEPTH][k];
+            modulo = k - 1;
+            sampleLimit = cacheSize * 10;
+        }
+
+        void increment(String key) {
+            int hash = key.hashCode();
+            for (int i = 0; i < DEPTH; i++) {
+                int slot = slot(hash, i);
+                int count = counters[i][slot] & 0xff;
+                if (count < 0xff) {
+                    counters[i][slot] = (byte) (count + 1);
+                }
+            }
+            // only the thread that reaches the limit halves the counters.
+            if (sampleCount.incrementAndGet() == sampleLimit) {
+                reset();
+            }
+        }
+
+        int estimate(String key) {
+            int hash = key.hashCode();
+            int min = Integer.MAX_VALUE;
+            for (int i = 0; i < DEPTH; i++) {
+                int count = counters[i][slot(hash, i)] & 0xff;
+                if (count < min)
+                    min = count;
+            }
+            return min;
+        }
+
+        private int slot(int hash, int row) {
+            int h = (hash ^ SEEDS[row]) * 0x5bd1e995;
+            h ^= h >>> 15;
+            return h & modulo;
+        }
+
+        private void reset() {
+            for (byte[] row : counters) {
+                for (int i = 0; i < row.length; i++) {
+                    row[i] = (byte) ((row[i] & 0xff) >>> 1);
+                }
+            }
+            sampleCount.set(0);
+        }
+    }
+}
@@ -0,0 +1,328 @@
+package zemberek.morphology.apps;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import org.antlr.v4.runtime.Token;
+import zemberek.morphology.parser.SentenceMorphParse;
+import zemberek.morphology.structure.Turkish;
+import zemberek.tokenizer.SentenceBoundaryDetector;
+import zemberek.tokenizer.SimpleSentenceBoundaryDetector;
+import zemberek.tokenizer.ZemberekLexer;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+/**
+ * A streaming pipeline for analysing large corpora with constant memory.
+ * Stages are:
+ * Read and sentence split: Input is read paragraph by paragraph in a single thread and split into sentences with a
+ * SentenceBoundaryDetector. Sentences are grouped into batches.
+ * Tokenize, parse and disambiguate: Batches are processed by worker threads. Tokenization is done with
+ * ZemberekLexer.getTokenIterator, parsing and disambiguation with a shared TurkishSentenceParser.
+ * Sink: Results are given to a ParseSink in the calling thread, in input order.
+ * Amount of batches in flight is bounded by the queue size. If workers or the sink are slow, reader blocks.
+ * So memory usage does not depend on the size of the input.
+ */
+public class SentenceParsePipeline {
+
+    /**
+     * Receives the results of the pipeline in input order. Always called from the thread that runs the pipeline.
+     */
+    public interface ParseSink {
+        void accept(String sentence, SentenceMorphParse parse) throws IOException;
+    }
+
+    private static final List<ParsedSentence> END_OF_INPUT = Collections.emptyList();
+
+    private final TurkishSentenceParser parser;
+    private final SentenceBoundaryDetector boundaryDetector;
+    private final ZemberekLexer lexer;
+    private final int threadCount;
+    private final int queueSize;
+    private final int batchSize;
+    private final int maxParagraphLength;
+    private final boolean disambiguate;
+
+    private SentenceParsePipeline(Builder builder) {
+        this.parser = builder._parser;
+        this.boundaryDetector = builder._boundaryDetector;
+        this.lexer = builder._lexer;
+        this.threadCount = builder._threadCount;
+        this.queueSize = builder._queueSize;
+        this.batchSize = builder._batchSize;
+        this.maxParagraphLength = builder._maxParagraphLength;
+        this.disambiguate = builder._disambiguate;
+    }
+
+    public static Builder builder(TurkishSentenceParser parser) {
+        return new Builder(parser);
+    }
+
+    public static class Builder {
+        private TurkishSentenceParser _parser;
+        private SentenceBoundaryDetector _boundaryDetector = new SimpleSentenceBoundaryDetector();
+        private ZemberekLexer _lexer = new ZemberekLexer();
+        private int _threadCount = Runtime.getRuntime().availableProcessors();
+        private int _queueSize = 0;
+        private int _batchSize = 100;
+        private int _maxParagraphLength = 100000;
+        private boolean _disambiguate = true;
+
+        public Builder(TurkishSentenceParser parser) {
+            this._parser = parser;
+        }
+
+        /**
+         * Sentence boundary detector for splitting paragraphs. Default is SimpleSentenceBoundaryDetector.
+         * It is only used from the reader thread.
+         */
+        public Builder sentenceBoundaryDetector(SentenceBoundaryDetector boundaryDetector) {
+            this._boundaryDetector = boundaryDetector;
+            return this;
+        }
+
+        public Builder lexer(ZemberekLexer lexer) {
+            this._lexer = lexer;
+            return this;
+        }
+
+        /**
+         * Amount of tokenize-parse-disambiguate worker threads. Default is the number of processors.
+         */
+        public Builder threadCount(int threadCount) {
+            if (threadCount < 1)
+                throw new IllegalArgumentException("Thread count must be positive. But it is " + threadCount);
+            this._threadCount = threadCount;
+            return this;
+        }
+
+        /**
+         * Maximum amount of sentence batches waiting to be processed or written. Default is 4 times the thread count.
+         */
+        public Builder queueSize(int queueSize) {
+            if (queueSize < 1)
+                throw new IllegalArgumentException("Queue size must be positive. But it is " + queueSize);
+            this._queueSize = queueSize;
+            return this;
+        }
+
+        /**
+         * Amount of sentences processed by a single worker task. Default is 100.
+         */
+        public Builder batchSize(int batchSize) {
+            if (batchSize < 1)
+                throw new IllegalArgumentException("Batch size must be positive. But it is " + batchSize);
+            this._batchSize = batchSize;
+            return this;
+        }
+
+        /**
+         * Lines are accumulated into a paragraph until an empty line. If paragraph exceeds this length,
+         * it is split after the current line. Default is 100000 characters.
+         */
+        public Builder maxParagraphLength(int maxParagraphLength) {
+            this._maxParagraphLength = maxParagraphLength;
+            return this;
+        }
+
+        /**
+         * If false, parses are given to the sink without disambiguation. Default is true.
+         */
+        public Builder disambiguate(boolean disambiguate) {
+            this._disambiguate = disambiguate;
+            return this;
+        }
+
+        public SentenceParsePipeline build() {
+            if (_queueSize == 0)
+                _queueSize = _threadCount * 4;
+            return new SentenceParsePipeline(this);
+        }
+    }
+
+    public void run(File file, ParseSink sink) throws IOException {
+        try (Reader reader = new InputStreamReader(new FileInputStream(file), Charsets.UTF_8)) {
+            run(reader, sink);
+        }
+    }
+
+    /**
+     * Runs the pipeline until the end of the input. Reader is not closed.
+     *
+     * @param reader input.
+     * @param sink   receives parses in input order.
+     * @throws IOException if reading input or writing to the sink fails.
+     */
+    public void run(Reader reader, ParseSink sink) throws IOException {
+        ExecutorService workers = Executors.newFixedThreadPool(threadCount);
+        ExecutorService readerThread = Executors.newSingleThreadExecutor();
+        BlockingQueue<Future<List<ParsedSentence>>> queue = new ArrayBlockingQueue<>(queueSize);
+        Future<?> readerResult = readerThread.submit(new ReaderTask(reader, workers, queue));
+        try {
+            while (true) {
+                List<ParsedSentence> batch = queue.take().get();
+                if (batch == END_OF_INPUT)
+                    break;
+                for (ParsedSentence parsed : batch) {
+                    sink.accept(parsed.sentence, parsed.parse);
+                }
+            }
+            readerResult.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Pipeline is interrupted.", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException)
+                throw (IOException) cause;
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            throw new IllegalStateException(cause);
+        } finally {
+            readerResult.cancel(true);
+            readerThread.shutdownNow();
+            workers.shutdownNow();
+        }
+    }
+
+    private static class ParsedSentence {
+        final String sentence;
+        final SentenceMorphParse parse;
+
+        ParsedSentence(String sentence, SentenceMorphParse parse) {
+            this.sentence = sentence;
+            this.parse = parse;
+        }
+    }
+
+    /**
+     * Reads paragraphs, splits them into sentence batches and submits batches to workers.
+     * Futures of the batches are put to the queue in input order. Queue put blocks when it is full.
+     */
+    private class ReaderTask implements Callable<Void> {
+        final BufferedReader reader;
+        final ExecutorService workers;
+        final BlockingQueue<Future<List<ParsedSentence>>> queue;
+        List<String> batch = Lists.newArrayList();
+
+        ReaderTask(Reader reader, ExecutorService workers, BlockingQueue<Future<List<ParsedSentence>>> queue) {
+            this.reader = reader instanceof BufferedReader ? (BufferedReader) reader : new BufferedReader(reader);
+            this.workers = workers;
+            this.queue = queue;
+        }
+
+        @Override
+        public Void call() throws InterruptedException {
+            try {
+                StringBuilder paragraph = new StringBuilder();
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    line = line.trim();
+                    if (line.length() > 0) {
+                        if (paragraph.length() > 0)
+                            paragraph.append(' ');
+                        paragraph.append(line);
+                    }
+                    if (line.length() == 0 || paragraph.length() >= maxParagraphLength) {
+                        addParagraph(paragraph);
+                    }
+                }
+                addParagraph(paragraph);
+                submitBatch();
+                queue.put(completed(END_OF_INPUT));
+            } catch (IOException | RuntimeException e) {
+                // error is reported to the sink side in order, after all batches that are read before the error.
+                queue.put(failed(e));
+            }
+            return null;
+        }
+
+        private void addParagraph(StringBuilder paragraph) throws InterruptedException {
+            if (paragraph.length() == 0)
+                return;
+            for (String sentence : boundaryDetector.getSentences(paragraph.toString())) {
+                if (sentence.length() == 0)
+                    continue;
+                batch.add(sentence);
+                if (batch.size() == batchSize)
+                    submitBatch();
+            }
+            paragraph.setLength(0);
+        }
+
+        private void submitBatch() throws InterruptedException {
+            if (batch.isEmpty())
+                return;
+            queue.put(workers.submit(new ParseTask(batch)));
+            batch = Lists.newArrayList();
+        }
+    }
+
+    private class ParseTask implements Callable<List<ParsedSentence>> {
+        final List<String> sentences;
+
+        ParseTask(List<String> sentences) {
+            this.sentences = sentences;
+        }
+
+        @Override
+        public List<ParsedSentence> call() {
+            List<ParsedSentence> result = Lists.newArrayListWithCapacity(sentences.size());
+            for (String sentence : sentences) {
+                SentenceMorphParse parse = parser.parseTokens(tokenize(sentence));
+                if (disambiguate)
+                    parser.disambiguate(parse);
+                result.add(new ParsedSentence(sentence, parse));
+            }
+            return result;
+        }
+
+        private List<String> tokenize(String sentence) {
+            List<String> tokens = Lists.newArrayList();
+            Iterator<Token> it = lexer.getTokenIterator(Turkish.normalizeQuotesHyphens(sentence));
+            while (it.hasNext()) {
+                String token = it.next().getText().trim();
+                if (token.length() > 0)
+                    tokens.add(token);
+            }
+            return tokens;
+        }
+    }
+
+    private static FutureTask<List<ParsedSentence>> completed(final List<ParsedSentence> result) {
+        FutureTask<List<ParsedSentence>> task = new FutureTask<>(new Callable<List<ParsedSentence>>() {
+            @Override
+            public List<ParsedSentence> call() {
+                return result;
+            }
+        });
+        task.run();
+        return task;
+    }
+
+    private static FutureTask<List<ParsedSentence>> failed(final Exception e) {
+        FutureTask<List<ParsedSentence>> task = new FutureTask<>(new Callable<List<ParsedSentence>>() {
+            @Override
+            public List<ParsedSentence> call() throws Exception {
+                throw e;
+            }
+        });
+        task.run();
+        return task;
+    }
+}
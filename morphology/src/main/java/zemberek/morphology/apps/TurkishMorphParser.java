@@ -6,10 +6,11 @@ import zemberek.core.io.ResourceUtil;
 import zemberek.core.io.SimpleTextReader;
 import zemberek.core.logging.Log;
 import zemberek.morphology.lexicon.RootLexicon;
-import zemberek.morphology.lexicon.SuffixProvider;
 import zemberek.morphology.lexicon.graph.DynamicLexiconGraph;
+import zemberek.morphology.lexicon.graph.LexiconSnapshot;
 import zemberek.morphology.lexicon.tr.TurkishDictionaryLoader;
 import zemberek.morphology.lexicon.tr.TurkishSuffixes;
+import zemberek.morphology.parser.FstParser;
 import zemberek.morphology.parser.MorphParse;
 import zemberek.morphology.parser.MorphParser;
 import zemberek.morphology.parser.SimpleParser;
@@ -28,13 +29,20 @@ public class TurkishMorphParser extends BaseParser {
     public static int DEFAULT_CACHE_SIZE = 5000;
 
     private MorphParser parser;
-    private SimpleMorphCache cache;
+    private MorphCache cache;
 
     public static class TurkishMorphParserBuilder {
         MorphParser _parser;
-        SimpleMorphCache _cache;
+        MorphCache _cache;
         List<String> _lines = Lists.newArrayList();
         List<String> _cacheLines = Lists.newArrayList();
+        boolean _useCache = false;
+        int _cacheMaxSize = MorphCache.DEFAULT_MAX_SIZE;
+        MorphCache.EvictionPolicy _cachePolicy = MorphCache.EvictionPolicy.LRU;
+        boolean _useFstParser = false;
+        boolean _useIndexedTraversal = false;
+        File _lexiconSnapshot;
+        int _graphBuildThreads = 1;
 
         public TurkishMorphParserBuilder addDefaultDictionaries() throws IOException {
             return addTextDictResources(TurkishDictionaryLoader.DEFAULT_DICTIONARY_RESOURCES.toArray(new String[TurkishDictionaryLoader.DEFAULT_DICTIONARY_RESOURCES.size()]));
@@ -55,12 +63,31 @@ public class TurkishMorphParser extends BaseParser {
         }
 
 
+        /**
+         * Loads the lexicon graph from a binary snapshot file instead of generating it from dictionaries.
+         * This is much faster than loading text dictionaries. Dictionaries added with other methods are added to the
+         * loaded graph. See LexiconSnapshot and CompileLexicon.
+         *
+         * @param snapshotFile lexicon snapshot file.
+         */
+        public TurkishMorphParserBuilder loadLexiconSnapshot(File snapshotFile) {
+            this._lexiconSnapshot = snapshotFile;
+            return this;
+        }
+
         public TurkishMorphParserBuilder addDefaultCache() {
             return addCache(DEFAULT_FREQUENT_WORDS_FILE_PATH, DEFAULT_CACHE_SIZE);
         }
 
-        // limit = 0 for all.
+        /**
+         * Adds a parse cache warmed up with the words in the frequent word resource.
+         * Words seen during parsing are admitted to the cache as well.
+         *
+         * @param fileName frequent word resource.
+         * @param limit    amount of words to pre-load. 0 for all.
+         */
         public TurkishMorphParserBuilder addCache(String fileName, int limit) {
+            _useCache = true;
             try {
                 List<String> words = ResourceUtil.readAllLines(fileName, TurkishMorphParser.class.getClassLoader());
                 if (limit > 0)
@@ -74,27 +101,96 @@ public class TurkishMorphParser extends BaseParser {
             return this;
         }
 
+        /**
+         * Adds a parse cache without a warm up. Words are admitted to the cache during parsing.
+         */
+        public TurkishMorphParserBuilder addCache(int maxSize, MorphCache.EvictionPolicy policy) {
+            _useCache = true;
+            return cacheSize(maxSize).cacheEvictionPolicy(policy);
+        }
+
+        /**
+         * Maximum amount of words in the cache. Default is MorphCache.DEFAULT_MAX_SIZE
+         */
+        public TurkishMorphParserBuilder cacheSize(int maxSize) {
+            this._cacheMaxSize = maxSize;
+            return this;
+        }
+
+        /**
+         * Eviction policy of the cache. Default is LRU. TINY_LFU keeps one-time words from evicting frequent words.
+         */
+        public TurkishMorphParserBuilder cacheEvictionPolicy(MorphCache.EvictionPolicy policy) {
+            this._cachePolicy = policy;
+            return this;
+        }
+
+        /**
+         * Parser compiles the lexicon graph to a finite state transducer. See FstParser.
+         * Compilation takes a little longer but parsing is faster. Output is same with the default parser.
+         */
+        public TurkishMorphParserBuilder useFstParser() {
+            this._useFstParser = true;
+            return this;
+        }
+
+        /**
+         * Parser traverses the suffix graph with input offsets and a re-used state buffer instead of substrings of the
+         * input. This reduces garbage generation, output is same with the default parser. See SimpleParser.parseIndexed
+         */
+        public TurkishMorphParserBuilder useIndexedTraversal() {
+            this._useIndexedTraversal = true;
+            return this;
+        }
+
+        /**
+         * Lexicon graph is generated from dictionaries with given amount of threads.
+         * Default is 1. See DynamicLexiconGraph.addDictionaryItems(Iterable, ExecutorService)
+         */
+        public TurkishMorphParserBuilder graphBuildThreads(int threadCount) {
+            if (threadCount < 1)
+                throw new IllegalArgumentException("Thread count must be positive. But it is " + threadCount);
+            this._graphBuildThreads = threadCount;
+            return this;
+        }
+
         public TurkishMorphParser build() throws IOException {
             Stopwatch sw = Stopwatch.createStarted();
-            _parser = getMorphParser(_lines);
+            _parser = getMorphParser(_lexiconSnapshot, _lines, _graphBuildThreads, _useFstParser, _useIndexedTraversal);
             Log.info("Parser ready: " + sw.elapsed(TimeUnit.MILLISECONDS) + "ms.");
-            if (_cacheLines.size() > 0) {
-                _cache = new SimpleMorphCache(_parser, _cacheLines);
+            if (_useCache) {
+                _cache = new MorphCache(_parser, _cacheMaxSize, _cachePolicy);
+                _cache.warmUp(_cacheLines);
                 Log.info("Cache ready: " + sw.elapsed(TimeUnit.MILLISECONDS) + "ms.");
             }
             return new TurkishMorphParser(_parser, _cache);
         }
     }
 
-    private static MorphParser getMorphParser(List<String> lines) {
-        SuffixProvider suffixProvider = new TurkishSuffixes();
-        RootLexicon lexicon = new TurkishDictionaryLoader(suffixProvider).load(lines);
-        DynamicLexiconGraph graph = new DynamicLexiconGraph(suffixProvider);
-        graph.addDictionaryItems(lexicon);
-        return new SimpleParser(graph);
+    private static MorphParser getMorphParser(
+            File lexiconSnapshot,
+            List<String> lines,
+            int graphBuildThreads,
+            boolean useFstParser,
+            boolean useIndexedTraversal) throws IOException {
+        TurkishSuffixes suffixProvider = new TurkishSuffixes();
+        DynamicLexiconGraph graph;
+        if (lexiconSnapshot != null) {
+            graph = LexiconSnapshot.load(lexiconSnapshot, suffixProvider);
+        } else {
+            graph = new DynamicLexiconGraph(suffixProvider);
+        }
+        if (!lines.isEmpty()) {
+            RootLexicon lexicon = new TurkishDictionaryLoader(suffixProvider).load(lines);
+            if (graphBuildThreads > 1)
+                graph.addDictionaryItems(lexicon, graphBuildThreads);
+            else
+                graph.addDictionaryItems(lexicon);
+        }
+        return useFstParser ? new FstParser(graph) : new SimpleParser(graph, useIndexedTraversal);
     }
 
-    private TurkishMorphParser(MorphParser parser, SimpleMorphCache cache) {
+    private TurkishMorphParser(MorphParser parser, MorphCache cache) {
         this.parser = parser;
         this.cache = cache;
     }
@@ -107,13 +203,22 @@ public class TurkishMorphParser extends BaseParser {
         return new TurkishMorphParserBuilder();
     }
 
+    /**
+     * Returns all parses of the word. If cache is used, returned list is immutable.
+     */
     public List<MorphParse> parse(String word) {
         word = normalize(word);
         if (cache != null) {
-            List<MorphParse> result = cache.parse(word);
-            return result != null ? result : parser.parse(word);
+            return cache.parse(word);
         }
         return parser.parse(word);
     }
 
+    /**
+     * @return the parse cache, null if cache is not used. Cache statistics can be retrieved from it.
+     */
+    public MorphCache getCache() {
+        return cache;
+    }
+
 }
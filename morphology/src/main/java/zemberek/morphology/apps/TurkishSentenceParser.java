@@ -16,13 +16,30 @@ import zemberek.tokenizer.ZemberekLexer;
 import java.io.File;
 import java.io.IOException;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
+/**
+ * Parses and disambiguates sentences.
+ * This class is thread safe. A single instance, with a single copy of dictionaries and language models, can be used
+ * from many threads. parseAll and bestParseAll methods parse a batch of sentences in parallel.
+ * Disambiguator given in the constructor must be thread safe. Z3MarkovModelDisambiguator is.
+ */
 public class TurkishSentenceParser {
 
-    private TurkishMorphParser morphParser;
-    private UnidentifiedTokenParser unidentifiedTokenParser;
-    private TurkishMorphDisambiguator disambiguator;
-    private ZemberekLexer lexer = new ZemberekLexer();
+    // minimum amount of sentences a parallel task processes.
+    private static final int MIN_BATCH_SIZE = 16;
+
+    private final TurkishMorphParser morphParser;
+    private final UnidentifiedTokenParser unidentifiedTokenParser;
+    private final TurkishMorphDisambiguator disambiguator;
+    private final ZemberekLexer lexer = new ZemberekLexer();
+
+    // default executor of batch methods, created when it is first needed.
+    private ForkJoinPool defaultExecutor;
 
     /**
      * Generates a TurkishSentenceParser from a resource directory.
@@ -64,11 +81,22 @@ public class TurkishSentenceParser {
     }
 
     public SentenceMorphParse parse(String sentence) {
-        SentenceMorphParse sentenceParse = new SentenceMorphParse();
         String preprocessed = preProcess(sentence);
-        for (String s : Splitter.on(" ").omitEmptyStrings().trimResults().split(preprocessed)) {
+        return parseTokens(Splitter.on(" ").omitEmptyStrings().trimResults().split(preprocessed));
+    }
+
+    /**
+     * Parses an already tokenized sentence. Tokens are expected to be trimmed and non empty.
+     *
+     * @param tokens tokens of the sentence.
+     * @return parse of the sentence.
+     */
+    public SentenceMorphParse parseTokens(Iterable<String> tokens) {
+        SentenceMorphParse sentenceParse = new SentenceMorphParse();
+        for (String s : tokens) {
             String normalized = morphParser.normalize(s); // TODO: may cause problem for some foreign words.
-            List<MorphParse> res = morphParser.parse(normalized);
+            // parser may return an immutable cached list.
+            List<MorphParse> res = Lists.newArrayList(morphParser.parse(normalized));
             if (res.size() == 0 || (Character.isUpperCase(s.charAt(0)) && !hasProperParse(res)))
                 res.addAll(unidentifiedTokenParser.parse(s));
             if (res.size() == 0) {
@@ -112,6 +140,111 @@ public class TurkishSentenceParser {
         return bestParse;
     }
 
+    /**
+     * Parses sentences in parallel with a fork-join pool that has a thread per processor.
+     * Parses are not disambiguated.
+     *
+     * @param sentences sentences.
+     * @return parses of sentences, in input order.
+     */
+    public List<SentenceMorphParse> parseAll(List<String> sentences) {
+        return parseAll(sentences, getDefaultExecutor());
+    }
+
+    /**
+     * Parses sentences in parallel with given executor. Parses are not disambiguated.
+     *
+     * @param sentences sentences.
+     * @param executor  executor that runs parse tasks. It is not shut down by this method.
+     * @return parses of sentences, in input order.
+     */
+    public List<SentenceMorphParse> parseAll(List<String> sentences, ExecutorService executor) {
+        return runAll(sentences, executor, false);
+    }
+
+    /**
+     * Parses and disambiguates sentences in parallel with a fork-join pool that has a thread per processor.
+     *
+     * @param sentences sentences.
+     * @return best parses of sentences, in input order.
+     */
+    public List<List<MorphParse>> bestParseAll(List<String> sentences) {
+        return bestParseAll(sentences, getDefaultExecutor());
+    }
+
+    /**
+     * Parses and disambiguates sentences in parallel with given executor.
+     *
+     * @param sentences sentences.
+     * @param executor  executor that runs parse tasks. It is not shut down by this method.
+     * @return best parses of sentences, in input order.
+     */
+    public List<List<MorphParse>> bestParseAll(List<String> sentences, ExecutorService executor) {
+        List<SentenceMorphParse> parses = runAll(sentences, executor, true);
+        List<List<MorphParse>> result = Lists.newArrayListWithCapacity(parses.size());
+        for (SentenceMorphParse parse : parses) {
+            List<MorphParse> bestParse = Lists.newArrayListWithCapacity(parse.size());
+            for (SentenceMorphParse.Entry entry : parse) {
+                bestParse.add(entry.parses.get(0));
+            }
+            result.add(bestParse);
+        }
+        return result;
+    }
+
+    private synchronized ForkJoinPool getDefaultExecutor() {
+        // fork-join pool threads are daemon threads, so this pool does not need to be shut down.
+        if (defaultExecutor == null)
+            defaultExecutor = new ForkJoinPool();
+        return defaultExecutor;
+    }
+
+    private List<SentenceMorphParse> runAll(List<String> sentences, ExecutorService executor, boolean disambiguate) {
+        // sentences are split into a few batches per processor to keep task overhead low.
+        int batchSize = Math.max(MIN_BATCH_SIZE, sentences.size() / (Runtime.getRuntime().availableProcessors() * 4) + 1);
+        List<Future<List<SentenceMorphParse>>> futures = Lists.newArrayList();
+        for (List<String> batch : Lists.partition(sentences, batchSize)) {
+            futures.add(executor.submit(new ParseTask(batch, disambiguate)));
+        }
+        List<SentenceMorphParse> result = Lists.newArrayListWithCapacity(sentences.size());
+        try {
+            for (Future<List<SentenceMorphParse>> future : futures) {
+                result.addAll(future.get());
+            }
+        } catch (InterruptedException e) {
+            for (Future<List<SentenceMorphParse>> future : futures) {
+                future.cancel(true);
+            }
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while parsing sentences.", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Error while parsing sentences.", e.getCause());
+        }
+        return result;
+    }
+
+    private class ParseTask implements Callable<List<SentenceMorphParse>> {
+        final List<String> sentences;
+        final boolean disambiguate;
+
+        ParseTask(List<String> sentences, boolean disambiguate) {
+            this.sentences = sentences;
+            this.disambiguate = disambiguate;
+        }
+
+        @Override
+        public List<SentenceMorphParse> call() {
+            List<SentenceMorphParse> result = Lists.newArrayListWithCapacity(sentences.size());
+            for (String sentence : sentences) {
+                SentenceMorphParse parse = parse(sentence);
+                if (disambiguate)
+                    disambiguate(parse);
+                result.add(parse);
+            }
+            return result;
+        }
+    }
+
 }
 
 
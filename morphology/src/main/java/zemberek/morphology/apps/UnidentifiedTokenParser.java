@@ -20,18 +20,48 @@ import java.util.List;
 import java.util.Map;
 import java.util.regex.Matcher;
 
+/**
+ * Parses numerals and proper nouns that are not in the dictionary.
+ * Proper nouns are parsed by temporarily adding them to a small lexicon graph. Because that graph is modified
+ * during parsing, every thread uses its own graph and parser. So this class is thread safe.
+ */
 public class UnidentifiedTokenParser extends BaseParser {
-    SimpleParser parser;
-    DynamicLexiconGraph graph;
     TurkishMorphParser turkishParser;
 
+    private final ThreadLocal<ProperNounParser> properNounParsers = new ThreadLocal<ProperNounParser>() {
+        @Override
+        protected ProperNounParser initialValue() {
+            return new ProperNounParser();
+        }
+    };
 
     public UnidentifiedTokenParser(TurkishMorphParser turkishParser) {
         this.turkishParser = turkishParser;
-        // generate a parser with an empty graph.
-        SuffixProvider suffixProvider = new TurkishSuffixes();
-        this.graph = new DynamicLexiconGraph(suffixProvider);
-        this.parser = new SimpleParser(graph);
+    }
+
+    /**
+     * A parser with an initially empty graph.
+     */
+    private static class ProperNounParser {
+        final DynamicLexiconGraph graph;
+        final SimpleParser parser;
+
+        ProperNounParser() {
+            SuffixProvider suffixProvider = new TurkishSuffixes();
+            this.graph = new DynamicLexiconGraph(suffixProvider);
+            this.parser = new SimpleParser(graph);
+        }
+
+        List<MorphParse> parse(DictionaryItem item, String input) {
+            StemNode[] nodes = graph.addDictionaryItem(item);
+            parser.addNodes(nodes);
+            try {
+                return parser.parse(input);
+            } finally {
+                graph.removeStemNodes(nodes);
+                parser.removeStemNodes(nodes);
+            }
+        }
     }
 
     public List<MorphParse> parse(String word) {
@@ -47,24 +77,13 @@ public class UnidentifiedTokenParser extends BaseParser {
             String pron = guessPronunciation(stem);
             DictionaryItem itemProp = new DictionaryItem(Turkish.capitalize(stem), stem, pron, PrimaryPos.Noun, SecondaryPos.ProperNoun);
             String toParse = stem + ending;
-            StemNode[] nodes = graph.addDictionaryItem(itemProp);
-            parser.addNodes(nodes);
-            List<MorphParse> properResults = parser.parse(toParse);
-            graph.removeStemNodes(nodes);
-            parser.removeStemNodes(nodes);
-            results.addAll(properResults);
+            results.addAll(properNounParsers.get().parse(itemProp, toParse));
 
         } else if (Character.isUpperCase(word.charAt(0))) {
             String normalized = normalize(word);
             String pron = guessPronunciation(normalized);
             DictionaryItem itemProp = new DictionaryItem(Turkish.capitalize(normalized), normalized, pron, PrimaryPos.Noun, SecondaryPos.ProperNoun);
-            StemNode[] nodes = graph.addDictionaryItem(itemProp);
-            parser.addNodes(nodes);
-            //TODO eliminate gross code duplication
-            List<MorphParse> properResults = parser.parse(normalized);
-            graph.removeStemNodes(nodes);
-            parser.removeStemNodes(nodes);
-            results.addAll(properResults);
+            results.addAll(properNounParsers.get().parse(itemProp, normalized));
         }
         return results;
     }
@@ -131,9 +150,11 @@ public class UnidentifiedTokenParser extends BaseParser {
                 for (MorphParse re : res) {
                     if (re.dictionaryItem.primaryPos != PrimaryPos.Numeral)
                         continue;
-                    re.dictionaryItem = new DictionaryItem(se.stem, se.stem, lemma, PrimaryPos.Numeral, digit.spos);
-                    re.root = se.stem;
-                    results.add(re);
+                    // results may come from the cache, so a new parse is created instead of modifying it.
+                    results.add(new MorphParse(
+                            new DictionaryItem(se.stem, se.stem, lemma, PrimaryPos.Numeral, digit.spos),
+                            se.stem,
+                            re.inflectionalGroups));
                 }
             }
         }
@@ -1,16 +1,34 @@
 package zemberek.morphology.lexicon;
 
+import com.google.common.collect.Maps;
 import zemberek.morphology.structure.IdItem;
 
+import java.util.Map;
+
 /**
- * This is the representation of a Suffix. It only contains an id.
+ * This is the representation of a Suffix. It contains an id and a compact integer index of the id.
  */
 public class Suffix extends IdItem {
 
+    private static final Map<String, Integer> indexes = Maps.newHashMap();
+
     public static final Suffix UNKNOWN = new Suffix("Unkown");
 
+    // Process wide index of the suffix id. Suffixes with same id have the same index.
+    public final int index;
+
     public Suffix(String id) {
         this.id = id;
+        this.index = indexOf(id);
+    }
+
+    private static synchronized int indexOf(String id) {
+        Integer index = indexes.get(id);
+        if (index == null) {
+            index = indexes.size();
+            indexes.put(id, index);
+        }
+        return index;
     }
 
     @Override
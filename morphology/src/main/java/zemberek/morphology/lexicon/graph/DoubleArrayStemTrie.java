@@ -0,0 +1,300 @@
+package zemberek.morphology.lexicon.graph;
+
+import com.google.common.collect.Lists;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * An immutable double array trie of stem surface forms.
+ * Transition from state `s` with character code `c` goes to state `t = base[s] + c` if `check[t] == s`.
+ * So walking the characters of an input from the root state visits all stems that are a prefix of the input in a
+ * single pass, without substring generation, hashing or allocation.
+ * Stems with the same surface form are stored in a contiguous range of the stem array, in the order they are given.
+ * Characters are mapped to dense codes, only characters that appear in the stems have a code.
+ * This class is immutable and thread safe.
+ */
+public class DoubleArrayStemTrie {
+
+    public static final int ROOT = 0;
+
+    private static final int FREE = -1;
+
+    // character -> code. 0 means character does not appear in any stem.
+    private final int[] charCodes;
+    private final int[] base;
+    private final int[] check;
+    // stems of state s are in [stemStarts[s], stemEnds[s]) of the stems array.
+    private final int[] stemStarts;
+    private final int[] stemEnds;
+    private final StemNode[] stems;
+    private final int stateCount;
+
+    public DoubleArrayStemTrie(Collection<StemNode> stemNodes) {
+        List<StemNode> sorted = Lists.newArrayList(stemNodes);
+        // sort is stable, order of stems with same surface form is preserved.
+        Collections.sort(sorted, new Comparator<StemNode>() {
+            @Override
+            public int compare(StemNode a, StemNode b) {
+                return a.surfaceForm.compareTo(b.surfaceForm);
+            }
+        });
+        this.stems = sorted.toArray(new StemNode[sorted.size()]);
+        this.charCodes = generateCharCodes(stems);
+
+        Builder builder = new Builder(stems.length * 2 + 64);
+        builder.build();
+        this.stateCount = builder.stateCount;
+        int length = builder.maxIndex + 1;
+        this.base = Arrays.copyOf(builder.base, length);
+        this.check = Arrays.copyOf(builder.check, length);
+        this.stemStarts = Arrays.copyOf(builder.stemStarts, length);
+        this.stemEnds = Arrays.copyOf(builder.stemEnds, length);
+    }
+
+    private static int[] generateCharCodes(StemNode[] stems) {
+        char max = 0;
+        for (StemNode stem : stems) {
+            for (int i = 0; i < stem.surfaceForm.length(); i++) {
+                if (stem.surfaceForm.charAt(i) > max)
+                    max = stem.surfaceForm.charAt(i);
+            }
+        }
+        int[] codes = new int[max + 1];
+        for (StemNode stem : stems) {
+            for (int i = 0; i < stem.surfaceForm.length(); i++) {
+                codes[stem.surfaceForm.charAt(i)] = 1;
+            }
+        }
+        int code = 1;
+        for (int i = 0; i < codes.length; i++) {
+            if (codes[i] != 0)
+                codes[i] = code++;
+        }
+        return codes;
+    }
+
+    /**
+     * @return target state of the transition from `state` with character `c`. -1 if there is no such transition.
+     */
+    public int next(int state, char c) {
+        if (c >= charCodes.length)
+            return -1;
+        int code = charCodes[c];
+        if (code == 0)
+            return -1;
+        int t = base[state] + code;
+        if (t < check.length && check[t] == state)
+            return t;
+        return -1;
+    }
+
+    /**
+     * @return start index of the stems whose surface form ends at `state`. See stemAt(int)
+     */
+    public int stemStart(int state) {
+        return stemStarts[state];
+    }
+
+    /**
+     * @return end index (exclusive) of the stems whose surface form ends at `state`.
+     */
+    public int stemEnd(int state) {
+        return stemEnds[state];
+    }
+
+    public StemNode stemAt(int index) {
+        return stems[index];
+    }
+
+    /**
+     * @return all stems whose surface forms are a prefix of the input. Shorter stems come first.
+     */
+    public List<StemNode> getMatchingStems(String input) {
+        List<StemNode> result = Lists.newArrayList();
+        int state = ROOT;
+        for (int i = 0; i < input.length(); i++) {
+            state = next(state, input.charAt(i));
+            if (state < 0)
+                break;
+            result.addAll(Arrays.asList(stems).subList(stemStarts[state], stemEnds[state]));
+        }
+        return result;
+    }
+
+    /**
+     * @return stems with given surface form.
+     */
+    public List<StemNode> getStems(String surfaceForm) {
+        int state = ROOT;
+        for (int i = 0; i < surfaceForm.length() && state >= 0; i++) {
+            state = next(state, surfaceForm.charAt(i));
+        }
+        if (state < 0 || surfaceForm.isEmpty())
+            return Collections.emptyList();
+        return Collections.unmodifiableList(Arrays.asList(stems).subList(stemStarts[state], stemEnds[state]));
+    }
+
+    public boolean contains(StemNode stemNode) {
+        return getStems(stemNode.surfaceForm).contains(stemNode);
+    }
+
+    /**
+     * @return all stems, ordered by surface form.
+     */
+    public List<StemNode> getAllStems() {
+        return Collections.unmodifiableList(Arrays.asList(stems));
+    }
+
+    public int size() {
+        return stems.length;
+    }
+
+    public int stateCount() {
+        return stateCount;
+    }
+
+    /**
+     * @return length of the base and check arrays. Difference from the state count is the unused slots.
+     */
+    public int arrayLength() {
+        return check.length;
+    }
+
+    /**
+     * Places states breadth first. Children of a state are placed to the first base value where all of their slots
+     * are free. Stems are sorted, so stems under a state are in a contiguous range and grouped by their next character.
+     */
+    private class Builder {
+        int[] base;
+        int[] check;
+        int[] stemStarts;
+        int[] stemEnds;
+        int stateCount = 1;
+        int maxIndex;
+        // search for a free slot starts from here. Most of the slots before it are used.
+        int firstFree = 1;
+
+        Builder(int capacity) {
+            base = new int[capacity];
+            check = new int[capacity];
+            stemStarts = new int[capacity];
+            stemEnds = new int[capacity];
+            Arrays.fill(check, FREE);
+            // root has no parent, but its slot is used.
+            check[ROOT] = ROOT;
+        }
+
+        void build() {
+            ArrayDeque<Range> queue = new ArrayDeque<>();
+            queue.add(new Range(ROOT, 0, stems.length, 0));
+            int[] codes = new int[64];
+            int[] groupStarts = new int[65];
+            while (!queue.isEmpty()) {
+                Range range = queue.poll();
+                int start = range.start;
+                // stems that end at this state.
+                while (start < range.end && stems[start].surfaceForm.length() == range.depth) {
+                    start++;
+                }
+                stemStarts[range.state] = range.start;
+                stemEnds[range.state] = start;
+                if (start == range.end)
+                    continue;
+
+                // group remaining stems by their character at depth.
+                int groupCount = 0;
+                char previous = 0;
+                for (int i = start; i < range.end; i++) {
+                    char c = stems[i].surfaceForm.charAt(range.depth);
+                    if (groupCount == 0 || c != previous) {
+                        if (groupCount == codes.length) {
+                            codes = Arrays.copyOf(codes, groupCount * 2);
+                            groupStarts = Arrays.copyOf(groupStarts, groupCount * 2 + 1);
+                        }
+                        codes[groupCount] = charCodes[c];
+                        groupStarts[groupCount] = i;
+                        groupCount++;
+                        previous = c;
+                    }
+                }
+                groupStarts[groupCount] = range.end;
+
+                int b = findBase(codes, groupCount);
+                base[range.state] = b;
+                for (int i = 0; i < groupCount; i++) {
+                    int t = b + codes[i];
+                    check[t] = range.state;
+                    if (t > maxIndex)
+                        maxIndex = t;
+                    stateCount++;
+                    queue.add(new Range(t, groupStarts[i], groupStarts[i + 1], range.depth + 1));
+                }
+            }
+        }
+
+        private int findBase(int[] codes, int count) {
+            // codes are increasing, because stems are sorted and codes keep character order.
+            int position = Math.max(codes[0], firstFree) - 1;
+            int used = 0;
+            boolean first = true;
+            int b;
+            while (true) {
+                position++;
+                ensureCapacity(position + 1);
+                if (check[position] != FREE) {
+                    used++;
+                    continue;
+                } else if (first) {
+                    firstFree = position;
+                    first = false;
+                }
+                b = position - codes[0];
+                ensureCapacity(b + codes[count - 1] + 1);
+                boolean fits = true;
+                for (int i = 1; i < count; i++) {
+                    if (check[b + codes[i]] != FREE) {
+                        fits = false;
+                        break;
+                    }
+                }
+                if (fits)
+                    break;
+            }
+            // if the scanned region is almost full, following searches start after it.
+            if (used >= (position - firstFree + 1) * 0.95)
+                firstFree = position;
+            return b;
+        }
+
+        private void ensureCapacity(int size) {
+            if (size <= check.length)
+                return;
+            int newSize = Math.max(size, check.length + check.length / 2);
+            int oldSize = check.length;
+            base = Arrays.copyOf(base, newSize);
+            check = Arrays.copyOf(check, newSize);
+            stemStarts = Arrays.copyOf(stemStarts, newSize);
+            stemEnds = Arrays.copyOf(stemEnds, newSize);
+            Arrays.fill(check, oldSize, newSize, FREE);
+        }
+    }
+
+    private static class Range {
+        final int state;
+        final int start;
+        final int end;
+        final int depth;
+
+        Range(int state, int start, int end, int depth) {
+            this.state = state;
+            this.start = start;
+            this.end = end;
+            this.depth = depth;
+        }
+    }
+}
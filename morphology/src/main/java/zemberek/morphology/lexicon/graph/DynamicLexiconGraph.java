@@ -1,7 +1,9 @@
 package zemberek.morphology.lexicon.graph;
 
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
+import zemberek.core.logging.Log;
 import zemberek.core.turkish.PhoneticAttribute;
 import zemberek.core.turkish.PhoneticExpectation;
 import zemberek.morphology.lexicon.DictionaryItem;
@@ -12,20 +14,34 @@ import zemberek.morphology.lexicon.tr.StemNodeGenerator;
 
 import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
+/**
+ * Lexicon graph of stem nodes and the suffix surface nodes that can follow them.
+ * Equal suffix surface nodes are interned with concurrent maps, so that they are shared by all stems.
+ * addDictionaryItems(Iterable, ExecutorService) uses this to build the graph with many threads. Other methods that
+ * modify the graph are not thread safe.
+ */
 public class DynamicLexiconGraph {
 
-    private Map<SuffixSurfaceNode, SuffixSurfaceNode> rootSuffixNodeMap = Maps.newHashMap();
-    Set<StemNode> stemNodes = Sets.newHashSet();
+    // minimum amount of items a parallel build task processes.
+    private static final int MIN_BATCH_SIZE = 1000;
+
+    ConcurrentMap<SuffixSurfaceNode, SuffixSurfaceNode> rootSuffixNodeMap = Maps.newConcurrentMap();
+    Set<StemNode> stemNodes = Sets.newSetFromMap(Maps.<StemNode, Boolean>newConcurrentMap());
 
     StemNodeGenerator stemNodeGenerator;
     SuffixSurfaceNodeGenerator suffixSurfaceNodeGenerator = new SuffixSurfaceNodeGenerator();
 
     final SuffixProvider suffixProvider;
 
-    private Map<SuffixForm, Set<SuffixSurfaceNode>> suffixFormMap = Maps.newConcurrentMap();
+    ConcurrentMap<SuffixForm, ConcurrentMap<SuffixSurfaceNode, SuffixSurfaceNode>> suffixFormMap =
+            Maps.newConcurrentMap();
 
     public DynamicLexiconGraph(SuffixProvider suffixProvider) {
         this.suffixProvider = suffixProvider;
@@ -51,26 +67,9 @@ public class DynamicLexiconGraph {
     }
 
     public StemNode[] addDictionaryItem(DictionaryItem item) {
-
         StemNode[] stems = stemNodeGenerator.generate(item);
-
         for (StemNode stem : stems) {
-
-            if (!stemNodes.contains(stem)) {
-
-                SuffixSurfaceNode rootSuffixSurfaceNode = getRootSuffixNode(stem);
-                if (!rootSuffixNodeMap.containsKey(rootSuffixSurfaceNode)) {
-                    generateNodeConnections(rootSuffixSurfaceNode);
-                }
-                // check if it already exist. If it exists, use the existing one or add the new one.
-                rootSuffixSurfaceNode = addOrRetrieveExisting(rootSuffixSurfaceNode);
-                // connect stem to suffix root node.
-                stem.suffixRootSurfaceNode = rootSuffixSurfaceNode;
-                stemNodes.add(stem);
-            } else {
-                // duplicate stem!
-                System.out.println("Stem Node:" + stem + " already exist.");
-            }
+            connectStem(stem, getRootSuffixForm(stem));
         }
         return stems;
     }
@@ -87,19 +86,127 @@ public class DynamicLexiconGraph {
         }
     }
 
+    /**
+     * Adds dictionary items with the tasks run by the executor. Items are processed in three steps:
+     * Stem nodes of items are generated in parallel. Then root suffix forms of the stems are found in item order with
+     * a single thread, because suffix provider may generate and register new forms while doing this. So form
+     * indexes are the same with a sequential build. Finally, suffix surface nodes are generated and connected in
+     * parallel. Nodes are interned with concurrent maps, only the thread that adds a node generates its connections.
+     * Resulting graph is equal to the graph built with addDictionaryItems(Iterable).
+     *
+     * @param items    dictionary items.
+     * @param executor executor that runs build tasks. It is not shut down by this method.
+     */
+    public void addDictionaryItems(Iterable<DictionaryItem> items, ExecutorService executor) {
+        final List<DictionaryItem> itemList = Lists.newArrayList(items);
+        final StemNode[][] stems = new StemNode[itemList.size()][];
+        runAll(executor, itemList.size(), new RangeTask() {
+            @Override
+            public void run(int start, int end) {
+                for (int i = start; i < end; i++) {
+                    stems[i] = stemNodeGenerator.generate(itemList.get(i));
+                }
+            }
+        });
+
+        final SuffixForm[][] rootForms = new SuffixForm[stems.length][];
+        for (int i = 0; i < stems.length; i++) {
+            rootForms[i] = new SuffixForm[stems[i].length];
+            for (int j = 0; j < stems[i].length; j++) {
+                rootForms[i][j] = getRootSuffixForm(stems[i][j]);
+            }
+        }
+
+        runAll(executor, itemList.size(), new RangeTask() {
+            @Override
+            public void run(int start, int end) {
+                for (int i = start; i < end; i++) {
+                    for (int j = 0; j < stems[i].length; j++) {
+                        connectStem(stems[i][j], rootForms[i][j]);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Adds dictionary items with a fork-join pool with given amount of threads.
+     *
+     * @param items       dictionary items.
+     * @param threadCount thread count.
+     */
+    public void addDictionaryItems(Iterable<DictionaryItem> items, int threadCount) {
+        ForkJoinPool pool = new ForkJoinPool(threadCount);
+        try {
+            addDictionaryItems(items, pool);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private interface RangeTask {
+        void run(int start, int end);
+    }
+
+    private void runAll(ExecutorService executor, int size, final RangeTask task) {
+        // items are split into a few batches per processor to keep task overhead low.
+        int batchSize = Math.max(MIN_BATCH_SIZE, size / (Runtime.getRuntime().availableProcessors() * 4) + 1);
+        List<Future<?>> futures = Lists.newArrayList();
+        for (int i = 0; i < size; i += batchSize) {
+            final int start = i;
+            final int end = Math.min(size, i + batchSize);
+            futures.add(executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    task.run(start, end);
+                }
+            }));
+        }
+        try {
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            for (Future<?> future : futures) {
+                future.cancel(true);
+            }
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while building lexicon graph.", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Error while building lexicon graph.", e.getCause());
+        }
+    }
+
+    private SuffixForm getRootSuffixForm(StemNode stem) {
+        return suffixProvider.getRootSet(stem.dictionaryItem, stem.exclusiveSuffixData);
+    }
+
+    private void connectStem(StemNode stem, SuffixForm rootForm) {
+        SuffixSurfaceNode rootSuffixSurfaceNode = getRootSuffixNode(stem, rootForm);
+        // check if it already exist. If it exists, use the existing one or add the new one.
+        SuffixSurfaceNode existing = rootSuffixNodeMap.putIfAbsent(rootSuffixSurfaceNode, rootSuffixSurfaceNode);
+        if (existing != null)
+            rootSuffixSurfaceNode = existing;
+        // connect stem to suffix root node. Stem hash depends on it, so stem is added to the set after this.
+        stem.suffixRootSurfaceNode = rootSuffixSurfaceNode;
+        if (!stemNodes.add(stem)) {
+            // duplicate stem!
+            Log.warn("Stem Node: %s already exist.", stem);
+        }
+        // connections of a new root node are generated once, by the thread that added it.
+        if (existing == null)
+            generateNodeConnections(rootSuffixSurfaceNode);
+    }
+
     public Set<StemNode> getStemNodes() {
         return stemNodes;
     }
 
-    private SuffixSurfaceNode addOrRetrieveExisting(SuffixSurfaceNode surfaceNodeTocheck) {
-        if (!rootSuffixNodeMap.containsKey(surfaceNodeTocheck)) {
-            rootSuffixNodeMap.put(surfaceNodeTocheck, surfaceNodeTocheck);
-            return surfaceNodeTocheck;
-        } else return rootSuffixNodeMap.get(surfaceNodeTocheck);
+    public SuffixSurfaceNode getRootSuffixNode(StemNode node) {
+        return getRootSuffixNode(node, getRootSuffixForm(node));
     }
 
-    public SuffixSurfaceNode getRootSuffixNode(StemNode node) {
-        SuffixForm set = suffixProvider.getRootSet(node.dictionaryItem, node.exclusiveSuffixData);
+    private SuffixSurfaceNode getRootSuffixNode(StemNode node, SuffixForm set) {
         // construct a new suffix node.
         return new SuffixSurfaceNode(
                 set,
@@ -139,13 +246,10 @@ public class DynamicLexiconGraph {
                     if (!expectationsMatches(surfaceNode, surfaceNodeInSuccessor))
                         continue;
                 }
-                boolean recurse = false;
-                if (!nodeExists(successiveForm, surfaceNodeInSuccessor)) {
-                    recurse = true;
-                }
-                surfaceNodeInSuccessor = addOrReturnExisting(successiveForm, surfaceNodeInSuccessor);
-                surfaceNode.addSuccNode(surfaceNodeInSuccessor);
-                if (recurse) {
+                SuffixSurfaceNode interned = addOrReturnExisting(successiveForm, surfaceNodeInSuccessor);
+                surfaceNode.addSuccNode(interned);
+                // only the thread that adds the node generates its connections.
+                if (interned == surfaceNodeInSuccessor) {
                     generateNodeConnections(surfaceNodeInSuccessor);
                 }
             }
@@ -162,11 +266,6 @@ public class DynamicLexiconGraph {
 
     }
 
-    private boolean nodeExists(SuffixForm set, SuffixSurfaceNode newSurfaceNode) {
-        Set<SuffixSurfaceNode> surfaceNodes = suffixFormMap.get(set);
-        return surfaceNodes != null && surfaceNodes.contains(newSurfaceNode);
-    }
-
     public void stats() {
         Set<StemNode> stemNodes = getStemNodes();
         System.out.println("Stem Node Count:" + stemNodes.size());
@@ -178,26 +277,20 @@ public class DynamicLexiconGraph {
         int nodeCount = 0;
         for (SuffixForm form : suffixFormMap.keySet()) {
             System.out.println(form.toString());
-            Set<SuffixSurfaceNode> surfaceNodes = suffixFormMap.get(form);
-            nodeCount += surfaceNodes.size();
+            nodeCount += suffixFormMap.get(form).size();
         }
         System.out.println("SuffixSurfaceNode count:" + nodeCount);
     }
 
     public SuffixSurfaceNode addOrReturnExisting(SuffixForm set, SuffixSurfaceNode newSurfaceNode) {
-
-        if (!suffixFormMap.containsKey(set)) {
-            suffixFormMap.put(set, new HashSet<SuffixSurfaceNode>());
-        }
-        Set<SuffixSurfaceNode> surfaceNodes = suffixFormMap.get(set);
-        if (!surfaceNodes.contains(newSurfaceNode)) {
-            surfaceNodes.add(newSurfaceNode);
-            return newSurfaceNode;
-        }
-        for (SuffixSurfaceNode surfaceNode : surfaceNodes) {
-            if (surfaceNode.equals(newSurfaceNode))
-                return surfaceNode;
+        ConcurrentMap<SuffixSurfaceNode, SuffixSurfaceNode> surfaceNodes = suffixFormMap.get(set);
+        if (surfaceNodes == null) {
+            surfaceNodes = Maps.newConcurrentMap();
+            ConcurrentMap<SuffixSurfaceNode, SuffixSurfaceNode> existing = suffixFormMap.putIfAbsent(set, surfaceNodes);
+            if (existing != null)
+                surfaceNodes = existing;
         }
-        throw new IllegalStateException("Cannot be here. Set: " + set.id + " Node:" + newSurfaceNode.dump());
+        SuffixSurfaceNode existing = surfaceNodes.putIfAbsent(newSurfaceNode, newSurfaceNode);
+        return existing == null ? newSurfaceNode : existing;
     }
 }
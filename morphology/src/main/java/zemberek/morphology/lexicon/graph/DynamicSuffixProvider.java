@@ -17,43 +17,61 @@ public abstract class DynamicSuffixProvider implements SuffixProvider {
 
     protected IdMaker idMaker = new IdMaker(3);
     protected AtomicInteger indexMaker = new AtomicInteger();
+    // all forms created by this provider by their indexes.
+    private Map<Integer, SuffixForm> formsByIndex = Maps.newHashMap();
 
     public NullSuffixForm getNull(String suffixId, SuffixFormTemplate template) {
-        return new NullSuffixForm(getNewIndex(), suffixId, template);
+        return indexed(new NullSuffixForm(getNewIndex(), suffixId, template));
     }
 
     public NullSuffixForm getNull(String suffixId, SuffixFormTemplate template, TerminationType type) {
-        return new NullSuffixForm(getNewIndex(), suffixId, template, type);
+        return indexed(new NullSuffixForm(getNewIndex(), suffixId, template, type));
     }
 
     public SuffixForm getForm(Suffix suffix, String generationStr) {
-        return new SuffixForm(getNewIndex(), suffix, generationStr);
+        return indexed(new SuffixForm(getNewIndex(), suffix, generationStr));
     }
 
     public SuffixForm getForm(String id, Suffix suffix, String generationStr) {
-        return new SuffixForm(getNewIndex(), id, suffix, generationStr);
+        return indexed(new SuffixForm(getNewIndex(), id, suffix, generationStr));
     }
 
     public SuffixForm getForm(String id, Suffix suffix, String generationStr, TerminationType type) {
-        return new SuffixForm(getNewIndex(), id, suffix, generationStr, type);
+        return indexed(new SuffixForm(getNewIndex(), id, suffix, generationStr, type));
     }
 
     public SuffixFormTemplate getTemplate(String id, Suffix suffix) {
-        return new SuffixFormTemplate(getNewIndex(), id, suffix);
+        return indexed(new SuffixFormTemplate(getNewIndex(), id, suffix));
     }
 
     public SuffixFormTemplate getTemplate(String id, Suffix suffix, TerminationType type) {
-        return new SuffixFormTemplate(getNewIndex(), id, suffix, type);
+        return indexed(new SuffixFormTemplate(getNewIndex(), id, suffix, type));
     }
 
     public DerivationalSuffixTemplate getDerivationalTemplate(String id, Suffix suffix, TerminationType type) {
-        return new DerivationalSuffixTemplate(getNewIndex(), id, suffix, type);
+        return indexed(new DerivationalSuffixTemplate(getNewIndex(), id, suffix, type));
     }
 
     private int getNewIndex() {
         return indexMaker.getAndIncrement();
     }
 
+    private <T extends SuffixForm> T indexed(T form) {
+        formsByIndex.put(form.index, form);
+        return form;
+    }
+
+    /**
+     * Returns the suffix form with the given index. Forms are indexed in creation and registration order, so forms of
+     * two providers that are created the same way have the same indexes.
+     *
+     * @param index form index
+     * @return suffix form or null if there is no form with the index.
+     */
+    public SuffixForm getSuffixFormByIndex(int index) {
+        return formsByIndex.get(index);
+    }
+
     public Suffix getSuffixById(String suffixId) {
         return suffixLookup.get(suffixId);
     }
@@ -91,6 +109,7 @@ public abstract class DynamicSuffixProvider implements SuffixProvider {
             return nullFormsUnprocessed.get(nullForm);
         } else {
             nullForm.index = getNewIndex();
+            indexed(nullForm);
             nullForm.id = idMaker.get(templateForm.id);
             nullFormsUnprocessed.put(nullForm, nullForm);
             return nullForm;
@@ -127,8 +146,10 @@ public abstract class DynamicSuffixProvider implements SuffixProvider {
         formSet.indirectConnections.clear();
         formSet.connections.add(nullFormsToRegister);
 
-        if (formSet.index != -1)
+        if (formSet.index != -1) {
             formSet.index = getNewIndex();
+            indexed(formSet);
+        }
 
         suffixForms.put(formSet, formSet);
         formLookupByName.put(formSet.getId(), formSet);
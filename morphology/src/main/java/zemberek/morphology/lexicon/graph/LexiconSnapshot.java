@@ -0,0 +1,444 @@
+package zemberek.morphology.lexicon.graph;
+
+import com.google.common.collect.Lists;
+import zemberek.core.turkish.PhoneticAttribute;
+import zemberek.core.turkish.PhoneticExpectation;
+import zemberek.core.turkish.PrimaryPos;
+import zemberek.core.turkish.RootAttribute;
+import zemberek.core.turkish.SecondaryPos;
+import zemberek.morphology.lexicon.DictionaryItem;
+import zemberek.morphology.lexicon.ExclusiveSuffixData;
+import zemberek.morphology.lexicon.LexiconException;
+import zemberek.morphology.lexicon.NullSuffixForm;
+import zemberek.morphology.lexicon.SuffixForm;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.EnumSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Saves a compiled DynamicLexiconGraph to a compact binary file and loads it back without reading text dictionaries
+ * and generating stem and suffix surface nodes again. Loading is done from a memory mapped buffer.
+ * File contains suffix form references, dictionary items, suffix surface nodes with successor edges and stem nodes.
+ * Suffix forms are not serialized, they are resolved from the suffix provider given during loading. Forms created by
+ * the provider are found by their indexes. Some null suffix forms are generated while the graph is built, those are
+ * re-generated by the provider and matched by their position in the graph. So a newly created provider of the same
+ * kind that is used for generating the graph must be used for loading it.
+ * Parse results of a loaded graph are same with the original graph. Order of the parses of a word may differ.
+ */
+public class LexiconSnapshot {
+
+    public static final int MAGIC = 0x5a4c5847; // ZLXG
+    public static final int VERSION = 1;
+
+    private LexiconSnapshot() {
+    }
+
+    public static void save(DynamicLexiconGraph graph, File file) throws IOException {
+        try (DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16))) {
+            new Writer(graph).write(dos);
+        }
+    }
+
+    public static DynamicLexiconGraph load(File file, DynamicSuffixProvider suffixProvider) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel()) {
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new Reader(buffer, suffixProvider).read();
+        }
+    }
+
+    private static class Writer {
+        final List<StemNode> stems;
+        final Map<SuffixForm, Integer> formIds = new IdentityHashMap<>();
+        final List<SuffixForm> forms = Lists.newArrayList();
+        final Map<DictionaryItem, Integer> itemIds = new IdentityHashMap<>();
+        final List<DictionaryItem> items = Lists.newArrayList();
+        final Map<SuffixSurfaceNode, Integer> nodeIds = new IdentityHashMap<>();
+        final List<SuffixSurfaceNode> nodes = Lists.newArrayList();
+
+        Writer(DynamicLexiconGraph graph) {
+            this.stems = Lists.newArrayList(graph.getStemNodes());
+            // give ids to everything reachable from stems.
+            ArrayDeque<SuffixSurfaceNode> stack = new ArrayDeque<>();
+            for (StemNode stem : stems) {
+                idOf(stem.dictionaryItem);
+                addForms(stem.exclusiveSuffixData);
+                nodeId(stem.suffixRootSurfaceNode, stack);
+                while (!stack.isEmpty()) {
+                    for (SuffixSurfaceNode successor : stack.pop().successors) {
+                        nodeId(successor, stack);
+                    }
+                }
+            }
+        }
+
+        private int idOf(DictionaryItem item) {
+            Integer id = itemIds.get(item);
+            if (id == null) {
+                id = items.size();
+                itemIds.put(item, id);
+                items.add(item);
+                if (item.suffixData != null) {
+                    addForms(item.suffixData.accepts);
+                    addForms(item.suffixData.rejects);
+                    addForms(item.suffixData.onlyAccepts);
+                }
+                if (item.specialRootSuffix != null)
+                    formId(item.specialRootSuffix);
+                if (item.referenceItem != null)
+                    idOf(item.referenceItem);
+            }
+            return id;
+        }
+
+        private int nodeId(SuffixSurfaceNode node, ArrayDeque<SuffixSurfaceNode> stack) {
+            Integer id = nodeIds.get(node);
+            if (id == null) {
+                id = nodes.size();
+                nodeIds.put(node, id);
+                nodes.add(node);
+                formId(node.suffixForm);
+                addForms(node.exclusiveSuffixData);
+                stack.push(node);
+            }
+            return id;
+        }
+
+        private void addForms(SuffixData data) {
+            for (SuffixForm form : data) {
+                formId(form);
+            }
+        }
+
+        private int formId(SuffixForm form) {
+            Integer id = formIds.get(form);
+            if (id == null) {
+                id = forms.size();
+                formIds.put(form, id);
+                forms.add(form);
+            }
+            return id;
+        }
+
+        void write(DataOutputStream dos) throws IOException {
+            dos.writeInt(MAGIC);
+            dos.writeInt(VERSION);
+
+            dos.writeInt(forms.size());
+            for (SuffixForm form : forms) {
+                dos.writeInt(form.index);
+                writeString(dos, form.id);
+                writeString(dos, form instanceof NullSuffixForm ? ((NullSuffixForm) form).getTemplate().id : "");
+            }
+
+            dos.writeInt(items.size());
+            for (DictionaryItem item : items) {
+                writeString(dos, item.lemma);
+                writeString(dos, item.root);
+                writeString(dos, item.pronunciation);
+                dos.writeInt(item.primaryPos.ordinal());
+                dos.writeInt(item.secondaryPos == null ? -1 : item.secondaryPos.ordinal());
+                dos.writeLong(toMask(item.attrs));
+                dos.writeBoolean(item.suffixData != null);
+                if (item.suffixData != null) {
+                    writeForms(dos, item.suffixData.accepts);
+                    writeForms(dos, item.suffixData.rejects);
+                    writeForms(dos, item.suffixData.onlyAccepts);
+                }
+                dos.writeInt(item.specialRootSuffix == null ? -1 : formIds.get(item.specialRootSuffix));
+                dos.writeInt(item.referenceItem == null ? -1 : itemIds.get(item.referenceItem));
+                dos.writeBoolean(item.dummy);
+                dos.writeInt(item.index);
+            }
+
+            dos.writeInt(nodes.size());
+            for (SuffixSurfaceNode node : nodes) {
+                dos.writeInt(formIds.get(node.suffixForm));
+                writeString(dos, node.surfaceForm);
+                writeMorphNodeData(dos, node);
+                dos.writeInt(node.successors.size());
+                for (SuffixSurfaceNode successor : node.successors) {
+                    dos.writeInt(nodeIds.get(successor));
+                }
+            }
+
+            dos.writeInt(stems.size());
+            for (StemNode stem : stems) {
+                writeString(dos, stem.surfaceForm);
+                dos.writeInt(itemIds.get(stem.dictionaryItem));
+                writeMorphNodeData(dos, stem);
+                dos.writeInt(nodeIds.get(stem.suffixRootSurfaceNode));
+            }
+        }
+
+        private void writeMorphNodeData(DataOutputStream dos, MorphNode node) throws IOException {
+            dos.writeByte(node.termination.ordinal());
+            dos.writeLong(toMask(node.attributes));
+            dos.writeLong(toMask(node.expectations));
+            writeForms(dos, node.exclusiveSuffixData);
+        }
+
+        private void writeForms(DataOutputStream dos, SuffixData data) throws IOException {
+            dos.writeInt(data.size());
+            for (SuffixForm form : data) {
+                dos.writeInt(formIds.get(form));
+            }
+        }
+
+        private static <E extends Enum<E>> long toMask(EnumSet<E> set) {
+            long mask = 0;
+            for (E e : set) {
+                mask |= 1L << e.ordinal();
+            }
+            return mask;
+        }
+
+        private static void writeString(DataOutputStream dos, String s) throws IOException {
+            dos.writeInt(s.length());
+            dos.writeChars(s);
+        }
+    }
+
+    private static class Reader {
+        final ByteBuffer buffer;
+        final DynamicSuffixProvider suffixProvider;
+
+        int[] formIndexes;
+        String[] formIds;
+        String[] templateIds;
+        SuffixForm[] forms;
+
+        Reader(ByteBuffer buffer, DynamicSuffixProvider suffixProvider) {
+            this.buffer = buffer;
+            this.suffixProvider = suffixProvider;
+        }
+
+        DynamicLexiconGraph read() {
+            if (buffer.getInt() != MAGIC)
+                throw new LexiconException("Not a lexicon snapshot file.");
+            int version = buffer.getInt();
+            if (version != VERSION)
+                throw new LexiconException("Unsupported lexicon snapshot version " + version + ". Expected " + VERSION);
+
+            int formCount = buffer.getInt();
+            formIndexes = new int[formCount];
+            formIds = new String[formCount];
+            templateIds = new String[formCount];
+            forms = new SuffixForm[formCount];
+            for (int i = 0; i < formCount; i++) {
+                formIndexes[i] = buffer.getInt();
+                formIds[i] = readString();
+                templateIds[i] = readString();
+            }
+
+            DictionaryItem[] items = new DictionaryItem[buffer.getInt()];
+            int[] referenceItems = new int[items.length];
+            PrimaryPos[] primaryPosValues = PrimaryPos.values();
+            SecondaryPos[] secondaryPosValues = SecondaryPos.values();
+            for (int i = 0; i < items.length; i++) {
+                String lemma = readString();
+                String root = readString();
+                String pronunciation = readString();
+                PrimaryPos pos = primaryPosValues[buffer.getInt()];
+                int sposIndex = buffer.getInt();
+                SecondaryPos spos = sposIndex == -1 ? null : secondaryPosValues[sposIndex];
+                EnumSet<RootAttribute> attrs = fromMask(buffer.getLong(), RootAttribute.class);
+                ExclusiveSuffixData suffixData = null;
+                if (buffer.get() != 0) {
+                    suffixData = new ExclusiveSuffixData();
+                    suffixData.accepts = readForms();
+                    suffixData.rejects = readForms();
+                    suffixData.onlyAccepts = readForms();
+                }
+                int specialRootSuffix = buffer.getInt();
+                referenceItems[i] = buffer.getInt();
+                boolean dummy = buffer.get() != 0;
+                int index = buffer.getInt();
+                DictionaryItem item = new DictionaryItem(
+                        lemma,
+                        root,
+                        pronunciation,
+                        pos,
+                        spos,
+                        attrs,
+                        suffixData,
+                        specialRootSuffix == -1 ? null : formById(specialRootSuffix),
+                        index);
+                item.dummy = dummy;
+                items[i] = item;
+            }
+            for (int i = 0; i < items.length; i++) {
+                if (referenceItems[i] != -1)
+                    items[i].referenceItem = items[referenceItems[i]];
+            }
+
+            int nodeCount = buffer.getInt();
+            int[] nodeForms = new int[nodeCount];
+            String[] nodeSurfaces = new String[nodeCount];
+            NodeData[] nodeData = new NodeData[nodeCount];
+            int[][] successors = new int[nodeCount][];
+            for (int i = 0; i < nodeCount; i++) {
+                nodeForms[i] = buffer.getInt();
+                nodeSurfaces[i] = readString();
+                nodeData[i] = readNodeData();
+                successors[i] = new int[buffer.getInt()];
+                for (int j = 0; j < successors[i].length; j++) {
+                    successors[i][j] = buffer.getInt();
+                }
+            }
+
+            int stemCount = buffer.getInt();
+            StemNode[] stems = new StemNode[stemCount];
+            int[] stemRoots = new int[stemCount];
+            for (int i = 0; i < stemCount; i++) {
+                String surface = readString();
+                DictionaryItem item = items[buffer.getInt()];
+                NodeData data = readNodeData();
+                StemNode stem = new StemNode(surface, item, data.termination, data.attributes, data.expectations);
+                stem.exclusiveSuffixData = data.exclusiveSuffixData;
+                stems[i] = stem;
+                stemRoots[i] = buffer.getInt();
+            }
+
+            // Root suffix forms are generated by the provider again, then null forms of successor nodes are
+            // matched with the connections of their predecessor's form.
+            ArrayDeque<Integer> queue = new ArrayDeque<>();
+            boolean[] visited = new boolean[nodeCount];
+            for (int i = 0; i < stemCount; i++) {
+                int root = stemRoots[i];
+                if (forms[nodeForms[root]] == null) {
+                    forms[nodeForms[root]] = suffixProvider.getRootSet(stems[i].dictionaryItem, stems[i].exclusiveSuffixData);
+                }
+                if (!visited[root]) {
+                    visited[root] = true;
+                    queue.add(root);
+                }
+            }
+            while (!queue.isEmpty()) {
+                int node = queue.poll();
+                SuffixForm form = forms[nodeForms[node]];
+                for (int successor : successors[node]) {
+                    int successorForm = nodeForms[successor];
+                    if (forms[successorForm] == null)
+                        forms[successorForm] = findConnection(form, successorForm);
+                    if (!visited[successor]) {
+                        visited[successor] = true;
+                        queue.add(successor);
+                    }
+                }
+            }
+
+            SuffixSurfaceNode[] nodes = new SuffixSurfaceNode[nodeCount];
+            for (int i = 0; i < nodeCount; i++) {
+                nodes[i] = new SuffixSurfaceNode(
+                        forms[nodeForms[i]],
+                        nodeSurfaces[i],
+                        nodeData[i].attributes,
+                        nodeData[i].expectations,
+                        nodeData[i].exclusiveSuffixData,
+                        nodeData[i].termination);
+            }
+            boolean[] isRoot = new boolean[nodeCount];
+            DynamicLexiconGraph graph = new DynamicLexiconGraph(suffixProvider);
+            for (int i = 0; i < stemCount; i++) {
+                stems[i].suffixRootSurfaceNode = nodes[stemRoots[i]];
+                isRoot[stemRoots[i]] = true;
+                graph.stemNodes.add(stems[i]);
+            }
+            for (int i = 0; i < nodeCount; i++) {
+                for (int successor : successors[i]) {
+                    nodes[i].addSuccNode(nodes[successor]);
+                }
+                if (isRoot[i]) {
+                    graph.rootSuffixNodeMap.put(nodes[i], nodes[i]);
+                } else {
+                    graph.addOrReturnExisting(nodes[i].suffixForm, nodes[i]);
+                }
+            }
+            return graph;
+        }
+
+        // finds the form of a successor node in the connections of its predecessor's form.
+        private SuffixForm findConnection(SuffixForm form, int formIndex) {
+            for (SuffixForm connection : form.connections) {
+                if (matches(connection, formIndex))
+                    return connection;
+            }
+            return formById(formIndex);
+        }
+
+        private boolean matches(SuffixForm form, int formIndex) {
+            String templateId = templateIds[formIndex];
+            if (templateId.length() == 0)
+                return !(form instanceof NullSuffixForm) && form.id.equals(formIds[formIndex]);
+            return form instanceof NullSuffixForm && ((NullSuffixForm) form).getTemplate().id.equals(templateId);
+        }
+
+        // resolves a suffix form by its index. Null forms that are generated during graph building cannot be resolved.
+        private SuffixForm formById(int formIndex) {
+            if (forms[formIndex] != null)
+                return forms[formIndex];
+            SuffixForm form = suffixProvider.getSuffixFormByIndex(formIndexes[formIndex]);
+            if (form == null || form.index != formIndexes[formIndex] || !form.id.equals(formIds[formIndex])
+                    || !matches(form, formIndex))
+                throw new LexiconException("Cannot resolve suffix form " + formIds[formIndex] +
+                        ". Snapshot is not compatible with the suffix provider.");
+            forms[formIndex] = form;
+            return form;
+        }
+
+        private NodeData readNodeData() {
+            NodeData data = new NodeData();
+            data.termination = TerminationType.values()[buffer.get()];
+            data.attributes = fromMask(buffer.getLong(), PhoneticAttribute.class);
+            data.expectations = fromMask(buffer.getLong(), PhoneticExpectation.class);
+            data.exclusiveSuffixData = readForms();
+            return data;
+        }
+
+        private SuffixData readForms() {
+            int count = buffer.getInt();
+            SuffixData data = new SuffixData();
+            for (int i = 0; i < count; i++) {
+                data.add(formById(buffer.getInt()));
+            }
+            return data;
+        }
+
+        private String readString() {
+            int length = buffer.getInt();
+            char[] chars = new char[length];
+            for (int i = 0; i < length; i++) {
+                chars[i] = buffer.getChar();
+            }
+            return new String(chars);
+        }
+
+        private static <E extends Enum<E>> EnumSet<E> fromMask(long mask, Class<E> clazz) {
+            EnumSet<E> set = EnumSet.noneOf(clazz);
+            E[] values = clazz.getEnumConstants();
+            for (int i = 0; i < values.length; i++) {
+                if ((mask & (1L << i)) != 0)
+                    set.add(values[i]);
+            }
+            return set;
+        }
+    }
+
+    private static class NodeData {
+        TerminationType termination;
+        EnumSet<PhoneticAttribute> attributes;
+        EnumSet<PhoneticExpectation> expectations;
+        SuffixData exclusiveSuffixData;
+    }
+}
@@ -1,7 +1,5 @@
 package zemberek.morphology.lexicon.graph;
 
-import zemberek.core.turkish.TurkishAlphabet;
-
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -14,7 +12,6 @@ import java.util.List;
 public class StemTrie {
 
     Node root = new Node();
-    static TurkishAlphabet alphabet = new TurkishAlphabet();
 
     public void add(StemNode stem) {
         if (stem == null) {
@@ -134,7 +131,8 @@ public class StemTrie {
 
     public static class Node {
         private char[] fragment;
-        int index;
+        // first character of the fragment. Children are kept sorted by it.
+        int firstChar;
         private ArrayList<Node> children;
         private ArrayList<StemNode> stems;
 
@@ -146,18 +144,20 @@ public class StemTrie {
             setFragment(fragment);
         }
 
-        public void setAlphabeticIndex() {
-            this.index = alphabet.getAlphabeticIndex(fragment[0]);
+        public void setFirstChar() {
+            // Alphabetic index is not used because characters that are not in the alphabet, such as digits or
+            // foreign letters, share the same index.
+            this.firstChar = fragment[0];
         }
 
         public void trimLeft(int i) {
             this.fragment = getSuffix(fragment, i);
-            setAlphabeticIndex();
+            setFirstChar();
         }
 
         public void setFragment(char[] fragment) {
             this.fragment = fragment;
-            setAlphabeticIndex();
+            setFirstChar();
         }
 
         public void addStem(StemNode s) {
@@ -173,7 +173,7 @@ public class StemTrie {
             if (children == null) {
                 children = new ArrayList<Node>(2);
             }
-            int pos = getChildIndex(node.index);
+            int pos = getChildIndex(node.firstChar);
             if (pos < 0) {
                 children.add(-(pos + 1), node);
             } else {
@@ -181,10 +181,10 @@ public class StemTrie {
             }
         }
 
-        // Search based on index values of children Node array. 
+        // Search based on first characters of children Node array.
         // Returns index of node if it already exists,
-        // -(pos +1) position to insert, if no element exist with given index 
-        private int getChildIndex(int index) {
+        // -(pos +1) position to insert, if no element exist with given first character
+        private int getChildIndex(int c) {
             if (children == null || children.size() == 0) {
                 return -1;
             }
@@ -192,9 +192,9 @@ public class StemTrie {
             // Linear search if element count is smaller than a threshold.
             if (size < 7) {
                 int i = 0;
-                for (; i < size && children.get(i).index < index; i++) ;
+                for (; i < size && children.get(i).firstChar < c; i++) ;
                 if (i == size) return -(size + 1);
-                return children.get(i).index == index ? i : -(i + 1);
+                return children.get(i).firstChar == c ? i : -(i + 1);
             }
             // Apply binary search if child count is big.
             int low = 0;
@@ -202,9 +202,9 @@ public class StemTrie {
             while (low <= high) {
                 int mid = (low + high) >> 1;
                 Node midNode = children.get(mid);
-                if (midNode.index < index) {
+                if (midNode.firstChar < c) {
                     low = mid + 1;
-                } else if (midNode.index > index) {
+                } else if (midNode.firstChar > c) {
                     high = mid - 1;
                 } else {
                     return mid;
@@ -218,7 +218,7 @@ public class StemTrie {
         }
 
         public Node getChildNode(char c) {
-            int childIndex = getChildIndex(alphabet.getAlphabeticIndex(c));
+            int childIndex = getChildIndex(c);
             if (childIndex >= 0) {
                 return children.get(childIndex);
             }
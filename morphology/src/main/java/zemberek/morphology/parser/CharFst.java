@@ -0,0 +1,246 @@
+package zemberek.morphology.parser;
+
+import com.google.common.collect.Maps;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * An immutable, acyclic character automaton stored in flat arrays. Outputs are attached to states, so walking the
+ * characters of an input from a root state visits all keys that are a prefix of the input in one pass.
+ * A single instance may contain many automata, each one is identified by its root state.
+ * States are minimized with a register during construction, identical sub automata (same outputs and same arcs)
+ * are stored only once. This is what makes it possible to compile the successors of tens of thousands of
+ * suffix surface nodes into a compact structure.
+ * Every output carries an int value and an int rank. Rank is only used by clients for ordering.
+ */
+class CharFst {
+
+    // arcs of state s are in [arcOffsets[s], arcOffsets[s+1]), sorted by label.
+    final int[] arcOffsets;
+    final char[] arcLabels;
+    final int[] arcTargets;
+
+    // outputs of state s are in [outputOffsets[s], outputOffsets[s+1])
+    final int[] outputOffsets;
+    final int[] outputs;
+    final int[] ranks;
+
+    private CharFst(Builder builder) {
+        this.arcOffsets = Arrays.copyOf(builder.arcOffsets, builder.stateCount + 1);
+        this.arcLabels = Arrays.copyOf(builder.arcLabels, builder.arcCount);
+        this.arcTargets = Arrays.copyOf(builder.arcTargets, builder.arcCount);
+        this.outputOffsets = Arrays.copyOf(builder.outputOffsets, builder.stateCount + 1);
+        this.outputs = Arrays.copyOf(builder.outputs, builder.outputCount);
+        this.ranks = Arrays.copyOf(builder.ranks, builder.outputCount);
+    }
+
+    /**
+     * @return target state of the transition from `state` with label `c`. -1 if there is no such transition.
+     */
+    int next(int state, char c) {
+        int low = arcOffsets[state];
+        int high = arcOffsets[state + 1] - 1;
+        // Linear search if arc count is small.
+        if (high - low < 8) {
+            for (int i = low; i <= high; i++) {
+                if (arcLabels[i] == c)
+                    return arcTargets[i];
+            }
+            return -1;
+        }
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            char label = arcLabels[mid];
+            if (label < c) {
+                low = mid + 1;
+            } else if (label > c) {
+                high = mid - 1;
+            } else {
+                return arcTargets[mid];
+            }
+        }
+        return -1;
+    }
+
+    int outputStart(int state) {
+        return outputOffsets[state];
+    }
+
+    int outputEnd(int state) {
+        return outputOffsets[state + 1];
+    }
+
+    int stateCount() {
+        return arcOffsets.length - 1;
+    }
+
+    int arcCount() {
+        return arcLabels.length;
+    }
+
+    static class Builder {
+        int stateCount;
+        int arcCount;
+        int outputCount;
+
+        int[] arcOffsets = new int[1024];
+        char[] arcLabels = new char[1024];
+        int[] arcTargets = new int[1024];
+        int[] outputOffsets = new int[1024];
+        int[] outputs = new int[1024];
+        int[] ranks = new int[1024];
+
+        private final Map<StateKey, Integer> register = Maps.newHashMap();
+
+        /**
+         * Adds an automaton that accepts given keys. i.th key emits outputs[i] with ranks[i].
+         *
+         * @return the root state of the added automaton.
+         */
+        int add(List<String> keys, int[] outputs, int[] ranks) {
+            TrieNode root = new TrieNode();
+            for (int i = 0; i < keys.size(); i++) {
+                TrieNode node = root;
+                for (char c : keys.get(i).toCharArray()) {
+                    TrieNode child = node.children.get(c);
+                    if (child == null) {
+                        child = new TrieNode();
+                        node.children.put(c, child);
+                    }
+                    node = child;
+                }
+                node.addOutput(outputs[i], ranks[i]);
+            }
+            return compile(root);
+        }
+
+        // post order compilation of trie nodes, checks the register for an equivalent state before creating a new one.
+        private int compile(TrieNode node) {
+            int arcSize = node.children.size();
+            char[] labels = new char[arcSize];
+            int[] targets = new int[arcSize];
+            int i = 0;
+            for (Map.Entry<Character, TrieNode> entry : node.children.entrySet()) {
+                labels[i] = entry.getKey();
+                targets[i] = compile(entry.getValue());
+                i++;
+            }
+            StateKey key = new StateKey(
+                    labels,
+                    targets,
+                    Arrays.copyOf(node.outputs, node.outputSize),
+                    Arrays.copyOf(node.ranks, node.outputSize));
+            Integer existing = register.get(key);
+            if (existing != null)
+                return existing;
+            int state = newState(key);
+            register.put(key, state);
+            return state;
+        }
+
+        private int newState(StateKey key) {
+            int state = stateCount;
+            ensureStateCapacity(state + 2);
+            ensureArcCapacity(arcCount + key.labels.length);
+            ensureOutputCapacity(outputCount + key.outputs.length);
+            arcOffsets[state] = arcCount;
+            System.arraycopy(key.labels, 0, arcLabels, arcCount, key.labels.length);
+            System.arraycopy(key.targets, 0, arcTargets, arcCount, key.targets.length);
+            arcCount += key.labels.length;
+            arcOffsets[state + 1] = arcCount;
+
+            outputOffsets[state] = outputCount;
+            System.arraycopy(key.outputs, 0, outputs, outputCount, key.outputs.length);
+            System.arraycopy(key.ranks, 0, ranks, outputCount, key.ranks.length);
+            outputCount += key.outputs.length;
+            outputOffsets[state + 1] = outputCount;
+            stateCount++;
+            return state;
+        }
+
+        private void ensureStateCapacity(int size) {
+            if (size > arcOffsets.length) {
+                int newSize = Math.max(size, arcOffsets.length * 2);
+                arcOffsets = Arrays.copyOf(arcOffsets, newSize);
+                outputOffsets = Arrays.copyOf(outputOffsets, newSize);
+            }
+        }
+
+        private void ensureArcCapacity(int size) {
+            if (size > arcLabels.length) {
+                int newSize = Math.max(size, arcLabels.length * 2);
+                arcLabels = Arrays.copyOf(arcLabels, newSize);
+                arcTargets = Arrays.copyOf(arcTargets, newSize);
+            }
+        }
+
+        private void ensureOutputCapacity(int size) {
+            if (size > outputs.length) {
+                int newSize = Math.max(size, outputs.length * 2);
+                outputs = Arrays.copyOf(outputs, newSize);
+                ranks = Arrays.copyOf(ranks, newSize);
+            }
+        }
+
+        CharFst build() {
+            return new CharFst(this);
+        }
+    }
+
+    private static class TrieNode {
+        TreeMap<Character, TrieNode> children = new TreeMap<>();
+        int[] outputs = new int[0];
+        int[] ranks = new int[0];
+        int outputSize;
+
+        void addOutput(int output, int rank) {
+            if (outputSize == outputs.length) {
+                outputs = Arrays.copyOf(outputs, outputSize + 2);
+                ranks = Arrays.copyOf(ranks, outputSize + 2);
+            }
+            outputs[outputSize] = output;
+            ranks[outputSize] = rank;
+            outputSize++;
+        }
+    }
+
+    private static class StateKey {
+        final char[] labels;
+        final int[] targets;
+        final int[] outputs;
+        final int[] ranks;
+        final int hash;
+
+        StateKey(char[] labels, int[] targets, int[] outputs, int[] ranks) {
+            this.labels = labels;
+            this.targets = targets;
+            this.outputs = outputs;
+            this.ranks = ranks;
+            int h = Arrays.hashCode(labels);
+            h = 31 * h + Arrays.hashCode(targets);
+            h = 31 * h + Arrays.hashCode(outputs);
+            h = 31 * h + Arrays.hashCode(ranks);
+            this.hash = h;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            StateKey that = (StateKey) o;
+            return hash == that.hash
+                    && Arrays.equals(labels, that.labels)
+                    && Arrays.equals(targets, that.targets)
+                    && Arrays.equals(outputs, that.outputs)
+                    && Arrays.equals(ranks, that.ranks);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
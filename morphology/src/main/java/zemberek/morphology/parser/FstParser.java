@@ -0,0 +1,246 @@
+package zemberek.morphology.parser;
+
+import com.google.common.collect.Lists;
+import zemberek.morphology.lexicon.graph.DynamicLexiconGraph;
+import zemberek.morphology.lexicon.graph.StemNode;
+import zemberek.morphology.lexicon.graph.SuffixSurfaceNode;
+import zemberek.morphology.lexicon.graph.TerminationType;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A MorphParser that compiles a DynamicLexiconGraph into an array encoded finite state transducer.
+ * Stem surface forms and the successors of every suffix surface node are compiled into a single minimized
+ * character automaton (See CharFst). Parsing is a walk over the input characters, branching on character transitions
+ * instead of testing every successor with String.startsWith.
+ * Parse results are identical to SimpleParser's results, including the order.
+ * Compiled parser is a snapshot of the graph. Changes to the graph after construction are not reflected.
+ * This class is immutable and thread safe.
+ */
+public class FstParser implements MorphParser {
+
+    private final CharFst fst;
+    private final int stemRoot;
+
+    private final StemNode[] stems;
+    // root suffix surface node id of each stem.
+    private final int[] stemSuffixRoots;
+
+    private final SuffixSurfaceNode[] suffixNodes;
+    // root state of the successor automaton of each suffix surface node.
+    private final int[] successorRoots;
+    private final TerminationType[] terminations;
+
+    public FstParser(DynamicLexiconGraph graph) {
+        this.stems = graph.getStemNodes().toArray(new StemNode[graph.getStemNodes().size()]);
+
+        // give ids to all suffix surface nodes reachable from stems.
+        Map<SuffixSurfaceNode, Integer> ids = new IdentityHashMap<>();
+        List<SuffixSurfaceNode> nodes = Lists.newArrayList();
+        ArrayDeque<SuffixSurfaceNode> stack = new ArrayDeque<>();
+        this.stemSuffixRoots = new int[stems.length];
+        for (int i = 0; i < stems.length; i++) {
+            SuffixSurfaceNode root = stems[i].getSuffixRootSurfaceNode();
+            stemSuffixRoots[i] = idOf(root, ids, nodes, stack);
+            while (!stack.isEmpty()) {
+                for (SuffixSurfaceNode successor : stack.pop().getSuccessors()) {
+                    idOf(successor, ids, nodes, stack);
+                }
+            }
+        }
+        this.suffixNodes = nodes.toArray(new SuffixSurfaceNode[nodes.size()]);
+
+        CharFst.Builder builder = new CharFst.Builder();
+        this.successorRoots = new int[suffixNodes.length];
+        this.terminations = new TerminationType[suffixNodes.length];
+        for (int i = 0; i < suffixNodes.length; i++) {
+            SuffixSurfaceNode node = suffixNodes[i];
+            terminations[i] = node.termination;
+            List<String> surfaces = Lists.newArrayListWithCapacity(node.getSuccessors().size());
+            int[] successorIds = new int[node.getSuccessors().size()];
+            int[] ranks = new int[successorIds.length];
+            int k = 0;
+            for (SuffixSurfaceNode successor : node.getSuccessors()) {
+                surfaces.add(successor.surfaceForm);
+                successorIds[k] = ids.get(successor);
+                // rank keeps the successor iteration order of SimpleParser.
+                ranks[k] = k;
+                k++;
+            }
+            successorRoots[i] = builder.add(surfaces, successorIds, ranks);
+        }
+
+        List<String> stemSurfaces = Lists.newArrayListWithCapacity(stems.length);
+        int[] stemIndexes = new int[stems.length];
+        for (int i = 0; i < stems.length; i++) {
+            stemSurfaces.add(stems[i].surfaceForm);
+            stemIndexes[i] = i;
+        }
+        this.stemRoot = builder.add(stemSurfaces, stemIndexes, stemIndexes);
+        this.fst = builder.build();
+    }
+
+    private static int idOf(
+            SuffixSurfaceNode node,
+            Map<SuffixSurfaceNode, Integer> ids,
+            List<SuffixSurfaceNode> nodes,
+            ArrayDeque<SuffixSurfaceNode> stack) {
+        Integer id = ids.get(node);
+        if (id == null) {
+            id = nodes.size();
+            ids.put(node, id);
+            nodes.add(node);
+            stack.push(node);
+        }
+        return id;
+    }
+
+    public int stateCount() {
+        return fst.stateCount();
+    }
+
+    public int transitionCount() {
+        return fst.arcCount();
+    }
+
+    public List<MorphParse> parse(String input) {
+        // get stem candidates with a single pass over the input.
+        List<Path> current = Lists.newArrayList();
+        int state = stemRoot;
+        for (int i = 0; i < input.length(); i++) {
+            state = fst.next(state, input.charAt(i));
+            if (state < 0)
+                break;
+            for (int k = fst.outputStart(state); k < fst.outputEnd(state); k++) {
+                int stemIndex = fst.outputs[k];
+                current.add(new Path(
+                        stemIndex,
+                        stemSuffixRoots[stemIndex],
+                        i + 1,
+                        stems[stemIndex].termination == TerminationType.TERMINAL,
+                        null));
+            }
+        }
+
+        // traverse suffix transducer breadth first, same as SimpleParser.
+        List<MorphParse> result = Lists.newArrayList();
+        Match match = new Match();
+        while (!current.isEmpty()) {
+            List<Path> next = Lists.newArrayList();
+            for (Path path : current) {
+                match.size = 0;
+                collectMatches(input, path, match);
+                if (match.size == 0) {
+                    if (path.offset == input.length() && path.terminal)
+                        result.add(path.getResult());
+                    continue;
+                }
+                match.sortByRank();
+                for (int i = 0; i < match.size; i++) {
+                    int node = match.nodes[i];
+                    boolean terminal = path.terminal;
+                    if (terminations[node] == TerminationType.TERMINAL)
+                        terminal = true;
+                    else if (terminations[node] == TerminationType.NON_TERMINAL)
+                        terminal = false;
+                    next.add(new Path(path.stemIndex, node, match.offsets[i], terminal, path));
+                }
+            }
+            current = next;
+        }
+        return result;
+    }
+
+    private void collectMatches(String input, Path path, Match match) {
+        int state = successorRoots[path.node];
+        boolean hasRest = path.offset < input.length();
+        // outputs of the root state are the successors with empty surface form.
+        for (int k = fst.outputStart(state); k < fst.outputEnd(state); k++) {
+            int node = fst.outputs[k];
+            if (hasRest || terminations[node] != TerminationType.NON_TERMINAL)
+                match.add(node, fst.ranks[k], path.offset);
+        }
+        for (int i = path.offset; i < input.length(); i++) {
+            state = fst.next(state, input.charAt(i));
+            if (state < 0)
+                break;
+            for (int k = fst.outputStart(state); k < fst.outputEnd(state); k++) {
+                match.add(fst.outputs[k], fst.ranks[k], i + 1);
+            }
+        }
+    }
+
+    /**
+     * A parse path. Suffix surface node history is kept with parent pointers.
+     */
+    private class Path {
+        final int stemIndex;
+        final int node;
+        final int offset;
+        final boolean terminal;
+        final Path previous;
+
+        Path(int stemIndex, int node, int offset, boolean terminal, Path previous) {
+            this.stemIndex = stemIndex;
+            this.node = node;
+            this.offset = offset;
+            this.terminal = terminal;
+            this.previous = previous;
+        }
+
+        MorphParse getResult() {
+            int length = 0;
+            for (Path p = this; p != null; p = p.previous) {
+                length++;
+            }
+            SuffixSurfaceNode[] history = new SuffixSurfaceNode[length];
+            for (Path p = this; p != null; p = p.previous) {
+                history[--length] = suffixNodes[p.node];
+            }
+            return new MorphParse(stems[stemIndex], Arrays.asList(history));
+        }
+    }
+
+    /**
+     * Successor matches of a path. Re-used for all paths of a parse.
+     */
+    private static class Match {
+        int[] nodes = new int[8];
+        int[] ranks = new int[8];
+        int[] offsets = new int[8];
+        int size;
+
+        void add(int node, int rank, int offset) {
+            if (size == nodes.length) {
+                nodes = Arrays.copyOf(nodes, size * 2);
+                ranks = Arrays.copyOf(ranks, size * 2);
+                offsets = Arrays.copyOf(offsets, size * 2);
+            }
+            nodes[size] = node;
+            ranks[size] = rank;
+            offsets[size] = offset;
+            size++;
+        }
+
+        // insertion sort, match count is very small.
+        void sortByRank() {
+            for (int i = 1; i < size; i++) {
+                int node = nodes[i], rank = ranks[i], offset = offsets[i];
+                int j = i - 1;
+                while (j >= 0 && ranks[j] > rank) {
+                    nodes[j + 1] = nodes[j];
+                    ranks[j + 1] = ranks[j];
+                    offsets[j + 1] = offsets[j];
+                    j--;
+                }
+                nodes[j + 1] = node;
+                ranks[j + 1] = rank;
+                offsets[j + 1] = offset;
+            }
+        }
+    }
+}
@@ -1,6 +1,9 @@
 package zemberek.morphology.parser;
 
 import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import zemberek.core.turkish.PrimaryPos;
@@ -10,6 +13,7 @@ import zemberek.morphology.lexicon.graph.StemNode;
 import zemberek.morphology.lexicon.graph.SuffixSurfaceNode;
 import zemberek.morphology.structure.StemAndEnding;
 
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 
@@ -19,12 +23,21 @@ import java.util.Map;
  * Every MorphParse must have at least one Inflectional group element in it .
  * First inflectional group element contains the primary and secondary Pos of the Dictionary item.
  * Last Inflectional group defines the pos of the word in general.
+ * MorphParse is immutable, so same instances can be shared between threads and caches.
+ * Suffixes of all inflectional groups are also kept as a compact suffix index array for fast comparisons.
+ * Equal parses can be shared with intern().
  */
 public class MorphParse {
 
-    public DictionaryItem dictionaryItem;
-    public String root;
-    public List<InflectionalGroup> inflectionalGroups;
+    private static final Interner<MorphParse> interner = Interners.newWeakInterner();
+
+    public final DictionaryItem dictionaryItem;
+    public final String root;
+    public final List<InflectionalGroup> inflectionalGroups;
+
+    // Suffix.index values of all suffixes in inflectional groups.
+    private final int[] suffixIndexes;
+    private final int hash;
 
     public static class SuffixData {
         public final Suffix suffix;
@@ -43,12 +56,57 @@ public class MorphParse {
                 return suffix.id + ":" + surface;
             else return suffix.id;
         }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            SuffixData that = (SuffixData) o;
+            return suffix.index == that.suffix.index && surface.equals(that.surface) && lex.equals(that.lex);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = suffix.index;
+            result = 31 * result + surface.hashCode();
+            result = 31 * result + lex.hashCode();
+            return result;
+        }
     }
 
     public MorphParse(DictionaryItem dictionaryItem, String root, List<InflectionalGroup> inflectionalGroups) {
         this.dictionaryItem = dictionaryItem;
         this.root = root;
-        this.inflectionalGroups = inflectionalGroups;
+        this.inflectionalGroups = ImmutableList.copyOf(inflectionalGroups);
+        int suffixCount = 0;
+        for (InflectionalGroup ig : this.inflectionalGroups) {
+            suffixCount += ig.suffixList.size();
+        }
+        this.suffixIndexes = new int[suffixCount];
+        int i = 0;
+        for (InflectionalGroup ig : this.inflectionalGroups) {
+            for (SuffixData suffixData : ig.suffixList) {
+                suffixIndexes[i++] = suffixData.suffix.index;
+            }
+        }
+        int h = dictionaryItem.id.hashCode();
+        h = 31 * h + root.hashCode();
+        h = 31 * h + this.inflectionalGroups.hashCode();
+        this.hash = h;
+    }
+
+    /**
+     * Returns a canonical instance that is equal to this parse. Interned instances are weakly referenced.
+     */
+    public MorphParse intern() {
+        return interner.intern(this);
+    }
+
+    /**
+     * @return a copy of suffix index array. See Suffix.index
+     */
+    public int[] getSuffixIndexes() {
+        return suffixIndexes.clone();
     }
 
     public PrimaryPos getPos() {
@@ -60,30 +118,43 @@ public class MorphParse {
     }
 
     public static class InflectionalGroup {
-        public List<SuffixData> suffixList = Lists.newArrayList();
-        public PrimaryPos pos;
-        public SecondaryPos spos;
+        public final List<SuffixData> suffixList;
+        public final PrimaryPos pos;
+        public final SecondaryPos spos;
 
-        public static InflectionalGroup UNKNOWN = new InflectionalGroup(
+        public static final InflectionalGroup UNKNOWN = new InflectionalGroup(
                 Lists.newArrayList(new SuffixData(Suffix.UNKNOWN, "", "")), PrimaryPos.Unknown, SecondaryPos.Unknown);
 
         public InflectionalGroup(List<SuffixData> suffixList, PrimaryPos pos, SecondaryPos spos) {
-            this.suffixList = suffixList;
+            this.suffixList = ImmutableList.copyOf(suffixList);
             this.pos = pos;
             this.spos = spos;
         }
 
-        public InflectionalGroup() {
-        }
-
         public boolean containsSuffix(Suffix suffix) {
             for (SuffixData sd : suffixList) {
-                if (sd.suffix.id.equals(suffix.id))
+                if (sd.suffix.index == suffix.index)
                     return true;
             }
             return false;
         }
 
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            InflectionalGroup that = (InflectionalGroup) o;
+            return pos == that.pos && spos == that.spos && suffixList.equals(that.suffixList);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = suffixList.hashCode();
+            result = 31 * result + (pos != null ? pos.ordinal() : 0);
+            result = 31 * result + (spos != null ? spos.ordinal() : 0);
+            return result;
+        }
+
         public String formatNoSurface() {
             StringBuilder sb = prefix();
             int j = 0;
@@ -238,13 +309,14 @@ public class MorphParse {
     }
 
     public MorphParse(StemNode stemNode, List<SuffixSurfaceNode> suffixSurfaceNodes) {
-        this.dictionaryItem = stemNode.getDictionaryItem();
-        this.root = stemNode.surfaceForm;
+        this(stemNode.getDictionaryItem(), stemNode.surfaceForm, generateIgs(stemNode.getDictionaryItem(), suffixSurfaceNodes));
+    }
 
-        InflectionalGroup ig = new InflectionalGroup();
+    private static List<InflectionalGroup> generateIgs(DictionaryItem dictionaryItem, List<SuffixSurfaceNode> suffixSurfaceNodes) {
         List<InflectionalGroup> igs = Lists.newArrayListWithCapacity(2);
-        ig.pos = dictionaryItem.primaryPos;
-        ig.spos = dictionaryItem.secondaryPos;
+        List<SuffixData> suffixes = Lists.newArrayListWithCapacity(4);
+        PrimaryPos pos = dictionaryItem.primaryPos;
+        SecondaryPos spos = dictionaryItem.secondaryPos;
         int j = 0;
         for (SuffixSurfaceNode suffixNode : suffixSurfaceNodes) {
 
@@ -256,30 +328,31 @@ public class MorphParse {
             // if node is a derivational node then we create a new ig and store the other
             if (template != null && (template instanceof DerivationalSuffixTemplate || j == 0)) {
                 RootSuffix rootSuffix = (RootSuffix) template.getSuffix();
-                if (ig.pos == null) {
-                    ig.pos = rootSuffix.pos;
+                if (pos == null) {
+                    pos = rootSuffix.pos;
                 }
                 if (j > 0) {
-                    igs.add(ig);
-                    ig = new InflectionalGroup();
-                    ig.pos = rootSuffix.pos;
+                    igs.add(new InflectionalGroup(suffixes, pos, spos));
+                    suffixes = Lists.newArrayListWithCapacity(4);
+                    pos = rootSuffix.pos;
+                    spos = null;
                 }
 
             } else {
                 if (!(suffixNode.getSuffixForm().getSuffix() instanceof RootSuffix))
-                    ig.suffixList.add(new SuffixData(suffixNode.getSuffixForm().suffix, suffixNode.surfaceForm, suffixNode.getSuffixForm().generation));
+                    suffixes.add(new SuffixData(suffixNode.getSuffixForm().suffix, suffixNode.surfaceForm, suffixNode.getSuffixForm().generation));
             }
             j++;
         }
-        if (igs.isEmpty() || !ig.suffixList.isEmpty()) {
-            igs.add(ig);
+        if (igs.isEmpty() || !suffixes.isEmpty()) {
+            igs.add(new InflectionalGroup(suffixes, pos, spos));
         }
-        this.inflectionalGroups = igs;
+        return igs;
     }
 
     public boolean containsSuffix(Suffix suffix) {
-        for (InflectionalGroup inflectionalGroup : inflectionalGroups) {
-            if (inflectionalGroup.containsSuffix(suffix))
+        for (int index : suffixIndexes) {
+            if (index == suffix.index)
                 return true;
         }
         return false;
@@ -390,12 +463,25 @@ public class MorphParse {
         return sb.toString();
     }
 
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        MorphParse that = (MorphParse) o;
+        return hash == that.hash
+                && Arrays.equals(suffixIndexes, that.suffixIndexes)
+                && dictionaryItem.id.equals(that.dictionaryItem.id)
+                && root.equals(that.root)
+                && inflectionalGroups.equals(that.inflectionalGroups);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
     @Override
     public String toString() {
         return formatLong();
     }
 }
-
-
-
-
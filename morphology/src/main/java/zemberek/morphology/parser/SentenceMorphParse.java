@@ -7,6 +7,8 @@ import java.util.List;
 
 /**
  * Represents morphological parse of a sentence.
+ * MorphParse objects are immutable and may be shared with parse caches. Each entry keeps its own mutable list of
+ * parses so that disambiguators can re-order parses of a sentence without affecting other sentences.
  */
 public class SentenceMorphParse implements Iterable<SentenceMorphParse.Entry> {
     private List<Entry> parseEntries = Lists.newArrayList();
@@ -48,7 +50,7 @@ public class SentenceMorphParse implements Iterable<SentenceMorphParse.Entry> {
 
         private Entry(String input, List<MorphParse> parses) {
             this.input = input;
-            this.parses = parses;
+            this.parses = Lists.newArrayList(parses);
         }
     }
 }
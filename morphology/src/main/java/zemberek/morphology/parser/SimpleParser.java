@@ -2,51 +2,74 @@ package zemberek.morphology.parser;
 
 import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.Lists;
-import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import zemberek.morphology.lexicon.graph.DoubleArrayStemTrie;
 import zemberek.morphology.lexicon.graph.DynamicLexiconGraph;
 import zemberek.morphology.lexicon.graph.StemNode;
 import zemberek.morphology.lexicon.graph.SuffixSurfaceNode;
 import zemberek.morphology.lexicon.graph.TerminationType;
 
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
+import java.util.Set;
 
+/**
+ * A MorphParser that traverses the suffix surface nodes of a DynamicLexiconGraph.
+ * Stem candidates of an input are found with a single scan over a double array trie of the graph's stems.
+ * Stems added or removed after construction are kept in a small overlay, and the trie is re-built when the overlay
+ * grows. So short lived additions like the proper noun stems of UnidentifiedTokenParser do not cause a re-build.
+ */
 public class SimpleParser implements MorphParser {
 
+    // overlay is compiled into the trie when its size exceeds this value or 1/8 of the trie size.
+    private static final int MIN_REBUILD_SIZE = 256;
+
     DynamicLexiconGraph graph;
-    ArrayListMultimap<String, StemNode> multiStems = ArrayListMultimap.create(1000, 2);
-    Map<String, StemNode> singeStems = Maps.newHashMap();
+    private DoubleArrayStemTrie stemTrie;
+    // stems added after the trie is built.
+    private final ArrayListMultimap<String, StemNode> addedStems = ArrayListMultimap.create();
+    // stems of the trie that are removed after it is built.
+    private final Set<StemNode> removedStems = Sets.newHashSet();
+
+    final boolean indexedTraversal;
+
+    private final ThreadLocal<TraversalBuffer> traversalBuffers = new ThreadLocal<TraversalBuffer>() {
+        @Override
+        protected TraversalBuffer initialValue() {
+            return new TraversalBuffer();
+        }
+    };
 
     public SimpleParser(DynamicLexiconGraph graph) {
+        this(graph, false);
+    }
+
+    /**
+     * @param graph            lexicon graph.
+     * @param indexedTraversal if true, suffix graph is traversed with input offsets and a shared parent pointer history
+     *                         instead of ParseToken objects, rest substrings and copied history lists.
+     *                         Results are identical. See parseIndexed(String)
+     */
+    public SimpleParser(DynamicLexiconGraph graph, boolean indexedTraversal) {
         this.graph = graph;
-        for (StemNode stemNode : graph.getStemNodes()) {
-            addStemNode(stemNode);
-        }
+        this.indexedTraversal = indexedTraversal;
+        this.stemTrie = new DoubleArrayStemTrie(graph.getStemNodes());
     }
 
     private void addStemNode(StemNode stemNode) {
-        final String surfaceForm = stemNode.surfaceForm;
-        if (multiStems.containsKey(surfaceForm)) {
-            multiStems.put(surfaceForm, stemNode);
-        } else if (singeStems.containsKey(surfaceForm)) {
-            multiStems.put(surfaceForm, singeStems.get(surfaceForm));
-            singeStems.remove(surfaceForm);
-            multiStems.put(surfaceForm, stemNode);
-        } else
-            singeStems.put(surfaceForm, stemNode);
+        // a removed trie stem is only un-marked.
+        if (!removedStems.remove(stemNode))
+            addedStems.put(stemNode.surfaceForm, stemNode);
     }
 
     private void removeStemNode(StemNode stemNode) {
-        final String surfaceForm = stemNode.surfaceForm;
-        if (multiStems.containsKey(surfaceForm)) {
-            multiStems.remove(surfaceForm, stemNode);
-        } else if (singeStems.containsKey(surfaceForm)) {
-            singeStems.remove(surfaceForm);
-        }
+        if (!addedStems.remove(stemNode.surfaceForm, stemNode) && stemTrie.contains(stemNode))
+            removedStems.add(stemNode);
     }
 
     private boolean containsNode(StemNode node) {
-        return multiStems.containsEntry(node.surfaceForm, node) || singeStems.containsKey(node.surfaceForm);
+        return addedStems.containsEntry(node.surfaceForm, node)
+                || (!removedStems.contains(node) && stemTrie.contains(node));
     }
 
     public void addNodes(StemNode... nodes) {
@@ -54,26 +77,60 @@ public class SimpleParser implements MorphParser {
             if (!containsNode(node))
                 addStemNode(node);
         }
+        rebuildIfNecessary();
     }
 
     public void removeStemNodes(StemNode... nodes) {
         for (StemNode node : nodes) {
-
             removeStemNode(node);
         }
+        rebuildIfNecessary();
+    }
+
+    private void rebuildIfNecessary() {
+        if (addedStems.size() + removedStems.size() <= Math.max(MIN_REBUILD_SIZE, stemTrie.size() / 8))
+            return;
+        List<StemNode> stems = Lists.newArrayListWithCapacity(stemTrie.size() + addedStems.size());
+        for (StemNode stem : stemTrie.getAllStems()) {
+            if (!removedStems.contains(stem))
+                stems.add(stem);
+        }
+        stems.addAll(addedStems.values());
+        stemTrie = new DoubleArrayStemTrie(stems);
+        addedStems.clear();
+        removedStems.clear();
+    }
+
+    /**
+     * Adds stems whose surface forms are a prefix of the input to candidates. Shorter stems come first.
+     */
+    private void collectStems(String input, List<StemNode> candidates) {
+        boolean checkOverlay = !addedStems.isEmpty();
+        boolean checkRemoved = !removedStems.isEmpty();
+        int state = DoubleArrayStemTrie.ROOT;
+        for (int i = 0; i < input.length(); i++) {
+            if (state >= 0)
+                state = stemTrie.next(state, input.charAt(i));
+            if (state >= 0) {
+                for (int k = stemTrie.stemStart(state); k < stemTrie.stemEnd(state); k++) {
+                    StemNode stem = stemTrie.stemAt(k);
+                    if (!checkRemoved || !removedStems.contains(stem))
+                        candidates.add(stem);
+                }
+            } else if (!checkOverlay) {
+                break;
+            }
+            if (checkOverlay)
+                candidates.addAll(addedStems.get(input.substring(0, i + 1)));
+        }
     }
 
     public List<MorphParse> parse(String input) {
+        if (indexedTraversal)
+            return parseIndexed(input);
         // get stem candidates.
         List<StemNode> candidates = Lists.newArrayList();
-        for (int i = 1; i <= input.length(); i++) {
-            String stem = input.substring(0, i);
-            if (singeStems.containsKey(stem)) {
-                candidates.add(singeStems.get(stem));
-            } else if (multiStems.containsKey(stem)) {
-                candidates.addAll(multiStems.get(stem));
-            }
-        }
+        collectStems(input, candidates);
 
         // generate starting tokens with suffix root nodes.
         List<ParseToken> initialTokens = Lists.newArrayList();
@@ -116,18 +173,122 @@ public class SimpleParser implements MorphParser {
             traverseSuffixes(newtokens, completed);
     }
 
+    /**
+     * Parses the input with index based traversal. All traversal states of a parse are kept in a re-used,
+     * per thread buffer. A state only holds the suffix surface node, input offset, terminal flag and the index of
+     * its parent state. So there is no substring, ParseToken or history list allocation during traversal.
+     * MorphParse objects are only generated for completed parses. Results are identical to the parse(String) results.
+     *
+     * @param input input word.
+     * @return parse results.
+     */
+    public List<MorphParse> parseIndexed(String input) {
+        TraversalBuffer buffer = traversalBuffers.get();
+        buffer.reset();
+        // get stem candidates, they are the initial states.
+        collectStems(input, buffer.candidates);
+        for (StemNode candidate : buffer.candidates) {
+            buffer.addStem(candidate);
+        }
+
+        // traverse suffix graph breadth first. states of the current level are in [levelStart, levelEnd)
+        List<MorphParse> result = Lists.newArrayList();
+        int levelStart = 0;
+        int levelEnd = buffer.size;
+        while (levelStart < levelEnd) {
+            for (int state = levelStart; state < levelEnd; state++) {
+                int offset = buffer.offsets[state];
+                boolean hasRest = offset < input.length();
+                boolean matchFound = false;
+                for (SuffixSurfaceNode successor : buffer.nodes[state].getSuccessors()) {
+                    if (input.startsWith(successor.surfaceForm, offset)) {
+                        if (hasRest || successor.termination != TerminationType.NON_TERMINAL) {
+                            buffer.addSuccessor(state, successor);
+                            matchFound = true;
+                        }
+                    }
+                }
+                if (!matchFound && !hasRest && buffer.terminals[state])
+                    result.add(buffer.getResult(state));
+            }
+            levelStart = levelEnd;
+            levelEnd = buffer.size;
+        }
+        return result;
+    }
+
+    /**
+     * Holds traversal states of a parse in parallel arrays. History of a state is reached with parent indexes.
+     */
+    private static class TraversalBuffer {
+        StemNode[] stems = new StemNode[32];
+        SuffixSurfaceNode[] nodes = new SuffixSurfaceNode[32];
+        int[] parents = new int[32];
+        int[] offsets = new int[32];
+        boolean[] terminals = new boolean[32];
+        int size;
+        List<StemNode> candidates = Lists.newArrayList();
+
+        void reset() {
+            candidates.clear();
+            // clear references so that graph nodes are not kept by a stale buffer.
+            Arrays.fill(stems, 0, size, null);
+            Arrays.fill(nodes, 0, size, null);
+            size = 0;
+        }
+
+        void addStem(StemNode stem) {
+            add(stem, stem.getSuffixRootSurfaceNode(), -1, stem.surfaceForm.length(), stem.termination == TerminationType.TERMINAL);
+        }
+
+        void addSuccessor(int parent, SuffixSurfaceNode node) {
+            boolean terminal = terminals[parent];
+            switch (node.termination) {
+                case TERMINAL:
+                    terminal = true;
+                    break;
+                case NON_TERMINAL:
+                    terminal = false;
+                    break;
+            }
+            add(stems[parent], node, parent, offsets[parent] + node.surfaceForm.length(), terminal);
+        }
+
+        private void add(StemNode stem, SuffixSurfaceNode node, int parent, int offset, boolean terminal) {
+            if (size == stems.length) {
+                int newSize = size * 2;
+                stems = Arrays.copyOf(stems, newSize);
+                nodes = Arrays.copyOf(nodes, newSize);
+                parents = Arrays.copyOf(parents, newSize);
+                offsets = Arrays.copyOf(offsets, newSize);
+                terminals = Arrays.copyOf(terminals, newSize);
+            }
+            stems[size] = stem;
+            nodes[size] = node;
+            parents[size] = parent;
+            offsets[size] = offset;
+            terminals[size] = terminal;
+            size++;
+        }
+
+        MorphParse getResult(int state) {
+            int length = 0;
+            for (int i = state; i >= 0; i = parents[i]) {
+                length++;
+            }
+            SuffixSurfaceNode[] history = new SuffixSurfaceNode[length];
+            for (int i = state; i >= 0; i = parents[i]) {
+                history[--length] = nodes[i];
+            }
+            return new MorphParse(stems[state], Arrays.asList(history));
+        }
+    }
+
     public void dump(String input) {
         // get stem candidates.
         System.out.println("  Input:" + input);
         List<StemNode> candidates = Lists.newArrayList();
-        for (int i = 1; i <= input.length(); i++) {
-            String stem = input.substring(0, i);
-            if (singeStems.containsKey(stem)) {
-                candidates.add(singeStems.get(stem));
-            } else if (multiStems.containsKey(stem)) {
-                candidates.addAll(multiStems.get(stem));
-            }
-        }
+        collectStems(input, candidates);
         System.out.println("  Stem Nodes:");
         for (StemNode candidate : candidates) {
             System.out.println(candidate);
@@ -1,10 +1,15 @@
 package zemberek.morphology.ambiguity;
 
+import com.google.common.base.Charsets;
+import junit.framework.Assert;
 import org.junit.Ignore;
 import org.junit.Test;
+import zemberek.core.io.SimpleTextWriter;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.List;
+import java.util.Random;
 
 public class AvPerceptronDisambiguatorTests {
     @Test
@@ -17,4 +22,72 @@ public class AvPerceptronDisambiguatorTests {
 
         disambiguator.test(testFile);
     }
+
+    // A small training set. Correct parse of "ara" depends on the previous word.
+    private File trainingSet() throws IOException {
+        File file = File.createTempFile("perceptron-train", ".txt");
+        file.deleteOnExit();
+        SimpleTextWriter writer = SimpleTextWriter.keepOpenUTF8Writer(file);
+        Random random = new Random(1);
+        for (int i = 0; i < 200; i++) {
+            writer.writeLine("<S> <S>");
+            for (int j = 0; j < 4; j++) {
+                if (random.nextBoolean()) {
+                    writer.writeLine("bir bir+Det");
+                    writer.writeLine("ara ara+Noun+A3sg+Pnon+Nom ara+Verb+Pos+Imp+A2sg");
+                } else {
+                    writer.writeLine("onu o+Pron+Demons+A3sg+Pnon+Acc");
+                    writer.writeLine("ara ara+Verb+Pos+Imp+A2sg ara+Noun+A3sg+Pnon+Nom");
+                }
+            }
+            writer.writeLine("</S> </S>");
+        }
+        writer.close();
+        return file;
+    }
+
+    private double accuracy(File modelFile, File testFile) throws IOException {
+        AveragedPerceptronMorphDisambiguator disambiguator = new AveragedPerceptronMorphDisambiguator(modelFile);
+        AbstractDisambiguator.DataSet testSet = com.google.common.io.Files.readLines(
+                testFile, Charsets.UTF_8, new AbstractDisambiguator.DataSetLoader());
+        int hit = 0, total = 0;
+        for (AbstractDisambiguator.SentenceData sentence : testSet) {
+            List<String> best = disambiguator.bestParse(sentence, true).bestParse;
+            Assert.assertEquals(sentence.correctParse.size(), best.size());
+            for (int i = 0; i < best.size(); i++) {
+                if (best.get(i).equals(sentence.correctParse.get(i)))
+                    hit++;
+                total++;
+            }
+        }
+        return (double) hit / total;
+    }
+
+    @Test
+    public void parallelTraining() throws IOException {
+        File trainFile = trainingSet();
+        for (int threadCount : new int[]{1, 3}) {
+            File modelFile = File.createTempFile("perceptron-model", ".bin");
+            modelFile.deleteOnExit();
+            AveragedPerceptronMorphDisambiguator.train(trainFile, modelFile, 3, threadCount);
+            Assert.assertEquals(1d, accuracy(modelFile, trainFile), 0.0001);
+        }
+    }
+
+    @Test
+    public void averageOfFeatureUpdatedOnce() throws IOException {
+        File emptyModel = File.createTempFile("perceptron", ".txt");
+        emptyModel.deleteOnExit();
+        AveragedPerceptronMorphDisambiguator disambiguator = new AveragedPerceptronMorphDisambiguator(emptyModel);
+        HashedFeatures correct = new HashedFeatures();
+        correct.start(HashedFeatures.PREFIX[4]).append(new HashedFeatures.Part("elma")).add();
+        HashedFeatures best = new HashedFeatures();
+        best.start(HashedFeatures.PREFIX[4]).append(new HashedFeatures.Part("armut")).add();
+        // weights change after first of four examples.
+        disambiguator.updateWeights(correct, best, 1);
+        disambiguator.updateAllAverageWeights(4);
+        Assert.assertEquals(0.75f, disambiguator.averagedWeights.weight(correct.get(0)), 0.0001f);
+        Assert.assertEquals(-0.75f, disambiguator.averagedWeights.weight(best.get(0)), 0.0001f);
+        Assert.assertEquals(1f, disambiguator.weights.weight(correct.get(0)));
+    }
 }
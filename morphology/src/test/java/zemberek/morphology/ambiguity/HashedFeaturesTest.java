@@ -0,0 +1,130 @@
+package zemberek.morphology.ambiguity;
+
+import com.google.common.collect.Lists;
+import junit.framework.Assert;
+import org.junit.Test;
+import zemberek.core.io.SimpleTextWriter;
+import zemberek.morphology.ambiguity.HashedFeatures.ParseParts;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import static java.lang.String.format;
+
+public class HashedFeaturesTest {
+
+    static final String[] PARSES = {
+            "<s>", "</s>", "+Punc", "elma+Noun+A3sg+Pnon+Nom", "Ankara+Noun+Prop+A3sg+Pnon+Loc",
+            "git+Verb+Pos^DB+Noun+Inf2+A3sg+Pnon+Nom", "ev+Noun+A3sg+Pnon+Nom^DB+Adj+With^DB+Verb+Zero+Past+A3sg",
+            "hızlı+Adj^DB+Adv+Ly", "+Verb+.+Punc"};
+
+    // string features of the old implementation of Z3AveragedPerceptronDisambiguator.
+    static List<String> stringFeatures(String p1, String p2, String p3) {
+        AbstractDisambiguator.WordParse w1 = new AbstractDisambiguator.WordParse(p1);
+        AbstractDisambiguator.WordParse w2 = new AbstractDisambiguator.WordParse(p2);
+        AbstractDisambiguator.WordParse w3 = new AbstractDisambiguator.WordParse(p3);
+        String r1 = w1.root;
+        String r2 = w2.root;
+        String r3 = w3.root;
+        String ig1 = w1.allIgs;
+        String ig2 = w2.allIgs;
+        String ig3 = w3.allIgs;
+        List<String> feats = Lists.newArrayList();
+        feats.add(format("1:%s%s-%s%s-%s%s", r1, ig1, r2, ig2, r3, ig3));
+        feats.add(format("2:%s%s-%s%s", r1, ig2, r3, ig3));
+        feats.add(format("3:%s%s-%s%s", r2, ig2, r3, ig3));
+        feats.add(format("4:%s%s", r3, ig3));
+        feats.add(format("5:%s%s-%s", r2, ig2, ig3));
+        feats.add(format("6:%s%s-%s", r1, ig1, ig3));
+        feats.add(format("7:%s-%s-%s", r1, r2, r3));
+        feats.add(format("8:%s-%s", r1, r3));
+        feats.add(format("9:%s-%s", r2, r3));
+        feats.add(format("10:%s", r3));
+        feats.add(format("11:%s-%s-%s", ig1, ig2, ig3));
+        feats.add(format("12:%s-%s", ig1, ig3));
+        feats.add(format("13:%s-%s", ig2, ig3));
+        feats.add(format("14:%s", ig3));
+        String ig1s[] = ig1.split("[ ]");
+        String ig2s[] = ig2.split("[ ]");
+        String ig3s[] = ig3.split("[ ]");
+        for (String ig : ig3s) {
+            feats.add(format("15:%s-%s-%s", ig1s[ig1s.length - 1], ig2s[ig2s.length - 1], ig));
+            feats.add(format("16:%s-%s", ig1s[ig1s.length - 1], ig));
+            feats.add(format("17:%s-%s", ig2s[ig2s.length - 1], ig));
+            feats.add(format("18:%s", ig));
+        }
+        for (int k = 0; k < ig3s.length - 1; k++)
+            feats.add(format("19:%s-%s", ig3s[k], ig3s[k + 1]));
+        for (int k = 0; k < ig3s.length; k++)
+            feats.add(format("20:%d-%s", k, ig3s[k]));
+        if (Character.isUpperCase(r3.charAt(0)) && w3.igs.contains("Prop"))
+            feats.add("21:PROPER");
+        feats.add(format("22:%d", ig3s.length));
+        if (w3.all.contains(".+Punc") && w3.igs.contains("Verb"))
+            feats.add("23:ENDSVERB");
+        return feats;
+    }
+
+    @Test
+    public void hashedFeaturesMatchStringFeatures() throws IOException {
+        Z3AveragedPerceptronDisambiguator z3 = new Z3AveragedPerceptronDisambiguator(emptyModel());
+        for (String p1 : PARSES) {
+            for (String p2 : PARSES) {
+                for (String p3 : PARSES) {
+                    List<String> strings = stringFeatures(p1, p2, p3);
+                    long[] expected = new long[strings.size()];
+                    for (int i = 0; i < expected.length; i++) {
+                        expected[i] = HashedFeatures.hash(strings.get(i));
+                    }
+                    HashedFeatures features = new HashedFeatures();
+                    z3.extractTrigramFeatures(new ParseParts(p1), new ParseParts(p2), new ParseParts(p3), features);
+                    long[] actual = new long[features.size()];
+                    for (int i = 0; i < actual.length; i++) {
+                        actual[i] = features.get(i);
+                    }
+                    Assert.assertTrue(strings.toString(), Arrays.equals(expected, actual));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void textAndBinaryModels() throws IOException {
+        File textModel = File.createTempFile("perceptron", ".txt");
+        textModel.deleteOnExit();
+        SimpleTextWriter writer = SimpleTextWriter.keepOpenUTF8Writer(textModel);
+        writer.writeLine("1.5 4:elma+Noun+A3sg+Pnon+Nom");
+        writer.writeLine("-0.25 10:elma");
+        writer.close();
+        AveragedPerceptronMorphDisambiguator.Model model = AveragedPerceptronMorphDisambiguator.Model.load(textModel);
+        Assert.assertEquals(2, model.size());
+
+        ParseParts elma = new ParseParts("elma+Noun+A3sg+Pnon+Nom");
+        HashedFeatures features = new HashedFeatures();
+        new AveragedPerceptronMorphDisambiguator(textModel).extractTrigramFeatures(
+                AveragedPerceptronMorphDisambiguator.SENTENCE_START, AveragedPerceptronMorphDisambiguator.SENTENCE_START,
+                elma, features);
+        double score = 0;
+        for (int i = 0; i < features.size(); i++) {
+            score += model.weight(features.get(i));
+        }
+        Assert.assertEquals(1.25, score, 0.0001);
+
+        File binaryModel = File.createTempFile("perceptron", ".bin");
+        binaryModel.deleteOnExit();
+        model.saveBinary(binaryModel);
+        AveragedPerceptronMorphDisambiguator.Model loaded = AveragedPerceptronMorphDisambiguator.Model.load(binaryModel);
+        Assert.assertEquals(2, loaded.size());
+        for (long key : model.keys()) {
+            Assert.assertEquals(model.weight(key), loaded.weight(key));
+        }
+    }
+
+    private File emptyModel() throws IOException {
+        File file = File.createTempFile("perceptron", ".txt");
+        file.deleteOnExit();
+        return file;
+    }
+}
@@ -1,11 +1,16 @@
 package zemberek.morphology.ambiguity;
 
+import com.google.common.collect.Lists;
+import junit.framework.Assert;
 import org.junit.Ignore;
 import org.junit.Test;
 import zemberek.morphology.ambiguity.lm.LmGenerator;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
 
 public class MarkovModelTests {
 
@@ -94,4 +99,82 @@ public class MarkovModelTests {
         disambiguator.test(testFile);
     }
 
+    private Z3MarkovModelDisambiguator.Ambiguous[] randomSequence(Z3MarkovModelDisambiguator disambiguator, Random random) {
+        int rootVocabularySize = disambiguator.rootLm.getVocabulary().size();
+        int igVocabularySize = disambiguator.igLm.getVocabulary().size();
+        int wordCount = random.nextInt(5) + 1;
+        Z3MarkovModelDisambiguator.Ambiguous[] seq = new Z3MarkovModelDisambiguator.Ambiguous[wordCount + 3];
+        seq[0] = seq[1] = disambiguator.startWord;
+        seq[seq.length - 1] = disambiguator.endWord;
+        for (int i = 2; i < seq.length - 1; i++) {
+            int parseCount = random.nextInt(4) + 1;
+            int[] roots = new int[parseCount];
+            int[] igs = new int[parseCount];
+            for (int j = 0; j < parseCount; j++) {
+                // few distinct ids with some unknowns.
+                roots[j] = random.nextInt(10) == 0 ? -1 : random.nextInt(Math.min(rootVocabularySize, 50));
+                igs[j] = random.nextInt(10) == 0 ? -1 : random.nextInt(Math.min(igVocabularySize, 20));
+            }
+            seq[i] = new Z3MarkovModelDisambiguator.Ambiguous(roots, igs);
+        }
+        return seq;
+    }
+
+    // scores of all parse sequences, sorted in descending order.
+    private List<Double> allScores(Z3MarkovModelDisambiguator disambiguator, Z3MarkovModelDisambiguator.Ambiguous[] seq) {
+        int wordCount = seq.length - 3;
+        List<Double> scores = Lists.newArrayList();
+        int[] indexes = new int[wordCount];
+        while (true) {
+            scores.add(disambiguator.sequenceScore(seq, indexes));
+            int i = 0;
+            while (i < wordCount && ++indexes[i] == seq[i + 2].size()) {
+                indexes[i++] = 0;
+            }
+            if (i == wordCount)
+                break;
+        }
+        Collections.sort(scores, Collections.reverseOrder());
+        return scores;
+    }
+
+    @Test
+    public void viterbiFindsBestSequence() throws IOException {
+        Z3MarkovModelDisambiguator disambiguator = new Z3MarkovModelDisambiguator();
+        Random random = new Random(1);
+        for (int k = 0; k < 300; k++) {
+            Z3MarkovModelDisambiguator.Ambiguous[] seq = randomSequence(disambiguator, random);
+            int[] best = disambiguator.bestSequence(seq);
+            Assert.assertEquals(seq.length - 3, best.length);
+            Assert.assertEquals(allScores(disambiguator, seq).get(0), disambiguator.sequenceScore(seq, best), 0.0001);
+        }
+    }
+
+    @Test
+    public void beamSearchFindsKBestSequences() throws IOException {
+        Z3MarkovModelDisambiguator disambiguator = new Z3MarkovModelDisambiguator();
+        Random random = new Random(1);
+        for (int k = 0; k < 300; k++) {
+            Z3MarkovModelDisambiguator.Ambiguous[] seq = randomSequence(disambiguator, random);
+            List<Double> expected = allScores(disambiguator, seq);
+            // beam is larger than the amount of all sequences, so nothing is pruned.
+            Z3MarkovModelDisambiguator.BeamResult result = disambiguator.beamSearch(seq, 1024);
+            Assert.assertEquals(expected.size(), result.sequences.length);
+            for (int i = 0; i < result.sequences.length; i++) {
+                Assert.assertEquals(expected.get(i), result.scores[i], 0.0001);
+                Assert.assertEquals(result.scores[i], disambiguator.sequenceScore(seq, result.sequences[i]), 0.0001);
+            }
+            // small beam.
+            result = disambiguator.beamSearch(seq, 2);
+            Assert.assertTrue(result.sequences.length <= 2);
+            for (int i = 0; i < result.sequences.length; i++) {
+                Assert.assertEquals(result.scores[i], disambiguator.sequenceScore(seq, result.sequences[i]), 0.0001);
+                Assert.assertTrue(i == 0 || result.scores[i] <= result.scores[i - 1]);
+                for (double confidence : result.confidences(i)) {
+                    Assert.assertTrue(confidence > 0 && confidence <= 1.0001);
+                }
+            }
+        }
+    }
+
 }
@@ -0,0 +1,126 @@
+package zemberek.morphology.apps;
+
+import com.google.common.collect.Lists;
+import org.junit.Assert;
+import org.junit.Test;
+import zemberek.morphology.parser.MorphParse;
+import zemberek.morphology.parser.MorphParser;
+
+import java.util.List;
+
+public class MorphCacheTest {
+
+    static class CountingParser implements MorphParser {
+        int parseCount;
+
+        @Override
+        public List<MorphParse> parse(String input) {
+            parseCount++;
+            return Lists.newArrayList();
+        }
+    }
+
+    @Test
+    public void lruCacheAdmitsRuntimeWords() {
+        CountingParser parser = new CountingParser();
+        MorphCache cache = new MorphCache(parser, 100, MorphCache.EvictionPolicy.LRU);
+        cache.parse("elma");
+        cache.parse("elma");
+        cache.parse("elma");
+        Assert.assertEquals(1, parser.parseCount);
+        Assert.assertEquals(2, cache.hitCount());
+        Assert.assertEquals(1, cache.missCount());
+    }
+
+    @Test
+    public void cacheSizeIsBounded() {
+        CountingParser parser = new CountingParser();
+        MorphCache cache = new MorphCache(parser, 100, MorphCache.EvictionPolicy.LRU);
+        for (int i = 0; i < 1000; i++) {
+            cache.parse("word" + i);
+        }
+        Assert.assertTrue(cache.size() <= 100);
+        Assert.assertTrue(cache.evictionCount() >= 900);
+    }
+
+    @Test
+    public void tinyLfuKeepsFrequentWords() {
+        CountingParser parser = new CountingParser();
+        MorphCache cache = new MorphCache(parser, 16, MorphCache.EvictionPolicy.TINY_LFU, 1);
+        // each elma word is seen every 16 words, each armut word only once.
+        for (int i = 0; i < 1000; i++) {
+            cache.parse("elma" + (i % 16));
+            cache.parse("armut" + i);
+        }
+        // armut words are rarely more frequent than the least recently used elma word, so they are mostly not
+        // admitted. A few are admitted because of sketch collisions.
+        Assert.assertTrue(cache.evictionCount() < 50);
+        parser.parseCount = 0;
+        for (int j = 0; j < 16; j++) {
+            cache.parse("elma" + j);
+        }
+        Assert.assertEquals(0, parser.parseCount);
+    }
+
+    @Test
+    public void lruEvictsFrequentWords() {
+        CountingParser parser = new CountingParser();
+        MorphCache cache = new MorphCache(parser, 16, MorphCache.EvictionPolicy.LRU, 1);
+        for (int i = 0; i < 1000; i++) {
+            cache.parse("elma" + (i % 16));
+            cache.parse("armut" + i);
+        }
+        // armut words push the elma words out before they are seen again.
+        Assert.assertEquals(2000, parser.parseCount);
+        Assert.assertEquals(1984, cache.evictionCount());
+    }
+
+    @Test
+    public void tinyLfuAdmitsWordsMoreFrequentThanVictim() {
+        CountingParser parser = new CountingParser();
+        MorphCache cache = new MorphCache(parser, 16, MorphCache.EvictionPolicy.TINY_LFU, 1);
+        for (int j = 0; j < 16; j++) {
+            cache.parse("elma" + j);
+        }
+        // first occurrence is not more frequent than the victim (elma0), second one is.
+        cache.parse("armut");
+        cache.parse("armut");
+        Assert.assertEquals(18, parser.parseCount);
+        Assert.assertEquals(1, cache.evictionCount());
+        cache.parse("armut");
+        Assert.assertEquals(18, parser.parseCount);
+        Assert.assertEquals(16, cache.size());
+    }
+
+    @Test
+    public void sketchCountersAreHalved() {
+        // counters are halved after 100 samples.
+        MorphCache.FrequencySketch sketch = new MorphCache.FrequencySketch(10);
+        for (int i = 1; i <= 50; i++) {
+            sketch.increment("elma");
+            Assert.assertTrue(sketch.estimate("elma") >= i);
+        }
+        for (int i = 0; i < 50; i++) {
+            sketch.increment("armut" + i);
+        }
+        int estimate = sketch.estimate("elma");
+        Assert.assertTrue(estimate >= 25 && estimate < 50);
+    }
+
+    @Test
+    public void warmUpWordsAreCached() {
+        CountingParser parser = new CountingParser();
+        MorphCache cache = new MorphCache(parser, 100, MorphCache.EvictionPolicy.TINY_LFU);
+        cache.warmUp(Lists.newArrayList("elma", "armut"));
+        cache.parse("elma");
+        cache.parse("armut");
+        Assert.assertEquals(2, parser.parseCount);
+        Assert.assertEquals(1d, cache.hitRatio(), 0.0001);
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void cachedResultsAreImmutable() {
+        MorphCache cache = new MorphCache(new CountingParser());
+        cache.parse("elma").clear();
+    }
+}
@@ -0,0 +1,86 @@
+package zemberek.morphology.apps;
+
+import com.google.common.collect.Lists;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import zemberek.morphology.ambiguity.Z3MarkovModelDisambiguator;
+import zemberek.morphology.parser.MorphParse;
+import zemberek.morphology.parser.SentenceMorphParse;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.List;
+
+public class SentenceParsePipelineTest {
+
+    static TurkishSentenceParser parser;
+
+    @BeforeClass
+    public static void setUp() throws IOException {
+        TurkishMorphParser morphParser = TurkishMorphParser.builder().addDefaultDictionaries().build();
+        parser = new TurkishSentenceParser(morphParser, new Z3MarkovModelDisambiguator());
+    }
+
+    static class CollectingSink implements SentenceParsePipeline.ParseSink {
+        List<String> sentences = Lists.newArrayList();
+        List<SentenceMorphParse> parses = Lists.newArrayList();
+
+        @Override
+        public void accept(String sentence, SentenceMorphParse parse) {
+            sentences.add(sentence);
+            parses.add(parse);
+        }
+    }
+
+    @Test
+    public void resultsAreInInputOrder() throws IOException {
+        StringBuilder sb = new StringBuilder();
+        List<String> expected = Lists.newArrayList();
+        for (int i = 0; i < 300; i++) {
+            String s1 = "Ali " + i + ". kitabı okudu.";
+            String s2 = "Türkiye'de yaşadı.";
+            expected.add(s1);
+            expected.add(s2);
+            sb.append(s1).append(" ").append(s2).append("\n");
+            if (i % 10 == 0)
+                sb.append("\n");
+        }
+        SentenceParsePipeline pipeline = SentenceParsePipeline.builder(parser)
+                .threadCount(3)
+                .queueSize(2)
+                .batchSize(7)
+                .build();
+        CollectingSink sink = new CollectingSink();
+        pipeline.run(new StringReader(sb.toString()), sink);
+        Assert.assertEquals(expected, sink.sentences);
+        for (int i = 0; i < expected.size(); i++) {
+            List<MorphParse> best = parser.bestParse(expected.get(i));
+            SentenceMorphParse parse = sink.parses.get(i);
+            Assert.assertEquals(best.size(), parse.size());
+            for (int j = 0; j < best.size(); j++) {
+                Assert.assertEquals(best.get(j), parse.getParses(j).get(0));
+            }
+        }
+    }
+
+    @Test
+    public void sinkErrorStopsPipeline() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            sb.append("Kitabı okudu.\n");
+        }
+        SentenceParsePipeline pipeline = SentenceParsePipeline.builder(parser).batchSize(10).queueSize(1).build();
+        try {
+            pipeline.run(new StringReader(sb.toString()), new SentenceParsePipeline.ParseSink() {
+                @Override
+                public void accept(String sentence, SentenceMorphParse parse) throws IOException {
+                    throw new IOException("Sink error");
+                }
+            });
+            Assert.fail("Exception expected.");
+        } catch (IOException e) {
+            Assert.assertEquals("Sink error", e.getMessage());
+        }
+    }
+}
@@ -1,27 +1,34 @@
 package zemberek.morphology.apps;
 
 import com.google.common.base.Stopwatch;
+import com.google.common.collect.Lists;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Ignore;
 import org.junit.Test;
 import zemberek.core.io.SimpleTextReader;
+import zemberek.morphology.ambiguity.ParseSequence;
 import zemberek.morphology.ambiguity.Z3MarkovModelDisambiguator;
+import zemberek.morphology.parser.MorphParse;
 import zemberek.morphology.parser.SentenceMorphParse;
 
 import java.io.File;
 import java.io.IOException;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 
 public class TurkishSentenceParserTest {
 
     TurkishSentenceParser parser;
+    Z3MarkovModelDisambiguator disambiguator;
 
     @Before
     public void setUp() throws Exception {
         TurkishMorphParser morphParser = TurkishMorphParser.builder().addDefaultDictionaries().build();
-        parser = new TurkishSentenceParser(morphParser, new Z3MarkovModelDisambiguator());
+        disambiguator = new Z3MarkovModelDisambiguator();
+        parser = new TurkishSentenceParser(morphParser, disambiguator);
     }
 
 
@@ -30,6 +37,67 @@ public class TurkishSentenceParserTest {
         Assert.assertEquals(6, parser.bestParse("15. yüzyılda, Türkiye'de yaşadı.").size());
     }
 
+    @Test
+    public void kBestTest() {
+        SentenceMorphParse parse = parser.parse("Turgut Özal'ın ölüm raporu ile ilgili flaş bir gelişme.");
+        List<ParseSequence> kBest = disambiguator.kBest(parse, 3, 8);
+        Assert.assertEquals(3, kBest.size());
+        for (int i = 0; i < kBest.size(); i++) {
+            ParseSequence sequence = kBest.get(i);
+            Assert.assertEquals(parse.size(), sequence.parses.size());
+            Assert.assertEquals(parse.size(), sequence.confidences.length);
+            if (i > 0)
+                Assert.assertTrue(sequence.score <= kBest.get(i - 1).score);
+        }
+        // a wide beam finds the Viterbi result for this sentence.
+        parser.disambiguate(parse);
+        for (int i = 0; i < parse.size(); i++) {
+            Assert.assertEquals(parse.getParses(i).get(0), kBest.get(0).parses.get(i));
+            // unambiguous words have full confidence.
+            if (parse.getParses(i).size() == 1)
+                Assert.assertEquals(1d, kBest.get(0).confidences[i], 0.0001);
+        }
+    }
+
+    @Test
+    public void disambiguatorsWithSharedParses() throws IOException {
+        // parses of both sentence parses come from the same parse cache.
+        Z3MarkovModelDisambiguator other = new Z3MarkovModelDisambiguator();
+        for (String sentence : new String[]{"Turgut Özal'ın ölüm raporu ile ilgili flaş bir gelişme.",
+                "15. yüzyılda, Türkiye'de yaşadı."}) {
+            for (int i = 0; i < 2; i++) {
+                SentenceMorphParse first = parser.parse(sentence);
+                SentenceMorphParse second = parser.parse(sentence);
+                disambiguator.disambiguate(first);
+                other.disambiguate(second);
+                for (int j = 0; j < first.size(); j++) {
+                    Assert.assertEquals(first.getParses(j).get(0), second.getParses(j).get(0));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void parallelBestParseTest() {
+        List<String> sentences = Lists.newArrayList();
+        for (int i = 0; i < 100; i++) {
+            sentences.add("15. yüzyılda, Türkiye'de yaşadı.");
+            sentences.add("Ali Bey " + i + " kitabı okudu.");
+            sentences.add("Turgut Özal'ın ölüm raporu ile ilgili flaş bir gelişme.");
+        }
+        List<List<MorphParse>> parallel = parser.bestParseAll(sentences);
+        Assert.assertEquals(sentences.size(), parallel.size());
+        for (int i = 0; i < sentences.size(); i++) {
+            Assert.assertEquals(parser.bestParse(sentences.get(i)), parallel.get(i));
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        List<SentenceMorphParse> parses = parser.parseAll(sentences, executor);
+        executor.shutdown();
+        for (int i = 0; i < sentences.size(); i++) {
+            Assert.assertEquals(parser.parse(sentences.get(i)).size(), parses.get(i).size());
+        }
+    }
+
     @Test
     @Ignore("To be executed manually, not within continuous build.")
     public void shouldParseSentencesInNTVMSNBCCorpus() throws IOException {
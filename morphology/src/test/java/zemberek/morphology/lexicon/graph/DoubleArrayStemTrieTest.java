@@ -0,0 +1,97 @@
+package zemberek.morphology.lexicon.graph;
+
+import com.google.common.collect.Lists;
+import org.junit.Assert;
+import org.junit.Test;
+import zemberek.core.turkish.PrimaryPos;
+import zemberek.core.turkish.TurkishAlphabet;
+import zemberek.morphology.lexicon.DictionaryItem;
+
+import java.util.List;
+import java.util.Random;
+
+public class DoubleArrayStemTrieTest {
+
+    private static Random r = new Random(0xCAFEDEADBEEFL);
+    private static TurkishAlphabet alphabet = new TurkishAlphabet();
+
+    private StemNode createStemNode(String surfaceForm) {
+        DictionaryItem di = new DictionaryItem(surfaceForm, surfaceForm, PrimaryPos.Noun, null, null, null, null);
+        return new StemNode(surfaceForm, di, TerminationType.TERMINAL);
+    }
+
+    private List<StemNode> createNodes(String... stems) {
+        List<StemNode> nodes = Lists.newArrayList();
+        for (String s : stems) {
+            nodes.add(createStemNode(s));
+        }
+        return nodes;
+    }
+
+    private List<String> surfaces(List<StemNode> nodes) {
+        List<String> surfaces = Lists.newArrayList();
+        for (StemNode node : nodes) {
+            surfaces.add(node.surfaceForm);
+        }
+        return surfaces;
+    }
+
+    @Test
+    public void empty() {
+        DoubleArrayStemTrie trie = new DoubleArrayStemTrie(Lists.<StemNode>newArrayList());
+        Assert.assertEquals(0, trie.getMatchingStems("foo").size());
+        Assert.assertEquals(0, trie.getStems("foo").size());
+    }
+
+    @Test
+    public void matchingStems() {
+        List<StemNode> nodes = createNodes("elmas", "el", "armut", "elma", "elmacık");
+        DoubleArrayStemTrie trie = new DoubleArrayStemTrie(nodes);
+        Assert.assertEquals(Lists.newArrayList("el", "elma", "elmas"), surfaces(trie.getMatchingStems("elmaslar")));
+        Assert.assertEquals(Lists.newArrayList("el", "elma"), surfaces(trie.getMatchingStems("elmacı")));
+        Assert.assertEquals(Lists.newArrayList("armut"), surfaces(trie.getMatchingStems("armut")));
+        Assert.assertEquals(0, trie.getMatchingStems("ar").size());
+        Assert.assertEquals(0, trie.getMatchingStems("xyz").size());
+        for (StemNode node : nodes) {
+            Assert.assertTrue(trie.contains(node));
+        }
+        Assert.assertFalse(trie.contains(createStemNode("elmac")));
+    }
+
+    @Test
+    public void stemsWithSameSurfaceKeepOrder() {
+        StemNode noun = createStemNode("kal");
+        StemNode verb = new StemNode("kal",
+                new DictionaryItem("kalmak", "kal", PrimaryPos.Verb, null, null, null, null), TerminationType.TERMINAL);
+        DoubleArrayStemTrie trie = new DoubleArrayStemTrie(Lists.newArrayList(verb, noun));
+        Assert.assertEquals(Lists.newArrayList(verb, noun), trie.getStems("kal"));
+        Assert.assertEquals(Lists.newArrayList(verb, noun), trie.getMatchingStems("kalem"));
+    }
+
+    @Test
+    public void shouldMatchStemTrieResults() {
+        StemTrie stemTrie = new StemTrie();
+        List<StemNode> nodes = Lists.newArrayList();
+        for (int i = 0; i < 5000; i++) {
+            int len = r.nextInt(10) + 1;
+            char[] chars = new char[len];
+            for (int j = 0; j < len; j++) {
+                chars[j] = alphabet.getLetter(r.nextInt(29) + 1).charValue();
+            }
+            StemNode node = createStemNode(new String(chars));
+            nodes.add(node);
+            stemTrie.add(node);
+        }
+        DoubleArrayStemTrie trie = new DoubleArrayStemTrie(nodes);
+        Assert.assertEquals(nodes.size(), trie.size());
+        for (StemNode node : nodes) {
+            List<StemNode> expected = stemTrie.getMatchingStems(node.surfaceForm + "abc");
+            List<StemNode> actual = trie.getMatchingStems(node.surfaceForm + "abc");
+            Assert.assertEquals(expected.size(), actual.size());
+            Assert.assertTrue(actual.containsAll(expected));
+            for (int i = 1; i < actual.size(); i++) {
+                Assert.assertTrue(actual.get(i).surfaceForm.length() >= actual.get(i - 1).surfaceForm.length());
+            }
+        }
+    }
+}
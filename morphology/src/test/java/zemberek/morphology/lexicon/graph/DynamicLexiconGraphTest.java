@@ -0,0 +1,65 @@
+package zemberek.morphology.lexicon.graph;
+
+import com.google.common.collect.Lists;
+import org.junit.Assert;
+import org.junit.Test;
+import zemberek.core.io.ResourceUtil;
+import zemberek.morphology.lexicon.RootLexicon;
+import zemberek.morphology.lexicon.tr.TurkishDictionaryLoader;
+import zemberek.morphology.lexicon.tr.TurkishSuffixes;
+import zemberek.morphology.parser.MorphParse;
+import zemberek.morphology.parser.SimpleParser;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+
+public class DynamicLexiconGraphTest {
+
+    @Test
+    public void parallelBuildShouldGiveSameGraph() throws IOException {
+        List<String> lines = Lists.newArrayList();
+        for (String resource : TurkishDictionaryLoader.DEFAULT_DICTIONARY_RESOURCES) {
+            lines.addAll(ResourceUtil.readAllLines(resource, DynamicLexiconGraphTest.class.getClassLoader()));
+        }
+        TurkishSuffixes suffixProvider = new TurkishSuffixes();
+        RootLexicon lexicon = new TurkishDictionaryLoader(suffixProvider).load(lines);
+        DynamicLexiconGraph graph = new DynamicLexiconGraph(suffixProvider);
+        graph.addDictionaryItems(lexicon);
+
+        TurkishSuffixes parallelSuffixProvider = new TurkishSuffixes();
+        RootLexicon parallelLexicon = new TurkishDictionaryLoader(parallelSuffixProvider).load(lines);
+        DynamicLexiconGraph parallelGraph = new DynamicLexiconGraph(parallelSuffixProvider);
+        parallelGraph.addDictionaryItems(parallelLexicon, 4);
+
+        Assert.assertEquals(graph.totalStemNodeCount(), parallelGraph.totalStemNodeCount());
+        Assert.assertEquals(graph.totalSuffixNodeCount(), parallelGraph.totalSuffixNodeCount());
+        Assert.assertEquals(suffixProvider.getFormCount(), parallelSuffixProvider.getFormCount());
+
+        // form indexes are same with a sequential build, so snapshot of the graph can be loaded.
+        File snapshot = File.createTempFile("lexicon", ".snapshot");
+        snapshot.deleteOnExit();
+        LexiconSnapshot.save(parallelGraph, snapshot);
+        DynamicLexiconGraph loaded = LexiconSnapshot.load(snapshot, new TurkishSuffixes());
+
+        SimpleParser parser = new SimpleParser(graph);
+        SimpleParser parallelParser = new SimpleParser(parallelGraph);
+        SimpleParser loadedParser = new SimpleParser(loaded);
+        List<String> words = ResourceUtil.readAllLines("tr/top-20K-words.txt", DynamicLexiconGraphTest.class.getClassLoader());
+        for (String word : words.subList(0, 5000)) {
+            List<String> expected = sortedParses(parser.parse(word));
+            Assert.assertEquals("Parse mismatch for " + word, expected, sortedParses(parallelParser.parse(word)));
+            Assert.assertEquals("Parse mismatch for " + word, expected, sortedParses(loadedParser.parse(word)));
+        }
+    }
+
+    private List<String> sortedParses(List<MorphParse> parses) {
+        List<String> result = Lists.newArrayList();
+        for (MorphParse parse : parses) {
+            result.add(parse.formatLong());
+        }
+        Collections.sort(result);
+        return result;
+    }
+}
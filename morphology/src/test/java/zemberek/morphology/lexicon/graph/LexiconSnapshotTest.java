@@ -0,0 +1,77 @@
+package zemberek.morphology.lexicon.graph;
+
+import com.google.common.collect.Lists;
+import org.junit.Assert;
+import org.junit.Test;
+import zemberek.core.io.ResourceUtil;
+import zemberek.morphology.lexicon.RootLexicon;
+import zemberek.morphology.lexicon.SuffixProvider;
+import zemberek.morphology.lexicon.tr.TurkishDictionaryLoader;
+import zemberek.morphology.lexicon.tr.TurkishSuffixes;
+import zemberek.morphology.parser.MorphParse;
+import zemberek.morphology.parser.SimpleParser;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+
+public class LexiconSnapshotTest {
+
+    @Test
+    public void loadedGraphShouldGiveSameResults() throws IOException {
+        SuffixProvider suffixProvider = new TurkishSuffixes();
+        List<String> lines = Lists.newArrayList();
+        for (String resource : TurkishDictionaryLoader.DEFAULT_DICTIONARY_RESOURCES) {
+            lines.addAll(ResourceUtil.readAllLines(resource, LexiconSnapshotTest.class.getClassLoader()));
+        }
+        RootLexicon lexicon = new TurkishDictionaryLoader(suffixProvider).load(lines);
+        DynamicLexiconGraph graph = new DynamicLexiconGraph(suffixProvider);
+        graph.addDictionaryItems(lexicon);
+
+        File snapshot = File.createTempFile("lexicon", ".snapshot");
+        snapshot.deleteOnExit();
+        LexiconSnapshot.save(graph, snapshot);
+        DynamicLexiconGraph loaded = LexiconSnapshot.load(snapshot, new TurkishSuffixes());
+
+        Assert.assertEquals(graph.totalStemNodeCount(), loaded.totalStemNodeCount());
+        Assert.assertEquals(graph.totalSuffixNodeCount(), loaded.totalSuffixNodeCount());
+
+        SimpleParser parser = new SimpleParser(graph);
+        SimpleParser loadedParser = new SimpleParser(loaded);
+        List<String> words = ResourceUtil.readAllLines("tr/top-20K-words.txt", LexiconSnapshotTest.class.getClassLoader());
+        for (String word : words.subList(0, 5000)) {
+            Assert.assertEquals("Parse mismatch for " + word,
+                    sortedParses(parser.parse(word)),
+                    sortedParses(loadedParser.parse(word)));
+        }
+    }
+
+    @Test
+    public void itemsCanBeAddedToLoadedGraph() throws IOException {
+        SuffixProvider suffixProvider = new TurkishSuffixes();
+        DynamicLexiconGraph graph = new DynamicLexiconGraph(suffixProvider);
+        graph.addDictionaryItems(new TurkishDictionaryLoader(suffixProvider).load("kitap", "gelmek"));
+        File snapshot = File.createTempFile("lexicon", ".snapshot");
+        snapshot.deleteOnExit();
+        LexiconSnapshot.save(graph, snapshot);
+
+        TurkishSuffixes newProvider = new TurkishSuffixes();
+        DynamicLexiconGraph loaded = LexiconSnapshot.load(snapshot, newProvider);
+        loaded.addDictionaryItems(new TurkishDictionaryLoader(newProvider).load("elma", "okumak"));
+        SimpleParser parser = new SimpleParser(loaded);
+        Assert.assertEquals("[(kitap:kitab) (Noun;A3sg+P1sg:ım+Dat:a)]", parser.parse("kitabıma").get(0).formatLong());
+        Assert.assertFalse(parser.parse("geldim").isEmpty());
+        Assert.assertFalse(parser.parse("elmalar").isEmpty());
+        Assert.assertFalse(parser.parse("okudum").isEmpty());
+    }
+
+    private List<String> sortedParses(List<MorphParse> parses) {
+        List<String> result = Lists.newArrayList();
+        for (MorphParse parse : parses) {
+            result.add(parse.formatLong());
+        }
+        Collections.sort(result);
+        return result;
+    }
+}
@@ -79,6 +79,14 @@ public class StemTrieTest {
         checkNodesExist(nodes);
     }
 
+    @Test
+    public void stemsStartingWithNonAlphabetCharacters() {
+        // these characters share the same alphabetic index, so children must not be ordered by it.
+        List<StemNode> nodes = createNodes("1", "2", "3", "x", "w", "q", "é", "1a", "2b", "xa");
+        addStemNodes(nodes);
+        checkNodesExist(nodes);
+    }
+
     @Test
     public void stemsSharingSamePrefixOrder1() {
         List<StemNode> nodes = createNodes("elmas", "elma");
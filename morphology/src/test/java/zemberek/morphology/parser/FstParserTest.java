@@ -0,0 +1,35 @@
+package zemberek.morphology.parser;
+
+import org.junit.Assert;
+import org.junit.Test;
+import zemberek.core.io.ResourceUtil;
+import zemberek.morphology.lexicon.RootLexicon;
+import zemberek.morphology.lexicon.SuffixProvider;
+import zemberek.morphology.lexicon.graph.DynamicLexiconGraph;
+import zemberek.morphology.lexicon.tr.TurkishDictionaryLoader;
+import zemberek.morphology.lexicon.tr.TurkishSuffixes;
+
+import java.io.IOException;
+import java.util.List;
+
+public class FstParserTest {
+
+    @Test
+    public void shouldGiveSameResultsWithSimpleParser() throws IOException {
+        SuffixProvider suffixProvider = new TurkishSuffixes();
+        RootLexicon lexicon = new TurkishDictionaryLoader(suffixProvider).load(
+                ResourceUtil.readAllLines("tr/master-dictionary.dict", FstParserTest.class.getClassLoader()));
+        DynamicLexiconGraph graph = new DynamicLexiconGraph(suffixProvider);
+        graph.addDictionaryItems(lexicon);
+
+        SimpleParser simpleParser = new SimpleParser(graph);
+        FstParser fstParser = new FstParser(graph);
+
+        List<String> words = ResourceUtil.readAllLines("tr/top-20K-words.txt", FstParserTest.class.getClassLoader());
+        for (String word : words.subList(0, 5000)) {
+            Assert.assertEquals("Parse mismatch for " + word,
+                    simpleParser.parse(word).toString(),
+                    fstParser.parse(word).toString());
+        }
+    }
+}
@@ -137,6 +137,35 @@ public class MorphParseTest {
         }
     }
 
+    @Test
+    public void equalityAndInternTest() {
+        SimpleParser parser = getParser("kitap", "yapmak");
+        for (String s : new String[]{"kitaplaşırız", "kitaba", "yapacağı"}) {
+            MorphParse first = parser.parse(s).get(0);
+            MorphParse second = parser.parse(s).get(0);
+            Assert.assertNotSame(first, second);
+            Assert.assertEquals(first, second);
+            Assert.assertEquals(first.hashCode(), second.hashCode());
+            Assert.assertSame(first.intern(), second.intern());
+        }
+        Assert.assertFalse(parser.parse("kitaba").get(0).equals(parser.parse("kitap").get(0)));
+    }
+
+    @Test
+    public void suffixIndexTest() {
+        SimpleParser parser = getParser("kitap");
+        MorphParse res = parser.parse("kitaplaşırız").get(0);
+        int[] indexes = res.getSuffixIndexes();
+        int k = 0;
+        for (MorphParse.InflectionalGroup ig : res.inflectionalGroups) {
+            for (MorphParse.SuffixData suffixData : ig.suffixList) {
+                Assert.assertEquals(suffixData.suffix.index, indexes[k++]);
+                Assert.assertTrue(res.containsSuffix(suffixData.suffix));
+            }
+        }
+        Assert.assertEquals(k, indexes.length);
+        Assert.assertFalse(res.containsSuffix(suffixProvider.Loc));
+    }
 
     private SimpleParser getParser(String... lines) {
         DynamicLexiconGraph graph = new DynamicLexiconGraph(suffixProvider);
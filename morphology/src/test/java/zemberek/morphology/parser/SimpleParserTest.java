@@ -1,23 +1,50 @@
 package zemberek.morphology.parser;
 
+import com.google.common.collect.Iterables;
 import junit.framework.Assert;
 import org.junit.Test;
+import zemberek.core.io.ResourceUtil;
 import zemberek.core.turkish.PrimaryPos;
 import zemberek.core.turkish.RootAttribute;
 import zemberek.morphology.lexicon.*;
 import zemberek.morphology.lexicon.graph.DynamicLexiconGraph;
 import zemberek.morphology.lexicon.graph.DynamicSuffixProvider;
+import zemberek.morphology.lexicon.graph.StemNode;
 import zemberek.morphology.lexicon.graph.SuffixData;
 import zemberek.morphology.lexicon.graph.TerminationType;
 import zemberek.morphology.lexicon.tr.TurkishDictionaryLoader;
+import zemberek.morphology.lexicon.tr.TurkishSuffixes;
 
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 
 public class SimpleParserTest {
 
+    @Test
+    public void indexedTraversalShouldGiveSameResults() throws IOException {
+        SuffixProvider suffixProvider = new TurkishSuffixes();
+        RootLexicon lexicon = new TurkishDictionaryLoader(suffixProvider).load(
+                ResourceUtil.readAllLines("tr/master-dictionary.dict", SimpleParserTest.class.getClassLoader()));
+        DynamicLexiconGraph graph = new DynamicLexiconGraph(suffixProvider);
+        graph.addDictionaryItems(lexicon);
+
+        SimpleParser parser = new SimpleParser(graph);
+        SimpleParser indexedParser = new SimpleParser(graph, true);
+
+        List<String> words = ResourceUtil.readAllLines("tr/top-20K-words.txt", SimpleParserTest.class.getClassLoader());
+        words.addAll(ResourceUtil.readAllLines("parseable.txt", SimpleParserTest.class.getClassLoader()));
+        for (String word : words) {
+            List<MorphParse> expected = parser.parse(word);
+            Assert.assertEquals("Parse mismatch for " + word, expected, parser.parseIndexed(word));
+            Assert.assertEquals("Parse mismatch for " + word, expected, indexedParser.parse(word));
+        }
+    }
+
     @Test
     public void testVoicing() {
         DynamicLexiconGraph graph = getLexiconGraph("armut");
@@ -73,6 +100,41 @@ public class SimpleParserTest {
         assertHasParses(graph, "armuda", "armutlara", "elmacığa", "keke", "kekçiklere");
     }
 
+    @Test
+    public void stemsAddedAndRemovedAfterConstruction() throws IOException {
+        SuffixProvider suffixProvider = new TurkishSuffixes();
+        RootLexicon lexicon = new TurkishDictionaryLoader(suffixProvider).load(
+                ResourceUtil.readAllLines("tr/master-dictionary.dict", SimpleParserTest.class.getClassLoader()));
+        DynamicLexiconGraph graph = new DynamicLexiconGraph(suffixProvider);
+        SimpleParser parser = new SimpleParser(graph);
+        List<StemNode> added = new ArrayList<StemNode>();
+        // enough items to re-build the stem trie a few times.
+        for (DictionaryItem item : Iterables.limit(lexicon, 5000)) {
+            StemNode[] nodes = graph.addDictionaryItem(item);
+            parser.addNodes(nodes);
+            added.addAll(Arrays.asList(nodes));
+        }
+        SimpleParser reference = new SimpleParser(graph);
+        List<String> words = ResourceUtil.readAllLines("tr/top-20K-words.txt", SimpleParserTest.class.getClassLoader());
+        for (String word : words.subList(0, 5000)) {
+            // order of stems with same surface form depends on the order they are added.
+            Assert.assertEquals(sortedStrings(reference.parse(word)), sortedStrings(parser.parse(word)));
+        }
+        parser.removeStemNodes(added.toArray(new StemNode[added.size()]));
+        for (String word : words.subList(0, 5000)) {
+            Assert.assertTrue(parser.parse(word).isEmpty());
+        }
+    }
+
+    private List<String> sortedStrings(List<MorphParse> parses) {
+        List<String> result = new ArrayList<String>();
+        for (MorphParse parse : parses) {
+            result.add(parse.formatLong());
+        }
+        Collections.sort(result);
+        return result;
+    }
+
     private DynamicLexiconGraph getLexiconGraph(String... words) {
         SuffixProvider suffixProvider = new NounSuffixes();
         List<DictionaryItem> items = getItems(words, suffixProvider);
@@ -127,6 +127,12 @@ public class PerceptronSentenceBoundaryDetector implements SentenceBoundaryDetec
                 begin = j + 1;
             }
         }
+        // text after the last boundary is also a sentence.
+        if (begin < doc.length()) {
+            String rest = doc.substring(begin).trim();
+            if (rest.length() > 0)
+                sentences.add(rest);
+        }
         return sentences;
     }
 